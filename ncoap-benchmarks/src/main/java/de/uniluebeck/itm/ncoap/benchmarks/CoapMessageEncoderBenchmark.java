@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.EncodingBufferPool;
+import de.uniluebeck.itm.ncoap.communication.codec.FixedSizeEncodingBufferPool;
+import de.uniluebeck.itm.ncoap.communication.codec.InvalidOptionException;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the encoding of messages into dynamic buffers (default) with the single-pass encoding into pooled
+ * buffers. The relevant figure is the number of bytes allocated per encoded message, i.e.
+ * <code>gc.alloc.rate.norm</code> reported by the GC profiler.
+ *
+ * Run {@link #main(String[])} (or use <code>java -jar target/benchmarks.jar CoapMessageEncoder -prof gc</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CoapMessageEncoderBenchmark {
+
+    /**
+     * The message to be encoded, i.e. an empty ACK, a GET request or a response with 100 bytes of content
+     */
+    @Param({"EMPTY_ACK", "GET_REQUEST", "CONTENT_RESPONSE"})
+    public String message;
+
+    private CoapMessage coapMessage;
+
+    private BenchmarkEncoder dynamicBufferEncoder;
+    private BenchmarkEncoder pooledBufferEncoder;
+
+
+    @Setup
+    public void setup() throws Exception {
+        if("EMPTY_ACK".equals(message)){
+            coapMessage = CoapMessage.createEmptyAcknowledgement(12345);
+        }
+
+        else if("GET_REQUEST".equals(message)){
+            URI targetUri = new URI("coap", null, "example.org", 5683, "/path/to/service", "param=value", null);
+            coapMessage = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+            coapMessage.setMessageID(12345);
+            coapMessage.setToken(new Token(new byte[]{1, 2, 3, 4}));
+        }
+
+        else{
+            CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+            coapResponse.setMessageID(12345);
+            coapResponse.setToken(new Token(new byte[]{1, 2, 3, 4}));
+            coapResponse.setEtag(new byte[]{1, 2, 3, 4});
+            coapResponse.setContent(new byte[100], ContentFormat.APP_OCTET_STREAM);
+            coapMessage = coapResponse;
+        }
+
+        dynamicBufferEncoder = new BenchmarkEncoder(null);
+        pooledBufferEncoder = new BenchmarkEncoder(new FixedSizeEncodingBufferPool());
+    }
+
+
+    @Benchmark
+    public ChannelBuffer dynamicBuffer() throws Exception {
+        return dynamicBufferEncoder.encodeMessage(coapMessage);
+    }
+
+
+    @Benchmark
+    public ChannelBuffer pooledBuffer() throws Exception {
+        return pooledBufferEncoder.encodeAndReleaseMessage(coapMessage);
+    }
+
+
+    /**
+     * Provides access to the encoding methods of {@link CoapMessageEncoder} without a pipeline. The pooled buffer is
+     * released immediately as it would be after the write operation.
+     */
+    private static class BenchmarkEncoder extends CoapMessageEncoder {
+
+        private final EncodingBufferPool bufferPool;
+
+        private BenchmarkEncoder(EncodingBufferPool bufferPool){
+            super(bufferPool);
+            this.bufferPool = bufferPool;
+        }
+
+        private ChannelBuffer encodeMessage(CoapMessage coapMessage) throws InvalidOptionException {
+            return encode(coapMessage);
+        }
+
+        private ChannelBuffer encodeAndReleaseMessage(CoapMessage coapMessage) throws InvalidOptionException {
+            ChannelBuffer pooledBuffer = encodeWithoutContent(coapMessage);
+
+            ChannelBuffer encodedMessage = coapMessage.getContent().readable() ?
+                    ChannelBuffers.wrappedBuffer(pooledBuffer, coapMessage.getContent()) : pooledBuffer;
+
+            bufferPool.release(pooledBuffer);
+            return encodedMessage;
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(CoapMessageEncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.application.client.*;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link CoapResponseDispatcher}, i.e. the registration of a {@link CoapResponseProcessor} for an
+ * outgoing {@link CoapRequest} and the lookup of that processor for the incoming {@link CoapResponse}, while a
+ * number of other requests is still waiting for their responses.
+ *
+ * The dispatcher is the only handler of a pipeline attached to an unbound datagram channel. Outgoing requests are
+ * not written to the network but swallowed by a handler below the dispatcher and responses are fired upstream
+ * directly.
+ *
+ * Run {@link #main(String[])} (or use
+ * <code>java -jar target/benchmarks.jar CoapResponseDispatcher -t &lt;threads&gt; -prof gc</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoapResponseDispatcherBenchmark {
+
+    /**
+     * The number of remote endpoints
+     */
+    @Param({"100"})
+    public int endpoints;
+
+    /**
+     * The number of requests per remote endpoint waiting for a response
+     */
+    @Param({"100"})
+    public int openRequestsPerEndpoint;
+
+    private InetSocketAddress[] remoteEndpoints;
+    private URI targetUri;
+
+    private ScheduledExecutorService executorService;
+    private ChannelFactory channelFactory;
+    private Channel channel;
+
+    private static final CoapResponseProcessor RESPONSE_PROCESSOR = new CoapResponseProcessor() {
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            //Nothing to do
+        }
+    };
+
+
+    @Setup
+    public void setup() throws Exception {
+        remoteEndpoints = new InetSocketAddress[endpoints];
+        for(int i = 0; i < endpoints; i++){
+            byte[] address = new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+            remoteEndpoints[i] = new InetSocketAddress(InetAddress.getByAddress(address), 5683);
+        }
+
+        targetUri = new URI("coap://example.org/service");
+
+        executorService = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
+
+        ChannelPipeline pipeline = Channels.pipeline();
+        pipeline.addLast("Request Sink", new RequestSink());
+        pipeline.addLast("CoAP Response Dispatcher",
+                new CoapResponseDispatcher(executorService, new TokenFactory(8)));
+
+        channelFactory = new NioDatagramChannelFactory(Executors.newCachedThreadPool(), 1);
+        channel = channelFactory.newChannel(pipeline);
+
+        //Requests that remain open during the whole benchmark
+        for(InetSocketAddress remoteEndpoint : remoteEndpoints){
+            for(int i = 0; i < openRequestsPerEndpoint; i++)
+                sendRequest(remoteEndpoint);
+        }
+    }
+
+
+    @TearDown
+    public void shutdown(){
+        channel.close().awaitUninterruptibly();
+        channelFactory.releaseExternalResources();
+        executorService.shutdownNow();
+    }
+
+
+    private Token sendRequest(InetSocketAddress remoteEndpoint) throws Exception {
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+
+        InternalWrappedOutgoingCoapMessage message =
+                new InternalWrappedOutgoingCoapMessage(coapRequest, RESPONSE_PROCESSOR);
+
+        Channels.write(channel, message, remoteEndpoint).awaitUninterruptibly();
+        return coapRequest.getToken();
+    }
+
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int counter;
+    }
+
+
+    @Benchmark
+    public Token sendRequestAndReceiveResponse(ThreadState threadState) throws Exception {
+        InetSocketAddress remoteEndpoint = remoteEndpoints[threadState.counter++ % endpoints];
+        Token token = sendRequest(remoteEndpoint);
+
+        CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+        coapResponse.setToken(token);
+        Channels.fireMessageReceived(channel, coapResponse, remoteEndpoint);
+
+        return token;
+    }
+
+
+    /**
+     * Swallows the outgoing requests (instead of sending them) and succeeds their futures.
+     */
+    private static class RequestSink extends SimpleChannelDownstreamHandler {
+
+        @Override
+        public void writeRequested(ChannelHandlerContext ctx, MessageEvent me){
+            me.getFuture().setSuccess();
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        for(int threads : new int[]{1, 4}){
+            Options options = new OptionsBuilder()
+                    .include(CoapResponseDispatcherBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
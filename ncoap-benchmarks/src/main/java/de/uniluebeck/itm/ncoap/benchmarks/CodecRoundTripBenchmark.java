@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.codec.*;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the round-trip of a GET request through {@link CoapMessageEncoder} and {@link CoapMessageDecoder}, i.e.
+ * encoding, decoding and the access of the URI path (as done by the server) for all combinations of encoding into
+ * dynamic or pooled buffers and eager or lazy decoding of options.
+ *
+ * Run {@link #main(String[])} (or use <code>java -jar target/benchmarks.jar CodecRoundTrip -prof gc</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecRoundTripBenchmark {
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("127.0.0.1", 5683);
+
+    /**
+     * Whether the encoder writes into pooled buffers (see {@link CoapMessageEncoder#POOLED_ENCODING})
+     */
+    @Param({"false", "true"})
+    public boolean pooledEncoding;
+
+    /**
+     * Whether the decoder decodes options lazily (see {@link CoapMessageDecoder#LAZY_OPTION_DECODING})
+     */
+    @Param({"false", "true"})
+    public boolean lazyOptionDecoding;
+
+    private CoapRequest coapRequest;
+    private BenchmarkEncoder encoder;
+    private BenchmarkDecoder decoder;
+
+
+    @Setup
+    public void setup() throws Exception {
+        URI targetUri = new URI("coap", null, "example.org", 5683, "/path/to/service", "param=value", null);
+        coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+        coapRequest.setMessageID(12345);
+        coapRequest.setToken(new Token(new byte[]{1, 2, 3, 4}));
+
+        encoder = new BenchmarkEncoder(pooledEncoding ? new FixedSizeEncodingBufferPool() : null);
+        decoder = new BenchmarkDecoder(lazyOptionDecoding);
+    }
+
+
+    @Benchmark
+    public String encodeAndDecode() throws Exception {
+        return encoder.encodeAndDecode(coapRequest, decoder);
+    }
+
+
+    /**
+     * Provides access to the encoding method of {@link CoapMessageEncoder} without a pipeline. Pooled buffers are
+     * released after decoding as they would be after the write operation.
+     */
+    private static class BenchmarkEncoder extends CoapMessageEncoder {
+
+        private final EncodingBufferPool bufferPool;
+
+        private BenchmarkEncoder(EncodingBufferPool bufferPool){
+            super(bufferPool);
+            this.bufferPool = bufferPool;
+        }
+
+        private String encodeAndDecode(CoapMessage coapMessage, BenchmarkDecoder decoder) throws Exception {
+            //Netty copies the written bytes into the socket buffer, i.e. the receiver decodes another buffer
+            if(bufferPool == null)
+                return decoder.decodeUriPath(encode(coapMessage).copy());
+
+            ChannelBuffer pooledBuffer = encodeWithoutContent(coapMessage);
+            ChannelBuffer encodedMessage = coapMessage.getContent().readable() ?
+                    ChannelBuffers.wrappedBuffer(pooledBuffer, coapMessage.getContent()) : pooledBuffer;
+
+            String uriPath = decoder.decodeUriPath(encodedMessage.copy());
+            bufferPool.release(pooledBuffer);
+
+            return uriPath;
+        }
+    }
+
+
+    /**
+     * Provides access to the decoding method of {@link CoapMessageDecoder} without a pipeline.
+     */
+    private static class BenchmarkDecoder extends CoapMessageDecoder {
+
+        private BenchmarkDecoder(boolean lazyOptionDecoding){
+            super(lazyOptionDecoding);
+        }
+
+        private String decodeUriPath(ChannelBuffer encodedMessage) throws Exception {
+            return ((CoapRequest) decode(REMOTE_ENDPOINT, encodedMessage)).getUriPath();
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(CodecRoundTripBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.DatagramWriteCoalescer;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a burst of outgoing messages (e.g. update notifications for many observers) written by a single
+ * (non-I/O) thread through the {@link CoapMessageEncoder} into a bound datagram channel, with and without a
+ * {@link DatagramWriteCoalescer} below the encoder (see {@link #maxBatchSize}). The datagrams are sent to a local
+ * socket that is never read, i.e. the kernel drops them.
+ *
+ * Run {@link #main(String[])} (or use
+ * <code>java -jar target/benchmarks.jar DatagramWriteCoalescer</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatagramWriteCoalescerBenchmark {
+
+    /**
+     * The number of messages per burst
+     */
+    @Param({"1000"})
+    public int burstSize;
+
+    /**
+     * The maximum batch size of the {@link DatagramWriteCoalescer} (1 means no coalescer)
+     */
+    @Param({"1", "64"})
+    public int maxBatchSize;
+
+    private ScheduledExecutorService executorService;
+    private ChannelFactory channelFactory;
+    private Channel channel;
+    private DatagramChannel receiver;
+
+    private InetSocketAddress remoteEndpoint;
+    private CoapResponse coapResponse;
+
+
+    @Setup
+    public void setup() throws Exception {
+        receiver = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        remoteEndpoint = (InetSocketAddress) receiver.getLocalAddress();
+
+        executorService = new ScheduledThreadPoolExecutor(1);
+
+        ChannelPipeline pipeline = Channels.pipeline();
+        if(maxBatchSize > 1){
+            pipeline.addLast("Write Coalescer",
+                    new DatagramWriteCoalescer(executorService, maxBatchSize, 0, TimeUnit.MICROSECONDS));
+        }
+        pipeline.addLast("Encoder", new CoapMessageEncoder());
+
+        channelFactory = new NioDatagramChannelFactory(Executors.newCachedThreadPool(), 1);
+        channel = channelFactory.newChannel(pipeline);
+        channel.bind(new InetSocketAddress("127.0.0.1", 0)).awaitUninterruptibly();
+
+        coapResponse = new CoapResponse(MessageType.Name.NON, MessageCode.Name.CONTENT_205);
+        coapResponse.setMessageID(1);
+        coapResponse.setObserveOption(1);
+        coapResponse.setContent("Some status...".getBytes(CoapMessage.CHARSET));
+    }
+
+
+    @TearDown
+    public void shutdown() throws Exception {
+        channel.close().awaitUninterruptibly();
+        channelFactory.releaseExternalResources();
+        executorService.shutdownNow();
+        receiver.close();
+    }
+
+
+    @Benchmark
+    public boolean writeBurst(){
+        ChannelFuture future = null;
+        for(int i = 0; i < burstSize; i++)
+            future = Channels.write(channel, coapResponse, remoteEndpoint);
+
+        //datagrams are written in order
+        return future.awaitUninterruptibly().isSuccess();
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(DatagramWriteCoalescerBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.application.DatagramTransport;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.WebserviceNotFoundHandler;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableWebservice;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.NoMessageIDAvailableProcessor;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.RetransmissionTimeoutProcessor;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete GET request from a {@link CoapClientApplication} to a {@link CoapServerApplication} over the
+ * loopback interface, i.e. both applications with all their handlers and a real UDP socket each. Besides the
+ * throughput, the sample mode reports the percentiles of the latency from sending the request to receiving the
+ * response.
+ *
+ * As every request consumes a message ID (which retires only after {@link
+ * de.uniluebeck.itm.ncoap.communication.reliability.outgoing.MessageIDFactory#EXCHANGE_LIFETIME} seconds), there is
+ * a new client for every iteration. Thus, iterations should not be longer than a few seconds.
+ *
+ * Client and server use the same {@link DatagramTransport} (see {@link #transport}). As every operation consists
+ * of two datagrams (request and piggy-backed response), the number of packets per second is twice the throughput.
+ *
+ * Each benchmark thread uses its own client (i.e. its own local port). Thus, with multiple threads and multiple
+ * server channels (see {@link #serverChannels}) the requests are distributed among the server channels.
+ *
+ * Run {@link #main(String[])} (or use
+ * <code>java -jar target/benchmarks.jar LoopbackGet -prof gc -t &lt;threads&gt;</code>).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoopbackGetBenchmark {
+
+    private static final String SERVICE_PATH = "/service";
+
+    /**
+     * The name of the {@link DatagramTransport} to be used by client and server
+     */
+    @Param({"nio", "oio"})
+    public String transport;
+
+    /**
+     * The number of server channels bound to the server port (requires <code>SO_REUSEPORT</code> if more than 1)
+     */
+    @Param({"1", "4"})
+    public int serverChannels;
+
+    private CoapServerApplication server;
+
+    private InetSocketAddress serverEndpoint;
+    private URI targetUri;
+
+
+    @Setup
+    public void setup() throws Exception {
+        server = new CoapServerApplication(WebserviceNotFoundHandler.getDefault(), new InetSocketAddress(0),
+                serverChannels, DatagramTransport.forName(transport));
+        server.registerService(new SimpleWebservice(SERVICE_PATH, "Hello World!"));
+
+        serverEndpoint = new InetSocketAddress("127.0.0.1", server.getPort());
+        targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), SERVICE_PATH, null, null);
+    }
+
+
+    @State(Scope.Thread)
+    public static class ClientState {
+
+        private CoapClientApplication client;
+
+        @Setup(Level.Iteration)
+        public void createClient(LoopbackGetBenchmark benchmark){
+            client = new CoapClientApplication("CoAP Client", 0, Runtime.getRuntime().availableProcessors() * 2, 8,
+                    DatagramTransport.forName(benchmark.transport));
+        }
+
+        @TearDown(Level.Iteration)
+        public void shutdownClient(){
+            client.shutdown().awaitUninterruptibly();
+        }
+    }
+
+
+    @TearDown
+    public void shutdownServer(){
+        server.shutdown();
+    }
+
+
+    @Benchmark
+    public CoapResponse getRequest(ClientState clientState) throws Exception {
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+
+        ResponseFuture responseFuture = new ResponseFuture();
+        clientState.client.sendCoapRequest(coapRequest, responseFuture, serverEndpoint);
+
+        return responseFuture.get();
+    }
+
+
+    /**
+     * Completes with the response or fails if the request could not be sent or was not answered.
+     */
+    private static class ResponseFuture implements CoapResponseProcessor, NoMessageIDAvailableProcessor,
+            RetransmissionTimeoutProcessor {
+
+        private final SettableFuture<CoapResponse> future = SettableFuture.create();
+
+        private CoapResponse get() throws Exception {
+            return future.get();
+        }
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            future.set(coapResponse);
+        }
+
+        @Override
+        public void handleNoMessageIDAvailable(InetSocketAddress remoteEndpoint, long waitingPeriod) {
+            future.setException(new Exception("No message ID available!"));
+        }
+
+        @Override
+        public void processRetransmissionTimeout(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+            future.setException(new Exception("Retransmission timeout!"));
+        }
+    }
+
+
+    /**
+     * A {@link NotObservableWebservice} that always returns its (plain text) status.
+     */
+    private static class SimpleWebservice extends NotObservableWebservice<String> {
+
+        private SimpleWebservice(String path, String status){
+            super(path, status, 60);
+        }
+
+        @Override
+        public byte[] getEtag(long contentFormat) {
+            return new byte[0];
+        }
+
+        @Override
+        public void updateEtag(String resourceStatus) {
+            //Nothing to do
+        }
+
+        @Override
+        public void shutdown() {
+            //Nothing to do
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteAddress) throws Exception {
+
+            CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageTypeName(), MessageCode.Name.CONTENT_205);
+            coapResponse.setContent(getSerializedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8),
+                    ContentFormat.TEXT_PLAIN_UTF8);
+
+            responseFuture.set(coapResponse);
+        }
+
+        @Override
+        public byte[] getSerializedResourceStatus(long contentFormat) {
+            return getResourceStatus().getBytes(CoapMessage.CHARSET);
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(LoopbackGetBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import com.google.common.collect.HashBasedTable;
+import de.uniluebeck.itm.ncoap.communication.reliability.MessageExchangeTable;
+import de.uniluebeck.itm.ncoap.communication.reliability.incoming.IncomingMessageExchange;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the throughput of the {@link MessageExchangeTable} used by the reliability handlers with the previously
+ * used {@link HashBasedTable} guarded by a single monitor. Each operation is one message exchange, i.e. a lookup for
+ * duplicates, the insertion of the new exchange (CON received or sent) and its removal (response or ACK).
+ *
+ * Run {@link #main(String[])} to get the results for 1, 2, 4 and 8 threads (or use
+ * <code>java -jar target/benchmarks.jar MessageExchangeTable -t &lt;threads&gt;</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageExchangeTableBenchmark {
+
+    /**
+     * The number of remote endpoints
+     */
+    @Param({"1000"})
+    public int endpoints;
+
+    /**
+     * The number of ongoing exchanges per remote endpoint
+     */
+    @Param({"100"})
+    public int exchangesPerEndpoint;
+
+    private InetSocketAddress[] remoteEndpoints;
+
+    private MessageExchangeTable<IncomingMessageExchange> messageExchangeTable;
+
+    private final Object monitor = new Object();
+    private HashBasedTable<InetSocketAddress, Integer, IncomingMessageExchange> hashBasedTable;
+
+
+    @Setup
+    public void setup() throws Exception {
+        remoteEndpoints = new InetSocketAddress[endpoints];
+        for(int i = 0; i < endpoints; i++){
+            byte[] address = new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+            remoteEndpoints[i] = new InetSocketAddress(InetAddress.getByAddress(address), 5683);
+        }
+
+        messageExchangeTable = new MessageExchangeTable<>();
+        hashBasedTable = HashBasedTable.create();
+
+        //Fill the tables with the "background" exchanges (message IDs 0 to exchangesPerEndpoint - 1)
+        for(InetSocketAddress remoteEndpoint : remoteEndpoints){
+            for(int messageID = 0; messageID < exchangesPerEndpoint; messageID++){
+                IncomingMessageExchange messageExchange = new IncomingMessageExchange(remoteEndpoint, messageID);
+                messageExchangeTable.put(remoteEndpoint, messageID, messageExchange);
+                hashBasedTable.put(remoteEndpoint, messageID, messageExchange);
+            }
+        }
+    }
+
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+        private int threadNo;
+        private int counter;
+
+        @Setup
+        public void setup(){
+            threadNo = THREAD_COUNTER.getAndIncrement();
+        }
+
+        private int nextMessageID(int exchangesPerEndpoint){
+            //each thread uses its own range of message IDs above the background exchanges
+            return exchangesPerEndpoint + threadNo * 1000 + (counter++ % 1000);
+        }
+    }
+
+
+    @Benchmark
+    public Object messageExchangeTable(ThreadState threadState){
+        InetSocketAddress remoteEndpoint = remoteEndpoints[threadState.counter % endpoints];
+        int messageID = threadState.nextMessageID(exchangesPerEndpoint);
+
+        IncomingMessageExchange messageExchange = new IncomingMessageExchange(remoteEndpoint, messageID);
+
+        if(messageExchangeTable.putIfAbsent(remoteEndpoint, messageID, messageExchange) != null)
+            return null;
+
+        return messageExchangeTable.remove(remoteEndpoint, messageID);
+    }
+
+
+    @Benchmark
+    public Object hashBasedTableWithMonitor(ThreadState threadState){
+        InetSocketAddress remoteEndpoint = remoteEndpoints[threadState.counter % endpoints];
+        int messageID = threadState.nextMessageID(exchangesPerEndpoint);
+
+        IncomingMessageExchange messageExchange = new IncomingMessageExchange(remoteEndpoint, messageID);
+
+        synchronized (monitor){
+            if(hashBasedTable.contains(remoteEndpoint, messageID))
+                return null;
+
+            hashBasedTable.put(remoteEndpoint, messageID, messageExchange);
+        }
+
+        synchronized (monitor){
+            return hashBasedTable.remove(remoteEndpoint, messageID);
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        for(int threads : new int[]{1, 2, 4, 8}){
+            Options options = new OptionsBuilder()
+                    .include(MessageExchangeTableBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
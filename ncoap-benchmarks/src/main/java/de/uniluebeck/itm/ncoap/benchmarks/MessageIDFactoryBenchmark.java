@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.MessageIDFactory;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.NoMessageIDAvailableException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the allocation of message IDs by the {@link MessageIDFactory} for a number of remote endpoints. As
+ * allocated message IDs are only retired after {@link MessageIDFactory#EXCHANGE_LIFETIME} seconds, a new factory
+ * is used for every iteration.
+ *
+ * Run {@link #main(String[])} (or use
+ * <code>java -jar target/benchmarks.jar MessageIDFactory -t &lt;threads&gt; -prof gc</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageIDFactoryBenchmark {
+
+    /**
+     * The number of remote endpoints (the allocated message IDs of each endpoint are guarded by their own lock)
+     */
+    @Param({"1024"})
+    public int endpoints;
+
+    private InetSocketAddress[] remoteEndpoints;
+
+    private ScheduledExecutorService executorService;
+    private MessageIDFactory messageIDFactory;
+
+
+    @Setup
+    public void setup() throws Exception {
+        remoteEndpoints = new InetSocketAddress[endpoints];
+        for(int i = 0; i < endpoints; i++){
+            byte[] address = new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+            remoteEndpoints[i] = new InetSocketAddress(InetAddress.getByAddress(address), 5683);
+        }
+
+        executorService = new ScheduledThreadPoolExecutor(1);
+    }
+
+
+    @Setup(Level.Iteration)
+    public void createMessageIDFactory(){
+        messageIDFactory = new MessageIDFactory(executorService);
+    }
+
+
+    @TearDown
+    public void shutdown(){
+        executorService.shutdownNow();
+    }
+
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int counter;
+    }
+
+
+    @Benchmark
+    public int getNextMessageID(ThreadState threadState){
+        try {
+            return messageIDFactory.getNextMessageID(remoteEndpoints[threadState.counter++ % endpoints]);
+        }
+        catch (NoMessageIDAvailableException e) {
+            return -1;
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        for(int threads : new int[]{1, 4}){
+            Options options = new OptionsBuilder()
+                    .include(MessageIDFactoryBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.InvalidOptionException;
+import de.uniluebeck.itm.ncoap.communication.observe.server.UpdateNotification;
+import de.uniluebeck.itm.ncoap.communication.observe.server.UpdateNotificationTemplate;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the creation and encoding of one update notification per observer (as a new {@link CoapResponse} with
+ * its own options and content) with the creation of {@link UpdateNotification}s from a shared
+ * {@link UpdateNotificationTemplate}, i.e. the fan-out of a single status change to all observers.
+ *
+ * Run {@link #main(String[])} (or use <code>java -jar target/benchmarks.jar NotificationFanOut -prof gc</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationFanOutBenchmark {
+
+    /**
+     * The number of observers
+     */
+    @Param({"1000"})
+    public int observers;
+
+    /**
+     * The size of the content of the update notifications (in bytes)
+     */
+    @Param({"100"})
+    public int contentSize;
+
+    private Token[] tokens;
+    private byte[] content;
+    private byte[] etag;
+
+    private BenchmarkEncoder encoder;
+
+
+    @Setup
+    public void setup(){
+        tokens = new Token[observers];
+        for(int i = 0; i < observers; i++)
+            tokens[i] = new Token(new byte[]{(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+
+        content = new byte[contentSize];
+        etag = new byte[]{1, 2, 3, 4};
+        encoder = new BenchmarkEncoder();
+    }
+
+
+    @Benchmark
+    public void responsePerObserver(Blackhole blackhole) throws Exception {
+        for(int i = 0; i < observers; i++){
+            CoapResponse updateNotification = new CoapResponse(MessageType.Name.NON, MessageCode.Name.CONTENT_205);
+            updateNotification.setContent(content, ContentFormat.APP_OCTET_STREAM);
+            updateNotification.setMaxAge(120);
+            updateNotification.setEtag(etag);
+            updateNotification.setMessageID(i);
+            updateNotification.setToken(tokens[i]);
+            updateNotification.setObserveOption(i);
+
+            blackhole.consume(encoder.encodeMessage(updateNotification));
+        }
+    }
+
+
+    @Benchmark
+    public void sharedTemplate(Blackhole blackhole) throws Exception {
+        CoapResponse prototype = new CoapResponse(MessageType.Name.NON, MessageCode.Name.CONTENT_205);
+        prototype.setContent(content, ContentFormat.APP_OCTET_STREAM);
+        prototype.setMaxAge(120);
+        prototype.setEtag(etag);
+
+        UpdateNotificationTemplate template = new UpdateNotificationTemplate(prototype);
+
+        for(int i = 0; i < observers; i++){
+            UpdateNotification updateNotification =
+                    template.createUpdateNotification(MessageType.Name.NON, tokens[i], i);
+            updateNotification.setObserveOption(i);
+
+            blackhole.consume(encoder.encodeMessage(updateNotification));
+        }
+    }
+
+
+    /**
+     * Provides access to the encoding method of {@link CoapMessageEncoder} without a pipeline
+     */
+    private static class BenchmarkEncoder extends CoapMessageEncoder {
+
+        private BenchmarkEncoder(){
+            super(null);
+        }
+
+        private ChannelBuffer encodeMessage(CoapMessage coapMessage) throws InvalidOptionException {
+            return encode(coapMessage);
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(NotificationFanOutBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebservice;
+import de.uniluebeck.itm.ncoap.communication.observe.server.WebserviceObservationHandler;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time a producer is blocked by {@link ObservableWebservice#setResourceStatus(Object, long)}, i.e. by
+ * the fan-out of the update notifications to all observers, with the {@link WebserviceObservationHandler} sending
+ * the update notifications synchronously (0 partitions) or on a thread pool (see {@link #partitions}). The update
+ * notifications are discarded below the {@link WebserviceObservationHandler}.
+ *
+ * Run {@link #main(String[])} (or use <code>java -jar target/benchmarks.jar ObservableWebserviceUpdate</code>).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObservableWebserviceUpdateBenchmark {
+
+    /**
+     * The number of observers
+     */
+    @Param({"10000"})
+    public int observers;
+
+    /**
+     * The number of partitions (0 means synchronous fan-out on the producer thread)
+     */
+    @Param({"0", "4"})
+    public int partitions;
+
+    private ScheduledExecutorService executorService;
+    private ChannelFactory channelFactory;
+    private BenchmarkWebservice webservice;
+
+    private int status;
+
+
+    @Setup
+    public void setup() throws Exception {
+        executorService = Executors.newScheduledThreadPool(4);
+        channelFactory = new NioDatagramChannelFactory();
+
+        WebserviceObservationHandler observationHandler = partitions == 0 ?
+                new WebserviceObservationHandler() : new WebserviceObservationHandler(executorService, partitions);
+
+        ChannelPipeline pipeline = Channels.pipeline();
+        pipeline.addLast("Discarder", new SimpleChannelDownstreamHandler(){
+            @Override
+            public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+                me.getFuture().setSuccess();
+            }
+        });
+        pipeline.addLast("Observation Handler", observationHandler);
+
+        Channel channel = channelFactory.newChannel(pipeline);
+        observationHandler.setChannelHandlerContext(pipeline.getContext("Observation Handler"));
+
+        webservice = new BenchmarkWebservice();
+        webservice.addObserver(observationHandler);
+
+        for(int i = 0; i < observers; i++){
+            InetSocketAddress remoteEndpoint = new InetSocketAddress("10.0." + (i >>> 8 & 0xFF) + "." + (i & 0xFF),
+                    5683);
+            Token token = new Token(Ints.toByteArray(i));
+
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                    new URI("coap://localhost/observable"));
+            coapRequest.setToken(token);
+            coapRequest.setObserve();
+            Channels.fireMessageReceived(channel, coapRequest, remoteEndpoint);
+
+            //the first response sets the content format of the observation
+            CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+            coapResponse.setToken(token);
+            coapResponse.setContent(new byte[1], ContentFormat.TEXT_PLAIN_UTF8);
+            coapResponse.setObserveOption(0);
+            Channels.write(channel, coapResponse, remoteEndpoint);
+        }
+    }
+
+
+    @TearDown
+    public void shutdown(){
+        executorService.shutdownNow();
+        channelFactory.releaseExternalResources();
+    }
+
+
+    @Benchmark
+    public void setResourceStatus(){
+        webservice.setResourceStatus(++status, 120);
+    }
+
+
+    private static class BenchmarkWebservice extends ObservableWebservice<Integer> {
+
+        private BenchmarkWebservice(){
+            super("/observable", 0);
+        }
+
+        @Override
+        public MessageType.Name getMessageTypeForUpdateNotification(InetSocketAddress remoteEndpoint, Token token) {
+            return MessageType.Name.NON;
+        }
+
+        @Override
+        public byte[] getEtag(long contentFormat) {
+            return Ints.toByteArray(getResourceStatus());
+        }
+
+        @Override
+        public void updateEtag(Integer resourceStatus) {
+            //Nothing to do...
+        }
+
+        @Override
+        public void shutdown() {
+            //Nothing to do...
+        }
+
+        @Override
+        public byte[] getSerializedResourceStatus(long contentFormat) {
+            return ("Status #" + getResourceStatus()).getBytes(CoapMessage.CHARSET);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteEndpoint) {
+            responseFuture.set(new CoapResponse(coapRequest.getMessageTypeName(), MessageCode.Name.CONTENT_205));
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ObservableWebserviceUpdateBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
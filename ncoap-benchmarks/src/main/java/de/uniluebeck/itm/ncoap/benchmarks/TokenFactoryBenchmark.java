@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.application.client.NoTokenAvailableException;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.application.client.TokenFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the issue and return of a {@link Token} by the {@link TokenFactory} while a number of other tokens is in
+ * use for the same remote endpoint, i.e. the steady state of a client with that many open requests per server.
+ *
+ * Run {@link #main(String[])} (or use
+ * <code>java -jar target/benchmarks.jar TokenFactory -t &lt;threads&gt; -prof gc</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenFactoryBenchmark {
+
+    /**
+     * The number of remote endpoints
+     */
+    @Param({"1", "100"})
+    public int endpoints;
+
+    /**
+     * The number of tokens in use per remote endpoint
+     */
+    @Param({"1000"})
+    public int tokensInUse;
+
+    private InetSocketAddress[] remoteEndpoints;
+    private TokenFactory tokenFactory;
+
+
+    @Setup
+    public void setup() throws Exception {
+        remoteEndpoints = new InetSocketAddress[endpoints];
+        tokenFactory = new TokenFactory(8);
+
+        for(int i = 0; i < endpoints; i++){
+            byte[] address = new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+            remoteEndpoints[i] = new InetSocketAddress(InetAddress.getByAddress(address), 5683);
+
+            for(int j = 0; j < tokensInUse; j++)
+                tokenFactory.getNextToken(remoteEndpoints[i]);
+        }
+    }
+
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int counter;
+    }
+
+
+    @Benchmark
+    public boolean getAndPassBackToken(ThreadState threadState) throws NoTokenAvailableException {
+        InetSocketAddress remoteEndpoint = remoteEndpoints[threadState.counter++ % endpoints];
+
+        Token token = tokenFactory.getNextToken(remoteEndpoint);
+        return tokenFactory.passBackToken(remoteEndpoint, token);
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        for(int threads : new int[]{1, 4}){
+            Options options = new OptionsBuilder()
+                    .include(TokenFactoryBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
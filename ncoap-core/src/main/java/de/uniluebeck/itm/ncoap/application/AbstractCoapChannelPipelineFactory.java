@@ -42,10 +42,12 @@ public abstract class AbstractCoapChannelPipelineFactory implements ChannelPipel
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     public static final String EXECUTION_HANDLER = "ExecutionHandler";
+    public static final String WRITE_COALESCER = "WriteCoalescer";
     public static final String ENCODER = "Encoder";
     public static final String DECODER = "Decoder";
     public static final String INCOMING_MESSAGE_RELIABILITY_HANDLER = "IncomingMessageReliabilityHandler";
     public static final String OUTGOING_MESSAGE_RELIABILITY_HANDLER = "OutgoingMessageReliabilityHandler";
+    public static final String BLOCKWISE_HANDLER = "BlockwiseHandler";
 
     //Those are only available on server pipelines
     public static final String OBSERVATION_HANDLER = "ObservationHandler";
@@ -54,6 +56,9 @@ public abstract class AbstractCoapChannelPipelineFactory implements ChannelPipel
     //This is only availabe on client pipelines
     public static final String INCOMING_UPDATE_NOTIFICATION_HANDLER = "IncomingUpdateNotificationHandler";
     public static final String RESPONSE_DISPATCHER = "ResponseHandler";
+    public static final String RESPONSE_CACHE = "ResponseCache";
+    public static final String REQUEST_COLLAPSER = "RequestCollapser";
+    public static final String REQUEST_WINDOW = "RequestWindow";
 
     private Map<String, ChannelHandler> handler;
 
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.channel.socket.oio.OioDatagramChannelFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link DatagramTransport} provides the {@link ChannelFactory} for the {@link DatagramChannel}s of
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication}s and
+ * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}s. The codec and all other handlers are
+ * independent from the transport.
+ *
+ * There are two built-in transports, i.e.
+ * <ul>
+ *     <li>{@link #NIO} (default) using a selector per I/O worker thread (which can serve many channels) and</li>
+ *     <li>{@link #OIO} using blocking sockets with a dedicated thread per channel (which saves the selector overhead
+ *     for applications with only a few channels).</li>
+ * </ul>
+ *
+ * Other transports (e.g. a native one) can be plugged in by extending this class. The transport to be used by
+ * applications that were created without an explicit transport can be set with the system property
+ * {@link #TRANSPORT}.
+ */
+public abstract class DatagramTransport {
+
+    /**
+     * The name of the system property to set the default transport (<code>de.uniluebeck.itm.ncoap.transport</code>).
+     * Supported values are <code>nio</code> and <code>oio</code>.
+     */
+    public static final String TRANSPORT = "de.uniluebeck.itm.ncoap.transport";
+
+    /**
+     * The (non-blocking) transport based on {@link NioDatagramChannelFactory}
+     */
+    public static final DatagramTransport NIO = new NioDatagramTransport();
+
+    /**
+     * The (blocking) transport based on {@link OioDatagramChannelFactory}
+     */
+    public static final DatagramTransport OIO = new OioDatagramTransport();
+
+    private static Logger log = LoggerFactory.getLogger(DatagramTransport.class.getName());
+
+
+    /**
+     * Returns the {@link DatagramTransport} given by the system property {@link #TRANSPORT} or {@link #NIO} if the
+     * property is not set or unknown.
+     *
+     * @return the {@link DatagramTransport} to be used if there was no transport given explicitly
+     */
+    public static DatagramTransport getDefault(){
+        String name = System.getProperty(TRANSPORT);
+
+        if(name == null)
+            return NIO;
+
+        try{
+            return forName(name);
+        }
+        catch(IllegalArgumentException e){
+            log.warn("Unknown transport \"{}\" (use {}).", name, NIO);
+            return NIO;
+        }
+    }
+
+
+    /**
+     * Returns the built-in {@link DatagramTransport} with the given name (case insensitive)
+     *
+     * @param name the name of the transport (<code>nio</code> or <code>oio</code>)
+     *
+     * @return the built-in {@link DatagramTransport} with the given name
+     *
+     * @throws java.lang.IllegalArgumentException if there is no built-in transport with the given name
+     */
+    public static DatagramTransport forName(String name) throws IllegalArgumentException {
+        if(NIO.getName().equalsIgnoreCase(name))
+            return NIO;
+
+        if(OIO.getName().equalsIgnoreCase(name))
+            return OIO;
+
+        throw new IllegalArgumentException("Unknown transport: " + name);
+    }
+
+
+    /**
+     * Returns the name of this transport
+     *
+     * @return the name of this transport
+     */
+    public abstract String getName();
+
+
+    /**
+     * Creates a new {@link ChannelFactory} for {@link DatagramChannel}s.
+     *
+     * @param executorService the {@link ExecutorService} to provide the I/O threads
+     * @param numberOfWorkers the (maximum) number of I/O threads to be used (ignored by transports with a thread
+     *                        per channel)
+     *
+     * @return a new {@link ChannelFactory} for {@link DatagramChannel}s
+     */
+    public abstract ChannelFactory createChannelFactory(ExecutorService executorService, int numberOfWorkers);
+
+
+    /**
+     * Enables the socket option <code>SO_REUSEPORT</code> for the given (not yet bound) channel, i.e. to bind
+     * multiple channels to the same port. This implementation does not support that option and returns
+     * <code>false</code>.
+     *
+     * @param channel the {@link DatagramChannel} to enable the option for
+     *
+     * @return <code>true</code> if the option was enabled and <code>false</code> otherwise
+     */
+    public boolean enableReusePort(DatagramChannel channel){
+        return false;
+    }
+
+
+    @Override
+    public String toString(){
+        return getName();
+    }
+
+
+    private static class NioDatagramTransport extends DatagramTransport {
+
+        @Override
+        public String getName() {
+            return "nio";
+        }
+
+        @Override
+        public ChannelFactory createChannelFactory(ExecutorService executorService, int numberOfWorkers) {
+            return new NioDatagramChannelFactory(executorService, numberOfWorkers);
+        }
+
+        /**
+         * As this option is neither supported by Netty 3 nor by Java 7 it is set via reflection on the underlying
+         * {@link java.nio.channels.DatagramChannel} (requires Java 9 or later).
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean enableReusePort(DatagramChannel channel){
+            try{
+                SocketOption<Boolean> reusePort =
+                        (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+
+                Field field = Class.forName("org.jboss.netty.channel.socket.nio.AbstractNioChannel")
+                        .getDeclaredField("channel");
+                field.setAccessible(true);
+                NetworkChannel socketChannel = (NetworkChannel) field.get(channel);
+
+                if(!socketChannel.supportedOptions().contains(reusePort))
+                    return false;
+
+                socketChannel.setOption(reusePort, true);
+                return true;
+            }
+            catch(Exception e){
+                log.debug("Could not enable SO_REUSEPORT.", e);
+                return false;
+            }
+        }
+    }
+
+
+    private static class OioDatagramTransport extends DatagramTransport {
+
+        @Override
+        public String getName() {
+            return "oio";
+        }
+
+        @Override
+        public ChannelFactory createChannelFactory(ExecutorService executorService, int numberOfWorkers) {
+            return new OioChannelFactory(executorService);
+        }
+    }
+
+
+    /**
+     * The blocking workers fire the events for closed channels <b>after</b> the close future was completed. Thus,
+     * the given executor (which is shared with the {@link org.jboss.netty.handler.execution.ExecutionHandler}) must
+     * not be shut down before the workers terminated. That is why the workers run on their own executor and the
+     * given one is shut down afterwards.
+     */
+    private static class OioChannelFactory extends OioDatagramChannelFactory {
+
+        private final ExecutorService executorService;
+
+        private OioChannelFactory(ExecutorService executorService){
+            super(Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setNameFormat("OIO datagram worker #%d").setDaemon(true).build()
+            ));
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void releaseExternalResources() {
+            //This method is usually called by a listener of the close future, i.e. possibly by a worker
+            new Thread(new Runnable(){
+                @Override
+                public void run() {
+                    OioChannelFactory.super.releaseExternalResources();
+                    executorService.shutdownNow();
+                }
+            }, "OIO datagram transport shutdown").start();
+        }
+    }
+}
@@ -26,17 +26,25 @@
 package de.uniluebeck.itm.ncoap.application.client;
 
 import de.uniluebeck.itm.ncoap.application.AbstractCoapChannelPipelineFactory;
+import de.uniluebeck.itm.ncoap.communication.blockwise.ClientBlockwiseHandler;
+import de.uniluebeck.itm.ncoap.communication.caching.ClientResponseCache;
+import de.uniluebeck.itm.ncoap.communication.caching.RequestCollapser;
 import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder;
 import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.DatagramWriteCoalescer;
 import de.uniluebeck.itm.ncoap.communication.observe.client.IncomingUpdateNotificationHandler;
 import de.uniluebeck.itm.ncoap.communication.reliability.incoming.IncomingMessageReliabilityHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.CongestionControl;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.HashedWheelRetransmissionScheduler;
 import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.OutgoingMessageReliabilityHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.RequestWindowHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.socket.DatagramChannel;
 import org.jboss.netty.handler.execution.ExecutionHandler;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
 
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -48,7 +56,7 @@ import java.util.concurrent.ScheduledExecutorService;
 public class ClientChannelPipelineFactory extends AbstractCoapChannelPipelineFactory {
 
     /**
-     * Creates a new instance of {@link ClientChannelPipelineFactory}.
+     * Creates a new instance of {@link ClientChannelPipelineFactory} with the default {@link CoapClientOptions}.
      *
      * @param executorService The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
      *
@@ -56,19 +64,93 @@ public class ClientChannelPipelineFactory extends AbstractCoapChannelPipelineFac
      *                     {@link CoapRequest}s
      */
     public ClientChannelPipelineFactory(ScheduledExecutorService executorService, TokenFactory tokenFactory){
+        this(executorService, tokenFactory, new CoapClientOptions());
+    }
+
+
+    /**
+     * Creates a new instance of {@link ClientChannelPipelineFactory} with the default {@link CoapClientOptions} and
+     * the given {@link CongestionControl}.
+     *
+     * @param executorService The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     *
+     * @param tokenFactory The {@link TokenFactory} to be used for generating {@link Token}s for outgoing
+     *                     {@link CoapRequest}s
+     *
+     * @param congestionControl The {@link CongestionControl} to determine the timeouts between (re-)transmissions of
+     *                          outgoing messages with {@link de.uniluebeck.itm.ncoap.message.MessageType.Name#CON}
+     */
+    public ClientChannelPipelineFactory(ScheduledExecutorService executorService, TokenFactory tokenFactory,
+                                        CongestionControl congestionControl){
+        this(executorService, tokenFactory, new CoapClientOptions(), congestionControl);
+    }
+
+
+    /**
+     * Creates a new instance of {@link ClientChannelPipelineFactory}.
+     *
+     * @param executorService The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     *
+     * @param tokenFactory The {@link TokenFactory} to be used for generating {@link Token}s for outgoing
+     *                     {@link CoapRequest}s
+     *
+     * @param options The {@link CoapClientOptions} to determine the optional handlers (and the
+     *                {@link CongestionControl})
+     */
+    public ClientChannelPipelineFactory(ScheduledExecutorService executorService, TokenFactory tokenFactory,
+                                        CoapClientOptions options){
+        this(executorService, tokenFactory, options, options.createCongestionControl());
+    }
+
+
+    /**
+     * Creates a new instance of {@link ClientChannelPipelineFactory}.
+     *
+     * @param executorService The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     *
+     * @param tokenFactory The {@link TokenFactory} to be used for generating {@link Token}s for outgoing
+     *                     {@link CoapRequest}s
+     *
+     * @param options The {@link CoapClientOptions} to determine the optional handlers
+     *
+     * @param congestionControl The {@link CongestionControl} to determine the timeouts between (re-)transmissions of
+     *                          outgoing messages with {@link de.uniluebeck.itm.ncoap.message.MessageType.Name#CON}
+     *                          (regardless of {@link CoapClientOptions#isCocoa()})
+     */
+    public ClientChannelPipelineFactory(ScheduledExecutorService executorService, TokenFactory tokenFactory,
+                                        CoapClientOptions options, CongestionControl congestionControl){
 
         addChannelHandler(EXECUTION_HANDLER, new ExecutionHandler(executorService));
 
+        if(options.getWriteBatchSize() > 1)
+            addChannelHandler(WRITE_COALESCER, new DatagramWriteCoalescer(executorService,
+                    options.getWriteBatchSize(), options.getWriteBatchLatencyMicros(), TimeUnit.MICROSECONDS));
+
         addChannelHandler(ENCODER, new CoapMessageEncoder());
         addChannelHandler(DECODER, new CoapMessageDecoder());
 
         addChannelHandler(INCOMING_UPDATE_NOTIFICATION_HANDLER, new IncomingUpdateNotificationHandler());
 
-        addChannelHandler(OUTGOING_MESSAGE_RELIABILITY_HANDLER, new OutgoingMessageReliabilityHandler(executorService));
+        addChannelHandler(OUTGOING_MESSAGE_RELIABILITY_HANDLER, new OutgoingMessageReliabilityHandler(executorService,
+                new HashedWheelRetransmissionScheduler(), congestionControl));
 
         addChannelHandler(INCOMING_MESSAGE_RELIABILITY_HANDLER, new IncomingMessageReliabilityHandler(executorService));
 
+        if(options.getNstart() > 0)
+            addChannelHandler(REQUEST_WINDOW, new RequestWindowHandler(executorService, options.getNstart(),
+                    options.getRequestQueueSize()));
+
         addChannelHandler(RESPONSE_DISPATCHER, new CoapResponseDispatcher(executorService, tokenFactory));
+
+        if(options.isBlockwiseTransfer())
+            addChannelHandler(BLOCKWISE_HANDLER, new ClientBlockwiseHandler(options.getBlockSize(),
+                    options.getBlockWindowSize(), options.isEarlyBlockSizeNegotiation()));
+
+        if(options.getResponseCacheSize() > 0)
+            addChannelHandler(RESPONSE_CACHE, new ClientResponseCache(options.getResponseCacheSize()));
+
+        if(options.isRequestCollapsing())
+            addChannelHandler(REQUEST_COLLAPSER, new RequestCollapser(executorService));
     }
 
 }
@@ -28,10 +28,15 @@ package de.uniluebeck.itm.ncoap.application.client;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import de.uniluebeck.itm.ncoap.application.AbstractCoapChannelPipelineFactory;
+import de.uniluebeck.itm.ncoap.application.DatagramTransport;
 import de.uniluebeck.itm.ncoap.application.InternalApplicationShutdownMessage;
+import de.uniluebeck.itm.ncoap.communication.caching.ClientResponseCache;
+import de.uniluebeck.itm.ncoap.communication.caching.RequestCollapser;
 import de.uniluebeck.itm.ncoap.communication.observe.client.InternalStopObservationMessage;
 import de.uniluebeck.itm.ncoap.communication.reliability.incoming.IncomingMessageReliabilityHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.CongestionControl;
 import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.OutgoingMessageReliabilityHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.RequestWindowHandler;
 import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.ResetProcessor;
 import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.TransmissionInformationProcessor;
 import de.uniluebeck.itm.ncoap.communication.observe.client.UpdateNotificationProcessor;
@@ -44,7 +49,6 @@ import de.uniluebeck.itm.ncoap.message.MessageCode;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.channel.socket.DatagramChannel;
-import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.ThreadRenamingRunnable;
 import org.slf4j.Logger;
@@ -91,6 +95,75 @@ public class CoapClientApplication {
      *                       details).
      */
     public CoapClientApplication(String name, int port, int numberOfThreads, int maxTokenLength){
+        this(name, port, numberOfThreads, maxTokenLength, DatagramTransport.getDefault());
+    }
+
+    /**
+     * Creates a new instance of {@link CoapClientApplication} using the given {@link DatagramTransport}.
+     *
+     * @param name the name of the application (used for logging purposes)
+     * @param port the port, this {@link CoapClientApplication} should be bound to (use <code>0</code> for
+     *             arbitrary port)
+     * @param numberOfThreads the number of threads to be used for I/O operations. The minimum number is 4, i.e. even
+     *                        if the given number is smaller then 4, the application will use 4 threads.
+     * @param maxTokenLength the maximum length of {@link Token}s to be created by the {@link TokenFactory} (see
+     *                       {@link #CoapClientApplication(String, int, int, int)})
+     * @param transport the {@link DatagramTransport} to provide the {@link DatagramChannel}
+     */
+    public CoapClientApplication(String name, int port, int numberOfThreads, int maxTokenLength,
+                                 DatagramTransport transport){
+
+        this(name, port, numberOfThreads, maxTokenLength, transport, new CoapClientOptions());
+    }
+
+    /**
+     * Creates a new instance of {@link CoapClientApplication} using the given {@link DatagramTransport} and the
+     * given {@link CoapClientOptions}, e.g. to enable the response cache for a single application regardless of the
+     * system property {@link ClientResponseCache#MAX_ENTRIES}.
+     *
+     * @param name the name of the application (used for logging purposes)
+     * @param port the port, this {@link CoapClientApplication} should be bound to (use <code>0</code> for
+     *             arbitrary port)
+     * @param numberOfThreads the number of threads to be used for I/O operations. The minimum number is 4, i.e. even
+     *                        if the given number is smaller then 4, the application will use 4 threads.
+     * @param maxTokenLength the maximum length of {@link Token}s to be created by the {@link TokenFactory} (see
+     *                       {@link #CoapClientApplication(String, int, int, int)})
+     * @param transport the {@link DatagramTransport} to provide the {@link DatagramChannel}
+     * @param options the {@link CoapClientOptions} to determine the optional handlers and the
+     *                {@link CongestionControl}
+     */
+    public CoapClientApplication(String name, int port, int numberOfThreads, int maxTokenLength,
+                                 DatagramTransport transport, CoapClientOptions options){
+
+        this(name, port, numberOfThreads, maxTokenLength, transport, options, options.createCongestionControl());
+    }
+
+    /**
+     * Creates a new instance of {@link CoapClientApplication} using the given {@link DatagramTransport} and the
+     * given {@link CongestionControl}, e.g. to use a custom {@link CongestionControl} (for CoCoA, see
+     * {@link CoapClientOptions#setCocoa(boolean)}).
+     *
+     * @param name the name of the application (used for logging purposes)
+     * @param port the port, this {@link CoapClientApplication} should be bound to (use <code>0</code> for
+     *             arbitrary port)
+     * @param numberOfThreads the number of threads to be used for I/O operations. The minimum number is 4, i.e. even
+     *                        if the given number is smaller then 4, the application will use 4 threads.
+     * @param maxTokenLength the maximum length of {@link Token}s to be created by the {@link TokenFactory} (see
+     *                       {@link #CoapClientApplication(String, int, int, int)})
+     * @param transport the {@link DatagramTransport} to provide the {@link DatagramChannel}
+     * @param congestionControl the {@link CongestionControl} to determine the timeouts between (re-)transmissions
+     *                          of outgoing messages with {@link MessageType.Name#CON}
+     */
+    public CoapClientApplication(String name, int port, int numberOfThreads, int maxTokenLength,
+                                 DatagramTransport transport, CongestionControl congestionControl){
+
+        this(name, port, numberOfThreads, maxTokenLength, transport, new CoapClientOptions(), congestionControl);
+    }
+
+
+    private CoapClientApplication(String name, int port, int numberOfThreads, int maxTokenLength,
+                                  DatagramTransport transport, CoapClientOptions options,
+                                  CongestionControl congestionControl){
 
         this.name = name;
 
@@ -115,9 +188,9 @@ public class CoapClientApplication {
         TokenFactory tokenFactory = new TokenFactory(maxTokenLength);
 
         //Create factories for channel and pipeline
-        ChannelFactory channelFactory = new NioDatagramChannelFactory(scheduledExecutorService, threads/2);
+        ChannelFactory channelFactory = transport.createChannelFactory(scheduledExecutorService, threads/2);
         ClientChannelPipelineFactory clientChannelPipelineFactory =
-                new ClientChannelPipelineFactory(scheduledExecutorService, tokenFactory);
+                new ClientChannelPipelineFactory(scheduledExecutorService, tokenFactory, options, congestionControl);
 
         //Create and configure bootstrap
         ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
@@ -148,7 +221,7 @@ public class CoapClientApplication {
                         .getContext(AbstractCoapChannelPipelineFactory.INCOMING_MESSAGE_RELIABILITY_HANDLER)
         );
 
-        log.info("New client channel created for address {}", this.channel.getLocalAddress());
+        log.info("New client channel ({}) created for address {}", transport, this.channel.getLocalAddress());
     }
 
     /**
@@ -192,6 +265,17 @@ public class CoapClientApplication {
         this(name, 0, 8);
     }
 
+    /**
+     * Creates a new instance of {@link CoapClientApplication}.
+     *
+     * Invocation of this constructor has the same effect as {@link #CoapClientApplication(String)} but the optional
+     * handlers are determined by the given {@link CoapClientOptions} (see
+     * {@link #CoapClientApplication(String, int, int, int, DatagramTransport, CoapClientOptions)}).
+     */
+    public CoapClientApplication(String name, CoapClientOptions options){
+        this(name, 0, Runtime.getRuntime().availableProcessors() * 2, 8, DatagramTransport.getDefault(), options);
+    }
+
     /**
      * Creates a new instance of {@link CoapClientApplication}.
      *
@@ -233,7 +317,9 @@ public class CoapClientApplication {
                 future.addListener(new ChannelFutureListener() {
                     @Override
                     public void operationComplete(ChannelFuture future) throws Exception {
-                        if(future.isSuccess()){
+                        //requests answered from the response cache or collapsed with a request in flight were
+                        //not sent at all
+                        if(future.isSuccess() && coapRequest.getMessageID() != CoapMessage.MESSAGE_ID_UNDEFINED){
                             log.debug("Sent to {}:{}: {}",
                                     new Object[]{remoteEndpoint.getAddress().getHostAddress(),
                                             remoteEndpoint.getPort(), coapRequest});
@@ -331,6 +417,61 @@ public class CoapClientApplication {
     }
 
 
+    /**
+     * Returns the {@link ClientResponseCache} of this {@link CoapClientApplication}, e.g. to retrieve the number of
+     * cache hits and misses, or <code>null</code> if response caching is not enabled (see
+     * {@link CoapClientOptions#setResponseCacheSize(int)}).
+     *
+     * @return the {@link ClientResponseCache} of this {@link CoapClientApplication} or <code>null</code> if response
+     * caching is not enabled
+     */
+    public ClientResponseCache getResponseCache(){
+        return (ClientResponseCache) this.channel.getPipeline().get(AbstractCoapChannelPipelineFactory.RESPONSE_CACHE);
+    }
+
+
+    /**
+     * Returns the {@link RequestCollapser} of this {@link CoapClientApplication}, e.g. to retrieve the number of
+     * collapsed requests, or <code>null</code> if request collapsing is not enabled (see
+     * {@link CoapClientOptions#setRequestCollapsing(boolean)}).
+     *
+     * @return the {@link RequestCollapser} of this {@link CoapClientApplication} or <code>null</code> if request
+     * collapsing is not enabled
+     */
+    public RequestCollapser getRequestCollapser(){
+        return (RequestCollapser) this.channel.getPipeline().get(AbstractCoapChannelPipelineFactory.REQUEST_COLLAPSER);
+    }
+
+
+    /**
+     * Returns the {@link RequestWindowHandler} of this {@link CoapClientApplication}, e.g. to retrieve the number of
+     * queued requests, or <code>null</code> if the request window is not enabled (see
+     * {@link CoapClientOptions#setRequestWindow(int, int)}).
+     *
+     * @return the {@link RequestWindowHandler} of this {@link CoapClientApplication} or <code>null</code> if the
+     * request window is not enabled
+     */
+    public RequestWindowHandler getRequestWindowHandler(){
+        return (RequestWindowHandler) this.channel.getPipeline().get(AbstractCoapChannelPipelineFactory.REQUEST_WINDOW);
+    }
+
+
+    /**
+     * Returns the current retransmission timeout (RTO) in milliseconds for the given remote endpoint, e.g. for
+     * monitoring purposes. Unless CoCoA is enabled (see {@link CoapClientOptions#setCocoa(boolean)}), this is always
+     * {@link OutgoingMessageReliabilityHandler#ACK_TIMEOUT_MILLIS}.
+     *
+     * @param remoteEndpoint the remote endpoint to get the RTO for
+     *
+     * @return the current retransmission timeout (RTO) in milliseconds for the given remote endpoint
+     */
+    public long getRetransmissionTimeout(InetSocketAddress remoteEndpoint){
+        return ((OutgoingMessageReliabilityHandler) this.channel.getPipeline()
+                .get(AbstractCoapChannelPipelineFactory.OUTGOING_MESSAGE_RELIABILITY_HANDLER))
+                .getRetransmissionTimeout(remoteEndpoint);
+    }
+
+
     /**
      * Returns the local port the {@link DatagramChannel} of this {@link CoapClientApplication} is bound to.
      *
@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import de.uniluebeck.itm.ncoap.communication.blockwise.ClientBlockwiseHandler;
+import de.uniluebeck.itm.ncoap.communication.caching.ClientResponseCache;
+import de.uniluebeck.itm.ncoap.communication.caching.RequestCollapser;
+import de.uniluebeck.itm.ncoap.communication.codec.DatagramWriteCoalescer;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.CocoaCongestionControl;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.CongestionControl;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.FixedTimeoutCongestionControl;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.RequestWindowHandler;
+
+/**
+ * An instance of {@link CoapClientOptions} determines the optional handlers of the pipeline of a
+ * {@link CoapClientApplication} (see {@link ClientChannelPipelineFactory}), i.e. the response cache, request
+ * collapsing, the request window, block-wise transfers, write coalescing and the congestion control.
+ *
+ * The initial values are taken from the system properties of the respective handlers (e.g.
+ * {@link ClientResponseCache#MAX_ENTRIES}), i.e. without any further configuration the behaviour is the same as if
+ * there were no options. The setters return the options themselves, e.g.
+ *
+ * <pre>
+ * CoapClientOptions options = new CoapClientOptions().setResponseCacheSize(100).setRequestCollapsing(true);
+ * </pre>
+ *
+ * The options are read when the pipeline is created, i.e. later changes do not affect existing applications.
+ */
+public class CoapClientOptions {
+
+    private int responseCacheSize;
+    private boolean requestCollapsing;
+    private int nstart;
+    private int requestQueueSize;
+    private boolean blockwiseTransfer;
+    private int blockSize;
+    private int blockWindowSize;
+    private boolean earlyBlockSizeNegotiation;
+    private int writeBatchSize;
+    private long writeBatchLatencyMicros;
+    private boolean cocoa;
+
+
+    /**
+     * Creates a new instance of {@link CoapClientOptions} with the values of the system properties (or the defaults
+     * of the respective handlers if the properties are not set).
+     */
+    public CoapClientOptions(){
+        this.responseCacheSize = Integer.getInteger(ClientResponseCache.MAX_ENTRIES, 0);
+        this.requestCollapsing = Boolean.getBoolean(RequestCollapser.ENABLED);
+        this.nstart = Integer.getInteger(RequestWindowHandler.NSTART, 0);
+        this.requestQueueSize = Integer.getInteger(RequestWindowHandler.QUEUE_SIZE,
+                RequestWindowHandler.DEFAULT_QUEUE_SIZE);
+        this.blockwiseTransfer = Boolean.getBoolean(ClientBlockwiseHandler.ENABLED);
+        this.blockSize = Integer.getInteger(ClientBlockwiseHandler.BLOCK_SIZE,
+                ClientBlockwiseHandler.DEFAULT_BLOCK_SIZE);
+        this.blockWindowSize = Integer.getInteger(ClientBlockwiseHandler.WINDOW_SIZE,
+                ClientBlockwiseHandler.DEFAULT_WINDOW_SIZE);
+        this.earlyBlockSizeNegotiation = Integer.getInteger(ClientBlockwiseHandler.BLOCK_SIZE) != null;
+        this.writeBatchSize = Integer.getInteger(DatagramWriteCoalescer.MAX_BATCH_SIZE, 1);
+        this.writeBatchLatencyMicros = Long.getLong(DatagramWriteCoalescer.MAX_LATENCY,
+                DatagramWriteCoalescer.DEFAULT_MAX_LATENCY);
+        this.cocoa = Boolean.getBoolean(CocoaCongestionControl.ENABLED);
+    }
+
+
+    /**
+     * Sets the maximum number of responses stored by the {@link ClientResponseCache}
+     *
+     * @param responseCacheSize the maximum number of stored responses (or <code>0</code> for no response cache)
+     *
+     * @return this {@link CoapClientOptions}
+     */
+    public CoapClientOptions setResponseCacheSize(int responseCacheSize){
+        if(responseCacheSize < 0)
+            throw new IllegalArgumentException("Response cache size must not be negative (was: "
+                    + responseCacheSize + ")");
+
+        this.responseCacheSize = responseCacheSize;
+        return this;
+    }
+
+
+    public int getResponseCacheSize(){
+        return this.responseCacheSize;
+    }
+
+
+    /**
+     * Enables or disables the {@link RequestCollapser}
+     *
+     * @param requestCollapsing <code>true</code> to collapse identical requests in flight or <code>false</code>
+     *                          otherwise
+     *
+     * @return this {@link CoapClientOptions}
+     */
+    public CoapClientOptions setRequestCollapsing(boolean requestCollapsing){
+        this.requestCollapsing = requestCollapsing;
+        return this;
+    }
+
+
+    public boolean isRequestCollapsing(){
+        return this.requestCollapsing;
+    }
+
+
+    /**
+     * Sets the window and queue size of the {@link RequestWindowHandler}
+     *
+     * @param nstart the maximum number of outstanding requests per remote endpoint (or <code>0</code> for no
+     *               request window)
+     * @param requestQueueSize the maximum number of queued requests per remote endpoint
+     *
+     * @return this {@link CoapClientOptions}
+     */
+    public CoapClientOptions setRequestWindow(int nstart, int requestQueueSize){
+        if(nstart < 0)
+            throw new IllegalArgumentException("NSTART must not be negative (was: " + nstart + ")");
+
+        if(requestQueueSize < 0)
+            throw new IllegalArgumentException("Request queue size must not be negative (was: "
+                    + requestQueueSize + ")");
+
+        this.nstart = nstart;
+        this.requestQueueSize = requestQueueSize;
+        return this;
+    }
+
+
+    public int getNstart(){
+        return this.nstart;
+    }
+
+
+    public int getRequestQueueSize(){
+        return this.requestQueueSize;
+    }
+
+
+    /**
+     * Enables or disables the {@link ClientBlockwiseHandler}
+     *
+     * @param blockwiseTransfer <code>true</code> to enable block-wise transfers or <code>false</code> otherwise
+     *
+     * @return this {@link CoapClientOptions}
+     */
+    public CoapClientOptions setBlockwiseTransfer(boolean blockwiseTransfer){
+        this.blockwiseTransfer = blockwiseTransfer;
+        return this;
+    }
+
+
+    public boolean isBlockwiseTransfer(){
+        return this.blockwiseTransfer;
+    }
+
+
+    /**
+     * Sets the preferred block size and the window size of the {@link ClientBlockwiseHandler}. As with the system
+     * property {@link ClientBlockwiseHandler#BLOCK_SIZE}, a configured block size is sent with all requests with
+     * code GET (early negotiation).
+     *
+     * @param blockSize the preferred block size in bytes (rounded down to a power of two between 16 and 1024)
+     * @param blockWindowSize the maximum number of requests for blocks of a response content in flight
+     *
+     * @return this {@link CoapClientOptions}
+     */
+    public CoapClientOptions setBlockSize(int blockSize, int blockWindowSize){
+        if(blockWindowSize < 1)
+            throw new IllegalArgumentException("Window size must be at least 1 (was: " + blockWindowSize + ")");
+
+        this.blockSize = blockSize;
+        this.blockWindowSize = blockWindowSize;
+        this.earlyBlockSizeNegotiation = true;
+        return this;
+    }
+
+
+    public int getBlockSize(){
+        return this.blockSize;
+    }
+
+
+    public int getBlockWindowSize(){
+        return this.blockWindowSize;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the block size was configured (see {@link #setBlockSize(int, int)}), i.e. if it
+     * is to be sent with all requests with code GET, or <code>false</code> otherwise
+     */
+    public boolean isEarlyBlockSizeNegotiation(){
+        return this.earlyBlockSizeNegotiation;
+    }
+
+
+    /**
+     * Sets the maximum batch size and latency of the {@link DatagramWriteCoalescer}
+     *
+     * @param writeBatchSize the number of queued datagrams that causes an immediate flush (or <code>1</code> for no
+     *                       write coalescing)
+     * @param writeBatchLatencyMicros the maximum time in microseconds a datagram is queued
+     *
+     * @return this {@link CoapClientOptions}
+     */
+    public CoapClientOptions setWriteCoalescing(int writeBatchSize, long writeBatchLatencyMicros){
+        if(writeBatchSize < 1)
+            throw new IllegalArgumentException("Maximum batch size must be at least 1 (was: " + writeBatchSize + ")");
+
+        if(writeBatchLatencyMicros < 0)
+            throw new IllegalArgumentException("Maximum latency must not be negative (was: "
+                    + writeBatchLatencyMicros + ")");
+
+        this.writeBatchSize = writeBatchSize;
+        this.writeBatchLatencyMicros = writeBatchLatencyMicros;
+        return this;
+    }
+
+
+    public int getWriteBatchSize(){
+        return this.writeBatchSize;
+    }
+
+
+    public long getWriteBatchLatencyMicros(){
+        return this.writeBatchLatencyMicros;
+    }
+
+
+    /**
+     * Enables or disables the {@link CocoaCongestionControl} (instead of the {@link FixedTimeoutCongestionControl})
+     *
+     * @param cocoa <code>true</code> to use CoCoA or <code>false</code> otherwise
+     *
+     * @return this {@link CoapClientOptions}
+     */
+    public CoapClientOptions setCocoa(boolean cocoa){
+        this.cocoa = cocoa;
+        return this;
+    }
+
+
+    public boolean isCocoa(){
+        return this.cocoa;
+    }
+
+
+    /**
+     * Returns a new {@link CongestionControl} according to {@link #isCocoa()}
+     */
+    CongestionControl createCongestionControl(){
+        return cocoa ? new CocoaCongestionControl() : new FixedTimeoutCongestionControl();
+    }
+}
@@ -198,6 +198,22 @@ public class CoapResponseDispatcher extends SimpleChannelHandler{
                         }
                     }
 
+                    else if(cause instanceof RequestQueueFullException){
+                        RequestQueueFullException exception = (RequestQueueFullException) cause;
+
+                        InetSocketAddress remoteEndpoint = exception.getRemoteEndpoint();
+                        Token token = exception.getToken();
+
+                        CoapResponseProcessor callback = removeResponseCallback(remoteEndpoint, token);
+                        tokenFactory.passBackToken(remoteEndpoint, token);
+
+                        if(callback instanceof RequestQueueFullProcessor){
+                            ((RequestQueueFullProcessor) callback).processRequestQueueFull(
+                                    remoteEndpoint, exception.getQueueSize()
+                            );
+                        }
+                    }
+
                     log.warn("Could not write CoAP Request!", cause);
                 }
             }
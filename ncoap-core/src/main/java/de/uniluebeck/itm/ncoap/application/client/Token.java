@@ -24,14 +24,10 @@
  */
 package de.uniluebeck.itm.ncoap.application.client;
 
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Longs;
 import com.google.common.primitives.UnsignedLongs;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
 
-import java.util.Arrays;
-
 /**
  * A {@link Token} is the identifier to relate {@link CoapRequest}s with {@link CoapResponse}s. It consists of a byte
  * array with a size between 0 and 8 (both inclusive). So, {@link Token} basically is a wrapper class for a byte array.
@@ -40,13 +36,18 @@ import java.util.Arrays;
  * array containing a single zero byte (all bits set to 0) is different from a byte array backed by a byte array
  * containing two zero bytes.
  *
+ * Internally, the bytes are stored as (unsigned) <code>long</code> value plus length, i.e. {@link Token}s are
+ * immutable and can be compared and hashed without any allocation.
+ *
  * @author Oliver Kleine
  */
 public class Token implements Comparable<Token>{
 
     private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
 
-    private byte[] token;
+    private final long value;
+    private final int length;
+    private final int hashCode;
 
     /**
      * Creates a new {@link Token} instance.
@@ -56,18 +57,88 @@ public class Token implements Comparable<Token>{
      * @throws java.lang.IllegalArgumentException if the length of the given byte array is larger than 8
      */
     public Token(byte[] token){
+        this(toLong(token), token.length);
+    }
+
+
+    /**
+     * Creates a new {@link Token} instance.
+     *
+     * @param value the (unsigned) value of the bytes this {@link Token} is supposed to consist of, i.e. the last byte
+     *              is the least significant byte of the value
+     * @param length the number of bytes this {@link Token} is supposed to consist of
+     *
+     * @throws java.lang.IllegalArgumentException if the length is larger than 8 or the value does not fit into the
+     * given number of bytes
+     */
+    public Token(long value, int length){
+        if(length < 0 || length > 8)
+            throw new IllegalArgumentException("Maximum token length is 8 (but given length was " + length + ")");
+
+        if(length < 8 && (value >>> (8 * length)) != 0)
+            throw new IllegalArgumentException("Value " + value + " does not fit into " + length + " bytes");
+
+        this.value = value;
+        this.length = length;
+        this.hashCode = 31 * (int) (value ^ (value >>> 32)) + length;
+    }
+
+
+    private static long toLong(byte[] token){
         if(token.length > 8)
             throw new IllegalArgumentException("Maximum token length is 8 (but given length was " + token.length + ")");
 
-        this.token = token;
+        long result = 0;
+        for(byte b : token)
+            result = (result << 8) | (b & 0xFF);
+
+        return result;
     }
 
+
     /**
-     * Returns the byte array this {@link Token} instance wraps
-     * @return the byte array this {@link Token} instance wraps
+     * Returns a new byte array containing the bytes of this {@link Token}
+     * @return a new byte array containing the bytes of this {@link Token}
      */
     public byte[] getBytes(){
-        return this.token;
+        byte[] result = new byte[length];
+        for(int i = 0; i < length; i++)
+            result[i] = getByte(i);
+
+        return result;
+    }
+
+
+    /**
+     * Returns the byte of this {@link Token} at the given position
+     * @param index the position of the byte to be returned
+     * @return the byte of this {@link Token} at the given position
+     */
+    public byte getByte(int index){
+        if(index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index " + index + " (token length: " + length + ")");
+
+        return (byte) (value >>> (8 * (length - 1 - index)));
+    }
+
+
+    /**
+     * Returns the (unsigned) value of the bytes of this {@link Token}, i.e. the last byte is the least significant
+     * byte of the returned value
+     *
+     * @return the (unsigned) value of the bytes of this {@link Token}
+     */
+    public long getValue(){
+        return this.value;
+    }
+
+
+    /**
+     * Returns the number of bytes of this {@link Token}
+     * @return the number of bytes of this {@link Token}
+     */
+    public int getLength(){
+        return this.length;
     }
 
 
@@ -77,54 +148,42 @@ public class Token implements Comparable<Token>{
      */
     @Override
     public String toString(){
-        String tmp = bytesToHex(getBytes());
-
-        if(tmp.length() == 0)
+        if(length == 0)
             return "<EMPTY>";
-        else
-            return "0x" + tmp;
-    }
 
-
-    private static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for ( int j = 0; j < bytes.length; j++ ) {
-            int v = bytes[j] & 0xFF;
+        char[] hexChars = new char[length * 2];
+        for(int j = 0; j < length; j++){
+            int v = getByte(j) & 0xFF;
             hexChars[j * 2] = hexArray[v >>> 4];
             hexChars[j * 2 + 1] = hexArray[v & 0x0F];
         }
-        return new String(hexChars);
+
+        return "0x" + new String(hexChars);
     }
 
+
     @Override
     public boolean equals(Object object){
         if(object == null || (!(object instanceof Token)))
             return false;
 
         Token other = (Token) object;
-        return Arrays.equals(this.getBytes(), other.getBytes());
+        return this.value == other.value && this.length == other.length;
     }
 
 
     @Override
     public int hashCode(){
-        return Arrays.hashCode(token);
+        return hashCode;
     }
 
 
     @Override
     public int compareTo(Token other) {
 
-        if(other.equals(this))
-            return 0;
-
-        if(this.getBytes().length < other.getBytes().length)
-            return -1;
-
-        if(this.getBytes().length > other.getBytes().length)
-            return 1;
+        if(this.length != other.length)
+            return this.length < other.length ? -1 : 1;
 
-        return UnsignedLongs.compare(Longs.fromByteArray(Bytes.concat(this.getBytes(), new byte[8])),
-                                     Longs.fromByteArray(Bytes.concat(other.getBytes(), new byte[8])));
+        return UnsignedLongs.compare(this.value, other.value);
     }
 }
@@ -22,26 +22,21 @@
  * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
  * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-
 package de.uniluebeck.itm.ncoap.application.client;
 
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
-
-import com.google.common.base.Supplier;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.SortedSetMultimap;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Longs;
-import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.TreeSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * The TokenFactory generates tokens to match incoming responses with open requests and enable the
@@ -56,15 +51,36 @@ import java.util.TreeSet;
  * This leads to 257 (<code>(2^8) + 1</code>) different tokens for a maximum token length of 1 or 65793 different
  * tokens (<code>(2^16) + (2^8) + 1</code>) for a maximum token length of 2 and so on and so forth...
  *
+ * Internally, all these tokens are numbered in their natural order (i.e. the empty token is 0, [00000000] is 1,
+ * [11111111] is 256, ([00000000], [00000000]) is 257 and so on). Each remote endpoint has its own atomic counter
+ * to issue these numbers and a table of slots with the numbers that are currently in use. Both, issuing a token and
+ * passing it back, are thus lock-free and (unless all tokens are in use) take constant time. The number of tokens
+ * in use per remote endpoint is bounded (see {@link #DEFAULT_MAX_TOKENS_IN_USE}).
+ *
  * @author Oliver Kleine
  */
 public class TokenFactory {
 
+    /**
+     * The default maximum number of tokens in use per remote endpoint (65536)
+     */
+    public static final int DEFAULT_MAX_TOKENS_IN_USE = 65536;
+
+    private static final int SLOTS_PER_CHUNK = 256;
+
+    private static final int MIN_SWEEP_THRESHOLD = 1024;
+
+    private static final long[] FIRST_NUMBERS = createFirstNumbers();
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private int maxTokenLength;
+    private final int maxTokenLength;
+    private final long numberOfTokens;
+    private final int maxTokensInUse;
+
+    private final ConcurrentHashMap<InetSocketAddress, EndpointTokens> usedTokens;
+    private final AtomicInteger sweepThreshold;
 
-    private SortedSetMultimap<InetSocketAddress, Token> usedTokens;
 
     /**
      * Creates a new instance of {@link TokenFactory} producing {@link Token}s where the length of
@@ -74,16 +90,35 @@ public class TokenFactory {
      *                       factory.
      */
     public TokenFactory(int maxTokenLength){
+        this(maxTokenLength, DEFAULT_MAX_TOKENS_IN_USE);
+    }
+
+
+    /**
+     * Creates a new instance of {@link TokenFactory} producing {@link Token}s where the length of
+     * {@link Token#getBytes()} is not longer than the given maximum length.
+     *
+     * @param maxTokenLength the maximum length of {@link Token#getBytes()} for {@link Token}s produced by this
+     *                       factory.
+     * @param maxTokensInUse the maximum number of {@link Token}s in use per remote endpoint (further requests cause
+     *                       a {@link NoTokenAvailableException})
+     */
+    public TokenFactory(int maxTokenLength, int maxTokensInUse){
+        if(maxTokenLength < 0 || maxTokenLength > 8)
+            throw new IllegalArgumentException("Token length must be between 0 and 8 (both inclusive)");
+
+        if(maxTokensInUse <= 0)
+            throw new IllegalArgumentException("Maximum number of tokens in use must be positive (was: "
+                    + maxTokensInUse + ")");
+
         this.maxTokenLength = maxTokenLength;
 
-        Supplier<TreeSet<Token>> factory = new Supplier<TreeSet<Token>>() {
-            @Override
-            public TreeSet<Token> get() {
-                return new TreeSet<>();
-            }
-        };
+        //the counters never exceed Long.MAX_VALUE, so there is no need to wrap them for a maximum length of 8
+        this.numberOfTokens = maxTokenLength == 8 ? Long.MAX_VALUE : FIRST_NUMBERS[maxTokenLength + 1];
+        this.maxTokensInUse = (int) Math.min(maxTokensInUse, numberOfTokens);
 
-        usedTokens = Multimaps.newSortedSetMultimap(new HashMap<InetSocketAddress, Collection<Token>>(), factory);
+        this.usedTokens = new ConcurrentHashMap<>();
+        this.sweepThreshold = new AtomicInteger(MIN_SWEEP_THRESHOLD);
     }
 
 
@@ -91,39 +126,36 @@ public class TokenFactory {
      * Returns a {@link Token} to be used with an outgoing {@link CoapRequest} to relate incoming
      * {@link CoapResponse}(s) with that request. This {@link Token} is ensured to be unique in combination with the
      * given {@link InetSocketAddress}, i.e. as long as there are any other ongoing communications with the same
-     * CoAP server, the returned {@link ListenableFuture<Token>} will be set with a {@link Token} that is different
-     * from all other {@link Token}s in use with the given remote CoAP endpoints.
+     * CoAP server, the returned {@link Token} is different from all other {@link Token}s in use with the given
+     * remote CoAP endpoints.
      *
      * @param remoteEndpoint the {@link InetSocketAddress} of the CoAP server this token is supposed to be used
      *                            to communicate with.
      *
-     * @return a {@link ListenableFuture<Token>} that will be set with a {@link Token} that is not already in use to
-     * for ongoing communications with the given {@link InetSocketAddress}.
+     * @return a {@link Token} that is not already in use to for ongoing communications with the given
+     * {@link InetSocketAddress}.
+     *
+     * @throws NoTokenAvailableException if the maximum number of {@link Token}s is already in use for the given
+     * {@link InetSocketAddress}
      */
-    public synchronized Token getNextToken(InetSocketAddress remoteEndpoint) throws NoTokenAvailableException {
+    public Token getNextToken(InetSocketAddress remoteEndpoint) throws NoTokenAvailableException {
 
-        Token nextToken = getNextTokenInOrder(remoteEndpoint);
+        while(true){
+            EndpointTokens endpointTokens = getEndpointTokens(remoteEndpoint);
 
-        if(nextToken == null){
-            throw new NoTokenAvailableException(remoteEndpoint);
-        }
-        else{
-            usedTokens.put(remoteEndpoint, nextToken);
-            return nextToken;
-        }
-    }
+            if(!endpointTokens.acquire())
+                //the endpoint tokens were retired concurrently, i.e. retry with a new instance
+                continue;
 
+            long number = endpointTokens.allocate();
 
-    private Token getNextTokenInOrder(InetSocketAddress remoteEndpoint){
-        Token result;
-
-        if(!usedTokens.containsKey(remoteEndpoint))
-            result = new Token(new byte[0]);
-
-        else
-            result = getSuccessor(usedTokens.get(remoteEndpoint).last());
+            if(number < 0){
+                releaseEndpointTokens(remoteEndpoint, endpointTokens);
+                throw new NoTokenAvailableException(remoteEndpoint);
+            }
 
-        return result;
+            return createToken(number);
+        }
     }
 
 
@@ -134,53 +166,180 @@ public class TokenFactory {
      * @param token the {@link Token} that is not used anymore
      * @param remoteEndpoint the {@link InetSocketAddress} of the CoAP server, the {@link Token} was used to
      *                            communicate with
+     *
+     * @return <code>true</code> if the given {@link Token} was in use and is now passed back, <code>false</code>
+     * otherwise
      */
-    public synchronized boolean passBackToken(InetSocketAddress remoteEndpoint, Token token){
+    public boolean passBackToken(InetSocketAddress remoteEndpoint, Token token){
+
+        EndpointTokens endpointTokens = usedTokens.get(remoteEndpoint);
+        long number = getNumber(token);
+
+        if(endpointTokens != null && number >= 0 && endpointTokens.free(number)){
+            releaseEndpointTokens(remoteEndpoint, endpointTokens);
 
-        if(usedTokens.remove(remoteEndpoint, token)){
-            log.debug("Passed back token {} (length: {}) from {}. (Now {} tokens in use.)",
-                    new Object[]{token, token.getBytes().length, remoteEndpoint,
-                            usedTokens.get(remoteEndpoint).size()});
+            if(log.isDebugEnabled())
+                log.debug("Passed back token {} (length: {}) from {}.",
+                        new Object[]{token, token.getLength(), remoteEndpoint});
 
             return true;
         }
 
         else{
-            log.error("Could not pass back token {} (length: {}) from {}. (Still {} tokens in use.)",
-                    new Object[]{token, token.getBytes().length, remoteEndpoint,
-                            usedTokens.get(remoteEndpoint).size()});
+            log.error("Could not pass back token {} (length: {}) from {}.",
+                    new Object[]{token, token.getLength(), remoteEndpoint});
 
             return false;
         }
     }
 
 
-    private Token getSuccessor(Token token){
+    private EndpointTokens getEndpointTokens(InetSocketAddress remoteEndpoint){
+        EndpointTokens endpointTokens = usedTokens.get(remoteEndpoint);
 
-        boolean allBitsSet = true;
+        if(endpointTokens == null){
+            EndpointTokens newEndpointTokens = new EndpointTokens();
+            endpointTokens = usedTokens.putIfAbsent(remoteEndpoint, newEndpointTokens);
 
-        //Check if all bits in the given byte array are set to 1
-        for(byte b : token.getBytes()){
-            if(b != -1){
-                allBitsSet = false;
-                break;
+            if(endpointTokens == null){
+                endpointTokens = newEndpointTokens;
+                sweepIfNecessary();
             }
         }
 
-        if(allBitsSet){
-            //make e.g. ([00000000], [00000000]) the successor of ([11111111])
-            if(token.getBytes().length < maxTokenLength)
-                return new Token(new byte[token.getBytes().length + 1]);
-                //make the empty byte array the successor of the byte array with 8 [11111111] bytes
-            else
-                return new Token(new byte[0]);
+        return endpointTokens;
+    }
+
+
+    private void releaseEndpointTokens(InetSocketAddress remoteEndpoint, EndpointTokens endpointTokens){
+        endpointTokens.release();
+
+        //keep the endpoint tokens unless there are too many remote endpoints, i.e. avoid re-creation for every request
+        if(usedTokens.size() > sweepThreshold.get() && endpointTokens.retire())
+            usedTokens.remove(remoteEndpoint, endpointTokens);
+    }
+
+
+    private void sweepIfNecessary(){
+        int threshold = sweepThreshold.get();
+
+        if(usedTokens.size() <= threshold || !sweepThreshold.compareAndSet(threshold, Integer.MAX_VALUE))
+            return;
+
+        Iterator<Map.Entry<InetSocketAddress, EndpointTokens>> entries = usedTokens.entrySet().iterator();
+        while(entries.hasNext()){
+            Map.Entry<InetSocketAddress, EndpointTokens> entry = entries.next();
+            if(entry.getValue().retire())
+                usedTokens.remove(entry.getKey(), entry.getValue());
         }
 
+        //the next sweep is due when the number of remote endpoints has doubled (amortized constant time)
+        sweepThreshold.set(Math.max(MIN_SWEEP_THRESHOLD, 2 * usedTokens.size()));
+    }
+
+
+    private static long[] createFirstNumbers(){
+        //the number of the first token with length i is the number of tokens shorter than i
+        long[] result = new long[9];
+        for(int i = 1; i < result.length; i++)
+            result[i] = (result[i - 1] << 8) + 1;
+
+        return result;
+    }
+
+
+    private static Token createToken(long number){
+        int length = 0;
+        while(length < 8 && number >= FIRST_NUMBERS[length + 1])
+            length++;
+
+        return new Token(number - FIRST_NUMBERS[length], length);
+    }
+
+
+    private long getNumber(Token token){
+        int length = token.getLength();
+        long value = token.getValue();
+
+        if(length > maxTokenLength)
+            return -1;
 
+        //numbers beyond Long.MAX_VALUE (i.e. some tokens of length 8) are never issued
+        if(value < 0 || value > Long.MAX_VALUE - FIRST_NUMBERS[length])
+            return -1;
 
-        long tmp = Longs.fromByteArray(Bytes.concat(new byte[8-token.getBytes().length], token.getBytes())) + 1;
-        byte[] result = Longs.toByteArray(tmp);
-        return new Token(Arrays.copyOfRange(result, 8 - token.getBytes().length, 8));
+        return FIRST_NUMBERS[length] + value;
     }
 
+
+    /**
+     * The tokens in use with a single remote endpoint. A token number is in use if the slot at the position
+     * <code>number % maxTokensInUse</code> contains <code>number + 1</code> (<code>0</code> means the slot is free).
+     * The slots are allocated lazily in chunks.
+     */
+    private class EndpointTokens {
+
+        private final AtomicLong counter;
+        private final AtomicReferenceArray<AtomicLongArray> chunks;
+
+        //the number of tokens in use plus the number of ongoing allocations or -1 if retired
+        private final AtomicInteger references;
+
+        private EndpointTokens(){
+            this.counter = new AtomicLong(0);
+            this.chunks = new AtomicReferenceArray<>((maxTokensInUse + SLOTS_PER_CHUNK - 1) / SLOTS_PER_CHUNK);
+            this.references = new AtomicInteger(0);
+        }
+
+        private boolean acquire(){
+            while(true){
+                int current = references.get();
+                if(current < 0)
+                    return false;
+
+                if(references.compareAndSet(current, current + 1))
+                    return true;
+            }
+        }
+
+        private void release(){
+            references.decrementAndGet();
+        }
+
+        private boolean retire(){
+            return references.compareAndSet(0, -1);
+        }
+
+        private long allocate(){
+            //if the slot of the next number is still in use, try the following numbers
+            for(int attempt = 0; attempt < maxTokensInUse; attempt++){
+                long number = counter.getAndIncrement() % numberOfTokens;
+                int slot = (int) (number % maxTokensInUse);
+
+                if(getChunk(slot).compareAndSet(slot % SLOTS_PER_CHUNK, 0, number + 1))
+                    return number;
+            }
+
+            return -1;
+        }
+
+        private boolean free(long number){
+            int slot = (int) (number % maxTokensInUse);
+            AtomicLongArray chunk = chunks.get(slot / SLOTS_PER_CHUNK);
+
+            return chunk != null && chunk.compareAndSet(slot % SLOTS_PER_CHUNK, number + 1, 0);
+        }
+
+        private AtomicLongArray getChunk(int slot){
+            int index = slot / SLOTS_PER_CHUNK;
+            AtomicLongArray chunk = chunks.get(index);
+
+            if(chunk == null){
+                chunks.compareAndSet(index, null, new AtomicLongArray(SLOTS_PER_CHUNK));
+                chunk = chunks.get(index);
+            }
+
+            return chunk;
+        }
+    }
 }
@@ -26,6 +26,7 @@ package de.uniluebeck.itm.ncoap.application.server;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.uniluebeck.itm.ncoap.application.AbstractCoapChannelPipelineFactory;
+import de.uniluebeck.itm.ncoap.application.DatagramTransport;
 import de.uniluebeck.itm.ncoap.application.server.webservice.Webservice;
 import de.uniluebeck.itm.ncoap.communication.observe.server.WebserviceObservationHandler;
 import de.uniluebeck.itm.ncoap.communication.reliability.incoming.IncomingMessageReliabilityHandler;
@@ -33,13 +34,14 @@ import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.OutgoingMessag
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.channel.socket.DatagramChannel;
-import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.ThreadRenamingRunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 
@@ -52,16 +54,34 @@ import java.util.concurrent.ThreadFactory;
 * Each instance of {@link CoapServerApplication} is automatically bound to a local port to listen at for
 * incoming requests.
 *
+* Optionally, the server binds multiple {@link DatagramChannel}s to the same local port using the socket option
+* <code>SO_REUSEPORT</code> (Linux, Java 9 or later, {@link DatagramTransport#NIO}). Then the kernel distributes incoming datagrams among the
+* channels (by the hash of source and destination) and thus among multiple I/O threads. All channels get their own
+* {@link ChannelPipeline} but share the same {@link ChannelHandler} instances (i.e. the {@link WebserviceManager},
+* the observation handler and the reliability handlers). Thus, registered services, observations and ongoing
+* message exchanges are consistent no matter which channel received a message.
+*
 * @author Oliver Kleine
 */
 public class CoapServerApplication{
 
     public static final int DEFAULT_COAP_SERVER_PORT = 5683;
 
+    /**
+     * The size of the buffer to receive datagrams (65536), i.e. datagrams are never truncated
+     */
+    public static final int RECEIVE_BUFFER_SIZE = 65536;
+
+    /**
+     * The default number of {@link DatagramChannel}s bound to the local port (1)
+     */
+    public static final int DEFAULT_NUMBER_OF_CHANNELS = 1;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     private WebserviceManager webserviceManager;
     private DatagramChannel channel;
+    private List<DatagramChannel> channels;
 
     /**
      * This constructor creates an instance of {@link CoapServerApplication}
@@ -69,6 +89,45 @@ public class CoapServerApplication{
      */
     public CoapServerApplication(WebserviceNotFoundHandler webServiceNotFoundHandler,
                                  InetSocketAddress localSocketAddress){
+        this(webServiceNotFoundHandler, localSocketAddress, DEFAULT_NUMBER_OF_CHANNELS);
+    }
+
+    /**
+     * This constructor creates an instance of {@link CoapServerApplication} with the given number of
+     * {@link DatagramChannel}s bound to the given local socket address. If the socket option
+     * <code>SO_REUSEPORT</code> is not supported on this platform, the server falls back to a single channel.
+     *
+     * @param webServiceNotFoundHandler the {@link WebserviceNotFoundHandler} to deal with requests for services
+     *                                  that do not exist
+     * @param localSocketAddress the socket address to listen at
+     * @param numberOfChannels the number of {@link DatagramChannel}s (each served by its own I/O thread) to be bound
+     *                         to the given local socket address
+     */
+    public CoapServerApplication(WebserviceNotFoundHandler webServiceNotFoundHandler,
+                                 InetSocketAddress localSocketAddress, int numberOfChannels){
+        this(webServiceNotFoundHandler, localSocketAddress, numberOfChannels, DatagramTransport.getDefault());
+    }
+
+    /**
+     * This constructor creates an instance of {@link CoapServerApplication} with the given number of
+     * {@link DatagramChannel}s bound to the given local socket address using the given {@link DatagramTransport}.
+     * If the transport does not support the socket option <code>SO_REUSEPORT</code>, the server falls back to a
+     * single channel.
+     *
+     * @param webServiceNotFoundHandler the {@link WebserviceNotFoundHandler} to deal with requests for services
+     *                                  that do not exist
+     * @param localSocketAddress the socket address to listen at
+     * @param numberOfChannels the number of {@link DatagramChannel}s (each served by its own I/O thread) to be bound
+     *                         to the given local socket address
+     * @param transport the {@link DatagramTransport} to provide the {@link DatagramChannel}s
+     */
+    public CoapServerApplication(WebserviceNotFoundHandler webServiceNotFoundHandler,
+                                 InetSocketAddress localSocketAddress, int numberOfChannels,
+                                 DatagramTransport transport){
+
+        if(numberOfChannels < 1)
+            throw new IllegalArgumentException("Number of channels must be at least 1 (was: " +
+                    numberOfChannels + ")");
 
         ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("CoAP Server I/O Thread#%d").build();
 
@@ -80,13 +139,14 @@ public class CoapServerApplication{
         });
 
         int numberOfThreads = Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
+        numberOfThreads = Math.max(numberOfThreads, numberOfChannels * 2);
         log.info("No. of I/O Threads: {}", numberOfThreads);
 
         ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(numberOfThreads, threadFactory);
         executorService.setRemoveOnCancelPolicy(true);
 
         //Create bootstrap
-        ChannelFactory channelFactory = new NioDatagramChannelFactory(executorService, numberOfThreads/2);
+        ChannelFactory channelFactory = transport.createChannelFactory(executorService, numberOfThreads/2);
         ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
 
         ServerChannelPipelineFactory pipelineFactory =
@@ -94,9 +154,20 @@ public class CoapServerApplication{
 
 
         bootstrap.setPipelineFactory(pipelineFactory);
+        bootstrap.setOption("receiveBufferSizePredictor", new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE));
+
+        this.channels = new ArrayList<>(numberOfChannels);
 
-        this.channel = (DatagramChannel) bootstrap.bind(localSocketAddress);
-        log.debug("Bound to local address: {}", this.channel.getLocalAddress());
+        if(numberOfChannels == 1){
+            this.channel = (DatagramChannel) bootstrap.bind(localSocketAddress);
+            this.channels.add(this.channel);
+        }
+        else{
+            bindChannels(transport, channelFactory, pipelineFactory, localSocketAddress, numberOfChannels);
+        }
+
+        log.debug("Bound {} channel(s) ({}) to local address: {}", new Object[]{this.channels.size(), transport,
+                this.channel.getLocalAddress()});
 
         this.webserviceManager =
                 (WebserviceManager) pipelineFactory.getChannelHandler(ServerChannelPipelineFactory.WEBSERVICE_MANAGER);
@@ -136,6 +207,59 @@ public class CoapServerApplication{
 
     }
 
+    private void bindChannels(DatagramTransport transport, ChannelFactory channelFactory,
+                              ServerChannelPipelineFactory pipelineFactory, InetSocketAddress localSocketAddress,
+                              int numberOfChannels){
+
+        InetSocketAddress bindAddress = localSocketAddress;
+
+        for(int i = 0; i < numberOfChannels; i++){
+            DatagramChannel datagramChannel;
+            try{
+                datagramChannel = (DatagramChannel) channelFactory.newChannel(pipelineFactory.getPipeline());
+            }
+            catch(Exception e){
+                throw new ChannelPipelineException("Failed to create pipeline for server channel.", e);
+            }
+
+            datagramChannel.getConfig().setReceiveBufferSizePredictor(
+                    new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE));
+
+            if(!transport.enableReusePort(datagramChannel)){
+                if(i == 0){
+                    log.warn("Socket option SO_REUSEPORT is not supported by transport {}. Use only one channel.",
+                            transport);
+                    numberOfChannels = 1;
+                }
+                else{
+                    log.warn("Could not enable SO_REUSEPORT for channel #{}. Use only {} channel(s).", i, i);
+                    datagramChannel.close();
+                    break;
+                }
+            }
+
+            ChannelFuture bindFuture = datagramChannel.bind(bindAddress).awaitUninterruptibly();
+            if(!bindFuture.isSuccess()){
+                datagramChannel.close();
+                for(DatagramChannel boundChannel : this.channels)
+                    boundChannel.close().awaitUninterruptibly();
+
+                throw new ChannelException("Failed to bind to: " + bindAddress, bindFuture.getCause());
+            }
+
+            if(i == 0){
+                this.channel = datagramChannel;
+
+                //all further channels must use the same (possibly ephemeral) port
+                bindAddress = new InetSocketAddress(localSocketAddress.getAddress(),
+                        datagramChannel.getLocalAddress().getPort());
+            }
+
+            this.channels.add(datagramChannel);
+        }
+    }
+
+
     public CoapServerApplication(InetSocketAddress localSocketAddress){
         this(WebserviceNotFoundHandler.getDefault(), localSocketAddress);
     }
@@ -176,11 +300,27 @@ public class CoapServerApplication{
         return this.channel.getLocalAddress().getPort();
     }
 
+    /**
+     * Returns the number of {@link DatagramChannel}s bound to the local port. This may be less than the number
+     * given to the constructor if the socket option <code>SO_REUSEPORT</code> is not supported.
+     *
+     * @return the number of {@link DatagramChannel}s bound to the local port
+     */
+    public int getNumberOfChannels(){
+        return this.channels.size();
+    }
+
     public void shutdown(){
         log.warn("Shutdown server...");
 
         this.webserviceManager.shutdownAllServices();
 
+        //The channels share a single factory, i.e. release the external resources after the last one was closed
+        for(DatagramChannel otherChannel : this.channels){
+            if(otherChannel != this.channel)
+                otherChannel.close().awaitUninterruptibly();
+        }
+
         ChannelFuture channelClosedFuture = this.channel.close();
 
         //Await the closure and let the factory release its external resource to finalize the shutdown
@@ -25,8 +25,10 @@
 package de.uniluebeck.itm.ncoap.application.server;
 
 import de.uniluebeck.itm.ncoap.application.AbstractCoapChannelPipelineFactory;
+import de.uniluebeck.itm.ncoap.communication.blockwise.ServerBlockwiseHandler;
 import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder;
 import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.DatagramWriteCoalescer;
 import de.uniluebeck.itm.ncoap.communication.observe.server.WebserviceObservationHandler;
 import de.uniluebeck.itm.ncoap.communication.reliability.incoming.IncomingMessageReliabilityHandler;
 import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.OutgoingMessageReliabilityHandler;
@@ -51,14 +53,20 @@ public class ServerChannelPipelineFactory extends AbstractCoapChannelPipelineFac
 
         addChannelHandler(EXECUTION_HANDLER, new ExecutionHandler(executorService));
 
+        if(DatagramWriteCoalescer.isEnabled())
+            addChannelHandler(WRITE_COALESCER, new DatagramWriteCoalescer(executorService));
+
         addChannelHandler(ENCODER, new CoapMessageEncoder());
         addChannelHandler(DECODER, new CoapMessageDecoder());
 
-        addChannelHandler(OBSERVATION_HANDLER, new WebserviceObservationHandler());
+        addChannelHandler(OBSERVATION_HANDLER, new WebserviceObservationHandler(executorService));
 
         addChannelHandler(OUTGOING_MESSAGE_RELIABILITY_HANDLER, new OutgoingMessageReliabilityHandler(executorService));
         addChannelHandler(INCOMING_MESSAGE_RELIABILITY_HANDLER, new IncomingMessageReliabilityHandler(executorService));
 
+        if(ServerBlockwiseHandler.isEnabled())
+            addChannelHandler(BLOCKWISE_HANDLER, new ServerBlockwiseHandler(executorService));
+
         addChannelHandler(WEBSERVICE_MANAGER, new WebserviceManager(webserviceNotFoundHandler, executorService));
     }
 }
@@ -26,6 +26,7 @@ package de.uniluebeck.itm.ncoap.application.server;
 
 import com.google.common.util.concurrent.SettableFuture;
 import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableWebservice;
 import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebservice;
 import de.uniluebeck.itm.ncoap.application.server.webservice.Webservice;
 import de.uniluebeck.itm.ncoap.application.server.webservice.WellKnownCoreResource;
@@ -39,7 +40,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 
 /**
@@ -74,7 +76,13 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     //This map holds all registered webservices (key: URI path, value: Webservice instance)
-    private HashMap<String, Webservice> registeredServices;
+    private Map<String, Webservice<?>> registeredServices;
+
+    //This router finds the webservice for incoming requests (including parameter and wildcard paths)
+    private WebserviceRouter router;
+
+    //The links of all registered webservices are maintained by this resource
+    private WellKnownCoreResource wellKnownCoreResource;
 
 
     private ScheduledExecutorService executorService;
@@ -91,11 +99,13 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
      */
     public WebserviceManager(WebserviceNotFoundHandler webServiceNotFoundHandler, ScheduledExecutorService executorService){
 
-        this.registeredServices = new HashMap<>();
+        this.registeredServices = new ConcurrentHashMap<>();
+        this.router = new WebserviceRouter();
         this.executorService = executorService;
         this.webServiceNotFoundHandler = webServiceNotFoundHandler;
         
-        registerService(new WellKnownCoreResource(registeredServices));
+        this.wellKnownCoreResource = new WellKnownCoreResource(registeredServices);
+        registerService(wellKnownCoreResource);
     }
 
 
@@ -168,7 +178,7 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
 
 
         //Look up web service instance to handle the request
-        final Webservice webservice = registeredServices.get(coapRequest.getUriPath());
+        final Webservice<?> webservice = router.lookup(coapRequest);
 
         try{
             //The requested Webservice does not exist
@@ -180,9 +190,17 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
             else if(coapRequest.isIfNonMatchSet())
                 sendPreconditionFailed(coapRequest.getMessageTypeName(), coapRequest.getUriPath(), responseFuture);
 
-            //The incoming request is to be handled by the addressed service
-            else
-                webservice.processCoapRequest(responseFuture, coapRequest, remoteEndpoint);
+            //The incoming request is to be handled by the addressed service (unless it can be answered from cache)
+            else{
+                CoapResponse cachedResponse = null;
+                if(webservice instanceof NotObservableWebservice)
+                    cachedResponse = ((NotObservableWebservice) webservice).getCachedResponse(coapRequest);
+
+                if(cachedResponse != null)
+                    responseFuture.set(cachedResponse);
+                else
+                    webservice.processCoapRequest(responseFuture, coapRequest, remoteEndpoint);
+            }
 
         }
         catch (Exception e) {
@@ -264,7 +282,12 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
      * @return <code>true</code> if the service was removed succesfully, <code>false</code> otherwise.
      */
     public synchronized boolean shutdownService(String uriPath) {
-        Webservice removedService = registeredServices.remove(uriPath);
+        Webservice<?> removedService = registeredServices.remove(uriPath);
+
+        if(removedService != null){
+            router.remove(uriPath);
+            wellKnownCoreResource.removeWebservice(uriPath);
+        }
 
         if(removedService != null){
             log.info("Service {} removed from server.", uriPath);
@@ -285,6 +308,20 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
     }
 
 
+    /**
+     * This method is to be invoked by registered {@link Webservice} instances whenever their link attributes changed
+     * to update the link format document provided by the {@link WellKnownCoreResource}. Both,
+     * {@link de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableWebservice} and
+     * {@link ObservableWebservice} do so automatically.
+     *
+     * @param webservice the {@link Webservice} instance whose link attributes changed
+     */
+    public synchronized void linkAttributesChanged(Webservice<?> webservice){
+        if(registeredServices.get(webservice.getPath()) == webservice)
+            wellKnownCoreResource.addWebservice(webservice);
+    }
+
+
     /**
      * Registers a Webservice instance at the server. After registration the service will be available at the path
      * given as <code>service.getPath()</code>.
@@ -292,11 +329,29 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
      * It is not possible to register multiple webServices at a single path. If a new service is registered at the
      * server with a path from another already registered service, then the new service replaces the old one.
      *
+     * The path may contain parameter segments (e.g. <code>/devices/{id}</code>) and a wildcard as last segment
+     * (e.g. <code>/files/*</code>), see {@link WebserviceRouter}. Paths that only differ in the names of their
+     * parameter segments (e.g. <code>/devices/{id}</code> and <code>/devices/{name}</code>) are the same path, i.e.
+     * the new service replaces the old one.
+     *
      * @param webservice A {@link Webservice} instance to be registered at the server
      */
-    public final void registerService(final Webservice webservice) {
+    public final void registerService(final Webservice<?> webservice) {
         webservice.setWebserviceManager(this);
-        registeredServices.put(webservice.getPath(), webservice);
+
+        synchronized (this){
+            Webservice<?> replacedService = router.register(webservice);
+
+            //paths that only differ in the names of parameter segments are the same path for the router
+            if(replacedService != null && !replacedService.getPath().equals(webservice.getPath())){
+                registeredServices.remove(replacedService.getPath());
+                wellKnownCoreResource.removeWebservice(replacedService.getPath());
+            }
+
+            registeredServices.put(webservice.getPath(), webservice);
+            wellKnownCoreResource.addWebservice(webservice);
+        }
+
         log.info("Registered new service at " + webservice.getPath());
 
         if(webservice instanceof ObservableWebservice){
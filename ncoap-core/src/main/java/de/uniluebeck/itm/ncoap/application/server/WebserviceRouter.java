@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server;
+
+import de.uniluebeck.itm.ncoap.application.server.webservice.Webservice;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link WebserviceRouter} finds the {@link Webservice} addressed by a {@link CoapRequest}. The registered paths
+ * are stored in a trie with one node per path segment, i.e. a request is matched segment by segment on the decoded
+ * values of its {@link OptionValue.Name#URI_PATH} options without reconstructing the path as a string.
+ *
+ * Besides literal segments, a path may contain
+ * <ul>
+ *     <li>parameter segments (e.g. <code>/devices/{id}/temperature</code>) matching any single segment and</li>
+ *     <li>a wildcard (<code>*</code>) as last segment (e.g. <code>/files/*</code>) matching any number of remaining
+ *     segments (including none).</li>
+ * </ul>
+ *
+ * If multiple paths match, literal segments take precedence over parameter segments and parameter segments take
+ * precedence over wildcards. The name of a parameter segment is not relevant for routing, i.e.
+ * <code>/devices/{id}</code> and <code>/devices/{name}</code> are the same path.
+ *
+ * Lookups are lock-free, i.e. they are not blocked by concurrent registrations or removals (which are serialized
+ * with each other).
+ */
+public class WebserviceRouter {
+
+    private static final String WILDCARD = "*";
+
+    private final Node root = new Node();
+
+
+    /**
+     * Registers the given {@link Webservice} at the path returned by {@link Webservice#getPath()}. An already
+     * registered {@link Webservice} with the same path is replaced.
+     *
+     * @param webservice the {@link Webservice} to be registered
+     *
+     * @return the replaced {@link Webservice} or <code>null</code> if there was none
+     *
+     * @throws IllegalArgumentException if the path is not absolute or contains a wildcard that is not the last
+     * segment
+     */
+    public synchronized Webservice<?> register(Webservice<?> webservice){
+        String[] segments = split(webservice.getPath());
+
+        Node node = root;
+        for(int i = 0; i < segments.length; i++){
+            String segment = segments[i];
+
+            if(WILDCARD.equals(segment)){
+                if(i < segments.length - 1)
+                    throw new IllegalArgumentException("Wildcard must be the last segment (path: "
+                            + webservice.getPath() + ")");
+
+                Webservice<?> previous = node.wildcardWebservice;
+                node.wildcardWebservice = webservice;
+                return previous;
+            }
+
+            node = node.getOrCreateChild(segment);
+        }
+
+        Webservice<?> previous = node.webservice;
+        node.webservice = webservice;
+        return previous;
+    }
+
+
+    /**
+     * Removes the {@link Webservice} registered at the given path (as returned by {@link Webservice#getPath()}).
+     *
+     * @param path the path the {@link Webservice} was registered at
+     *
+     * @return the removed {@link Webservice} or <code>null</code> if there was none
+     */
+    public synchronized Webservice<?> remove(String path){
+        String[] segments = split(path);
+        return remove(root, segments, 0);
+    }
+
+
+    private static Webservice<?> remove(Node node, String[] segments, int index){
+        if(index == segments.length){
+            Webservice<?> previous = node.webservice;
+            node.webservice = null;
+            return previous;
+        }
+
+        if(index == segments.length - 1 && WILDCARD.equals(segments[index])){
+            Webservice<?> previous = node.wildcardWebservice;
+            node.wildcardWebservice = null;
+            return previous;
+        }
+
+        Node child = node.getChild(segments[index]);
+        if(child == null)
+            return null;
+
+        Webservice<?> previous = remove(child, segments, index + 1);
+
+        //do not keep nodes that do not lead to any webservice
+        if(child.isEmpty())
+            node.removeChild(segments[index]);
+
+        return previous;
+    }
+
+
+    /**
+     * Returns the {@link Webservice} addressed by the given {@link CoapRequest} or <code>null</code> if there is no
+     * matching path.
+     *
+     * @param coapRequest the {@link CoapRequest} to be routed
+     *
+     * @return the {@link Webservice} addressed by the given {@link CoapRequest} or <code>null</code> if there is no
+     * matching path.
+     */
+    public Webservice<?> lookup(CoapRequest coapRequest){
+        int length = coapRequest.getOptionCount(OptionValue.Name.URI_PATH);
+
+        //a single empty segment is the same as no segment (path "/")
+        if(length == 1 && coapRequest.getUriPathSegment(0).isEmpty())
+            length = 0;
+
+        return lookup(root, coapRequest, 0, length);
+    }
+
+
+    private static Webservice<?> lookup(Node node, CoapRequest coapRequest, int index, int length){
+        if(index == length){
+            Webservice<?> webservice = node.webservice;
+            return webservice != null ? webservice : node.wildcardWebservice;
+        }
+
+        String segment = coapRequest.getUriPathSegment(index);
+
+        Node child = node.literalChildren.get(segment);
+        if(child != null){
+            Webservice<?> webservice = lookup(child, coapRequest, index + 1, length);
+            if(webservice != null)
+                return webservice;
+        }
+
+        child = node.parameterChild;
+        if(child != null){
+            Webservice<?> webservice = lookup(child, coapRequest, index + 1, length);
+            if(webservice != null)
+                return webservice;
+        }
+
+        return node.wildcardWebservice;
+    }
+
+
+    private static String[] split(String path){
+        if(path == null || !path.startsWith("/"))
+            throw new IllegalArgumentException("Path must start with \"/\" (was: " + path + ")");
+
+        if(path.equals("/"))
+            return new String[0];
+
+        return path.substring(1).split("/", -1);
+    }
+
+
+    private static boolean isParameter(String segment){
+        return segment.length() >= 2 && segment.startsWith("{") && segment.endsWith("}");
+    }
+
+
+    private static class Node {
+
+        private final ConcurrentMap<String, Node> literalChildren = new ConcurrentHashMap<>(4);
+        private volatile Node parameterChild;
+
+        private volatile Webservice<?> webservice;
+        private volatile Webservice<?> wildcardWebservice;
+
+
+        private Node getChild(String segment){
+            return isParameter(segment) ? parameterChild : literalChildren.get(segment);
+        }
+
+
+        private Node getOrCreateChild(String segment){
+            Node child = getChild(segment);
+
+            if(child == null){
+                child = new Node();
+
+                if(isParameter(segment))
+                    parameterChild = child;
+                else
+                    literalChildren.put(segment, child);
+            }
+
+            return child;
+        }
+
+
+        private void removeChild(String segment){
+            if(isParameter(segment))
+                parameterChild = null;
+            else
+                literalChildren.remove(segment);
+        }
+
+
+        private boolean isEmpty(){
+            return webservice == null && wildcardWebservice == null && parameterChild == null
+                    && literalChildren.isEmpty();
+        }
+    }
+}
@@ -55,10 +55,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import de.uniluebeck.itm.ncoap.message.options.OptionValue;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
 
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -70,6 +72,12 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 * Example: Assume, you want to realize a not observable service representing a temperature with limited accuracy
 * (integer values). Then, your service class could e.g. extend {@link NotObservableWebservice <Integer>}.
 *
+* Optionally, the serialized resource status can be cached per content format (see
+* {@link #setResponseCacheEnabled(boolean)}). Then {@link #getSerializedResourceStatus(long)} is invoked only once
+* per content format and resource status and the framework answers {@link MessageCode.Name#GET} requests with an
+* accept option without invoking {@link #processCoapRequest(com.google.common.util.concurrent.SettableFuture,
+* CoapRequest, java.net.InetSocketAddress)} (see {@link #getCachedResponse(CoapRequest)}).
+*
 * @author Oliver Kleine, Stefan Hüske
 */
 public abstract class NotObservableWebservice<T> implements Webservice<T> {
@@ -87,6 +95,9 @@ public abstract class NotObservableWebservice<T> implements Webservice<T> {
     private T resourceStatus;
     private long resourceStatusExpiryDate;
 
+    private volatile boolean responseCacheEnabled;
+    private Map<Long, WrappedResourceStatus> cachedResourceStatus;
+
     private ScheduledExecutorService scheduledExecutorService;
 
     protected NotObservableWebservice(String servicePath, T initialStatus, long lifetimeSeconds){
@@ -94,6 +105,7 @@ public abstract class NotObservableWebservice<T> implements Webservice<T> {
         this.linkAttributes = LinkedHashMultimap.create();
 
         this.readWriteLock = new ReentrantReadWriteLock(false);
+        this.cachedResourceStatus = new ConcurrentHashMap<>();
         setResourceStatus(initialStatus, lifetimeSeconds);
     }
 
@@ -103,15 +115,24 @@ public abstract class NotObservableWebservice<T> implements Webservice<T> {
         if(this.linkAttributes.containsKey(linkAttribute.getKey())){
 
             if(!LinkAttribute.allowsMultipleValues(linkAttribute.getKey()))
-                removeLinkAttribute(linkAttribute.getKey());
+                this.linkAttributes.removeAll(linkAttribute.getKey());
         }
 
         this.linkAttributes.put(linkAttribute.getKey(), linkAttribute);
+
+        if(this.webserviceManager != null)
+            this.webserviceManager.linkAttributesChanged(this);
     }
 
     @Override
     public boolean removeLinkAttribute(String attributeKey){
-        return !this.linkAttributes.removeAll(attributeKey).isEmpty();
+        if(this.linkAttributes.removeAll(attributeKey).isEmpty())
+            return false;
+
+        if(this.webserviceManager != null)
+            this.webserviceManager.linkAttributesChanged(this);
+
+        return true;
     }
 
     @Override
@@ -174,6 +195,7 @@ public abstract class NotObservableWebservice<T> implements Webservice<T> {
             readWriteLock.writeLock().lock();
             this.resourceStatus = resourceStatus;
             this.resourceStatusExpiryDate = System.currentTimeMillis() + (lifetimeSeconds * 1000);
+            this.cachedResourceStatus.clear();
             updateEtag(resourceStatus);
 
             log.debug("New status of {} set (expires in {} seconds).", this.path, lifetimeSeconds);
@@ -206,14 +228,25 @@ public abstract class NotObservableWebservice<T> implements Webservice<T> {
         try{
             this.readWriteLock.readLock().lock();
 
+            long maxAge = this.getMaxAge();
+            if(responseCacheEnabled && maxAge > 0){
+                WrappedResourceStatus cached = cachedResourceStatus.get(contentFormat);
+                if(cached != null)
+                    return new WrappedResourceStatus(cached.getContent(), contentFormat, cached.getEtag(), maxAge);
+            }
+
             byte[] serializedResourceStatus = getSerializedResourceStatus(contentFormat);
 
             if(serializedResourceStatus == null)
                 return null;
 
-            else
-                return new WrappedResourceStatus(serializedResourceStatus, contentFormat,
-                        this.getEtag(contentFormat), this.getMaxAge());
+            WrappedResourceStatus result = new WrappedResourceStatus(serializedResourceStatus, contentFormat,
+                    this.getEtag(contentFormat), maxAge);
+
+            if(responseCacheEnabled && maxAge > 0)
+                cachedResourceStatus.put(contentFormat, result);
+
+            return result;
         }
         finally {
             this.readWriteLock.readLock().unlock();
@@ -265,6 +298,134 @@ public abstract class NotObservableWebservice<T> implements Webservice<T> {
     }
 
 
+    /**
+     * Enables or disables the caching of the serialized resource status. If enabled, the serialized resource status
+     * (and its ETAG) is stored per content format until either the next invocation of
+     * {@link #setResourceStatus(Object, long)} or the expiry of the resource status (see {@link #getMaxAge()}).
+     *
+     * <b>Note:</b> This is only to be enabled if {@link #getSerializedResourceStatus(long)} and
+     * {@link #getEtag(long)} depend on nothing but the resource status and the content format and if incoming
+     * {@link CoapRequest}s with {@link MessageCode.Name#GET} do not need any further processing by
+     * {@link #processCoapRequest(com.google.common.util.concurrent.SettableFuture, CoapRequest,
+     * java.net.InetSocketAddress)}.
+     *
+     * @param responseCacheEnabled <code>true</code> to enable the caching or <code>false</code> to disable it
+     */
+    public final void setResponseCacheEnabled(boolean responseCacheEnabled){
+        this.responseCacheEnabled = responseCacheEnabled;
+
+        if(!responseCacheEnabled)
+            this.cachedResourceStatus.clear();
+    }
+
+
+    /**
+     * Returns <code>true</code> if the serialized resource status is cached (see
+     * {@link #setResponseCacheEnabled(boolean)}) and <code>false</code> otherwise.
+     *
+     * @return <code>true</code> if the serialized resource status is cached and <code>false</code> otherwise.
+     */
+    public final boolean isResponseCacheEnabled(){
+        return this.responseCacheEnabled;
+    }
+
+
+    /**
+     * Returns a {@link CoapResponse} to answer the given {@link CoapRequest} from the cached resource status or
+     * <code>null</code> if the request is to be processed by
+     * {@link #processCoapRequest(com.google.common.util.concurrent.SettableFuture, CoapRequest,
+     * java.net.InetSocketAddress)}. This method is invoked by the framework for every incoming {@link CoapRequest}.
+     *
+     * If caching is enabled (see {@link #setResponseCacheEnabled(boolean)}) and the resource status did not yet expire,
+     * the returned {@link CoapResponse} for a {@link CoapRequest} with {@link MessageCode.Name#GET} is
+     * <ul>
+     *     <li>a {@link CoapResponse} with {@link MessageCode.Name#VALID_203} if one of the ETAGs of the request
+     *     matches the actual ETAG of a cached (and accepted) content format or</li>
+     *     <li>a {@link CoapResponse} with {@link MessageCode.Name#CONTENT_205} with the resource status serialized
+     *     to the first supported of the accepted content formats.</li>
+     * </ul>
+     *
+     * Requests without accept option and ETAG match are processed by
+     * {@link #processCoapRequest(com.google.common.util.concurrent.SettableFuture, CoapRequest,
+     * java.net.InetSocketAddress)} as the default content format of this {@link NotObservableWebservice} is unknown.
+     * The same holds for requests with no supported accepted content format.
+     *
+     * @param coapRequest the {@link CoapRequest} to be answered
+     *
+     * @return a {@link CoapResponse} to answer the given {@link CoapRequest} or <code>null</code> if the request is to
+     * be processed by {@link #processCoapRequest(com.google.common.util.concurrent.SettableFuture, CoapRequest,
+     * java.net.InetSocketAddress)}
+     */
+    public final CoapResponse getCachedResponse(CoapRequest coapRequest){
+        if(!responseCacheEnabled || coapRequest.getMessageCode() != MessageCode.Name.GET.getNumber())
+            return null;
+
+        Set<Long> acceptedContentFormats = coapRequest.getAcceptedContentFormats();
+        Set<byte[]> etags = coapRequest.getEtags();
+
+        try{
+            this.readWriteLock.readLock().lock();
+
+            long maxAge = this.getMaxAge();
+            if(maxAge == 0)
+                return null;
+
+            for(WrappedResourceStatus cached : cachedResourceStatus.values()){
+                if(acceptedContentFormats.isEmpty() || acceptedContentFormats.contains(cached.getContentFormat())){
+                    if(containsEtag(etags, cached.getEtag()))
+                        return createResponse(coapRequest, MessageCode.Name.VALID_203, cached, maxAge);
+                }
+            }
+
+            if(acceptedContentFormats.isEmpty())
+                return null;
+
+            WrappedResourceStatus wrappedResourceStatus = getWrappedResourceStatus(acceptedContentFormats);
+            if(wrappedResourceStatus == null)
+                return null;
+
+            if(containsEtag(etags, wrappedResourceStatus.getEtag()))
+                return createResponse(coapRequest, MessageCode.Name.VALID_203, wrappedResourceStatus, maxAge);
+            else
+                return createResponse(coapRequest, MessageCode.Name.CONTENT_205, wrappedResourceStatus, maxAge);
+        }
+        finally {
+            this.readWriteLock.readLock().unlock();
+        }
+    }
+
+
+    private static boolean containsEtag(Set<byte[]> etags, byte[] etag){
+        if(etag == null)
+            return false;
+
+        for(byte[] candidate : etags){
+            if(Arrays.equals(candidate, etag))
+                return true;
+        }
+
+        return false;
+    }
+
+
+    private static CoapResponse createResponse(CoapRequest coapRequest, MessageCode.Name messageCode,
+                                               WrappedResourceStatus wrappedResourceStatus, long maxAge){
+
+        CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageTypeName(), messageCode);
+
+        if(messageCode == MessageCode.Name.CONTENT_205)
+            coapResponse.setContent(wrappedResourceStatus.getContent(), wrappedResourceStatus.getContentFormat());
+
+        if(wrappedResourceStatus.getEtag() != null && wrappedResourceStatus.getEtag().length > 0)
+            coapResponse.setEtag(wrappedResourceStatus.getEtag());
+
+        if(maxAge != OptionValue.MAX_AGE_DEFAULT)
+            coapResponse.setMaxAge(maxAge);
+
+        return coapResponse;
+    }
+
+
     @Override
     public final T getResourceStatus(){
         return this.resourceStatus;
@@ -72,6 +72,8 @@ public abstract class ObservableWebservice<T> extends Observable implements Webs
 
     private ScheduledExecutorService scheduledExecutorService;
 
+    private volatile long minNotificationInterval;
+
 
     /**
      * Using this constructor is the same as {@link #ObservableWebservice(String, Object, long)} with parameter
@@ -106,15 +108,24 @@ public abstract class ObservableWebservice<T> extends Observable implements Webs
         if(this.linkAttributes.containsKey(linkAttribute.getKey())){
 
             if(!LinkAttribute.allowsMultipleValues(linkAttribute.getKey()))
-                removeLinkAttribute(linkAttribute.getKey());
+                this.linkAttributes.removeAll(linkAttribute.getKey());
         }
 
         this.linkAttributes.put(linkAttribute.getKey(), linkAttribute);
+
+        if(this.webserviceManager != null)
+            this.webserviceManager.linkAttributesChanged(this);
     }
 
     @Override
     public boolean removeLinkAttribute(String attributeKey){
-        return !this.linkAttributes.removeAll(attributeKey).isEmpty();
+        if(this.linkAttributes.removeAll(attributeKey).isEmpty())
+            return false;
+
+        if(this.webserviceManager != null)
+            this.webserviceManager.linkAttributesChanged(this);
+
+        return true;
     }
 
     @Override
@@ -203,6 +214,54 @@ public abstract class ObservableWebservice<T> extends Observable implements Webs
     }
 
 
+    /**
+     * Sets the minimum number of milliseconds between two update notifications sent to the observers of this
+     * {@link ObservableWebservice}. Status changes within that interval are coalesced, i.e. the intermediate states
+     * are skipped and only the latest status is sent when the interval has passed. The default is 0, i.e. an update
+     * notification is sent on every status change.
+     *
+     * <b>Note:</b> The coalescing requires the update notifications to be sent asynchronously (which is the case for
+     * webservices registered at a {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}).
+     *
+     * @param minNotificationInterval the minimum number of milliseconds between two update notifications (or 0 to
+     *                                send an update notification on every status change)
+     */
+    public void setMinNotificationInterval(long minNotificationInterval){
+        if(minNotificationInterval < 0)
+            throw new IllegalArgumentException("Minimum notification interval must not be negative (was: "
+                    + minNotificationInterval + ")");
+
+        this.minNotificationInterval = minNotificationInterval;
+    }
+
+
+    /**
+     * Sets the maximum number of update notifications per second sent to the observers of this
+     * {@link ObservableWebservice}. This is a shortcut for {@link #setMinNotificationInterval(long)} with
+     * <code>1000 / maxNotificationRate</code> milliseconds.
+     *
+     * @param maxNotificationRate the maximum number of update notifications per second (between 1 and 1000)
+     */
+    public void setMaxNotificationRate(int maxNotificationRate){
+        if(maxNotificationRate < 1 || maxNotificationRate > 1000)
+            throw new IllegalArgumentException("Maximum notification rate must be between 1 and 1000 (was: "
+                    + maxNotificationRate + ")");
+
+        setMinNotificationInterval(1000 / maxNotificationRate);
+    }
+
+
+    /**
+     * Returns the minimum number of milliseconds between two update notifications sent to the observers of this
+     * {@link ObservableWebservice} (see {@link #setMinNotificationInterval(long)})
+     *
+     * @return the minimum number of milliseconds between two update notifications
+     */
+    public long getMinNotificationInterval(){
+        return this.minNotificationInterval;
+    }
+
+
     public void prepareShutdown(){
         setChanged();
         notifyObservers(true);
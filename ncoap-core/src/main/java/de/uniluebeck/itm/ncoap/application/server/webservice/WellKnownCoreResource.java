@@ -22,30 +22,6 @@
  * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
  * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-/**
-* Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
-* All rights reserved
-*
-* Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
-* following conditions are met:
-*
-*  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following
-*    disclaimer.
-*
-*  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
-*    following disclaimer in the documentation and/or other materials provided with the distribution.
-*
-*  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
-*    products derived from this software without specific prior written permission.
-*
-* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
-* INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
-* ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
-* INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
-* GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
-* LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
-* OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
-*/
 package de.uniluebeck.itm.ncoap.application.server.webservice;
 
 import com.google.common.primitives.Ints;
@@ -66,29 +42,207 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Arrays;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
 * The .well-known/core resource is a standard webservice to be provided by every CoAP webserver as defined in
 * the CoAP protocol draft. It provides a list of all available services on the server in CoRE Link Format.
 *
+* The link format document is not created per request. The link of each {@link Webservice} is encoded once when
+* the service is registered (or its {@link LinkAttribute}s change, see {@link #addWebservice(Webservice)}) and the
+* document (and its ETAG) is assembled from these links only after a change. The services are indexed by their
+* {@link LinkAttribute}s, i.e. requests with a filter query (e.g. <code>?rt=temperature</code>) are answered from
+* that index (and the result is cached until the next change) instead of checking all services.
+*
 * @author Oliver Kleine
 */
-public final class WellKnownCoreResource extends NotObservableWebservice<Map<String, Webservice>> {
+public final class WellKnownCoreResource extends NotObservableWebservice<Map<String, Webservice<?>>> {
 
     private static Logger log = LoggerFactory.getLogger(WellKnownCoreResource.class.getName());
 
-    private byte[] etag;
+    private static final Document EMPTY_DOCUMENT = new Document(new byte[0]);
+
+    private final Object monitor = new Object();
+
+    //guarded by the monitor (the links are sorted by path)
+    private final SortedMap<String, byte[]> links = new TreeMap<>();
+    private final Map<String, List<String>> attributesPerService = new HashMap<>();
+    private final Map<String, SortedSet<String>> servicesPerAttribute = new HashMap<>();
+
+    //set to null (resp. cleared) by any change, the filtered documents are keyed by index key
+    private volatile Document document;
+    private final Map<String, Document> filteredDocuments = new ConcurrentHashMap<>();
+
 
     /**
      * Creates the well-known/core resource at path /.well-known/core as defined in the CoAP draft
      * @param initialStatus the Map containing all available path
      */
-    public WellKnownCoreResource(Map<String, Webservice> initialStatus) {
+    public WellKnownCoreResource(Map<String, Webservice<?>> initialStatus) {
         super("/.well-known/core", initialStatus, 0);
+        updateEtag(initialStatus);
+    }
+
+
+    /**
+     * Adds the link of the given {@link Webservice} to the link format document or replaces the link of the
+     * {@link Webservice} with the same path, e.g. after the {@link LinkAttribute}s were changed.
+     *
+     * @param webservice the {@link Webservice} to be added (or updated)
+     */
+    public void addWebservice(Webservice<?> webservice){
+        synchronized (monitor){
+            removeFromIndex(webservice.getPath());
+            addToIndex(webservice);
+            invalidate();
+        }
+    }
+
+
+    /**
+     * Removes the link of the {@link Webservice} with the given path from the link format document
+     *
+     * @param servicePath the path of the {@link Webservice} to be removed
+     */
+    public void removeWebservice(String servicePath){
+        synchronized (monitor){
+            if(removeFromIndex(servicePath))
+                invalidate();
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void addToIndex(Webservice<?> webservice){
+        String servicePath = webservice.getPath();
+        StringBuilder link = new StringBuilder();
+        List<String> attributes = new ArrayList<>();
+
+        link.append("<").append(servicePath).append(">");
+
+        String previousKey = null;
+        for (LinkAttribute<?> linkAttribute : webservice.getLinkAttributes()) {
+            link.append(linkAttribute.getKey().equals(previousKey) ? " " : ";" + linkAttribute.getKey());
+
+            if(!(linkAttribute instanceof EmptyLinkAttribute))
+                link.append("=").append(linkAttribute.getValue());
+
+            previousKey = linkAttribute.getKey();
+
+            String attribute = createIndexKey(linkAttribute);
+            SortedSet<String> servicePaths = servicesPerAttribute.get(attribute);
+            if(servicePaths == null){
+                servicePaths = new TreeSet<>();
+                servicesPerAttribute.put(attribute, servicePaths);
+            }
+
+            servicePaths.add(servicePath);
+            attributes.add(attribute);
+        }
+
+        links.put(servicePath, link.toString().getBytes(CoapMessage.CHARSET));
+        attributesPerService.put(servicePath, attributes);
+    }
+
+
+    private boolean removeFromIndex(String servicePath){
+        if(links.remove(servicePath) == null)
+            return false;
+
+        for(String attribute : attributesPerService.remove(servicePath)){
+            SortedSet<String> servicePaths = servicesPerAttribute.get(attribute);
+            servicePaths.remove(servicePath);
+
+            if(servicePaths.isEmpty())
+                servicesPerAttribute.remove(attribute);
+        }
+
+        return true;
+    }
+
+
+    private void invalidate(){
+        this.document = null;
+        this.filteredDocuments.clear();
+    }
+
+
+    private static String createIndexKey(LinkAttribute<?> linkAttribute){
+        return linkAttribute.getKey() + "=" + linkAttribute.getValue();
+    }
+
+
+    private Document getDocument(){
+        Document result = this.document;
+        if(result != null)
+            return result;
+
+        synchronized (monitor){
+            if(this.document == null)
+                this.document = createDocument(links.keySet());
+
+            return this.document;
+        }
+    }
+
+
+    private Document getFilteredDocument(String query) throws IllegalArgumentException{
+        //the cache is keyed by the normalized attribute (e.g. sz=005 and sz=5 are the same), i.e. it never has more
+        //entries than the index and queries not matching any service are not cached at all
+        String indexKey = createIndexKey(createLinkAttributeFromQuery(query));
+
+        Document result = filteredDocuments.get(indexKey);
+        if(result != null)
+            return result;
+
+        synchronized (monitor){
+            SortedSet<String> servicePaths = servicesPerAttribute.get(indexKey);
+            if(servicePaths == null)
+                return EMPTY_DOCUMENT;
+
+            result = createDocument(servicePaths);
+            filteredDocuments.put(indexKey, result);
+            return result;
+        }
     }
 
+
+    /**
+     * Returns the number of currently cached filtered documents (for tests only)
+     */
+    int getNumberOfFilteredDocuments(){
+        return filteredDocuments.size();
+    }
+
+
+    //to be called with the monitor held
+    private Document createDocument(Collection<String> servicePaths){
+        int length = 0;
+        for(String servicePath : servicePaths)
+            length += links.get(servicePath).length + 2;
+
+        if(length == 0)
+            return EMPTY_DOCUMENT;
+
+        //links are separated by ",\n" and the document ends with "\n"
+        byte[] content = new byte[length - 1];
+        int index = 0;
+        for(String servicePath : servicePaths){
+            byte[] link = links.get(servicePath);
+            System.arraycopy(link, 0, content, index, link.length);
+            index += link.length;
+
+            if(index < content.length - 1)
+                content[index++] = ',';
+
+            content[index++] = '\n';
+        }
+
+        return new Document(content);
+    }
+
+
     /**
      * The .well-known/core resource only allows requests with {@link MessageCode.Name#GET}. Any other code
      * returns a {@link CoapResponse} with {@link MessageCode.Name#METHOD_NOT_ALLOWED_405}.
@@ -130,15 +284,14 @@ public final class WellKnownCoreResource extends NotObservableWebservice<Map<Str
 
     private CoapResponse processCoapGetRequest(CoapRequest coapRequest){
         try{
-            LinkAttribute filterAttribute = createLinkAttributeFromQuery(coapRequest.getUriQuery());
+            String query = coapRequest.getUriQuery();
+            Document result = query.equals("") ? getDocument() : getFilteredDocument(query);
 
             CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageTypeName(),
                     MessageCode.Name.CONTENT_205);
 
-            byte[] content = getSerializedResourceStatus(filterAttribute);
-
-            coapResponse.setContent(content, ContentFormat.APP_LINK_FORMAT);
-            coapResponse.setEtag(this.etag);
+            coapResponse.setContent(result.content, ContentFormat.APP_LINK_FORMAT);
+            coapResponse.setEtag(result.etag);
 
             return coapResponse;
         }
@@ -151,7 +304,7 @@ public final class WellKnownCoreResource extends NotObservableWebservice<Map<Str
     }
 
 
-    private LinkAttribute createLinkAttributeFromQuery(String queryParameter) throws IllegalArgumentException{
+    private LinkAttribute<?> createLinkAttributeFromQuery(String queryParameter) throws IllegalArgumentException{
 
         if(!queryParameter.equals("")){
             String[] param = queryParameter.split("=");
@@ -159,7 +312,7 @@ public final class WellKnownCoreResource extends NotObservableWebservice<Map<Str
             if(param.length != 2)
                 throw new IllegalArgumentException("Could not parse query " + queryParameter);
 
-            LinkAttribute linkAttribute;
+            LinkAttribute<?> linkAttribute;
             int attributeType = LinkAttribute.getAttributeType(param[0]);
 
             if(attributeType == LinkAttribute.STRING_ATTRIBUTE)
@@ -181,63 +334,28 @@ public final class WellKnownCoreResource extends NotObservableWebservice<Map<Str
     }
 
 
-    @SuppressWarnings("unchecked")
-    public byte[] getSerializedResourceStatus(LinkAttribute attribute){
-        StringBuilder buffer = new StringBuilder();
-
-        for(Webservice webservice : getResourceStatus().values()){
-
-            if(attribute != null && !webservice.hasLinkAttribute(attribute))
-                continue;
-
-            buffer.append("<").append(webservice.getPath()).append(">");
-
-            String previousKey = null;
-            for (LinkAttribute linkAttribute : (Iterable<LinkAttribute>) webservice.getLinkAttributes()) {
-                buffer.append(linkAttribute.getKey().equals(previousKey) ? " " : ";" + linkAttribute.getKey());
-
-                if(!(linkAttribute instanceof EmptyLinkAttribute))
-                    buffer.append("=").append(linkAttribute.getValue());
-
-                previousKey = linkAttribute.getKey();
-            }
+    /**
+     * Returns the link format document containing the links of all {@link Webservice}s with the given
+     * {@link LinkAttribute} (or of all {@link Webservice}s if the given attribute is <code>null</code>).
+     *
+     * @param attribute the {@link LinkAttribute} to filter the {@link Webservice}s (may be <code>null</code>)
+     *
+     * @return the encoded link format document
+     */
+    public byte[] getSerializedResourceStatus(LinkAttribute<?> attribute){
+        if(attribute == null)
+            return getDocument().content;
 
-            buffer.append(",\n");
+        synchronized (monitor){
+            SortedSet<String> servicePaths = servicesPerAttribute.get(createIndexKey(attribute));
+            return servicePaths == null ? EMPTY_DOCUMENT.content : createDocument(servicePaths).content;
         }
-
-        if(buffer.length() > 3)
-            buffer.deleteCharAt(buffer.length() - 2);
-
-        log.debug("Content: \n{}", buffer.toString());
-
-        return buffer.toString().getBytes(CoapMessage.CHARSET);
-
     }
 
 
     @Override
-    @SuppressWarnings("unchecked")
     public byte[] getSerializedResourceStatus(long contentFormat){
-        StringBuilder buffer = new StringBuilder();
-
-        for(Webservice webservice : getResourceStatus().values()){
-            buffer.append("<").append(webservice.getPath()).append(">");
-
-            String previousKey = null;
-            for (LinkAttribute linkAttribute : (Iterable<LinkAttribute>) webservice.getLinkAttributes()) {
-                buffer.append(linkAttribute.getKey().equals(previousKey) ? " " : ";")
-                        .append(linkAttribute.getValue());
-
-                previousKey = linkAttribute.getKey();
-            }
-        }
-
-        if(buffer.length() > 3)
-            buffer.deleteCharAt(buffer.length() - 2);
-
-        log.debug("Content: \n{}", buffer.toString());
-
-        return buffer.toString().getBytes(CoapMessage.CHARSET);
+        return getDocument().content;
     }
 
 
@@ -249,11 +367,46 @@ public final class WellKnownCoreResource extends NotObservableWebservice<Map<Str
 
     @Override
     public byte[] getEtag(long contentFormat) {
-        return this.etag;
+        return getDocument().etag;
     }
 
+    /**
+     * Re-creates the links of all {@link Webservice}s contained in the given {@link Map}
+     *
+     * @param resourceStatus the {@link Map} containing all available services
+     */
     @Override
-    public void updateEtag(Map<String, Webservice> resourceStatus) {
-        this.etag = Ints.toByteArray(Arrays.hashCode(getSerializedResourceStatus(ContentFormat.APP_LINK_FORMAT)));
+    public void updateEtag(Map<String, Webservice<?>> resourceStatus) {
+        //invoked by the constructor of the super class (i.e. before the fields of this class are initialized)
+        if(links == null)
+            return;
+
+        synchronized (monitor){
+            links.clear();
+            attributesPerService.clear();
+            servicesPerAttribute.clear();
+
+            for(Webservice<?> webservice : resourceStatus.values())
+                addToIndex(webservice);
+
+            invalidate();
+        }
+
+        log.debug("Link format document contains {} links.", resourceStatus.size());
+    }
+
+
+    /**
+     * An encoded link format document and its ETAG
+     */
+    private static class Document {
+
+        private final byte[] content;
+        private final byte[] etag;
+
+        private Document(byte[] content){
+            this.content = content;
+            this.etag = Ints.toByteArray(Arrays.hashCode(content));
+        }
     }
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * A {@link BlockwiseResponseProcessor} is a {@link CoapResponseProcessor} that consumes the content of a block-wise
+ * transferred {@link CoapResponse} block by block, i.e. the framework does not reassemble the complete content.
+ *
+ * The blocks are passed in the order of their offsets via {@link #processResponseBlock(CoapResponse, long)}.
+ * Afterwards, {@link #processCoapResponse(CoapResponse)} is invoked with the {@link CoapResponse} that contained the
+ * last block but with empty content. An error response is passed to {@link #processCoapResponse(CoapResponse)}
+ * only.
+ *
+ * If the representation changes during the transfer (i.e. the ETAG of a block differs from the ETAG of the first
+ * block), the transfer is restarted, i.e. the next invocation of {@link #processResponseBlock(CoapResponse, long)}
+ * has an offset of <code>0</code>.
+ */
+public interface BlockwiseResponseProcessor extends CoapResponseProcessor {
+
+    /**
+     * This method is called by the framework for each received block of the content in the order of their offsets.
+     *
+     * @param coapResponse the {@link CoapResponse} containing the block, i.e. {@link CoapResponse#getContent()}
+     *                     returns the {@link ChannelBuffer} with the content of this block
+     * @param offset the position of the first byte of the block within the complete content
+     */
+    public void processResponseBlock(CoapResponse coapResponse, long offset);
+
+}
@@ -0,0 +1,452 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.client.InternalWrappedOutgoingCoapMessage;
+import de.uniluebeck.itm.ncoap.application.client.NoTokenAvailableProcessor;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.codec.EncodingFailedProcessor;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.*;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.options.BlockValue;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import de.uniluebeck.itm.ncoap.message.options.UintOptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A {@link BlockwiseTransfer} is the {@link CoapResponseProcessor} for all messages of a single block-wise transfer.
+ * It sends the blocks of the request content ({@link OptionValue.Name#BLOCK_1}) one after another and requests the
+ * blocks of the response content ({@link OptionValue.Name#BLOCK_2}) with up to the configured number of requests
+ * in flight. The blocks of the response content are passed to the actual {@link CoapResponseProcessor} in the order
+ * of their offsets, i.e. either block by block (see {@link BlockwiseResponseProcessor}) or reassembled.
+ *
+ * All other events (e.g. retransmission timeouts) are passed to the actual {@link CoapResponseProcessor} if it
+ * implements the corresponding interface.
+ */
+class BlockwiseTransfer implements CoapResponseProcessor, RetransmissionTimeoutProcessor,
+        EmptyAcknowledgementProcessor, TransmissionInformationProcessor, ResetProcessor, NoTokenAvailableProcessor,
+        NoMessageIDAvailableProcessor, EncodingFailedProcessor, RequestQueueFullProcessor {
+
+    private static Logger log = LoggerFactory.getLogger(BlockwiseTransfer.class.getName());
+
+    private final Channel channel;
+    private final InetSocketAddress remoteEndpoint;
+    private final CoapRequest coapRequest;
+    private final CoapResponseProcessor coapResponseProcessor;
+    private final int windowSize;
+
+    //the request content to be sent in blocks (null if there is no (more) request content to be sent)
+    private ChannelBuffer requestContent;
+    private long block1Offset;
+    private int block1Szx;
+
+    //the blocks of the response content that were requested but not yet received (key: block number)
+    private final Map<Long, CoapRequest> block2Requests;
+    //the received blocks that could not yet be delivered due to missing predecessors (key: block number)
+    private final Map<Long, CoapResponse> block2Responses;
+    private ChannelBuffer responseContent;
+    private byte[] etag;
+    private int block2Szx;
+    private long size2;
+    private long nextToRequest;
+    private long nextToDeliver;
+    private long lastBlock;
+
+    private boolean done;
+
+
+    /**
+     * @param channel the {@link Channel} to send the requests for further blocks
+     * @param remoteEndpoint the remote endpoint to send the requests to
+     * @param coapRequest the {@link CoapRequest} that initiated the transfer
+     * @param coapResponseProcessor the {@link CoapResponseProcessor} to process the response
+     * @param szx the size exponent of the preferred block size
+     * @param windowSize the maximum number of requests for blocks of the response content in flight
+     */
+    BlockwiseTransfer(Channel channel, InetSocketAddress remoteEndpoint, CoapRequest coapRequest,
+                      CoapResponseProcessor coapResponseProcessor, int szx, int windowSize){
+
+        this.channel = channel;
+        this.remoteEndpoint = remoteEndpoint;
+        this.coapRequest = coapRequest;
+        this.coapResponseProcessor = coapResponseProcessor;
+        this.windowSize = windowSize;
+
+        this.block1Szx = szx;
+        this.block2Szx = szx;
+
+        this.block2Requests = new HashMap<>();
+        this.block2Responses = new HashMap<>();
+        this.size2 = UintOptionValue.UNDEFINED;
+        this.lastBlock = -1;
+        this.block2Requests.put(0L, coapRequest);
+    }
+
+
+    /**
+     * Replaces the content of the {@link CoapRequest} that initiated the transfer with its first block and keeps the
+     * complete content to send the following blocks.
+     */
+    synchronized void sliceRequestContent(){
+        this.requestContent = coapRequest.getContent();
+        this.block1Offset = 0;
+
+        coapRequest.setSize1(requestContent.readableBytes());
+        setRequestBlock(coapRequest);
+    }
+
+
+    @Override
+    public synchronized void processCoapResponse(CoapResponse coapResponse) {
+        if(done){
+            log.debug("Ignore response for finished block-wise transfer: {}", coapResponse);
+            return;
+        }
+
+        if(requestContent != null)
+            handleRequestBlockResponse(coapResponse);
+
+        else
+            handleResponseBlock(coapResponse);
+    }
+
+
+    private void handleRequestBlockResponse(CoapResponse coapResponse){
+        BlockValue block1 = coapResponse.getBlock1();
+        int messageCode = coapResponse.getMessageCode();
+
+        //the server requests the next block (possibly with a smaller block size)
+        if(messageCode == MessageCode.Name.CONTINUE_231.getNumber() && block1 != null){
+            block1Offset += 1 << (block1Szx + 4);
+            block1Szx = Math.min(block1Szx, block1.getSzx());
+
+            if(block1Offset < requestContent.readableBytes()){
+                CoapRequest nextBlock = copyRequest();
+                setRequestBlock(nextBlock);
+                write(nextBlock);
+                return;
+            }
+        }
+
+        //the server rejects the first block but indicates a smaller block size to be used
+        else if(messageCode == MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber() && block1 != null &&
+                block1Offset == 0 && block1.getSzx() < block1Szx){
+
+            block1Szx = block1.getSzx();
+            CoapRequest firstBlock = copyRequest();
+            firstBlock.setSize1(requestContent.readableBytes());
+            setRequestBlock(firstBlock);
+            write(firstBlock);
+            return;
+        }
+
+        //the final response (block-wise transfer of response content is only supported for GET requests)
+        finish(coapResponse);
+    }
+
+
+    private void setRequestBlock(CoapRequest block){
+        int blockSize = 1 << (block1Szx + 4);
+        int length = (int) Math.min(blockSize, requestContent.readableBytes() - block1Offset);
+        boolean more = block1Offset + length < requestContent.readableBytes();
+
+        block.setContent(requestContent.slice(requestContent.readerIndex() + (int) block1Offset, length));
+        block.setBlock1(new BlockValue(block1Offset / blockSize, more, block1Szx));
+    }
+
+
+    private void handleResponseBlock(CoapResponse coapResponse){
+        Long number = removeBlockRequest(coapResponse.getToken());
+        if(number == null){
+            log.debug("Ignore response for outdated block request: {}", coapResponse);
+            return;
+        }
+
+        BlockValue block2 = coapResponse.getBlock2();
+
+        //errors and responses without block option are delivered when all preceding blocks were delivered
+        if(block2 == null || MessageCode.isErrorMessage(coapResponse.getMessageCode())){
+            block2Responses.put(number, coapResponse);
+            deliverResponseBlocks();
+            return;
+        }
+
+        //the first block determines the block size, the ETAG and (if available) the size of the content
+        if(number == 0){
+            if(!block2.isMore() || coapRequest.getMessageCode() != MessageCode.Name.GET.getNumber()){
+                finish(coapResponse);
+                return;
+            }
+
+            block2Szx = block2.getSzx();
+            etag = coapResponse.getEtag();
+
+            size2 = coapResponse.getSize2();
+            lastBlock = size2 > 0 ? (size2 - 1) / block2.getSize() : -1;
+
+            responseContent = ChannelBuffers.dynamicBuffer(size2 > 0 ? (int) size2 : 2 * block2.getSize());
+            nextToRequest = 1;
+        }
+
+        //the representation changed since the first block was received
+        else if(!Arrays.equals(etag, coapResponse.getEtag())){
+            log.info("ETAG changed during block-wise transfer from {}. Restart transfer.", remoteEndpoint);
+            restart(0, block2Szx);
+            return;
+        }
+
+        //the server uses a block size other than the negotiated one
+        else if(block2.getSzx() != block2Szx || block2.getNumber() != number){
+            log.info("Block size changed during block-wise transfer from {}. Restart at block {}.", remoteEndpoint,
+                    nextToDeliver);
+            int szx = Math.min(block2Szx, block2.getSzx());
+            restart(nextToDeliver * (1 << (block2Szx + 4)) / (1 << (szx + 4)), szx);
+            return;
+        }
+
+        if(!block2.isMore())
+            lastBlock = number;
+
+        if(lastBlock >= 0 && number > lastBlock){
+            log.debug("Ignore block {} beyond the last block {}.", number, lastBlock);
+            return;
+        }
+
+        block2Responses.put(number, coapResponse);
+        deliverResponseBlocks();
+        requestResponseBlocks();
+    }
+
+
+    private void deliverResponseBlocks(){
+        CoapResponse coapResponse;
+        while(!done && (coapResponse = block2Responses.remove(nextToDeliver)) != null){
+            BlockValue block2 = coapResponse.getBlock2();
+
+            if(block2 == null || MessageCode.isErrorMessage(coapResponse.getMessageCode())){
+                finish(coapResponse);
+                return;
+            }
+
+            if(coapResponseProcessor instanceof BlockwiseResponseProcessor)
+                ((BlockwiseResponseProcessor) coapResponseProcessor).processResponseBlock(coapResponse,
+                        block2.getOffset());
+            else
+                responseContent.writeBytes(coapResponse.getContent());
+
+            if(nextToDeliver == lastBlock){
+                coapResponse.removeOptions(OptionValue.Name.BLOCK_2);
+
+                if(coapResponseProcessor instanceof BlockwiseResponseProcessor)
+                    coapResponse.setContent(ChannelBuffers.EMPTY_BUFFER);
+                else
+                    coapResponse.setContent(responseContent);
+
+                finish(coapResponse);
+                return;
+            }
+
+            nextToDeliver++;
+        }
+    }
+
+
+    private void requestResponseBlocks(){
+        while(!done && nextToRequest < nextToDeliver + windowSize && (lastBlock < 0 || nextToRequest <= lastBlock)){
+            requestResponseBlock(nextToRequest++);
+        }
+    }
+
+
+    private void requestResponseBlock(long number){
+        CoapRequest blockRequest = copyRequest();
+        blockRequest.setBlock2(new BlockValue(number, false, block2Szx));
+        block2Requests.put(number, blockRequest);
+        write(blockRequest);
+    }
+
+
+    private void restart(long number, int szx){
+        block2Requests.clear();
+        block2Responses.clear();
+        block2Szx = szx;
+
+        if(number == 0){
+            etag = null;
+            size2 = UintOptionValue.UNDEFINED;
+            responseContent = null;
+        }
+
+        lastBlock = size2 > 0 ? (size2 - 1) / (1 << (szx + 4)) : -1;
+
+        nextToDeliver = number;
+        nextToRequest = number + 1;
+        requestResponseBlock(number);
+    }
+
+
+    private Long removeBlockRequest(Token token){
+        Iterator<Map.Entry<Long, CoapRequest>> requests = block2Requests.entrySet().iterator();
+        while(requests.hasNext()){
+            Map.Entry<Long, CoapRequest> request = requests.next();
+            if(token.equals(request.getValue().getToken())){
+                requests.remove();
+                return request.getKey();
+            }
+        }
+
+        return null;
+    }
+
+
+    private CoapRequest copyRequest(){
+        CoapRequest copy = new CoapRequest(coapRequest.getMessageType(), coapRequest.getMessageCode());
+
+        for(int i = 0; i < coapRequest.getOptionCount(); i++){
+            int optionNumber = coapRequest.getOptionNumber(i);
+            if(optionNumber != OptionValue.Name.BLOCK_1 && optionNumber != OptionValue.Name.BLOCK_2 &&
+                    optionNumber != OptionValue.Name.SIZE_1 && optionNumber != OptionValue.Name.SIZE_2){
+
+                copy.addOption(optionNumber, coapRequest.getOptionValue(i));
+            }
+        }
+
+        return copy;
+    }
+
+
+    private void write(CoapRequest blockRequest){
+        log.debug("Request block from {}: {}", remoteEndpoint, blockRequest);
+        Channels.write(channel, new InternalWrappedOutgoingCoapMessage(blockRequest, this), remoteEndpoint);
+    }
+
+
+    private void finish(CoapResponse coapResponse){
+        done = true;
+        requestContent = null;
+        responseContent = null;
+        block2Requests.clear();
+        block2Responses.clear();
+
+        coapResponseProcessor.processCoapResponse(coapResponse);
+    }
+
+
+    @Override
+    public synchronized void processRetransmissionTimeout(InetSocketAddress remoteEndpoint, int messageID,
+                                                          Token token) {
+        if(done)
+            return;
+
+        done = true;
+        if(coapResponseProcessor instanceof RetransmissionTimeoutProcessor)
+            ((RetransmissionTimeoutProcessor) coapResponseProcessor).processRetransmissionTimeout(remoteEndpoint,
+                    messageID, token);
+    }
+
+
+    @Override
+    public synchronized void processEmptyAcknowledgement(InetSocketAddress remoteEndpoint, int messageID,
+                                                         Token token) {
+        if(!done && coapResponseProcessor instanceof EmptyAcknowledgementProcessor)
+            ((EmptyAcknowledgementProcessor) coapResponseProcessor).processEmptyAcknowledgement(remoteEndpoint,
+                    messageID, token);
+    }
+
+
+    @Override
+    public synchronized void messageTransmitted(InetSocketAddress remoteEndpoint, int messageID, Token token,
+                                                boolean retransmission) {
+        if(!done && coapResponseProcessor instanceof TransmissionInformationProcessor)
+            ((TransmissionInformationProcessor) coapResponseProcessor).messageTransmitted(remoteEndpoint,
+                    messageID, token, retransmission);
+    }
+
+
+    @Override
+    public synchronized void processReset(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+        if(!done && coapResponseProcessor instanceof ResetProcessor)
+            ((ResetProcessor) coapResponseProcessor).processReset(remoteEndpoint, messageID, token);
+    }
+
+
+    @Override
+    public synchronized void processNoTokenAvailable(InetSocketAddress remoteEndpoint) {
+        if(done)
+            return;
+
+        done = true;
+        if(coapResponseProcessor instanceof NoTokenAvailableProcessor)
+            ((NoTokenAvailableProcessor) coapResponseProcessor).processNoTokenAvailable(remoteEndpoint);
+    }
+
+
+    @Override
+    public synchronized void handleNoMessageIDAvailable(InetSocketAddress remoteEndpoint, long waitingPeriod) {
+        if(done)
+            return;
+
+        done = true;
+        if(coapResponseProcessor instanceof NoMessageIDAvailableProcessor)
+            ((NoMessageIDAvailableProcessor) coapResponseProcessor).handleNoMessageIDAvailable(remoteEndpoint,
+                    waitingPeriod);
+    }
+
+
+    @Override
+    public synchronized void processEncodingFailed(Throwable cause) {
+        if(done)
+            return;
+
+        done = true;
+        if(coapResponseProcessor instanceof EncodingFailedProcessor)
+            ((EncodingFailedProcessor) coapResponseProcessor).processEncodingFailed(cause);
+    }
+
+
+    @Override
+    public synchronized void processRequestQueueFull(InetSocketAddress remoteEndpoint, int queueSize) {
+        if(done)
+            return;
+
+        done = true;
+        if(coapResponseProcessor instanceof RequestQueueFullProcessor)
+            ((RequestQueueFullProcessor) coapResponseProcessor).processRequestQueueFull(remoteEndpoint, queueSize);
+    }
+}
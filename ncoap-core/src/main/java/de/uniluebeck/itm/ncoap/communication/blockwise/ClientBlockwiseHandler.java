@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.client.InternalWrappedOutgoingCoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.options.BlockValue;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The {@link ClientBlockwiseHandler} is the topmost handler of client pipelines. It creates a
+ * {@link BlockwiseTransfer} for
+ * <ul>
+ *     <li>every outgoing {@link CoapRequest} with content exceeding the block size, i.e. the content is sent
+ *     in blocks ({@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_1}), and</li>
+ *     <li>every outgoing {@link CoapRequest} with {@link MessageCode.Name#GET} (but no observe option), i.e. the
+ *     following blocks of a response that contains only the first block of its content
+ *     ({@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_2}) are requested automatically.</li>
+ * </ul>
+ *
+ * The block size is a preference, i.e. a server may use a smaller block size. Blocks of the response content are
+ * requested with up to the given number of requests in flight. Blocks of the request content are sent one after
+ * another as each block must be acknowledged by the server.
+ *
+ * The {@link ClientBlockwiseHandler} is only added to client pipelines if block-wise transfers are enabled (see
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientOptions#setBlockwiseTransfer(boolean)}, the default
+ * is given by the system property {@link #ENABLED}).
+ */
+public class ClientBlockwiseHandler extends SimpleChannelDownstreamHandler {
+
+    /**
+     * The name of the system property to enable the {@link ClientBlockwiseHandler} in client pipelines
+     * (<code>de.uniluebeck.itm.ncoap.client.blockwise</code>).
+     */
+    public static final String ENABLED = "de.uniluebeck.itm.ncoap.client.blockwise";
+
+    /**
+     * The name of the system property for the preferred block size in bytes of the {@link ClientBlockwiseHandler}s
+     * that are added by the pipeline factories (<code>de.uniluebeck.itm.ncoap.client.blockSize</code>). If set, the
+     * preferred block size is additionally sent with all {@link CoapRequest}s with {@link MessageCode.Name#GET},
+     * i.e. the block size is negotiated with the first request.
+     */
+    public static final String BLOCK_SIZE = "de.uniluebeck.itm.ncoap.client.blockSize";
+
+    /**
+     * The name of the system property for the maximum number of requests for blocks in flight of the
+     * {@link ClientBlockwiseHandler}s that are added by the pipeline factories
+     * (<code>de.uniluebeck.itm.ncoap.client.blockWindow</code>).
+     */
+    public static final String WINDOW_SIZE = "de.uniluebeck.itm.ncoap.client.blockWindow";
+
+    /**
+     * The default block size in bytes (1024)
+     */
+    public static final int DEFAULT_BLOCK_SIZE = BlockValue.MAX_BLOCK_SIZE;
+
+    /**
+     * The default number of requests for blocks in flight (1)
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final int szx;
+    private final int windowSize;
+    private final boolean earlyNegotiation;
+
+
+    /**
+     * Creates a new instance of {@link ClientBlockwiseHandler} with the block size and window size given by the
+     * system properties {@link #BLOCK_SIZE} and {@link #WINDOW_SIZE}.
+     */
+    public ClientBlockwiseHandler(){
+        this(Integer.getInteger(BLOCK_SIZE, DEFAULT_BLOCK_SIZE), Integer.getInteger(WINDOW_SIZE, DEFAULT_WINDOW_SIZE),
+                Integer.getInteger(BLOCK_SIZE) != null);
+    }
+
+
+    /**
+     * Creates a new instance of {@link ClientBlockwiseHandler}
+     *
+     * @param blockSize the preferred block size in bytes (rounded down to a power of two between 16 and 1024)
+     * @param windowSize the maximum number of requests for blocks of a response content in flight
+     * @param earlyNegotiation <code>true</code> if the preferred block size is to be sent with all
+     *                         {@link CoapRequest}s with {@link MessageCode.Name#GET} or <code>false</code> otherwise
+     */
+    public ClientBlockwiseHandler(int blockSize, int windowSize, boolean earlyNegotiation){
+        if(windowSize < 1)
+            throw new IllegalArgumentException("Window size must be at least 1 (was: " + windowSize + ")");
+
+        this.szx = BlockValue.getSzx(blockSize);
+        this.windowSize = windowSize;
+        this.earlyNegotiation = earlyNegotiation;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the system property {@link #ENABLED} is set to <code>true</code> or
+     * <code>false</code> otherwise.
+     *
+     * @return <code>true</code> if the system property {@link #ENABLED} is set to <code>true</code> or
+     * <code>false</code> otherwise.
+     */
+    public static boolean isEnabled(){
+        return Boolean.getBoolean(ENABLED);
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(!(me.getMessage() instanceof InternalWrappedOutgoingCoapMessage)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        InternalWrappedOutgoingCoapMessage message = (InternalWrappedOutgoingCoapMessage) me.getMessage();
+        CoapMessage coapMessage = message.getCoapMessage();
+        CoapResponseProcessor coapResponseProcessor = message.getCoapResponseProcessor();
+
+        //the requests for further blocks are already part of a transfer
+        if(!(coapMessage instanceof CoapRequest) || coapResponseProcessor instanceof BlockwiseTransfer){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        CoapRequest coapRequest = (CoapRequest) coapMessage;
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        if(coapRequest.getContent().readableBytes() > 1 << (szx + 4) && coapRequest.getBlock1() == null){
+            BlockwiseTransfer transfer = new BlockwiseTransfer(ctx.getChannel(), remoteEndpoint, coapRequest,
+                    coapResponseProcessor, szx, windowSize);
+            transfer.sliceRequestContent();
+
+            log.debug("Send content of {} bytes to {} in blocks.", coapRequest.getSize1(), remoteEndpoint);
+            Channels.write(ctx, me.getFuture(), new InternalWrappedOutgoingCoapMessage(coapRequest, transfer),
+                    remoteEndpoint);
+        }
+
+        else if(coapRequest.getMessageCode() == MessageCode.Name.GET.getNumber() && !coapRequest.isObserveSet() &&
+                (coapRequest.getBlock2() == null || coapRequest.getBlock2().getNumber() == 0)){
+
+            if(earlyNegotiation && coapRequest.getBlock2() == null)
+                coapRequest.setBlock2(new BlockValue(0, false, szx));
+
+            BlockwiseTransfer transfer = new BlockwiseTransfer(ctx.getChannel(), remoteEndpoint, coapRequest,
+                    coapResponseProcessor, szx, windowSize);
+
+            Channels.write(ctx, me.getFuture(), new InternalWrappedOutgoingCoapMessage(coapRequest, transfer),
+                    remoteEndpoint);
+        }
+
+        else{
+            ctx.sendDownstream(me);
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.options.BlockValue;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link ServerBlockwiseHandler} is placed between the reliability handlers and the
+ * {@link de.uniluebeck.itm.ncoap.application.server.WebserviceManager} of server pipelines.
+ *
+ * Incoming {@link CoapRequest}s with content in blocks ({@link OptionValue.Name#BLOCK_1}) are answered with
+ * {@link MessageCode.Name#CONTINUE_231} until the last block was received. Then the request is passed to the
+ * {@link de.uniluebeck.itm.ncoap.application.server.WebserviceManager} with the complete content. The size of the
+ * content is limited by the maximum request size, i.e. larger contents are rejected with
+ * {@link MessageCode.Name#REQUEST_ENTITY_TOO_LARGE_413}.
+ *
+ * Outgoing {@link CoapResponse}s with content exceeding the block size (or the block size requested by the client
+ * with {@link OptionValue.Name#BLOCK_2}) are reduced to the requested block. The complete content is kept for a
+ * limited time to serve the requests for the following blocks without involving the
+ * {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}. Update notifications are never split
+ * into blocks.
+ *
+ * Only requests with {@link MessageCode.Name#GET} or block options are kept until their response is written, i.e.
+ * responses to other requests are never split into blocks. Requests that are not answered within
+ * {@link #TRANSFER_LIFETIME} are removed.
+ *
+ * The {@link ServerBlockwiseHandler} is only added to server pipelines if the system property {@link #ENABLED} is
+ * set to <code>true</code>.
+ */
+public class ServerBlockwiseHandler extends SimpleChannelHandler {
+
+    /**
+     * The name of the system property to enable the {@link ServerBlockwiseHandler} in server pipelines
+     * (<code>de.uniluebeck.itm.ncoap.server.blockwise</code>).
+     */
+    public static final String ENABLED = "de.uniluebeck.itm.ncoap.server.blockwise";
+
+    /**
+     * The name of the system property for the maximum block size in bytes of the {@link ServerBlockwiseHandler}s
+     * that are added by the pipeline factories (<code>de.uniluebeck.itm.ncoap.server.blockSize</code>).
+     */
+    public static final String BLOCK_SIZE = "de.uniluebeck.itm.ncoap.server.blockSize";
+
+    /**
+     * The name of the system property for the maximum size in bytes of request contents received in blocks of the
+     * {@link ServerBlockwiseHandler}s that are added by the pipeline factories
+     * (<code>de.uniluebeck.itm.ncoap.server.maxRequestSize</code>).
+     */
+    public static final String MAX_REQUEST_SIZE = "de.uniluebeck.itm.ncoap.server.maxRequestSize";
+
+    /**
+     * The default maximum block size in bytes (1024)
+     */
+    public static final int DEFAULT_BLOCK_SIZE = BlockValue.MAX_BLOCK_SIZE;
+
+    /**
+     * The default maximum size in bytes of request contents received in blocks (1 MiB)
+     */
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 1024 * 1024;
+
+    /**
+     * The time in seconds to keep partially received request contents, the contents of responses sent in blocks and
+     * requests waiting for their response (60)
+     */
+    public static final int TRANSFER_LIFETIME = 60;
+
+    private static Logger log = LoggerFactory.getLogger(ServerBlockwiseHandler.class.getName());
+
+    private final ScheduledExecutorService executorService;
+    private final int szx;
+    private final int maxRequestSize;
+
+    //the requests waiting for their response (key: remote endpoint and token)
+    private final ConcurrentHashMap<Key, PendingRequest> pendingRequests;
+
+    //the earliest time to remove outdated pending requests
+    private final AtomicLong nextRemovalTime;
+
+    //the partially received request contents (key: remote endpoint and resource)
+    private final ConcurrentHashMap<Key, ChannelBuffer> requestContents;
+
+    //the responses sent in blocks (key: remote endpoint and resource)
+    private final ConcurrentHashMap<Key, Representation> representations;
+
+
+    /**
+     * Creates a new instance of {@link ServerBlockwiseHandler} with the block size and maximum request size given by
+     * the system properties {@link #BLOCK_SIZE} and {@link #MAX_REQUEST_SIZE}.
+     *
+     * @param executorService the {@link ScheduledExecutorService} to remove outdated transfers
+     */
+    public ServerBlockwiseHandler(ScheduledExecutorService executorService){
+        this(executorService, Integer.getInteger(BLOCK_SIZE, DEFAULT_BLOCK_SIZE),
+                Integer.getInteger(MAX_REQUEST_SIZE, DEFAULT_MAX_REQUEST_SIZE));
+    }
+
+
+    /**
+     * Creates a new instance of {@link ServerBlockwiseHandler}
+     *
+     * @param executorService the {@link ScheduledExecutorService} to remove outdated transfers
+     * @param blockSize the maximum block size in bytes (rounded down to a power of two between 16 and 1024)
+     * @param maxRequestSize the maximum size in bytes of request contents received in blocks
+     */
+    public ServerBlockwiseHandler(ScheduledExecutorService executorService, int blockSize, int maxRequestSize){
+        this.executorService = executorService;
+        this.szx = BlockValue.getSzx(blockSize);
+        this.maxRequestSize = maxRequestSize;
+
+        this.pendingRequests = new ConcurrentHashMap<>();
+        this.nextRemovalTime = new AtomicLong(System.currentTimeMillis() + TRANSFER_LIFETIME * 1000);
+        this.requestContents = new ConcurrentHashMap<>();
+        this.representations = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * Returns <code>true</code> if the system property {@link #ENABLED} is set to <code>true</code> or
+     * <code>false</code> otherwise.
+     *
+     * @return <code>true</code> if the system property {@link #ENABLED} is set to <code>true</code> or
+     * <code>false</code> otherwise.
+     */
+    public static boolean isEnabled(){
+        return Boolean.getBoolean(ENABLED);
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(!(me.getMessage() instanceof CoapRequest)){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        CoapRequest coapRequest = (CoapRequest) me.getMessage();
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        BlockValue block1 = coapRequest.getBlock1();
+        if(block1 != null && !receiveRequestBlock(ctx, coapRequest, remoteEndpoint, block1))
+            return;
+
+        //serve the following blocks of a response from the kept content
+        BlockValue block2 = coapRequest.getBlock2();
+        if(block2 != null && block2.getNumber() > 0 && block1 == null){
+            Key key = new Key(remoteEndpoint, getResource(coapRequest));
+            Representation representation = representations.get(key);
+
+            if(representation != null){
+                sendResponseBlock(ctx, coapRequest, remoteEndpoint, key, representation, block2);
+                return;
+            }
+        }
+
+        //only responses to GET requests or requests with block options may be sent in blocks
+        if(block1 != null || block2 != null || coapRequest.getMessageCodeName() == MessageCode.Name.GET){
+            long now = System.currentTimeMillis();
+            pendingRequests.put(new Key(remoteEndpoint, coapRequest.getToken()), new PendingRequest(coapRequest,
+                    block1 == null ? null : new BlockValue(block1.getNumber(), false, block1.getSzx()), now));
+
+            long removalTime = nextRemovalTime.get();
+            if(now >= removalTime && nextRemovalTime.compareAndSet(removalTime, now + TRANSFER_LIFETIME * 1000))
+                removeOutdatedRequests(now);
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    /**
+     * Removes the requests that are waiting for their response since at least {@link #TRANSFER_LIFETIME} seconds
+     * (e.g. because the {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice} did not respond).
+     *
+     * @param now the current time in milliseconds
+     */
+    void removeOutdatedRequests(long now){
+        Iterator<PendingRequest> iterator = pendingRequests.values().iterator();
+        while(iterator.hasNext()){
+            if(iterator.next().creationTime + TRANSFER_LIFETIME * 1000 <= now){
+                iterator.remove();
+                log.debug("Removed outdated pending request.");
+            }
+        }
+    }
+
+
+    private boolean receiveRequestBlock(ChannelHandlerContext ctx, CoapRequest coapRequest,
+                                        InetSocketAddress remoteEndpoint, BlockValue block1){
+
+        final Key key = new Key(remoteEndpoint, getResource(coapRequest));
+        ChannelBuffer content;
+
+        if(block1.getNumber() == 0){
+            long size1 = coapRequest.getSize1();
+            if(size1 > maxRequestSize){
+                requestContents.remove(key);
+                sendRequestEntityTooLarge(ctx, coapRequest, remoteEndpoint);
+                return false;
+            }
+
+            content = ChannelBuffers.dynamicBuffer(size1 > 0 ? (int) size1 : 2 * block1.getSize());
+            requestContents.put(key, content);
+
+            final ChannelBuffer transfer = content;
+            executorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if(requestContents.remove(key, transfer))
+                        log.debug("Removed outdated request content (key: {}).", key);
+                }
+            }, TRANSFER_LIFETIME, TimeUnit.SECONDS);
+        }
+
+        else{
+            content = requestContents.get(key);
+        }
+
+        if(content == null){
+            sendRequestEntityIncomplete(ctx, coapRequest, remoteEndpoint, block1);
+            return false;
+        }
+
+        synchronized (content){
+            if(content.writerIndex() != block1.getOffset()){
+                requestContents.remove(key);
+                sendRequestEntityIncomplete(ctx, coapRequest, remoteEndpoint, block1);
+                return false;
+            }
+
+            if(content.writerIndex() + coapRequest.getContent().readableBytes() > maxRequestSize){
+                requestContents.remove(key);
+                sendRequestEntityTooLarge(ctx, coapRequest, remoteEndpoint);
+                return false;
+            }
+
+            content.writeBytes(coapRequest.getContent());
+        }
+
+        //request the next block (possibly with a smaller block size)
+        if(block1.isMore()){
+            CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageTypeName(),
+                    MessageCode.Name.CONTINUE_231);
+            coapResponse.setBlock1(new BlockValue(block1.getNumber(), true, Math.min(block1.getSzx(), szx)));
+            writeResponse(ctx, coapRequest, remoteEndpoint, coapResponse);
+            return false;
+        }
+
+        //the last block was received, i.e. the request is to be processed with the complete content
+        requestContents.remove(key);
+        coapRequest.removeOptions(OptionValue.Name.BLOCK_1);
+        coapRequest.removeOptions(OptionValue.Name.SIZE_1);
+        coapRequest.setContent(content);
+
+        log.debug("Received request content of {} bytes from {}.", content.readableBytes(), remoteEndpoint);
+        return true;
+    }
+
+
+    private void sendRequestEntityIncomplete(ChannelHandlerContext ctx, CoapRequest coapRequest,
+                                             InetSocketAddress remoteEndpoint, BlockValue block1){
+
+        log.warn("Missing block of request content from {} (received block: {}).", remoteEndpoint, block1);
+
+        CoapResponse coapResponse = CoapResponse.createErrorResponse(coapRequest.getMessageTypeName(),
+                MessageCode.Name.REQUEST_ENTITY_INCOMPLETE_408, "Missing block of request content.");
+        writeResponse(ctx, coapRequest, remoteEndpoint, coapResponse);
+    }
+
+
+    private void sendRequestEntityTooLarge(ChannelHandlerContext ctx, CoapRequest coapRequest,
+                                           InetSocketAddress remoteEndpoint){
+
+        CoapResponse coapResponse = CoapResponse.createErrorResponse(coapRequest.getMessageTypeName(),
+                MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413, "Request content exceeds " + maxRequestSize +
+                        " bytes.");
+        coapResponse.setSize1(maxRequestSize);
+        writeResponse(ctx, coapRequest, remoteEndpoint, coapResponse);
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(!(me.getMessage() instanceof CoapResponse)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        PendingRequest pendingRequest = pendingRequests.remove(new Key(remoteEndpoint, coapResponse.getToken()));
+        if(pendingRequest == null || coapResponse.isUpdateNotification() ||
+                MessageCode.isErrorMessage(coapResponse.getMessageCode())){
+
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        if(pendingRequest.block1 != null){
+            try{
+                coapResponse.setBlock1(pendingRequest.block1);
+            }
+            catch(IllegalArgumentException e){
+                log.debug("Could not acknowledge last block of request content: {}", e.getMessage());
+            }
+        }
+
+        CoapRequest coapRequest = pendingRequest.coapRequest;
+        BlockValue block2 = coapRequest.getBlock2();
+
+        int blockSzx = block2 == null ? szx : Math.min(block2.getSzx(), szx);
+        long offset = block2 == null ? 0 : block2.getOffset();
+
+        //the complete content fits into the first block
+        if(offset == 0 && coapResponse.getContent().readableBytes() <= 1 << (blockSzx + 4)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        Key key = new Key(remoteEndpoint, getResource(coapRequest));
+        Representation representation = new Representation(coapResponse, coapResponse.getContent());
+
+        CoapResponse responseBlock = createResponseBlock(coapRequest, remoteEndpoint, key, representation,
+                new BlockValue(offset >> (blockSzx + 4), false, blockSzx));
+
+        if(responseBlock.getBlock2() != null && responseBlock.getBlock2().isMore()){
+            final Key transferKey = key;
+            final Representation transfer = representation;
+            representations.put(transferKey, transfer);
+
+            executorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if(representations.remove(transferKey, transfer))
+                        log.debug("Removed outdated response content (key: {}).", transferKey);
+                }
+            }, TRANSFER_LIFETIME, TimeUnit.SECONDS);
+        }
+
+        responseBlock.setMessageID(coapResponse.getMessageID());
+        responseBlock.setToken(coapResponse.getToken());
+        Channels.write(ctx, me.getFuture(), responseBlock, remoteEndpoint);
+    }
+
+
+    private void sendResponseBlock(ChannelHandlerContext ctx, CoapRequest coapRequest,
+                                   InetSocketAddress remoteEndpoint, Key key, Representation representation,
+                                   BlockValue block2){
+
+        int blockSzx = Math.min(block2.getSzx(), szx);
+        CoapResponse responseBlock = createResponseBlock(coapRequest, remoteEndpoint, key, representation,
+                new BlockValue(block2.getOffset() >> (blockSzx + 4), false, blockSzx));
+
+        writeResponse(ctx, coapRequest, remoteEndpoint, responseBlock);
+    }
+
+
+    private CoapResponse createResponseBlock(CoapRequest coapRequest, InetSocketAddress remoteEndpoint, Key key,
+                                             Representation representation, BlockValue block2){
+
+        ChannelBuffer content = representation.content;
+        long offset = block2.getOffset();
+
+        if(offset >= content.readableBytes()){
+            log.warn("Requested block {} from {} is out of range.", block2, remoteEndpoint);
+            return CoapResponse.createErrorResponse(coapRequest.getMessageTypeName(),
+                    MessageCode.Name.BAD_OPTION_402, "Block " + block2.getNumber() + " is out of range.");
+        }
+
+        int length = (int) Math.min(block2.getSize(), content.readableBytes() - offset);
+        boolean more = offset + length < content.readableBytes();
+
+        CoapResponse template = representation.coapResponse;
+        CoapResponse responseBlock = new CoapResponse(coapRequest.getMessageType(), template.getMessageCode());
+
+        for(int i = 0; i < template.getOptionCount(); i++){
+            int optionNumber = template.getOptionNumber(i);
+            if(optionNumber != OptionValue.Name.BLOCK_2 && optionNumber != OptionValue.Name.SIZE_2 &&
+                    (optionNumber != OptionValue.Name.BLOCK_1 || offset == 0)){
+
+                responseBlock.addOption(optionNumber, template.getOptionValue(i));
+            }
+        }
+
+        responseBlock.setContent(content.slice(content.readerIndex() + (int) offset, length));
+        responseBlock.setBlock2(new BlockValue(block2.getNumber(), more, block2.getSzx()));
+
+        if(offset == 0)
+            responseBlock.setSize2(content.readableBytes());
+
+        if(!more)
+            representations.remove(key, representation);
+
+        return responseBlock;
+    }
+
+
+    private void writeResponse(ChannelHandlerContext ctx, CoapRequest coapRequest, InetSocketAddress remoteEndpoint,
+                               CoapResponse coapResponse){
+
+        coapResponse.setMessageID(coapRequest.getMessageID());
+        coapResponse.setToken(coapRequest.getToken());
+
+        log.debug("Write response to {}: {}", remoteEndpoint, coapResponse);
+        Channels.write(ctx, Channels.future(ctx.getChannel()), coapResponse, remoteEndpoint);
+    }
+
+
+    private static String getResource(CoapRequest coapRequest){
+        return coapRequest.getMessageCode() + " " + coapRequest.getUriPath() + "?" + coapRequest.getUriQuery();
+    }
+
+
+    /**
+     * Returns the number of transfers that are currently kept, i.e. partially received request contents and response
+     * contents sent in blocks.
+     *
+     * @return the number of transfers that are currently kept
+     */
+    public int getNumberOfTransfers(){
+        return requestContents.size() + representations.size();
+    }
+
+
+    /**
+     * Returns the number of requests that are waiting for their response.
+     *
+     * @return the number of requests that are waiting for their response
+     */
+    int getNumberOfPendingRequests(){
+        return pendingRequests.size();
+    }
+
+
+    private static final class PendingRequest {
+
+        private final CoapRequest coapRequest;
+        private final BlockValue block1;
+        private final long creationTime;
+
+        private PendingRequest(CoapRequest coapRequest, BlockValue block1, long creationTime){
+            this.coapRequest = coapRequest;
+            this.block1 = block1;
+            this.creationTime = creationTime;
+        }
+    }
+
+
+    private static final class Representation {
+
+        private final CoapResponse coapResponse;
+        private final ChannelBuffer content;
+
+        private Representation(CoapResponse coapResponse, ChannelBuffer content){
+            this.coapResponse = coapResponse;
+            this.content = content;
+        }
+    }
+
+
+    private static final class Key {
+
+        private final InetSocketAddress remoteEndpoint;
+        private final Object id;
+
+        private Key(InetSocketAddress remoteEndpoint, Object id){
+            this.remoteEndpoint = remoteEndpoint;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode(){
+            return 31 * remoteEndpoint.hashCode() + id.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if(!(object instanceof Key))
+                return false;
+
+            Key other = (Key) object;
+            return this.remoteEndpoint.equals(other.remoteEndpoint) && this.id.equals(other.id);
+        }
+
+        @Override
+        public String toString(){
+            return remoteEndpoint + " " + id;
+        }
+    }
+}
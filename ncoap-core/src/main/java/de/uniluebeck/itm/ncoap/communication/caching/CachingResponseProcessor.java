@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.client.NoTokenAvailableProcessor;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.codec.EncodingFailedProcessor;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.*;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * A {@link CachingResponseProcessor} is the {@link CoapResponseProcessor} for requests that were not answered from
+ * the {@link ClientResponseCache}. It updates the cache with the response, e.g. a response with
+ * {@link MessageCode.Name#VALID_203} is replaced with a copy of the revalidated response, and passes the response to
+ * the actual {@link CoapResponseProcessor}.
+ *
+ * All other events (e.g. retransmission timeouts) are passed to the actual {@link CoapResponseProcessor} if it
+ * implements the corresponding interface.
+ */
+class CachingResponseProcessor implements CoapResponseProcessor, RetransmissionTimeoutProcessor,
+        EmptyAcknowledgementProcessor, TransmissionInformationProcessor, ResetProcessor, NoTokenAvailableProcessor,
+        NoMessageIDAvailableProcessor, EncodingFailedProcessor, RequestQueueFullProcessor {
+
+    private final ClientResponseCache cache;
+    private final CoapResponseProcessor coapResponseProcessor;
+    private final List<Object> key;
+    private final List<Object> resource;
+    private final ClientResponseCache.CacheEntry revalidatedEntry;
+
+
+    /**
+     * @param cache the {@link ClientResponseCache} to be updated
+     * @param coapResponseProcessor the {@link CoapResponseProcessor} to process the response
+     * @param key the cache key of the request or <code>null</code> if the request is not cacheable
+     * @param resource the resource the request is addressed to
+     * @param revalidatedEntry the stale entry whose ETAG was added to the request or <code>null</code> if the
+     *                         request is no revalidation
+     */
+    CachingResponseProcessor(ClientResponseCache cache, CoapResponseProcessor coapResponseProcessor,
+                             List<Object> key, List<Object> resource,
+                             ClientResponseCache.CacheEntry revalidatedEntry){
+
+        this.cache = cache;
+        this.coapResponseProcessor = coapResponseProcessor;
+        this.key = key;
+        this.resource = resource;
+        this.revalidatedEntry = revalidatedEntry;
+    }
+
+
+    @Override
+    public void processCoapResponse(CoapResponse coapResponse) {
+        int messageCode = coapResponse.getMessageCode();
+
+        if(key == null){
+            if(messageCode == MessageCode.Name.CREATED_201.getNumber() ||
+                    messageCode == MessageCode.Name.DELETED_202.getNumber() ||
+                    messageCode == MessageCode.Name.CHANGED_204.getNumber()){
+
+                cache.invalidate(resource);
+            }
+
+            coapResponseProcessor.processCoapResponse(coapResponse);
+        }
+
+        else if(messageCode == MessageCode.Name.VALID_203.getNumber() && revalidatedEntry != null){
+            coapResponseProcessor.processCoapResponse(cache.validate(key, revalidatedEntry, coapResponse));
+        }
+
+        else if(messageCode == MessageCode.Name.CONTENT_205.getNumber()){
+            cache.store(key, resource, coapResponse);
+            coapResponseProcessor.processCoapResponse(coapResponse);
+        }
+
+        else{
+            cache.remove(key);
+            coapResponseProcessor.processCoapResponse(coapResponse);
+        }
+    }
+
+
+    @Override
+    public void processRetransmissionTimeout(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+        if(coapResponseProcessor instanceof RetransmissionTimeoutProcessor)
+            ((RetransmissionTimeoutProcessor) coapResponseProcessor).processRetransmissionTimeout(remoteEndpoint,
+                    messageID, token);
+    }
+
+
+    @Override
+    public void processEmptyAcknowledgement(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+        if(coapResponseProcessor instanceof EmptyAcknowledgementProcessor)
+            ((EmptyAcknowledgementProcessor) coapResponseProcessor).processEmptyAcknowledgement(remoteEndpoint,
+                    messageID, token);
+    }
+
+
+    @Override
+    public void messageTransmitted(InetSocketAddress remoteEndpoint, int messageID, Token token,
+                                   boolean retransmission) {
+        if(coapResponseProcessor instanceof TransmissionInformationProcessor)
+            ((TransmissionInformationProcessor) coapResponseProcessor).messageTransmitted(remoteEndpoint,
+                    messageID, token, retransmission);
+    }
+
+
+    @Override
+    public void processReset(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+        if(coapResponseProcessor instanceof ResetProcessor)
+            ((ResetProcessor) coapResponseProcessor).processReset(remoteEndpoint, messageID, token);
+    }
+
+
+    @Override
+    public void processNoTokenAvailable(InetSocketAddress remoteEndpoint) {
+        if(coapResponseProcessor instanceof NoTokenAvailableProcessor)
+            ((NoTokenAvailableProcessor) coapResponseProcessor).processNoTokenAvailable(remoteEndpoint);
+    }
+
+
+    @Override
+    public void handleNoMessageIDAvailable(InetSocketAddress remoteEndpoint, long waitingPeriod) {
+        if(coapResponseProcessor instanceof NoMessageIDAvailableProcessor)
+            ((NoMessageIDAvailableProcessor) coapResponseProcessor).handleNoMessageIDAvailable(remoteEndpoint,
+                    waitingPeriod);
+    }
+
+
+    @Override
+    public void processEncodingFailed(Throwable cause) {
+        if(coapResponseProcessor instanceof EncodingFailedProcessor)
+            ((EncodingFailedProcessor) coapResponseProcessor).processEncodingFailed(cause);
+    }
+
+
+    @Override
+    public void processRequestQueueFull(InetSocketAddress remoteEndpoint, int queueSize) {
+        if(coapResponseProcessor instanceof RequestQueueFullProcessor)
+            ((RequestQueueFullProcessor) coapResponseProcessor).processRequestQueueFull(remoteEndpoint, queueSize);
+    }
+}
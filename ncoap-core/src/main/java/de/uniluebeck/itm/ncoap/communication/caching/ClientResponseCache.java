@@ -0,0 +1,404 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.client.InternalWrappedOutgoingCoapMessage;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseResponseProcessor;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link ClientResponseCache} is the topmost handler of client pipelines (if enabled). It stores the
+ * {@link CoapResponse}s with {@link MessageCode.Name#CONTENT_205} on {@link CoapRequest}s with
+ * {@link MessageCode.Name#GET}. The cache key consists of the remote endpoint and all options of the request that
+ * are part of the cache key (see {@link OptionValue#isCacheKey(int)}) except for
+ * {@link OptionValue.Name#ETAG}.
+ *
+ * A stored response is fresh for the number of seconds given by its {@link OptionValue.Name#MAX_AGE} option. Requests
+ * matching a fresh response are not sent at all but answered from the cache. Requests matching a stale response with
+ * an {@link OptionValue.Name#ETAG} are sent with that ETAG, i.e. the server may answer with
+ * {@link MessageCode.Name#VALID_203} which refreshes the stored response and is then passed to the
+ * {@link CoapResponseProcessor} as a copy of the stored response. Successful responses on requests with other
+ * methods invalidate all stored responses of the same resource.
+ *
+ * The number of stored responses is limited, i.e. the least recently used response is removed if necessary.
+ * Requests with the observe option, requests with ETAGs or block options set by the application and requests to be
+ * processed by a {@link BlockwiseResponseProcessor} are not served from the cache.
+ */
+public class ClientResponseCache extends SimpleChannelDownstreamHandler {
+
+    /**
+     * The name of the system property for the maximum number of stored responses of the
+     * {@link ClientResponseCache}s that are added by the pipeline factories
+     * (<code>de.uniluebeck.itm.ncoap.client.cacheSize</code>). Values greater than <code>0</code> enable caching.
+     */
+    public static final String MAX_ENTRIES = "de.uniluebeck.itm.ncoap.client.cacheSize";
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final LinkedHashMap<List<Object>, CacheEntry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+
+    /**
+     * Creates a new instance of {@link ClientResponseCache} with the maximum number of stored responses given by the
+     * system property {@link #MAX_ENTRIES}.
+     */
+    public ClientResponseCache(){
+        this(Integer.getInteger(MAX_ENTRIES, 0));
+    }
+
+
+    /**
+     * Creates a new instance of {@link ClientResponseCache}
+     *
+     * @param maxEntries the maximum number of stored responses
+     */
+    public ClientResponseCache(final int maxEntries){
+        if(maxEntries < 1)
+            throw new IllegalArgumentException("Maximum number of entries must be at least 1 (was: " +
+                    maxEntries + ")");
+
+        this.entries = new LinkedHashMap<List<Object>, CacheEntry>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+
+    /**
+     * Returns <code>true</code> if the system property {@link #MAX_ENTRIES} is set to a value greater than
+     * <code>0</code>, i.e. if the pipeline factories are supposed to add a {@link ClientResponseCache}.
+     *
+     * @return <code>true</code> if response caching is enabled by system property or <code>false</code> otherwise
+     */
+    public static boolean isEnabled(){
+        return Integer.getInteger(MAX_ENTRIES, 0) > 0;
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(!(me.getMessage() instanceof InternalWrappedOutgoingCoapMessage)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        InternalWrappedOutgoingCoapMessage message = (InternalWrappedOutgoingCoapMessage) me.getMessage();
+        CoapResponseProcessor coapResponseProcessor = message.getCoapResponseProcessor();
+
+        if(!(message.getCoapMessage() instanceof CoapRequest) ||
+                coapResponseProcessor instanceof CachingResponseProcessor){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        //the requests for further blocks are part of a block-wise transfer
+        CoapRequest coapRequest = (CoapRequest) message.getCoapMessage();
+        if(coapRequest.containsOption(OptionValue.Name.BLOCK_1) ||
+                coapRequest.containsOption(OptionValue.Name.BLOCK_2)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        if(coapRequest.getMessageCode() != MessageCode.Name.GET.getNumber()){
+            //successful responses on unsafe requests invalidate the stored responses of the resource
+            CachingResponseProcessor processor = new CachingResponseProcessor(this, coapResponseProcessor, null,
+                    getResource(remoteEndpoint, coapRequest), null);
+
+            Channels.write(ctx, me.getFuture(), new InternalWrappedOutgoingCoapMessage(coapRequest, processor),
+                    remoteEndpoint);
+            return;
+        }
+
+        if(coapRequest.isObserveSet() || coapRequest.containsOption(OptionValue.Name.ETAG) ||
+                coapResponseProcessor instanceof BlockwiseResponseProcessor){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        List<Object> key = getKey(remoteEndpoint, coapRequest);
+        CacheEntry cacheEntry;
+        long now = System.nanoTime();
+
+        synchronized (entries){
+            cacheEntry = entries.get(key);
+            if(cacheEntry != null && !cacheEntry.isFresh(now) && cacheEntry.etag == null){
+                entries.remove(key);
+                cacheEntry = null;
+            }
+        }
+
+        if(cacheEntry != null && cacheEntry.isFresh(now)){
+            hits.incrementAndGet();
+            log.debug("Answer request for {} from cache.", key);
+
+            me.getFuture().setSuccess();
+            coapResponseProcessor.processCoapResponse(cacheEntry.copyResponse(now));
+            return;
+        }
+
+        if(cacheEntry != null){
+            log.debug("Revalidate stored response for {} (ETAG: {}).", key, cacheEntry.etag);
+            coapRequest.setEtags(cacheEntry.etag);
+        }
+
+        CachingResponseProcessor processor = new CachingResponseProcessor(this, coapResponseProcessor, key,
+                getResource(remoteEndpoint, coapRequest), cacheEntry);
+
+        Channels.write(ctx, me.getFuture(), new InternalWrappedOutgoingCoapMessage(coapRequest, processor),
+                remoteEndpoint);
+    }
+
+
+    /**
+     * Stores the given {@link CoapResponse} with {@link MessageCode.Name#CONTENT_205} (if it is either fresh or can be
+     * revalidated) or removes the previously stored response otherwise
+     */
+    void store(List<Object> key, List<Object> resource, CoapResponse coapResponse){
+        misses.incrementAndGet();
+
+        synchronized (entries){
+            if(coapResponse.getMaxAge() == 0 && coapResponse.getEtag() == null)
+                entries.remove(key);
+            else
+                entries.put(key, new CacheEntry(resource, coapResponse, System.nanoTime()));
+        }
+    }
+
+
+    /**
+     * Refreshes the given {@link CacheEntry} with the given {@link CoapResponse} with
+     * {@link MessageCode.Name#VALID_203} and returns a copy of the stored response
+     */
+    CoapResponse validate(List<Object> key, CacheEntry cacheEntry, CoapResponse coapResponse){
+        hits.incrementAndGet();
+
+        CacheEntry validated = new CacheEntry(cacheEntry, coapResponse, System.nanoTime());
+        synchronized (entries){
+            entries.put(key, validated);
+        }
+
+        return validated.copyResponse(validated.storedAt);
+    }
+
+
+    /**
+     * Removes the stored response for the given key (if any), e.g. if the server answered a revalidation with an error
+     */
+    void remove(List<Object> key){
+        misses.incrementAndGet();
+
+        synchronized (entries){
+            entries.remove(key);
+        }
+    }
+
+
+    /**
+     * Removes all stored responses of the given resource
+     */
+    void invalidate(List<Object> resource){
+        synchronized (entries){
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+            while(iterator.hasNext()){
+                if(iterator.next().resource.equals(resource))
+                    iterator.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of {@link CoapRequest}s that were answered from the cache, i.e. with a fresh stored response
+     * or after a successful revalidation ({@link MessageCode.Name#VALID_203}).
+     *
+     * @return the number of {@link CoapRequest}s that were answered from the cache
+     */
+    public long getHitCount(){
+        return hits.get();
+    }
+
+
+    /**
+     * Returns the number of responses on cacheable {@link CoapRequest}s that could not be answered from the cache.
+     *
+     * @return the number of responses on cacheable {@link CoapRequest}s that could not be answered from the cache
+     */
+    public long getMissCount(){
+        return misses.get();
+    }
+
+
+    /**
+     * Returns the number of stored responses (fresh or stale)
+     *
+     * @return the number of stored responses (fresh or stale)
+     */
+    public int getNumberOfEntries(){
+        synchronized (entries){
+            return entries.size();
+        }
+    }
+
+
+    /**
+     * Returns the cache key of the given {@link CoapRequest}, i.e. the remote endpoint and all options that are part
+     * of the cache key (except for {@link OptionValue.Name#ETAG})
+     */
+    static List<Object> getKey(InetSocketAddress remoteEndpoint, CoapRequest coapRequest){
+        List<Object> key = new ArrayList<>(2 * coapRequest.getOptionCount() + 1);
+        key.add(remoteEndpoint);
+
+        for(int i = 0; i < coapRequest.getOptionCount(); i++){
+            int optionNumber = coapRequest.getOptionNumber(i);
+            if(OptionValue.isCacheKey(optionNumber) && optionNumber != OptionValue.Name.ETAG){
+                key.add(optionNumber);
+                key.add(coapRequest.getOptionValue(i));
+            }
+        }
+
+        return key;
+    }
+
+
+    private static List<Object> getResource(InetSocketAddress remoteEndpoint, CoapRequest coapRequest){
+        List<Object> resource = new ArrayList<>();
+        resource.add(remoteEndpoint);
+
+        for(int i = 0; i < coapRequest.getOptionCount(); i++){
+            int optionNumber = coapRequest.getOptionNumber(i);
+            if(optionNumber == OptionValue.Name.URI_HOST || optionNumber == OptionValue.Name.URI_PORT ||
+                    optionNumber == OptionValue.Name.URI_PATH || optionNumber == OptionValue.Name.URI_QUERY ||
+                    optionNumber == OptionValue.Name.PROXY_URI || optionNumber == OptionValue.Name.PROXY_SCHEME){
+
+                resource.add(optionNumber);
+                resource.add(coapRequest.getOptionValue(i));
+            }
+        }
+
+        return resource;
+    }
+
+
+    /**
+     * A stored {@link CoapResponse} (without message ID and token) and the time it was stored (resp. validated)
+     */
+    static final class CacheEntry {
+
+        private final List<Object> resource;
+        private final CoapResponse coapResponse;
+        private final byte[] etag;
+        private final long storedAt;
+        private final long expiresAt;
+
+
+        private CacheEntry(List<Object> resource, CoapResponse coapResponse, long now){
+            this.resource = resource;
+            this.coapResponse = copy(coapResponse, coapResponse, coapResponse.getMaxAge());
+            this.coapResponse.setContent(ChannelBuffers.copiedBuffer(coapResponse.getContent()));
+            this.etag = this.coapResponse.getEtag();
+            this.storedAt = now;
+            this.expiresAt = now + TimeUnit.SECONDS.toNanos(coapResponse.getMaxAge());
+        }
+
+
+        private CacheEntry(CacheEntry cacheEntry, CoapResponse validResponse, long now){
+            this.resource = cacheEntry.resource;
+            this.coapResponse = copy(cacheEntry.coapResponse, validResponse, validResponse.getMaxAge());
+            this.coapResponse.setContent(cacheEntry.coapResponse.getContent());
+            this.etag = this.coapResponse.getEtag();
+            this.storedAt = now;
+            this.expiresAt = now + TimeUnit.SECONDS.toNanos(validResponse.getMaxAge());
+        }
+
+
+        private boolean isFresh(long now){
+            return expiresAt - now > 0;
+        }
+
+
+        /**
+         * Returns a copy of the stored response with the remaining freshness as max age
+         */
+        private CoapResponse copyResponse(long now){
+            long maxAge = Math.max(0, TimeUnit.NANOSECONDS.toSeconds(expiresAt - now));
+            CoapResponse copy = copy(coapResponse, coapResponse, maxAge);
+            copy.setContent(coapResponse.getContent().duplicate());
+            return copy;
+        }
+
+
+        /**
+         * Returns a copy of the given response (without content) with the given max age and the ETAG and
+         * content format of the given source of metadata (e.g. a response with {@link MessageCode.Name#VALID_203})
+         */
+        private static CoapResponse copy(CoapResponse coapResponse, CoapResponse metadata, long maxAge){
+            CoapResponse copy = new CoapResponse(coapResponse.getMessageType(), coapResponse.getMessageCode());
+
+            for(int i = 0; i < coapResponse.getOptionCount(); i++){
+                int optionNumber = coapResponse.getOptionNumber(i);
+                if(optionNumber != OptionValue.Name.MAX_AGE && optionNumber != OptionValue.Name.ETAG)
+                    copy.addOption(optionNumber, coapResponse.getOptionValue(i));
+            }
+
+            byte[] etag = metadata.getEtag() == null ? coapResponse.getEtag() : metadata.getEtag();
+            if(etag != null)
+                copy.setEtag(etag);
+
+            if(maxAge != OptionValue.MAX_AGE_DEFAULT)
+                copy.setMaxAge(maxAge);
+
+            return copy;
+        }
+    }
+}
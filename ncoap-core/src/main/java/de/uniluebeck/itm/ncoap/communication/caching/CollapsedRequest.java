@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.client.NoTokenAvailableProcessor;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.codec.EncodingFailedProcessor;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.*;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A {@link CollapsedRequest} is the {@link CoapResponseProcessor} for a request in flight that was (possibly) joined
+ * by identical requests (see {@link RequestCollapser}). The response is passed to all joined
+ * {@link CoapResponseProcessor}s, i.e. the first one receives the original response and all others receive a copy
+ * (with their own reader index of the content).
+ *
+ * All other events (e.g. retransmission timeouts) are passed to all joined {@link CoapResponseProcessor}s that
+ * implement the corresponding interface. Events that finish the exchange, e.g. a response or a retransmission
+ * timeout, remove this {@link CollapsedRequest} from the requests in flight.
+ */
+class CollapsedRequest implements CoapResponseProcessor, RetransmissionTimeoutProcessor,
+        EmptyAcknowledgementProcessor, TransmissionInformationProcessor, ResetProcessor, NoTokenAvailableProcessor,
+        NoMessageIDAvailableProcessor, EncodingFailedProcessor, RequestQueueFullProcessor {
+
+    private final RequestCollapser requestCollapser;
+    private final List<Object> key;
+    private final List<CoapResponseProcessor> coapResponseProcessors;
+
+    private boolean done;
+
+    //the task that ends the joining of this request (guarded by this)
+    private ScheduledFuture<?> lifetimeFuture;
+    private boolean lifetimeFutureCancelled;
+
+
+    /**
+     * @param requestCollapser the {@link RequestCollapser} that holds the requests in flight
+     * @param key the key of the request in flight
+     * @param coapResponseProcessor the {@link CoapResponseProcessor} of the request in flight
+     */
+    CollapsedRequest(RequestCollapser requestCollapser, List<Object> key,
+                     CoapResponseProcessor coapResponseProcessor){
+
+        this.requestCollapser = requestCollapser;
+        this.key = key;
+        this.coapResponseProcessors = new ArrayList<>();
+        this.coapResponseProcessors.add(coapResponseProcessor);
+    }
+
+
+    /**
+     * Adds the given {@link CoapResponseProcessor} to the exchange and returns <code>true</code> if the exchange is
+     * not yet finished or returns <code>false</code> otherwise
+     */
+    synchronized boolean join(CoapResponseProcessor coapResponseProcessor){
+        if(done)
+            return false;
+
+        coapResponseProcessors.add(coapResponseProcessor);
+        return true;
+    }
+
+
+    /**
+     * Sets the {@link ScheduledFuture} of the task that ends the joining of this request. The task is cancelled
+     * immediately if this request was already removed from the requests in flight.
+     */
+    synchronized void setLifetimeFuture(ScheduledFuture<?> lifetimeFuture){
+        if(lifetimeFutureCancelled)
+            lifetimeFuture.cancel(false);
+        else
+            this.lifetimeFuture = lifetimeFuture;
+    }
+
+
+    /**
+     * Cancels the task that ends the joining of this request (if any), i.e. the task does not keep this request
+     * (and the joined {@link CoapResponseProcessor}s) alive after the exchange was finished
+     */
+    synchronized void cancelLifetimeFuture(){
+        lifetimeFutureCancelled = true;
+
+        if(lifetimeFuture != null){
+            lifetimeFuture.cancel(false);
+            lifetimeFuture = null;
+        }
+    }
+
+
+    /**
+     * Finishes the exchange and returns the joined {@link CoapResponseProcessor}s (or an empty list if the exchange
+     * was already finished)
+     */
+    List<CoapResponseProcessor> finish(){
+        List<CoapResponseProcessor> result;
+
+        synchronized (this){
+            if(done)
+                return new ArrayList<>(0);
+
+            done = true;
+            result = new ArrayList<>(coapResponseProcessors);
+        }
+
+        requestCollapser.remove(key, this);
+        return result;
+    }
+
+
+    private synchronized List<CoapResponseProcessor> getCoapResponseProcessors(){
+        return done ? new ArrayList<CoapResponseProcessor>(0) : new ArrayList<>(coapResponseProcessors);
+    }
+
+
+    @Override
+    public void processCoapResponse(CoapResponse coapResponse) {
+        List<CoapResponseProcessor> processors = finish();
+
+        for(int i = 1; i < processors.size(); i++)
+            processors.get(i).processCoapResponse(copy(coapResponse));
+
+        if(!processors.isEmpty())
+            processors.get(0).processCoapResponse(coapResponse);
+    }
+
+
+    private static CoapResponse copy(CoapResponse coapResponse){
+        CoapResponse copy = new CoapResponse(coapResponse.getMessageType(), coapResponse.getMessageCode());
+        copy.setMessageID(coapResponse.getMessageID());
+        copy.setToken(coapResponse.getToken());
+
+        for(int i = 0; i < coapResponse.getOptionCount(); i++)
+            copy.addOption(coapResponse.getOptionNumber(i), coapResponse.getOptionValue(i));
+
+        copy.setContent(coapResponse.getContent().duplicate());
+        return copy;
+    }
+
+
+    @Override
+    public void processRetransmissionTimeout(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+        for(CoapResponseProcessor processor : finish()){
+            if(processor instanceof RetransmissionTimeoutProcessor)
+                ((RetransmissionTimeoutProcessor) processor).processRetransmissionTimeout(remoteEndpoint,
+                        messageID, token);
+        }
+    }
+
+
+    @Override
+    public void processEmptyAcknowledgement(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+        for(CoapResponseProcessor processor : getCoapResponseProcessors()){
+            if(processor instanceof EmptyAcknowledgementProcessor)
+                ((EmptyAcknowledgementProcessor) processor).processEmptyAcknowledgement(remoteEndpoint,
+                        messageID, token);
+        }
+    }
+
+
+    @Override
+    public void messageTransmitted(InetSocketAddress remoteEndpoint, int messageID, Token token,
+                                   boolean retransmission) {
+        for(CoapResponseProcessor processor : getCoapResponseProcessors()){
+            if(processor instanceof TransmissionInformationProcessor)
+                ((TransmissionInformationProcessor) processor).messageTransmitted(remoteEndpoint, messageID,
+                        token, retransmission);
+        }
+    }
+
+
+    @Override
+    public void processReset(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+        for(CoapResponseProcessor processor : finish()){
+            if(processor instanceof ResetProcessor)
+                ((ResetProcessor) processor).processReset(remoteEndpoint, messageID, token);
+        }
+    }
+
+
+    @Override
+    public void processNoTokenAvailable(InetSocketAddress remoteEndpoint) {
+        for(CoapResponseProcessor processor : finish()){
+            if(processor instanceof NoTokenAvailableProcessor)
+                ((NoTokenAvailableProcessor) processor).processNoTokenAvailable(remoteEndpoint);
+        }
+    }
+
+
+    @Override
+    public void handleNoMessageIDAvailable(InetSocketAddress remoteEndpoint, long waitingPeriod) {
+        for(CoapResponseProcessor processor : finish()){
+            if(processor instanceof NoMessageIDAvailableProcessor)
+                ((NoMessageIDAvailableProcessor) processor).handleNoMessageIDAvailable(remoteEndpoint,
+                        waitingPeriod);
+        }
+    }
+
+
+    @Override
+    public void processEncodingFailed(Throwable cause) {
+        for(CoapResponseProcessor processor : finish()){
+            if(processor instanceof EncodingFailedProcessor)
+                ((EncodingFailedProcessor) processor).processEncodingFailed(cause);
+        }
+    }
+
+
+    @Override
+    public void processRequestQueueFull(InetSocketAddress remoteEndpoint, int queueSize) {
+        for(CoapResponseProcessor processor : finish()){
+            if(processor instanceof RequestQueueFullProcessor)
+                ((RequestQueueFullProcessor) processor).processRequestQueueFull(remoteEndpoint, queueSize);
+        }
+    }
+}
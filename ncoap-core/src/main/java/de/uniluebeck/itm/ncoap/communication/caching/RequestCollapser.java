@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor;
+import de.uniluebeck.itm.ncoap.application.client.InternalWrappedOutgoingCoapMessage;
+import de.uniluebeck.itm.ncoap.communication.blockwise.BlockwiseResponseProcessor;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.OutgoingMessageReliabilityHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.RequestWindowHandler;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link RequestCollapser} is the topmost handler of client pipelines (if enabled). It collapses
+ * {@link CoapRequest}s with {@link MessageCode.Name#GET} that are identical to a request in flight, i.e. addressed to
+ * the same remote endpoint with the same message type and the same options that are part of the cache key (see
+ * {@link OptionValue#isCacheKey(int)}). Such requests are not sent but their {@link CoapResponseProcessor}s are
+ * added to the exchange of the request in flight, i.e. the response (and all other events, e.g. a retransmission
+ * timeout) are passed to all of them. Thus, identical concurrent requests need only a single token, message ID and
+ * exchange.
+ *
+ * Requests with the observe option, ETAGs or block options and requests to be processed by a
+ * {@link BlockwiseResponseProcessor} are never collapsed.
+ *
+ * A request can only be joined for a limited time, i.e. {@link RequestWindowHandler#NON_TIMEOUT_MILLIS} for
+ * {@link MessageType.Name#NON} requests (which may never be answered) and
+ * {@link OutgoingMessageReliabilityHandler#MAX_TRANSMIT_WAIT_MILLIS} for {@link MessageType.Name#CON} requests.
+ * Afterwards, the next identical request is sent. The {@link CoapResponseProcessor}s that already joined still
+ * receive a late response.
+ */
+public class RequestCollapser extends SimpleChannelDownstreamHandler {
+
+    /**
+     * The name of the system property to enable the collapsing of identical concurrent requests by the
+     * {@link RequestCollapser}s that are added by the pipeline factories
+     * (<code>de.uniluebeck.itm.ncoap.client.collapseRequests</code>).
+     */
+    public static final String ENABLED = "de.uniluebeck.itm.ncoap.client.collapseRequests";
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final ScheduledExecutorService executorService;
+    private final ConcurrentHashMap<List<Object>, CollapsedRequest> requestsInFlight;
+    private final AtomicLong collapsedRequests;
+
+
+    /**
+     * Creates a new instance of {@link RequestCollapser}
+     *
+     * @param executorService the {@link ScheduledExecutorService} to end the joining of requests in flight
+     */
+    public RequestCollapser(ScheduledExecutorService executorService){
+        this.executorService = executorService;
+        this.requestsInFlight = new ConcurrentHashMap<>();
+        this.collapsedRequests = new AtomicLong(0);
+    }
+
+
+    /**
+     * Returns <code>true</code> if the system property {@link #ENABLED} is set to <code>true</code>, i.e. if the
+     * pipeline factories are supposed to add a {@link RequestCollapser}.
+     *
+     * @return <code>true</code> if request collapsing is enabled by system property or <code>false</code> otherwise
+     */
+    public static boolean isEnabled(){
+        return Boolean.getBoolean(ENABLED);
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(!(me.getMessage() instanceof InternalWrappedOutgoingCoapMessage)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        InternalWrappedOutgoingCoapMessage message = (InternalWrappedOutgoingCoapMessage) me.getMessage();
+        CoapResponseProcessor coapResponseProcessor = message.getCoapResponseProcessor();
+
+        if(!(message.getCoapMessage() instanceof CoapRequest) || coapResponseProcessor instanceof CollapsedRequest ||
+                coapResponseProcessor instanceof BlockwiseResponseProcessor){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        CoapRequest coapRequest = (CoapRequest) message.getCoapMessage();
+        if(coapRequest.getMessageCode() != MessageCode.Name.GET.getNumber() || coapRequest.isObserveSet() ||
+                coapRequest.containsOption(OptionValue.Name.ETAG) ||
+                coapRequest.containsOption(OptionValue.Name.BLOCK_1) ||
+                coapRequest.containsOption(OptionValue.Name.BLOCK_2)){
+
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        //a CON request must not join a NON request in flight (which is not retransmitted)
+        final List<Object> key = ClientResponseCache.getKey(remoteEndpoint, coapRequest);
+        key.add(coapRequest.getMessageTypeName());
+
+        final CollapsedRequest collapsedRequest = new CollapsedRequest(this, key, coapResponseProcessor);
+
+        while(true){
+            CollapsedRequest requestInFlight = requestsInFlight.putIfAbsent(key, collapsedRequest);
+
+            if(requestInFlight == null)
+                break;
+
+            if(requestInFlight.join(coapResponseProcessor)){
+                collapsedRequests.incrementAndGet();
+                log.debug("Collapsed request for {} with request in flight.", key);
+                me.getFuture().setSuccess();
+                return;
+            }
+
+            //the request in flight was finished in the meantime
+            requestsInFlight.remove(key, requestInFlight);
+        }
+
+        //a request without response must not be joined forever
+        long lifetime = coapRequest.getMessageTypeName() == MessageType.Name.CON ?
+                OutgoingMessageReliabilityHandler.MAX_TRANSMIT_WAIT_MILLIS : RequestWindowHandler.NON_TIMEOUT_MILLIS;
+
+        try{
+            collapsedRequest.setLifetimeFuture(executorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if(requestsInFlight.remove(key, collapsedRequest))
+                        log.debug("Request for {} can not be joined anymore.", key);
+                }
+            }, lifetime, TimeUnit.MILLISECONDS));
+        }
+        catch(RejectedExecutionException e){
+            remove(key, collapsedRequest);
+        }
+
+        //a request that could not be sent must not be joined anymore (the joined processors are informed by the
+        //failure callbacks, if any)
+        me.getFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if(!future.isSuccess())
+                    remove(key, collapsedRequest);
+            }
+        });
+
+        Channels.write(ctx, me.getFuture(), new InternalWrappedOutgoingCoapMessage(coapRequest, collapsedRequest),
+                remoteEndpoint);
+    }
+
+
+    /**
+     * Removes the given {@link CollapsedRequest} from the requests in flight and cancels the end of its lifetime
+     */
+    void remove(List<Object> key, CollapsedRequest collapsedRequest){
+        requestsInFlight.remove(key, collapsedRequest);
+        collapsedRequest.cancelLifetimeFuture();
+    }
+
+
+    /**
+     * Returns the number of {@link CoapRequest}s that were not sent but collapsed with an identical request in flight.
+     *
+     * @return the number of {@link CoapRequest}s that were collapsed with an identical request in flight
+     */
+    public long getNumberOfCollapsedRequests(){
+        return collapsedRequests.get();
+    }
+
+
+    /**
+     * Returns the number of (not collapsed) {@link CoapRequest}s in flight
+     *
+     * @return the number of (not collapsed) {@link CoapRequest}s in flight
+     */
+    public int getNumberOfRequestsInFlight(){
+        return requestsInFlight.size();
+    }
+}
@@ -62,8 +62,39 @@ import java.net.InetSocketAddress;
  */
 public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
+    /**
+     * The name of the system property to enable the lazy decoding of options for all instances created with
+     * {@link #CoapMessageDecoder()} (<code>de.uniluebeck.itm.ncoap.lazyOptionDecoding</code>)
+     */
+    public static final String LAZY_OPTION_DECODING = "de.uniluebeck.itm.ncoap.lazyOptionDecoding";
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
+    private final boolean lazyOptionDecoding;
+
+
+    /**
+     * Creates a new instance of {@link CoapMessageDecoder}. Options are decoded lazily if the system property
+     * {@link #LAZY_OPTION_DECODING} is set to <code>true</code>.
+     */
+    public CoapMessageDecoder(){
+        this(Boolean.getBoolean(LAZY_OPTION_DECODING));
+    }
+
+
+    /**
+     * Creates a new instance of {@link CoapMessageDecoder}.
+     *
+     * @param lazyOptionDecoding if <code>true</code> the decoder only validates the options of incoming messages and
+     *                           records their positions within the received {@link ChannelBuffer} (see
+     *                           {@link CoapMessage#addEncodedOption(int, ChannelBuffer, int, int)}). The
+     *                           {@link OptionValue} instances are then created on the first access to the options of
+     *                           the decoded message. Otherwise all options are decoded immediately.
+     */
+    public CoapMessageDecoder(boolean lazyOptionDecoding){
+        this.lazyOptionDecoding = lazyOptionDecoding;
+    }
+
 
     @Override
     public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
@@ -89,7 +120,7 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
     }
 
 
-    private CoapMessage decode(InetSocketAddress remoteEndpoint, ChannelBuffer buffer)
+    protected CoapMessage decode(InetSocketAddress remoteEndpoint, ChannelBuffer buffer)
             throws InvalidHeaderException, InvalidOptionException {
 
         log.debug("Incoming message to be decoded (length: {})", buffer.readableBytes());
@@ -108,8 +139,9 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
         int messageID =   (encodedHeader)        & 0xFFFF;
 
 
-        log.debug("Decoded Header: (T) {}, (TKL) {}, (C) {}, (ID) {}",
-                new Object[]{messageType, tokenLength, messageCode, messageID});
+        if(log.isDebugEnabled())
+            log.debug("Decoded Header: (T) {}, (TKL) {}, (C) {}, (ID) {}",
+                    new Object[]{messageType, tokenLength, messageCode, messageID});
 
         //Check whether the protocol version is supported (=1)
         if(version != CoapMessage.PROTOCOL_VERSION)
@@ -145,8 +177,11 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
 
         //Read the token
-        byte[] token = new byte[tokenLength];
-        buffer.readBytes(token);
+        long tokenValue = 0;
+        for(int i = 0; i < tokenLength; i++)
+            tokenValue = (tokenValue << 8) | buffer.readUnsignedByte();
+
+        Token token = new Token(tokenValue, tokenLength);
 
         //Handle non-empty messages (CON, NON or ACK)
         CoapMessage coapMessage;
@@ -160,7 +195,7 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
         }
 
         coapMessage.setMessageID(messageID);
-        coapMessage.setToken(new Token(token));
+        coapMessage.setToken(token);
 
         //Decode and set the options
         if(buffer.readableBytes() > 0){
@@ -169,7 +204,7 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
             }
             catch (InvalidOptionException e) {
                 e.setMessageID(messageID);
-                e.setToken(new Token(token));
+                e.setToken(token);
                 e.setRemoteEndpoint(remoteEndpoint);
                 e.setMessageType(messageType);
 
@@ -178,16 +213,16 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
         }
 
 
-        //The remaining bytes (if any) are the messages payload. If there is no payload, reader and writer index are
-        //at the same position (buf.readableBytes() == 0).
-        buffer.discardReadBytes();
-
-        try {
-            coapMessage.setContent(buffer);
-        }
-        catch (IllegalArgumentException e) {
-            log.warn("Message code {} does not allow content. Ignore {} bytes.", coapMessage.getMessageCode(),
-                    buffer.readableBytes());
+        //The remaining bytes (if any) are the messages payload. The payload is a slice of the received buffer (and not
+        //a copy) as the buffer is not reused by Netty and lazily decoded options may refer to it anyway.
+        if(buffer.readable()){
+            try {
+                coapMessage.setContent(buffer.slice());
+            }
+            catch (IllegalArgumentException e) {
+                log.warn("Message code {} does not allow content. Ignore {} bytes.", coapMessage.getMessageCode(),
+                        buffer.readableBytes());
+            }
         }
 
         log.info("Decoded Message: {}", coapMessage);
@@ -200,62 +235,64 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
         //Decode the options
         int previousOptionNumber = 0;
-        int firstByte = buffer.readByte() & 0xFF;
-
-        while(firstByte != 0xFF && buffer.readableBytes() > 0){
-            log.debug("First byte: {} ({})", toBinaryString(firstByte), firstByte);
-            int optionDelta =   (firstByte & 0xF0) >>> 4;
-            int optionLength =   firstByte & 0x0F;
-            log.debug("temp. delta: {}, temp. length {}", optionDelta, optionLength);
 
-            if(optionDelta == 13)
-                optionDelta += buffer.readByte() & 0xFF;
+        while(buffer.readable()){
+            int firstByte = buffer.readUnsignedByte();
 
-            else if(optionDelta == 14)
-                optionDelta = 269 + ((buffer.readByte() & 0xFF) << 8) + (buffer.readByte() & 0xFF);
+            //The payload marker terminates the options
+            if(firstByte == 0xFF)
+                break;
 
-            else
-
-            if(optionLength == 13){
-                optionLength += buffer.readByte() & 0xFF;
-            }
-
-            else if(optionLength == 14)
-                optionLength = 269 + ((buffer.readByte() & 0xFF) << 8) + (buffer.readByte() & 0xFF);
+            if(log.isDebugEnabled())
+                log.debug("First byte: {} ({})", toBinaryString(firstByte), firstByte);
 
+            //Extended delta bytes (if any) precede the extended length bytes (if any)
+            int optionDelta =   decodeExtendedValue((firstByte & 0xF0) >>> 4, buffer);
+            int optionLength =  decodeExtendedValue(firstByte & 0x0F, buffer);
 
             log.debug("Previous option: {}, Option delta: {}", previousOptionNumber, optionDelta);
 
             int actualOptionNumber = previousOptionNumber + optionDelta;
             log.debug("Decode option no. {} with length of {} bytes.", actualOptionNumber, optionLength);
 
+            int optionValueIndex = buffer.readerIndex();
+            buffer.skipBytes(optionLength);
+
             try {
-                byte[] optionValue = new byte[optionLength];
-                buffer.readBytes(optionValue);
+                if(lazyOptionDecoding){
+                    coapMessage.addEncodedOption(actualOptionNumber, buffer, optionValueIndex, optionLength);
+                }
 
-                switch(OptionValue.getOptionType(actualOptionNumber)){
+                else{
+                    byte[] optionValue = new byte[optionLength];
+                    buffer.getBytes(optionValueIndex, optionValue);
 
-                    case OptionValue.Type.EMPTY:
-                        coapMessage.addOption(actualOptionNumber, new EmptyOptionValue(actualOptionNumber));
-                        break;
+                    switch(OptionValue.getOptionType(actualOptionNumber)){
 
-                    case OptionValue.Type.OPAQUE:
-                        coapMessage.addOption(actualOptionNumber, new OpaqueOptionValue(actualOptionNumber, optionValue));
-                        break;
+                        case OptionValue.Type.EMPTY:
+                            coapMessage.addOption(actualOptionNumber, new EmptyOptionValue(actualOptionNumber));
+                            break;
 
-                    case OptionValue.Type.STRING:
-                        coapMessage.addOption(actualOptionNumber, new StringOptionValue(actualOptionNumber, optionValue));
-                        break;
+                        case OptionValue.Type.OPAQUE:
+                            coapMessage.addOption(actualOptionNumber,
+                                    new OpaqueOptionValue(actualOptionNumber, optionValue));
+                            break;
 
-                    case OptionValue.Type.UINT:
-                        coapMessage.addOption(actualOptionNumber, new UintOptionValue(actualOptionNumber, optionValue));
-                        break;
+                        case OptionValue.Type.STRING:
+                            coapMessage.addOption(actualOptionNumber,
+                                    new StringOptionValue(actualOptionNumber, optionValue));
+                            break;
 
-                    default:
-                        log.error("This should never happen!");
-                        throw new RuntimeException("This should never happen!");
-                }
+                        case OptionValue.Type.UINT:
+                            coapMessage.addOption(actualOptionNumber,
+                                    new UintOptionValue(actualOptionNumber, optionValue));
+                            break;
 
+                        default:
+                            log.error("This should never happen!");
+                            throw new RuntimeException("This should never happen!");
+                    }
+                }
             }
 
             //failed option creation leads to an illegal argument exception
@@ -278,14 +315,21 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
             previousOptionNumber = actualOptionNumber;
 
-            if(buffer.readableBytes() > 0)
-                firstByte = buffer.readByte() & 0xFF;
-
             log.debug("{} readable bytes remaining.", buffer.readableBytes());
         }
     }
 
 
+    private static int decodeExtendedValue(int value, ChannelBuffer buffer){
+        if(value == 13)
+            return 13 + buffer.readUnsignedByte();
+
+        else if(value == 14)
+            return 269 + buffer.readUnsignedShort();
+
+        else
+            return value;
+    }
 
 
     @Override
@@ -73,6 +73,8 @@ package de.uniluebeck.itm.ncoap.communication.codec;
 
 import com.google.common.primitives.Ints;
 import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.observe.server.UpdateNotification;
+import de.uniluebeck.itm.ncoap.communication.observe.server.UpdateNotificationTemplate;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 import de.uniluebeck.itm.ncoap.message.MessageCode;
 import de.uniluebeck.itm.ncoap.message.options.OptionValue;
@@ -111,8 +113,41 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
     public static final int MAX_OPTION_LENGTH = 65804;
 
 
+    /**
+     * The name of the system property to enable the single-pass encoding into pooled buffers for all instances
+     * created with {@link #CoapMessageEncoder()} (<code>de.uniluebeck.itm.ncoap.pooledEncoding</code>)
+     */
+    public static final String POOLED_ENCODING = "de.uniluebeck.itm.ncoap.pooledEncoding";
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
+    private final EncodingBufferPool bufferPool;
+
+
+    /**
+     * Creates a new instance of {@link CoapMessageEncoder}. If the system property {@link #POOLED_ENCODING} is set
+     * to <code>true</code> the encoder uses a {@link FixedSizeEncodingBufferPool} (see
+     * {@link #CoapMessageEncoder(EncodingBufferPool)}). Otherwise messages are encoded into newly allocated dynamic
+     * buffers.
+     */
+    public CoapMessageEncoder(){
+        this(Boolean.getBoolean(POOLED_ENCODING) ? new FixedSizeEncodingBufferPool() : null);
+    }
+
+
+    /**
+     * Creates a new instance of {@link CoapMessageEncoder} that computes the exact length of header, token and
+     * options of outgoing messages first and then writes them in a single pass into a buffer acquired from the given
+     * {@link EncodingBufferPool}. The content (if any) is not copied but appended using a composite buffer. The
+     * buffer is released when the write operation is completed.
+     *
+     * @param bufferPool the {@link EncodingBufferPool} to provide the buffers (or <code>null</code> to encode into
+     *                   newly allocated dynamic buffers)
+     */
+    public CoapMessageEncoder(EncodingBufferPool bufferPool){
+        this.bufferPool = bufferPool;
+    }
+
 
     @Override
     public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
@@ -126,7 +161,39 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
         CoapMessage coapMessage = (CoapMessage) ((MessageEvent) evt).getMessage();
 
         try{
-            Channels.write(ctx, evt.getFuture(), encode(coapMessage), remoteEndpoint);
+            if(isBoundToTemplate(coapMessage)){
+                UpdateNotification updateNotification = (UpdateNotification) coapMessage;
+                final ChannelBuffer encodedPrefix = encodePrefix(updateNotification);
+
+                if(bufferPool != null){
+                    evt.getFuture().addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) throws Exception {
+                            bufferPool.release(encodedPrefix);
+                        }
+                    });
+                }
+
+                Channels.write(ctx, evt.getFuture(), appendEncodedTail(encodedPrefix, updateNotification),
+                        remoteEndpoint);
+            }
+
+            else if(bufferPool == null){
+                Channels.write(ctx, evt.getFuture(), encode(coapMessage), remoteEndpoint);
+            }
+
+            else{
+                final ChannelBuffer pooledBuffer = encodeWithoutContent(coapMessage);
+
+                evt.getFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        bufferPool.release(pooledBuffer);
+                    }
+                });
+
+                Channels.write(ctx, evt.getFuture(), appendContent(pooledBuffer, coapMessage), remoteEndpoint);
+            }
         }
         catch(Exception ex){
             evt.getFuture().setFailure(ex);
@@ -137,6 +204,12 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
 
 
     protected ChannelBuffer encode(CoapMessage coapMessage) throws InvalidOptionException {
+        if(isBoundToTemplate(coapMessage))
+            return appendEncodedTail(encodePrefix((UpdateNotification) coapMessage), (UpdateNotification) coapMessage);
+
+        if(bufferPool != null)
+            return appendContent(encodeWithoutContent(coapMessage), coapMessage);
+
         log.info("CoapMessage to be encoded: {}", coapMessage);
 
 
@@ -153,7 +226,7 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
         }
 
 
-        if(coapMessage.getAllOptions().size() == 0 && coapMessage.getContent().readableBytes() == 0)
+        if(coapMessage.getOptionCount() == 0 && coapMessage.getContent().readableBytes() == 0)
             return encodedMessage;
 
 
@@ -174,13 +247,253 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
     }
 
 
+    /**
+     * Encodes header, token and options of the given {@link CoapMessage} and (if the message has content) the
+     * end-of-options marker into a single buffer acquired from the {@link EncodingBufferPool}. The exact length is
+     * computed in advance, so the buffer never grows.
+     *
+     * @param coapMessage the {@link CoapMessage} to be encoded
+     *
+     * @return the buffer acquired from the {@link EncodingBufferPool} containing the encoded message (except for the
+     * content)
+     *
+     * @throws InvalidOptionException if one of the options could not be encoded
+     */
+    protected ChannelBuffer encodeWithoutContent(CoapMessage coapMessage) throws InvalidOptionException {
+        log.info("CoapMessage to be encoded: {}", coapMessage);
+
+        //Empty messages consist of the header (without token) only
+        if(coapMessage.getMessageCode() == MessageCode.Name.EMPTY.getNumber()){
+            ChannelBuffer encodedMessage = bufferPool.acquire(4);
+            encodedMessage.writeInt(createEncodedHeader(coapMessage, 0));
+            return encodedMessage;
+        }
+
+        boolean endOfOptionsMarker = coapMessage.getContent().readable();
+        ChannelBuffer encodedMessage =
+                encodeHeaderAndOptions(coapMessage, coapMessage.getOptionCount(), endOfOptionsMarker);
+
+        log.debug("Encoded length of message (without CONTENT): {}", encodedMessage.readableBytes());
+        return encodedMessage;
+    }
+
+
+    private static boolean isBoundToTemplate(CoapMessage coapMessage){
+        return coapMessage instanceof UpdateNotification
+                && ((UpdateNotification) coapMessage).getTemplate() != null
+                && coapMessage.containsOption(OptionValue.Name.OBSERVE);
+    }
+
+
+    /**
+     * Encodes header, token and the options up to (and including) {@link OptionValue.Name#OBSERVE} of the given
+     * {@link UpdateNotification} into a buffer of the exact length, i.e. the part that is specific for the observer.
+     * The remaining options and the content are shared by all update notifications created from the same
+     * {@link UpdateNotificationTemplate} (see {@link UpdateNotificationTemplate#getEncodedTail()}).
+     *
+     * @param updateNotification the {@link UpdateNotification} to be encoded
+     *
+     * @return the buffer (acquired from the {@link EncodingBufferPool} if any) containing the encoded prefix
+     *
+     * @throws InvalidOptionException if one of the options could not be encoded
+     */
+    protected ChannelBuffer encodePrefix(UpdateNotification updateNotification) throws InvalidOptionException {
+        log.info("CoapMessage to be encoded: {}", updateNotification);
+
+        int optionEndIndex = 0;
+        while(optionEndIndex < updateNotification.getOptionCount()
+                && updateNotification.getOptionNumber(optionEndIndex) <= OptionValue.Name.OBSERVE){
+            optionEndIndex++;
+        }
+
+        return encodeHeaderAndOptions(updateNotification, optionEndIndex, false);
+    }
+
+
+    private ChannelBuffer appendEncodedTail(ChannelBuffer encodedPrefix, UpdateNotification updateNotification)
+            throws InvalidOptionException {
+
+        UpdateNotificationTemplate template = updateNotification.getTemplate();
+        ChannelBuffer encodedTail = template.getEncodedTail();
+
+        //Concurrent first invocations for the same template encode the same tail, i.e. one of them is kept
+        if(encodedTail == null){
+            encodedTail = encodeTail(template.getPrototype());
+            template.setEncodedTail(encodedTail);
+        }
+
+        if(!encodedTail.readable())
+            return encodedPrefix;
+
+        return ChannelBuffers.wrappedBuffer(encodedPrefix, encodedTail);
+    }
+
+
+    private ChannelBuffer encodeTail(CoapMessage prototype) throws InvalidOptionException {
+        int optionCount = prototype.getOptionCount();
+
+        int optionStartIndex = 0;
+        while(optionStartIndex < optionCount && prototype.getOptionNumber(optionStartIndex) <= OptionValue.Name.OBSERVE)
+            optionStartIndex++;
+
+        //The content is copied (once per template) to keep the composite buffer per update notification small
+        ChannelBuffer content = prototype.getContent();
+        int encodedLength = getEncodedOptionsLength(prototype, optionStartIndex, optionCount,
+                OptionValue.Name.OBSERVE) + (content.readable() ? 1 + content.readableBytes() : 0);
+
+        ChannelBuffer encodedTail = ChannelBuffers.buffer(encodedLength);
+        writeOptions(encodedTail, prototype, optionStartIndex, optionCount, OptionValue.Name.OBSERVE);
+
+        if(content.readable()){
+            encodedTail.writeByte(255);
+            encodedTail.writeBytes(content, content.readerIndex(), content.readableBytes());
+        }
+
+        return encodedTail;
+    }
+
+
+    private ChannelBuffer encodeHeaderAndOptions(CoapMessage coapMessage, int optionEndIndex,
+                                                 boolean endOfOptionsMarker) throws InvalidOptionException {
+        Token token = coapMessage.getToken();
+
+        //Compute the exact length of header, token, options and end-of-options marker
+        int encodedLength = 4 + token.getLength() + getEncodedOptionsLength(coapMessage, 0, optionEndIndex, 0)
+                + (endOfOptionsMarker ? 1 : 0);
+
+        //Write everything in a single pass
+        ChannelBuffer encodedMessage = bufferPool == null ?
+                ChannelBuffers.buffer(encodedLength) : bufferPool.acquire(encodedLength);
+
+        encodedMessage.writeInt(createEncodedHeader(coapMessage, token.getLength()));
+        writeToken(encodedMessage, token);
+        writeOptions(encodedMessage, coapMessage, 0, optionEndIndex, 0);
+
+        if(endOfOptionsMarker)
+            encodedMessage.writeByte(255);
+
+        return encodedMessage;
+    }
+
+
+    private int getEncodedOptionsLength(CoapMessage coapMessage, int optionStartIndex, int optionEndIndex,
+                                        int previousOptionNumber) throws InvalidOptionException {
+        int encodedLength = 0;
+
+        for(int i = optionStartIndex; i < optionEndIndex; i++){
+            int optionNumber = coapMessage.getOptionNumber(i);
+            int optionLength = coapMessage.getOptionValue(i).getValue().length;
+
+            checkOption(optionNumber, optionLength, previousOptionNumber);
+            encodedLength += getEncodedOptionHeaderLength(optionNumber - previousOptionNumber, optionLength)
+                    + optionLength;
+
+            previousOptionNumber = optionNumber;
+        }
+
+        return encodedLength;
+    }
+
+
+    private static void writeOptions(ChannelBuffer buffer, CoapMessage coapMessage, int optionStartIndex,
+                                     int optionEndIndex, int previousOptionNumber){
+        for(int i = optionStartIndex; i < optionEndIndex; i++){
+            int optionNumber = coapMessage.getOptionNumber(i);
+            byte[] optionValue = coapMessage.getOptionValue(i).getValue();
+
+            writeEncodedOptionHeader(buffer, optionNumber - previousOptionNumber, optionValue.length);
+            buffer.writeBytes(optionValue);
+
+            previousOptionNumber = optionNumber;
+        }
+    }
+
+
+    private static ChannelBuffer appendContent(ChannelBuffer encodedMessage, CoapMessage coapMessage){
+        if(coapMessage.getMessageCode() == MessageCode.Name.EMPTY.getNumber() || !coapMessage.getContent().readable())
+            return encodedMessage;
+
+        return ChannelBuffers.wrappedBuffer(encodedMessage, coapMessage.getContent());
+    }
+
+
+    private static int createEncodedHeader(CoapMessage coapMessage, int tokenLength){
+        return ((coapMessage.getProtocolVersion()  & 0x03)     << 30)
+             | ((coapMessage.getMessageType()      & 0x03)     << 28)
+             | ((tokenLength                       & 0x0F)     << 24)
+             | ((coapMessage.getMessageCode()      & 0xFF)     << 16)
+             | ((coapMessage.getMessageID()        & 0xFFFF));
+    }
+
+
+    private void checkOption(int optionNumber, int optionLength, int prevNumber) throws InvalidOptionException {
+        if(prevNumber > optionNumber){
+            log.error("Previous option no. ({}) must not be larger then current option no ({})",
+                    prevNumber, optionNumber);
+
+            throw new InvalidOptionException(optionNumber);
+        }
+
+        if(optionLength > MAX_OPTION_LENGTH){
+            log.error("Option no. {} exceeds maximum option length (actual: {}, max: {}).",
+                    new Object[]{optionNumber, optionLength, MAX_OPTION_LENGTH});
+
+            throw new InvalidOptionException(optionNumber);
+        }
+
+        if(optionNumber - prevNumber > MAX_OPTION_DELTA){
+            log.error("Option delta exceeds maximum option delta (actual: {}, max: {})", optionNumber - prevNumber,
+                    MAX_OPTION_DELTA);
+
+            throw new InvalidOptionException(optionNumber);
+        }
+    }
+
+
+    private static int getEncodedOptionHeaderLength(int optionDelta, int optionLength){
+        return 1 + getExtendedFieldLength(optionDelta) + getExtendedFieldLength(optionLength);
+    }
+
+
+    private static int getExtendedFieldLength(int value){
+        return value < 13 ? 0 : (value < 269 ? 1 : 2);
+    }
+
+
+    private static void writeEncodedOptionHeader(ChannelBuffer buffer, int optionDelta, int optionLength){
+        buffer.writeByte((getNibble(optionDelta) << 4) | getNibble(optionLength));
+        writeExtendedField(buffer, optionDelta);
+        writeExtendedField(buffer, optionLength);
+    }
+
+
+    private static int getNibble(int value){
+        return value < 13 ? value : (value < 269 ? 13 : 14);
+    }
+
+
+    private static void writeToken(ChannelBuffer buffer, Token token){
+        for(int i = token.getLength() - 1; i >= 0; i--)
+            buffer.writeByte((int) (token.getValue() >>> (8 * i)));
+    }
+
+
+    private static void writeExtendedField(ChannelBuffer buffer, int value){
+        if(value >= 269)
+            buffer.writeShort(value - 269);
+
+        else if(value >= 13)
+            buffer.writeByte(value - 13);
+    }
+
+
     protected void encodeHeader(ChannelBuffer buffer, CoapMessage coapMessage){
 
-        byte[] token = coapMessage.getToken().getBytes();
+        Token token = coapMessage.getToken();
 
         int encodedHeader = ((coapMessage.getProtocolVersion()  & 0x03)     << 30)
                           | ((coapMessage.getMessageType()      & 0x03)     << 28)
-                          | ((token.length                      & 0x0F)     << 24)
+                          | ((token.getLength()                 & 0x0F)     << 24)
                           | ((coapMessage.getMessageCode()      & 0xFF)     << 16)
                           | ((coapMessage.getMessageID()        & 0xFFFF));
 
@@ -195,8 +508,7 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
         }
 
         //Write token
-        if(token.length > 0)
-            buffer.writeBytes(token);
+        writeToken(buffer, token);
 
     }
 
@@ -206,11 +518,10 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
         //Encode options one after the other and append buf option to the buf
         int previousOptionNumber = 0;
 
-        for(int optionNumber : coapMessage.getAllOptions().keySet()){
-            for(OptionValue optionValue : coapMessage.getOptions(optionNumber)){
-                encodeOption(buffer, optionNumber, optionValue, previousOptionNumber);
-                previousOptionNumber = optionNumber;
-            }
+        for(int i = 0; i < coapMessage.getOptionCount(); i++){
+            int optionNumber = coapMessage.getOptionNumber(i);
+            encodeOption(buffer, optionNumber, coapMessage.getOptionValue(i), previousOptionNumber);
+            previousOptionNumber = optionNumber;
         }
     }
 
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@link DatagramWriteCoalescer} is supposed to be placed below the {@link CoapMessageEncoder}, i.e. it receives
+ * the encoded datagrams. Instead of handing every single datagram over to the transport, it queues them and flushes
+ * the queue as a batch, i.e. in a tight loop of a single thread. Thus, datagrams that are produced at (nearly) the
+ * same time (e.g. update notifications for many observers) cause only a single wake-up of the I/O thread.
+ *
+ * The queue is flushed
+ * <ul>
+ *     <li>by a task that is scheduled when the first datagram is queued and runs after the maximum latency,</li>
+ *     <li>immediately when the number of queued datagrams reaches the maximum batch size or</li>
+ *     <li>immediately before any other downstream event (e.g. close) is passed, i.e. the order of events is
+ *     preserved.</li>
+ * </ul>
+ *
+ * A maximum latency of <code>0</code> means that queued datagrams are flushed as soon as a thread of the given
+ * executor is available, i.e. datagrams are only batched if they are produced faster than they are flushed.
+ *
+ * The write futures of the queued events are passed unchanged, i.e. they are completed when the datagram was
+ * actually written.
+ */
+public class DatagramWriteCoalescer implements ChannelDownstreamHandler {
+
+    /**
+     * The name of the system property for the maximum batch size of the {@link DatagramWriteCoalescer}s that are
+     * added by the pipeline factories (<code>de.uniluebeck.itm.ncoap.writeBatchSize</code>). Values greater than
+     * <code>1</code> enable write coalescing.
+     */
+    public static final String MAX_BATCH_SIZE = "de.uniluebeck.itm.ncoap.writeBatchSize";
+
+    /**
+     * The name of the system property for the maximum latency in microseconds of the {@link DatagramWriteCoalescer}s
+     * that are added by the pipeline factories (<code>de.uniluebeck.itm.ncoap.writeBatchLatency</code>).
+     */
+    public static final String MAX_LATENCY = "de.uniluebeck.itm.ncoap.writeBatchLatency";
+
+    /**
+     * The default maximum latency in microseconds (0)
+     */
+    public static final long DEFAULT_MAX_LATENCY = 0;
+
+    private final ScheduledExecutorService executorService;
+    private final int maxBatchSize;
+    private final long maxLatencyMicros;
+
+    private final Queue<PendingWrite> pendingWrites;
+    private final AtomicInteger numberOfPendingWrites;
+    private final AtomicBoolean flushScheduled;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+
+    /**
+     * Creates a new instance of {@link DatagramWriteCoalescer} with the maximum batch size and latency given by the
+     * system properties {@link #MAX_BATCH_SIZE} and {@link #MAX_LATENCY}.
+     *
+     * @param executorService the {@link ScheduledExecutorService} to execute the flush tasks
+     */
+    public DatagramWriteCoalescer(ScheduledExecutorService executorService){
+        this(executorService, Integer.getInteger(MAX_BATCH_SIZE, 1),
+                Long.getLong(MAX_LATENCY, DEFAULT_MAX_LATENCY), TimeUnit.MICROSECONDS);
+    }
+
+
+    /**
+     * Creates a new instance of {@link DatagramWriteCoalescer}
+     *
+     * @param executorService the {@link ScheduledExecutorService} to execute the flush tasks
+     * @param maxBatchSize the number of queued datagrams that causes an immediate flush
+     * @param maxLatency the maximum time a datagram is queued
+     * @param timeUnit the {@link TimeUnit} of the given maximum latency
+     */
+    public DatagramWriteCoalescer(ScheduledExecutorService executorService, int maxBatchSize, long maxLatency,
+                                  TimeUnit timeUnit){
+
+        if(maxBatchSize < 1)
+            throw new IllegalArgumentException("Maximum batch size must be at least 1 (was: " + maxBatchSize + ")");
+
+        if(maxLatency < 0)
+            throw new IllegalArgumentException("Maximum latency must not be negative (was: " + maxLatency + ")");
+
+        this.executorService = executorService;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyMicros = timeUnit.toMicros(maxLatency);
+
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.numberOfPendingWrites = new AtomicInteger(0);
+        this.flushScheduled = new AtomicBoolean(false);
+    }
+
+
+    /**
+     * Returns <code>true</code> if the system property {@link #MAX_BATCH_SIZE} is set to a value greater than
+     * <code>1</code>, i.e. if the pipeline factories are supposed to add a {@link DatagramWriteCoalescer}.
+     *
+     * @return <code>true</code> if write coalescing is enabled by system property or <code>false</code> otherwise
+     */
+    public static boolean isEnabled(){
+        return Integer.getInteger(MAX_BATCH_SIZE, 1) > 1;
+    }
+
+
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+        if(!(evt instanceof MessageEvent) || maxBatchSize == 1){
+            flush();
+            ctx.sendDownstream(evt);
+            return;
+        }
+
+        pendingWrites.offer(new PendingWrite(ctx, (MessageEvent) evt));
+
+        if(numberOfPendingWrites.incrementAndGet() >= maxBatchSize){
+            flush();
+        }
+
+        else if(flushScheduled.compareAndSet(false, true)){
+            try{
+                if(maxLatencyMicros == 0)
+                    executorService.execute(flushTask);
+                else
+                    executorService.schedule(flushTask, maxLatencyMicros, TimeUnit.MICROSECONDS);
+            }
+            catch(RejectedExecutionException ex){
+                //e.g. during shutdown, i.e. there will be no flush task so flush now
+                flushScheduled.set(false);
+                flush();
+            }
+        }
+    }
+
+
+    /**
+     * Hands all queued datagrams over to the next downstream handler (in the order they were queued)
+     */
+    public synchronized void flush(){
+        PendingWrite pendingWrite;
+        while((pendingWrite = pendingWrites.poll()) != null){
+            numberOfPendingWrites.decrementAndGet();
+            try{
+                pendingWrite.ctx.sendDownstream(pendingWrite.event);
+            }
+            catch(RuntimeException ex){
+                pendingWrite.event.getFuture().setFailure(ex);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of queued datagrams
+     *
+     * @return the number of queued datagrams
+     */
+    public int getNumberOfPendingWrites(){
+        return numberOfPendingWrites.get();
+    }
+
+
+    private static class PendingWrite {
+
+        private final ChannelHandlerContext ctx;
+        private final MessageEvent event;
+
+        private PendingWrite(ChannelHandlerContext ctx, MessageEvent event){
+            this.ctx = ctx;
+            this.event = event;
+        }
+    }
+}
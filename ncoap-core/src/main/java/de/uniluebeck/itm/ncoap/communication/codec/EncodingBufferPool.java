@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * An {@link EncodingBufferPool} provides the {@link ChannelBuffer}s the {@link CoapMessageEncoder} writes the
+ * header, the token and the options of outgoing messages into. A buffer is released as soon as the write operation
+ * of the encoded message is completed, i.e. when the content of the buffer was handed over to the socket.
+ */
+public interface EncodingBufferPool {
+
+    /**
+     * Returns an empty {@link ChannelBuffer} with a writable capacity of at least the given number of bytes
+     *
+     * @param minCapacity the number of bytes to be written into the buffer
+     *
+     * @return an empty {@link ChannelBuffer} with a writable capacity of at least the given number of bytes
+     */
+    public ChannelBuffer acquire(int minCapacity);
+
+    /**
+     * Returns the given {@link ChannelBuffer} (previously acquired from this pool) to this pool. The buffer must
+     * not be used anymore after invocation of this method.
+     *
+     * @param buffer the {@link ChannelBuffer} to be released
+     */
+    public void release(ChannelBuffer buffer);
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Implementation of {@link EncodingBufferPool} that keeps up to a given number of released heap buffers with a
+ * fixed capacity. Buffers for requests exceeding that capacity are allocated with the exact size and not pooled.
+ * If the pool is empty, a new buffer is allocated and if the pool is full, released buffers are left to the
+ * garbage collector. Acquisition and release neither block nor allocate memory (except for new buffers).
+ */
+public class FixedSizeEncodingBufferPool implements EncodingBufferPool {
+
+    /**
+     * The default capacity of the pooled buffers (1152 bytes, i.e. the recommended maximum size of CoAP messages)
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 1152;
+
+    /**
+     * The default maximum number of pooled buffers (256)
+     */
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 256;
+
+    private final int bufferCapacity;
+    private final ArrayBlockingQueue<ChannelBuffer> pooledBuffers;
+
+
+    /**
+     * Creates a new instance of {@link FixedSizeEncodingBufferPool} with {@link #DEFAULT_BUFFER_CAPACITY} and
+     * {@link #DEFAULT_MAX_POOLED_BUFFERS}.
+     */
+    public FixedSizeEncodingBufferPool(){
+        this(DEFAULT_BUFFER_CAPACITY, DEFAULT_MAX_POOLED_BUFFERS);
+    }
+
+
+    /**
+     * Creates a new instance of {@link FixedSizeEncodingBufferPool}
+     *
+     * @param bufferCapacity the capacity of the pooled buffers in bytes
+     * @param maxPooledBuffers the maximum number of buffers to be kept in the pool
+     */
+    public FixedSizeEncodingBufferPool(int bufferCapacity, int maxPooledBuffers){
+        if(bufferCapacity <= 0)
+            throw new IllegalArgumentException("Buffer capacity must be greater than 0 (was: " + bufferCapacity + ")");
+
+        if(maxPooledBuffers <= 0)
+            throw new IllegalArgumentException("Maximum number of pooled buffers must be greater than 0 (was: "
+                    + maxPooledBuffers + ")");
+
+        this.bufferCapacity = bufferCapacity;
+        this.pooledBuffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+
+    @Override
+    public ChannelBuffer acquire(int minCapacity) {
+        if(minCapacity > bufferCapacity)
+            return ChannelBuffers.buffer(minCapacity);
+
+        ChannelBuffer buffer = pooledBuffers.poll();
+        if(buffer == null)
+            return ChannelBuffers.buffer(bufferCapacity);
+
+        buffer.clear();
+        return buffer;
+    }
+
+
+    @Override
+    public void release(ChannelBuffer buffer) {
+        if(buffer.capacity() == bufferCapacity)
+            pooledBuffers.offer(buffer);
+    }
+
+
+    /**
+     * Returns the number of buffers that are currently available in the pool
+     *
+     * @return the number of buffers that are currently available in the pool
+     */
+    public int size(){
+        return pooledBuffers.size();
+    }
+}
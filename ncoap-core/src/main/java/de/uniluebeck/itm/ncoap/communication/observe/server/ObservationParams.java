@@ -43,6 +43,13 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class ObservationParams {
 
+    //estimated for a 64-bit JVM with compressed references (this object, its atomic counter, the token and the
+    //set of ETAGs plus the slots in the ObservationRegistry)
+    private static final int BASE_MEMORY_USAGE = 48 + 24 + 32 + 64 + 24;
+
+    //estimated per ETAG (the byte array header plus a hash set entry)
+    private static final int ETAG_MEMORY_USAGE = 16 + 48;
+
     private InetSocketAddress remoteEndpoint;
     private Token token;
     private int latestUpdateNotificationMessageID;
@@ -52,6 +59,10 @@ public class ObservationParams {
 
     private AtomicLong notificationCount;
 
+    //maintained by the ObservationRegistry
+    private int registryIndex;
+    private ObservationParams nextOfObserver;
+
 
     /**
      * Creates a new instance of {@link ObservationParams}.
@@ -71,6 +82,7 @@ public class ObservationParams {
         this.contentFormat = ContentFormat.UNDEFINED;
         this.notificationCount = new AtomicLong(0);
         this.latestUpdateNotificationMessageID = CoapMessage.MESSAGE_ID_UNDEFINED;
+        this.registryIndex = -1;
     }
 
 
@@ -171,4 +183,42 @@ public class ObservationParams {
         this.latestUpdateNotificationMessageID = latestUpdateNotificationMessageID;
     }
 
+
+    /**
+     * Returns the estimated number of bytes occupied by this observation, i.e. by this {@link ObservationParams}
+     * including the ETAGs and its share of the {@link ObservationRegistry}. The path and the remote endpoint are
+     * not included as they are shared with the webservice and the received request.
+     *
+     * @return the estimated number of bytes occupied by this observation
+     */
+    public long getEstimatedMemoryUsage(){
+        long memoryUsage = BASE_MEMORY_USAGE;
+
+        if(etags != null){
+            for(byte[] etag : etags)
+                memoryUsage += ETAG_MEMORY_USAGE + etag.length;
+        }
+
+        return memoryUsage;
+    }
+
+
+    int getRegistryIndex(){
+        return this.registryIndex;
+    }
+
+
+    void setRegistryIndex(int registryIndex){
+        this.registryIndex = registryIndex;
+    }
+
+
+    ObservationParams getNextOfObserver(){
+        return this.nextOfObserver;
+    }
+
+
+    void setNextOfObserver(ObservationParams nextOfObserver){
+        this.nextOfObserver = nextOfObserver;
+    }
 }
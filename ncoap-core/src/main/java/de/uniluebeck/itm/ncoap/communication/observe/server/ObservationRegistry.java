@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe.server;
+
+import de.uniluebeck.itm.ncoap.application.client.Token;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link ObservationRegistry} stores the running observations, i.e. their {@link ObservationParams}, by observer
+ * (remote endpoint and {@link Token}) and by the path of the observed webservice. It replaces a
+ * {@link com.google.common.collect.HashBasedTable} (by observer) and a {@link com.google.common.collect.HashMultimap}
+ * (by path) that stored every observation twice and relied on the hash code of {@link ObservationParams}.
+ *
+ * The registry is split into a number of partitions by the remote endpoint, each of them with its own lock. Within
+ * a partition, the observations of a webservice are stored in an array. Each {@link ObservationParams} knows its
+ * index in that array, i.e. it is removed in constant time by moving the last element into the gap. The
+ * observations of the same remote endpoint are linked with each other, i.e. the registry needs only one map entry
+ * per remote endpoint and per webservice path.
+ *
+ * The observations of a webservice are copied into a buffer provided by the caller (see
+ * {@link #copyObservations(int, String, ObservationParams[])}), i.e. sending the update notifications to all
+ * observers does not allocate a new collection (or array) per status change.
+ */
+public class ObservationRegistry {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final Partition[] partitions;
+
+
+    /**
+     * Creates a new instance of {@link ObservationRegistry}
+     *
+     * @param numberOfPartitions the number of independently locked partitions
+     */
+    public ObservationRegistry(int numberOfPartitions){
+        if(numberOfPartitions <= 0)
+            throw new IllegalArgumentException("Number of partitions must be greater than 0 (was: "
+                    + numberOfPartitions + ")");
+
+        this.partitions = new Partition[numberOfPartitions];
+        for(int i = 0; i < partitions.length; i++)
+            partitions[i] = new Partition();
+    }
+
+
+    /**
+     * Returns the number of partitions of this {@link ObservationRegistry}
+     *
+     * @return the number of partitions of this {@link ObservationRegistry}
+     */
+    public int getNumberOfPartitions(){
+        return this.partitions.length;
+    }
+
+
+    /**
+     * Returns the index of the partition that contains the observations of the given remote endpoint
+     *
+     * @param remoteEndpoint the socket address of the observing CoAP endpoint
+     *
+     * @return the index of the partition that contains the observations of the given remote endpoint
+     */
+    public int getPartition(InetSocketAddress remoteEndpoint){
+        return (remoteEndpoint.hashCode() & 0x7FFFFFFF) % partitions.length;
+    }
+
+
+    /**
+     * Adds the given {@link ObservationParams} to this registry. An already registered observation with the same
+     * remote endpoint and {@link Token} is replaced (and returned).
+     *
+     * @param params the {@link ObservationParams} of the new observation
+     *
+     * @return the {@link ObservationParams} of the replaced observation or <code>null</code> if there was none
+     */
+    public ObservationParams add(ObservationParams params){
+        if(params.getRegistryIndex() >= 0)
+            throw new IllegalArgumentException("Observation is already registered!");
+
+        Partition partition = partitions[getPartition(params.getRemoteEndpoint())];
+
+        synchronized (partition){
+            ObservationParams previous = partition.remove(params.getRemoteEndpoint(), params.getToken());
+            partition.add(params);
+            return previous;
+        }
+    }
+
+
+    /**
+     * Returns the {@link ObservationParams} of the observation with the given remote endpoint and {@link Token} or
+     * <code>null</code> if there is no such observation.
+     */
+    public ObservationParams get(InetSocketAddress remoteEndpoint, Token token){
+        Partition partition = partitions[getPartition(remoteEndpoint)];
+
+        synchronized (partition){
+            return partition.get(remoteEndpoint, token);
+        }
+    }
+
+
+    /**
+     * Removes and returns the {@link ObservationParams} of the observation with the given remote endpoint and
+     * {@link Token} (or <code>null</code> if there was no such observation).
+     */
+    public ObservationParams remove(InetSocketAddress remoteEndpoint, Token token){
+        Partition partition = partitions[getPartition(remoteEndpoint)];
+
+        synchronized (partition){
+            return partition.remove(remoteEndpoint, token);
+        }
+    }
+
+
+    /**
+     * Copies the observations of the webservice with the given path from the given partition into the given buffer.
+     * The end of the observations is marked by <code>null</code>, i.e. the buffer is replaced by a larger one if it
+     * has not more elements than there are observations. It is up to the caller to clear the buffer after usage.
+     *
+     * @param partition the index of the partition (see {@link #getPartition(InetSocketAddress)})
+     * @param webservicePath the path of the observed webservice
+     * @param buffer the buffer to copy the observations into (may be <code>null</code>)
+     *
+     * @return the given buffer or a larger one containing the observations followed by <code>null</code>
+     */
+    public ObservationParams[] copyObservations(int partition, String webservicePath, ObservationParams[] buffer){
+        Partition tmp = partitions[partition];
+
+        synchronized (tmp){
+            Observations observations = tmp.observationsPerService.get(webservicePath);
+            int size = observations == null ? 0 : observations.size;
+
+            if(buffer == null || buffer.length <= size)
+                buffer = new ObservationParams[Math.max(INITIAL_CAPACITY, size * 2)];
+
+            if(size > 0)
+                System.arraycopy(observations.elements, 0, buffer, 0, size);
+
+            buffer[size] = null;
+            return buffer;
+        }
+    }
+
+
+    /**
+     * Returns the number of observations in this registry
+     *
+     * @return the number of observations in this registry
+     */
+    public int size(){
+        int size = 0;
+        for(Partition partition : partitions){
+            synchronized (partition){
+                size += partition.size;
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Returns the estimated number of bytes occupied by the observations in this registry (see
+     * {@link ObservationParams#getEstimatedMemoryUsage()}).
+     *
+     * @return the estimated number of bytes occupied by the observations in this registry
+     */
+    public long getEstimatedMemoryUsage(){
+        long memoryUsage = 0;
+        for(Partition partition : partitions){
+            synchronized (partition){
+                memoryUsage += partition.memoryUsage;
+            }
+        }
+        return memoryUsage;
+    }
+
+
+    /**
+     * The observations of one webservice in one partition
+     */
+    private static class Observations {
+
+        private ObservationParams[] elements = new ObservationParams[INITIAL_CAPACITY];
+        private int size;
+
+        private void add(ObservationParams params){
+            if(size == elements.length){
+                ObservationParams[] tmp = new ObservationParams[elements.length * 2];
+                System.arraycopy(elements, 0, tmp, 0, size);
+                elements = tmp;
+            }
+
+            params.setRegistryIndex(size);
+            elements[size++] = params;
+        }
+
+        private void remove(ObservationParams params){
+            int index = params.getRegistryIndex();
+
+            //move the last element into the gap
+            ObservationParams last = elements[--size];
+            elements[index] = last;
+            last.setRegistryIndex(index);
+            elements[size] = null;
+
+            params.setRegistryIndex(-1);
+
+            if(elements.length > INITIAL_CAPACITY && size < elements.length / 4){
+                ObservationParams[] tmp = new ObservationParams[elements.length / 2];
+                System.arraycopy(elements, 0, tmp, 0, size);
+                elements = tmp;
+            }
+        }
+    }
+
+
+    private static class Partition {
+
+        //the first observation of each remote endpoint (the others are linked)
+        private final Map<InetSocketAddress, ObservationParams> observationsPerObserver = new HashMap<>();
+        private final Map<String, Observations> observationsPerService = new HashMap<>();
+
+        private int size;
+        private long memoryUsage;
+
+
+        private ObservationParams get(InetSocketAddress remoteEndpoint, Token token){
+            ObservationParams params = observationsPerObserver.get(remoteEndpoint);
+
+            while(params != null && !params.getToken().equals(token))
+                params = params.getNextOfObserver();
+
+            return params;
+        }
+
+
+        private void add(ObservationParams params){
+            params.setNextOfObserver(observationsPerObserver.put(params.getRemoteEndpoint(), params));
+
+            Observations observations = observationsPerService.get(params.getWebservicePath());
+            if(observations == null){
+                observations = new Observations();
+                observationsPerService.put(params.getWebservicePath(), observations);
+            }
+
+            observations.add(params);
+
+            size++;
+            memoryUsage += params.getEstimatedMemoryUsage();
+        }
+
+
+        private ObservationParams remove(InetSocketAddress remoteEndpoint, Token token){
+            ObservationParams previous = null;
+            ObservationParams params = observationsPerObserver.get(remoteEndpoint);
+
+            while(params != null && !params.getToken().equals(token)){
+                previous = params;
+                params = params.getNextOfObserver();
+            }
+
+            if(params == null)
+                return null;
+
+            //unlink from the other observations of the same remote endpoint
+            if(previous != null)
+                previous.setNextOfObserver(params.getNextOfObserver());
+            else if(params.getNextOfObserver() != null)
+                observationsPerObserver.put(remoteEndpoint, params.getNextOfObserver());
+            else
+                observationsPerObserver.remove(remoteEndpoint);
+
+            params.setNextOfObserver(null);
+
+            Observations observations = observationsPerService.get(params.getWebservicePath());
+            observations.remove(params);
+            if(observations.size == 0)
+                observationsPerService.remove(params.getWebservicePath());
+
+            size--;
+            memoryUsage -= params.getEstimatedMemoryUsage();
+
+            return params;
+        }
+    }
+}
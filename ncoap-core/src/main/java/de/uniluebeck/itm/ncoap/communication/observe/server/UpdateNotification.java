@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe.server;
+
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * An {@link UpdateNotification} is a {@link CoapResponse} created from an {@link UpdateNotificationTemplate}. It
+ * shares the option values and the content with the prototype of the template. As long as only the header fields,
+ * the token and the {@link OptionValue.Name#OBSERVE} option are changed, the shared encoded tail of the template is
+ * used to encode this update notification. Any other change detaches it from the template, i.e. it is encoded like
+ * any other {@link CoapResponse}.
+ */
+public class UpdateNotification extends CoapResponse {
+
+    private UpdateNotificationTemplate template;
+
+
+    UpdateNotification(MessageType.Name messageType, UpdateNotificationTemplate template){
+        super(messageType.getNumber(), template.getPrototype().getMessageCode());
+
+        CoapResponse prototype = template.getPrototype();
+        for(int i = 0; i < prototype.getOptionCount(); i++)
+            addOption(prototype.getOptionNumber(i), prototype.getOptionValue(i));
+
+        if(prototype.getContent().readable())
+            setContent(prototype.getContent().duplicate());
+
+        this.template = template;
+    }
+
+
+    /**
+     * Returns the {@link UpdateNotificationTemplate} this {@link UpdateNotification} was created from or
+     * <code>null</code> if it was changed in a way that its encoding differs from the template.
+     *
+     * @return the {@link UpdateNotificationTemplate} this {@link UpdateNotification} was created from or
+     * <code>null</code> if it was detached from the template
+     */
+    public UpdateNotificationTemplate getTemplate() {
+        return this.template;
+    }
+
+
+    private void detach(int optionNumber){
+        if(optionNumber != OptionValue.Name.OBSERVE)
+            this.template = null;
+    }
+
+
+    @Override
+    public void addOption(int optionNumber, OptionValue<?> optionValue) throws IllegalArgumentException {
+        detach(optionNumber);
+        super.addOption(optionNumber, optionValue);
+    }
+
+
+    @Override
+    protected void addEmptyOption(int optionNumber) throws IllegalArgumentException {
+        detach(optionNumber);
+        super.addEmptyOption(optionNumber);
+    }
+
+
+    @Override
+    public void addEncodedOption(int optionNumber, ChannelBuffer buffer, int index, int length)
+            throws IllegalArgumentException {
+
+        detach(optionNumber);
+        super.addEncodedOption(optionNumber, buffer, index, length);
+    }
+
+
+    @Override
+    public int removeOptions(int optionNumber) {
+        detach(optionNumber);
+        return super.removeOptions(optionNumber);
+    }
+
+
+    @Override
+    public void setContent(ChannelBuffer content) throws IllegalArgumentException {
+        this.template = null;
+        super.setContent(content);
+    }
+
+
+    @Override
+    public void setMessageCode(int messageCode) throws IllegalArgumentException {
+        this.template = null;
+        super.setMessageCode(messageCode);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe.server;
+
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebservice;
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * An {@link UpdateNotificationTemplate} contains the parts of the update notifications for a status of an
+ * {@link ObservableWebservice} that are the same for all observers (with the same content format), i.e. the message
+ * code, the options except for {@link OptionValue.Name#OBSERVE} and the content. The per-observer
+ * {@link UpdateNotification}s are created with {@link #createUpdateNotification(MessageType.Name, Token, int)}.
+ *
+ * The {@link CoapMessageEncoder} encodes the options following {@link OptionValue.Name#OBSERVE} and the content
+ * only once per template (see {@link #getEncodedTail()}), i.e. per observer only the header, the token, the
+ * options up to {@link OptionValue.Name#OBSERVE} are encoded into a small buffer that is sent together with the
+ * shared encoded tail.
+ */
+public class UpdateNotificationTemplate {
+
+    private final CoapResponse prototype;
+    private volatile ChannelBuffer encodedTail;
+
+
+    /**
+     * Creates a new instance of {@link UpdateNotificationTemplate}. The given {@link CoapResponse} must neither
+     * contain an {@link OptionValue.Name#OBSERVE} option nor be modified afterwards.
+     *
+     * @param prototype the {@link CoapResponse} containing the message code, the options and the content to be
+     *                  shared by all {@link UpdateNotification}s created from this template
+     */
+    public UpdateNotificationTemplate(CoapResponse prototype){
+        if(prototype.containsOption(OptionValue.Name.OBSERVE))
+            throw new IllegalArgumentException("Prototype must not contain an observe option!");
+
+        this.prototype = prototype;
+    }
+
+
+    /**
+     * Returns the {@link CoapResponse} containing the message code, the options and the content to be shared by all
+     * {@link UpdateNotification}s created from this template
+     *
+     * @return the {@link CoapResponse} containing the message code, the options and the content to be shared by all
+     * {@link UpdateNotification}s created from this template
+     */
+    public CoapResponse getPrototype() {
+        return this.prototype;
+    }
+
+
+    /**
+     * Creates a new {@link UpdateNotification} from this template. The options (except for
+     * {@link OptionValue.Name#OBSERVE} which is to be set afterwards) and the content are shared with the prototype.
+     *
+     * @param messageType the {@link MessageType.Name} of the update notification
+     * @param token the {@link Token} of the observation
+     * @param messageID the message ID of the update notification
+     *
+     * @return a new {@link UpdateNotification} created from this template
+     */
+    public UpdateNotification createUpdateNotification(MessageType.Name messageType, Token token, int messageID){
+        UpdateNotification updateNotification = new UpdateNotification(messageType, this);
+        updateNotification.setToken(token);
+        updateNotification.setMessageID(messageID);
+        return updateNotification;
+    }
+
+
+    /**
+     * Returns the encoded options following {@link OptionValue.Name#OBSERVE} (with the option delta relative to
+     * {@link OptionValue.Name#OBSERVE}), the end-of-options marker and the content (if any) of the update
+     * notifications created from this template or <code>null</code> if they were not encoded yet. The returned
+     * buffer must not be modified.
+     *
+     * @return the encoded tail of the update notifications created from this template or <code>null</code> if it
+     * was not encoded yet
+     */
+    public ChannelBuffer getEncodedTail() {
+        return this.encodedTail;
+    }
+
+
+    /**
+     * Sets the encoded tail (see {@link #getEncodedTail()}). This method is intended for framework internal use,
+     * i.e. by the {@link CoapMessageEncoder}.
+     *
+     * @param encodedTail the encoded tail of the update notifications created from this template
+     */
+    public void setEncodedTail(ChannelBuffer encodedTail) {
+        this.encodedTail = encodedTail;
+    }
+}
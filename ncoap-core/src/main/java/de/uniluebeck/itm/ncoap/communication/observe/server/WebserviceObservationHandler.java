@@ -24,13 +24,8 @@
  */
 package de.uniluebeck.itm.ncoap.communication.observe.server;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Table;
-
-import de.uniluebeck.itm.ncoap.application.client.Token;
 import de.uniluebeck.itm.ncoap.application.server.InternalServiceRemovedFromServerMessage;
+import de.uniluebeck.itm.ncoap.application.server.WebserviceRouter;
 import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebservice;
 import de.uniluebeck.itm.ncoap.application.server.webservice.WrappedResourceStatus;
 import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.InternalResetReceivedMessage;
@@ -48,31 +43,110 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The {@link WebserviceObservationHandler} is responsible to inform observers whenever the status of an
  * {@link ObservableWebservice} changes. It itself registers as {@link Observer} on all instances of
  * {@link ObservableWebservice} instances running on this {@link CoapServerApplication} instance.
  *
+ * The observations are stored in an {@link ObservationRegistry} and split into a number of partitions by the remote
+ * endpoint of the observer. If there is a
+ * {@link ScheduledExecutorService} (see {@link #WebserviceObservationHandler(ScheduledExecutorService, int)}), a
+ * status change is only queued per partition, i.e. the thread that changed the status returns immediately and the
+ * update notifications for the observers of the different partitions are sent in parallel. The partitions are
+ * processed one task after the other. As an observation is always in the same partition, the update notifications
+ * (and the final {@link MessageCode.Name#NOT_FOUND_404} if a service is removed) for an observer are sent in the
+ * order of the status changes.
+ *
+ * The status is retrieved from the webservice when a partition processes the queued change. Thus, a change that
+ * is queued while there is still a not yet processed change of the same webservice in a partition is merged into
+ * the latter, i.e. the queue of a partition contains at most one status change per webservice and observers may
+ * skip intermediate states (which is allowed by the observe specification).
+ *
+ * If a webservice has a minimum notification interval (see
+ * {@link ObservableWebservice#setMinNotificationInterval(long)}), a status change that is processed before the
+ * interval since the latest update notifications has passed is deferred until then. It stays queued in the
+ * meantime, i.e. further changes are merged into it and only the latest status is sent. No update notifications
+ * are created for the skipped states. A deferred change is dropped if the webservice is removed in the meantime.
+ *
+ * Observations are stored with the path of the observed {@link ObservableWebservice} (as returned by
+ * {@link ObservableWebservice#getPath()}) and not with the path of the request, i.e. observations of services
+ * registered at parameter or wildcard paths (see {@link WebserviceRouter}) are notified, too.
+ *
  * @author Oliver Kleine
  */
 public class WebserviceObservationHandler extends SimpleChannelHandler implements Observer {
 
+    /**
+     * The default number of partitions (the number of available processors)
+     */
+    public static final int DEFAULT_NUMBER_OF_PARTITIONS = Runtime.getRuntime().availableProcessors();
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private final Object monitor = new Object();
-    private Table<InetSocketAddress, Token, ObservationParams> observationsPerObserver;
-    private Multimap<String, ObservationParams> observationsPerService;
+    private final ObservationRegistry registry;
+
+    //the registered observable webservices to find the observed path of incoming observation requests
+    private final WebserviceRouter observableWebservices;
+
+    private final ScheduledExecutorService executor;
+    private final Partition[] partitions;
 
     private ChannelHandlerContext ctx;
 
 
     /**
-     * Creates a new instance of {@link WebserviceObservationHandler}.
+     * Creates a new instance of {@link WebserviceObservationHandler} that sends the update notifications on the
+     * thread that changed the status of the {@link ObservableWebservice}.
      */
     public WebserviceObservationHandler(){
-        this.observationsPerObserver = HashBasedTable.create();
-        this.observationsPerService = HashMultimap.create();
+        this(null, 1);
+    }
+
+
+    /**
+     * Creates a new instance of {@link WebserviceObservationHandler} with {@link #DEFAULT_NUMBER_OF_PARTITIONS}
+     *
+     * @param executor the {@link ScheduledExecutorService} to send the update notifications
+     */
+    public WebserviceObservationHandler(ScheduledExecutorService executor){
+        this(executor, DEFAULT_NUMBER_OF_PARTITIONS);
+    }
+
+
+    /**
+     * Creates a new instance of {@link WebserviceObservationHandler}.
+     *
+     * @param executor the {@link ScheduledExecutorService} to send the update notifications (or <code>null</code> to
+     *                 send them on the thread that changed the status of the {@link ObservableWebservice} without
+     *                 any coalescing)
+     * @param numberOfPartitions the number of partitions to be processed in parallel
+     */
+    public WebserviceObservationHandler(ScheduledExecutorService executor, int numberOfPartitions){
+        if(numberOfPartitions <= 0)
+            throw new IllegalArgumentException("Number of partitions must be greater than 0 (was: "
+                    + numberOfPartitions + ")");
+
+        this.executor = executor;
+        this.registry = new ObservationRegistry(executor == null ? 1 : numberOfPartitions);
+        this.observableWebservices = new WebserviceRouter();
+
+        this.partitions = new Partition[registry.getNumberOfPartitions()];
+        for(int i = 0; i < partitions.length; i++)
+            partitions[i] = new Partition(i);
+    }
+
+
+    /**
+     * Returns the {@link ObservationRegistry} containing the running observations
+     *
+     * @return the {@link ObservationRegistry} containing the running observations
+     */
+    public ObservationRegistry getObservationRegistry(){
+        return this.registry;
     }
 
 
@@ -109,19 +183,15 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
         InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
         CoapRequest coapRequest = (CoapRequest) me.getMessage();
 
+        //the path of the service may differ from the request path (parameter or wildcard segments)
+        ObservableWebservice<?> webservice = (ObservableWebservice<?>) observableWebservices.lookup(coapRequest);
+        String webservicePath = webservice == null ? coapRequest.getUriPath() : webservice.getPath();
 
         ObservationParams params = new ObservationParams(remoteEndpoint, coapRequest.getToken(),
-                coapRequest.getUriPath(), coapRequest.getEtags());
+                webservicePath, coapRequest.getEtags());
 
         //a new observation request with the same token replaces an already running observation
-        synchronized (monitor){
-            ObservationParams oldParams = observationsPerObserver.put(remoteEndpoint, coapRequest.getToken(), params);
-
-            if(oldParams != null)
-                observationsPerService.remove(coapRequest.getUriPath(), oldParams);
-
-            observationsPerService.put(coapRequest.getUriPath(), params);
-        }
+        registry.add(params);
 
         ctx.sendUpstream(me);
     }
@@ -131,13 +201,11 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
 
         InternalRetransmissionTimeoutMessage timeoutMessage = (InternalRetransmissionTimeoutMessage) me.getMessage();
 
-        if(observationsPerObserver.contains(timeoutMessage.getRemoteEndpoint(), timeoutMessage.getToken())){
-            ObservationParams params = removeObserver(timeoutMessage.getRemoteEndpoint(), timeoutMessage.getToken());
+        ObservationParams params = registry.remove(timeoutMessage.getRemoteEndpoint(), timeoutMessage.getToken());
 
-            if(params != null)
-                log.warn("Stopped observation of service {} by {} with token {} due to retransmission timeout.",
-                        new Object[]{params.getWebservicePath(), params.getRemoteEndpoint(), params.getToken()});
-        }
+        if(params != null)
+            log.warn("Stopped observation of service {} by {} with token {} due to retransmission timeout.",
+                    new Object[]{params.getWebservicePath(), params.getRemoteEndpoint(), params.getToken()});
 
         ctx.sendUpstream(me);
     }
@@ -147,32 +215,16 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
 
         InternalResetReceivedMessage resetMessage = (InternalResetReceivedMessage) me.getMessage();
 
-        if(observationsPerObserver.contains(resetMessage.getRemoteEndpoint(), resetMessage.getToken())){
-            ObservationParams params = removeObserver(resetMessage.getRemoteEndpoint(), resetMessage.getToken());
+        ObservationParams params = registry.remove(resetMessage.getRemoteEndpoint(), resetMessage.getToken());
 
-            if(params != null)
-                log.warn("Stopped observation of service {} by {} with token {} due to RST message.",
-                        new Object[]{params.getWebservicePath(), params.getRemoteEndpoint(), params.getToken()});
-        }
+        if(params != null)
+            log.warn("Stopped observation of service {} by {} with token {} due to RST message.",
+                    new Object[]{params.getWebservicePath(), params.getRemoteEndpoint(), params.getToken()});
 
         ctx.sendUpstream(me);
     }
 
 
-    private ObservationParams removeObserver(InetSocketAddress remoteEndpoint, Token token){
-        ObservationParams params = null;
-
-        synchronized (monitor){
-            if(observationsPerObserver.contains(remoteEndpoint, token)){
-                params = observationsPerObserver.get(remoteEndpoint, token);
-                observationsPerService.remove(params.getWebservicePath(), params);
-            }
-        }
-
-        return params;
-    }
-
-
     @Override
     public void writeRequested(ChannelHandlerContext ctx, MessageEvent me){
         if(me.getMessage() instanceof CoapResponse)
@@ -195,19 +247,22 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
         InternalServiceRemovedFromServerMessage internalMessage =
                 (InternalServiceRemovedFromServerMessage) me.getMessage();
 
-        synchronized (monitor){
+        observableWebservices.remove(internalMessage.getServicePath());
 
-            Collection<ObservationParams> tmp = observationsPerService.get(internalMessage.getServicePath());
-            ObservationParams[] observations = tmp.toArray(new ObservationParams[tmp.size()]);
+        for(Partition partition : partitions)
+            partition.enqueue(new PendingTask(internalMessage.getServicePath(), null, null));
+    }
 
-            for(ObservationParams params : observations){
-                CoapResponse coapResponse = new CoapResponse(MessageType.Name.NON, MessageCode.Name.NOT_FOUND_404);
-                String message = "Service \"" + params.getWebservicePath() + "\" was removed from server!";
-                coapResponse.setToken(params.getToken());
-                coapResponse.setContent(message.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
 
-                Channels.write(ctx.getChannel(), coapResponse, params.getRemoteEndpoint());
-            }
+    private void sendServiceRemovedNotifications(ObservationParams[] observations) {
+        for(int i = 0; observations[i] != null; i++){
+            ObservationParams params = observations[i];
+            CoapResponse coapResponse = new CoapResponse(MessageType.Name.NON, MessageCode.Name.NOT_FOUND_404);
+            String message = "Service \"" + params.getWebservicePath() + "\" was removed from server!";
+            coapResponse.setToken(params.getToken());
+            coapResponse.setContent(message.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+            Channels.write(this.ctx.getChannel(), coapResponse, params.getRemoteEndpoint());
         }
     }
 
@@ -217,7 +272,9 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
         InternalObservableWebserviceRegistrationMessage registrationMessage =
                 (InternalObservableWebserviceRegistrationMessage) me.getMessage();
 
-        registrationMessage.getWebservice().addObserver(this);
+        ObservableWebservice<?> webservice = registrationMessage.getWebservice();
+        observableWebservices.register(webservice);
+        webservice.addObserver(this);
     }
 
 
@@ -226,16 +283,16 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
         InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
         CoapResponse coapResponse = (CoapResponse) me.getMessage();
 
-        if(observationsPerObserver.contains(remoteEndpoint, coapResponse.getToken())){
-            synchronized (monitor){
-                if(!coapResponse.isUpdateNotification()){
-                    ObservationParams params = observationsPerObserver.remove(remoteEndpoint, coapResponse.getToken());
-                    observationsPerService.remove(params.getWebservicePath(), params);
-                }
+        if(!coapResponse.isUpdateNotification()){
+            registry.remove(remoteEndpoint, coapResponse.getToken());
+        }
 
-                else{
-                    ObservationParams params = observationsPerObserver.get(remoteEndpoint, coapResponse.getToken());
+        else{
+            ObservationParams params = registry.get(remoteEndpoint, coapResponse.getToken());
 
+            //update notifications of different partitions are sent in parallel
+            if(params != null){
+                synchronized (params){
                     if(params.getLatestUpdateNotificationMessageID() != coapResponse.getMessageID()){
                         log.debug("Set latest message ID for observation to {}", coapResponse.getMessageID());
                         params.setLatestUpdateNotificationMessageID(coapResponse.getMessageID());
@@ -253,16 +310,36 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
     }
 
 
+    /**
+     * Queues the status change of the given {@link ObservableWebservice} in all partitions (or sends the update
+     * notifications immediately if there is no {@link ScheduledExecutorService}).
+     */
     @Override
     public void update(Observable observable, Object arg) {
-        ObservableWebservice webservice = (ObservableWebservice) observable;
+        ObservableWebservice<?> webservice = (ObservableWebservice<?>) observable;
+        MessageType.Name messageType = arg instanceof MessageType.Name ? (MessageType.Name) arg : null;
 
-        Map<Long, WrappedResourceStatus> statusCache = new HashMap<>();
+        for(Partition partition : partitions)
+            partition.enqueue(new PendingTask(webservice.getPath(), webservice, messageType));
+    }
+
+
+    /**
+     * Sends an update notification to the given observers of the given {@link ObservableWebservice}. The message
+     * code, the options (except for {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#OBSERVE}) and
+     * the content are the same for all observers with the same content format and the same ETAG validity. Thus,
+     * they are put into one {@link UpdateNotificationTemplate} per content format and message code, i.e. they are
+     * serialized and encoded only once and shared by all {@link UpdateNotification}s created from that template.
+     */
+    private void sendUpdateNotifications(ObservableWebservice<?> webservice, MessageType.Name messageTypeForAll,
+                                         ObservationParams[] observations) {
 
-        Collection<ObservationParams> tmp = observationsPerService.get(webservice.getPath());
-        ObservationParams[] observations = tmp.toArray(new ObservationParams[tmp.size()]);
+        Map<Long, WrappedResourceStatus> statusCache = new HashMap<>();
+        Map<Long, UpdateNotificationTemplate> contentTemplates = new HashMap<>();
+        Map<Long, UpdateNotificationTemplate> validTemplates = new HashMap<>();
 
-        for(final ObservationParams params : observations){
+        for(int i = 0; observations[i] != null; i++){
+            final ObservationParams params = observations[i];
             long contentFormat = params.getContentFormat();
 
             if(!statusCache.containsKey(contentFormat))
@@ -272,35 +349,29 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
 
             //Determine the message type for the update notification
             MessageType.Name messageType;
-            if(arg != null && arg instanceof MessageType.Name)
-                messageType = (MessageType.Name) arg;
+            if(messageTypeForAll != null)
+                messageType = messageTypeForAll;
             else
                 messageType =
                         webservice.getMessageTypeForUpdateNotification(params.getRemoteEndpoint(), params.getToken());
 
             //Determine the message code for the update notification (depends on the ETAG options sent with the
             //request that started the observation
-            final CoapResponse updateNotification;
-            if(params.getEtags().contains(wrappedResourceStatus.getEtag())){
-                updateNotification = new CoapResponse(messageType, MessageCode.Name.VALID_203);
-            }
+            boolean valid = params.getEtags().contains(wrappedResourceStatus.getEtag());
+            Map<Long, UpdateNotificationTemplate> templates = valid ? validTemplates : contentTemplates;
 
-            else{
-                updateNotification = new CoapResponse(messageType, MessageCode.Name.CONTENT_205);
-                updateNotification.setContent(wrappedResourceStatus.getContent(), contentFormat);
+            UpdateNotificationTemplate template = templates.get(contentFormat);
+            if(template == null){
+                template = createUpdateNotificationTemplate(wrappedResourceStatus, contentFormat, valid);
+                templates.put(contentFormat, template);
             }
 
-            //Set content related options for the update notification
-            updateNotification.setMaxAge(wrappedResourceStatus.getMaxAge());
-            updateNotification.setEtag(wrappedResourceStatus.getEtag());
+            final UpdateNotification updateNotification = template.createUpdateNotification(messageType,
+                    params.getToken(), params.getLatestUpdateNotificationMessageID());
 
             updateNotification.setObserveOption(UintOptionValue.UNDEFINED);
 
 
-            updateNotification.setMessageID(params.getLatestUpdateNotificationMessageID());
-            updateNotification.setToken(params.getToken());
-
-
             //Send the update notification
             ChannelFuture future =
                     Channels.write(this.ctx.getChannel(), updateNotification, params.getRemoteEndpoint());
@@ -318,4 +389,236 @@ public class WebserviceObservationHandler extends SimpleChannelHandler implement
             });
         }
     }
+
+
+    private static UpdateNotificationTemplate createUpdateNotificationTemplate(
+            WrappedResourceStatus wrappedResourceStatus, long contentFormat, boolean valid){
+
+        CoapResponse prototype;
+        if(valid){
+            prototype = new CoapResponse(MessageType.Name.NON, MessageCode.Name.VALID_203);
+        }
+
+        else{
+            prototype = new CoapResponse(MessageType.Name.NON, MessageCode.Name.CONTENT_205);
+            prototype.setContent(wrappedResourceStatus.getContent(), contentFormat);
+        }
+
+        //Set content related options for the update notifications
+        prototype.setMaxAge(wrappedResourceStatus.getMaxAge());
+        prototype.setEtag(wrappedResourceStatus.getEtag());
+
+        return new UpdateNotificationTemplate(prototype);
+    }
+
+
+    /**
+     * A status change of a webservice (or the removal of a webservice if there is no webservice) to be processed
+     * by a partition
+     */
+    private static class PendingTask {
+
+        private final String webservicePath;
+        private final ObservableWebservice<?> webservice;
+        private MessageType.Name messageType;
+        private boolean deferred;
+
+        private PendingTask(String webservicePath, ObservableWebservice<?> webservice, MessageType.Name messageType){
+            this.webservicePath = webservicePath;
+            this.webservice = webservice;
+            this.messageType = messageType;
+        }
+
+        private boolean isRemoval(){
+            return this.webservice == null;
+        }
+    }
+
+
+    private class Partition implements Runnable {
+
+        private final int index;
+
+        //only used by the (single) thread processing this partition
+        private ObservationParams[] snapshot;
+
+        //guarded by this partition
+        private final Queue<PendingTask> queue = new ArrayDeque<>();
+        private final Map<String, PendingTask> queuedStatusChanges = new HashMap<>();
+        //values of System.nanoTime(), i.e. not affected by changes of the wall clock
+        private final Map<String, Long> latestNotificationTimes = new HashMap<>();
+        private boolean scheduled;
+
+
+        private Partition(int index){
+            this.index = index;
+        }
+
+
+        private void enqueue(PendingTask task){
+            if(executor == null){
+                process(task);
+                return;
+            }
+
+            synchronized (this){
+                if(!task.isRemoval()){
+                    PendingTask queuedStatusChange = queuedStatusChanges.get(task.webservicePath);
+
+                    if(queuedStatusChange != null && queuedStatusChange.webservice == task.webservice){
+                        //a queued change retrieves the latest status anyway (but CON must not be lost)
+                        if(task.messageType == MessageType.Name.CON)
+                            queuedStatusChange.messageType = MessageType.Name.CON;
+
+                        return;
+                    }
+
+                    queuedStatusChanges.put(task.webservicePath, task);
+                }
+            }
+
+            add(task);
+        }
+
+
+        private void add(PendingTask task){
+            synchronized (this){
+                queue.add(task);
+
+                if(scheduled)
+                    return;
+
+                scheduled = true;
+            }
+
+            try{
+                executor.execute(this);
+            }
+            catch(RejectedExecutionException ex){
+                log.warn("Could not send update notifications for service {} (executor was shut down).",
+                        task.webservicePath);
+
+                synchronized (this){
+                    queue.clear();
+                    queuedStatusChanges.clear();
+                    scheduled = false;
+                }
+            }
+        }
+
+
+        private void addLater(final PendingTask task, long delayNanos){
+            try{
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        addIfCurrent(task);
+                    }
+                }, delayNanos, TimeUnit.NANOSECONDS);
+            }
+            catch(RejectedExecutionException ex){
+                log.warn("Could not send update notifications for service {} (executor was shut down).",
+                        task.webservicePath);
+            }
+        }
+
+
+        /**
+         * Adds the given deferred status change unless it was replaced (by a change of another webservice at the
+         * same path) or dropped (by the removal of the webservice) in the meantime
+         */
+        private void addIfCurrent(PendingTask task){
+            synchronized (this){
+                if(queuedStatusChanges.get(task.webservicePath) != task){
+                    log.debug("Dropped deferred status change of removed service {}.", task.webservicePath);
+                    return;
+                }
+
+                task.deferred = false;
+            }
+
+            add(task);
+        }
+
+
+        @Override
+        public void run(){
+            while(true){
+                PendingTask task;
+                long delay = 0;
+
+                synchronized (this){
+                    task = queue.poll();
+
+                    if(task == null){
+                        scheduled = false;
+                        return;
+                    }
+
+                    if(task.isRemoval()){
+                        latestNotificationTimes.remove(task.webservicePath);
+
+                        //a deferred change of the removed webservice must not be sent later
+                        PendingTask queuedStatusChange = queuedStatusChanges.get(task.webservicePath);
+                        if(queuedStatusChange != null && queuedStatusChange.deferred)
+                            queuedStatusChanges.remove(task.webservicePath);
+                    }
+
+                    else{
+                        long now = System.nanoTime();
+                        long minNotificationInterval =
+                                TimeUnit.MILLISECONDS.toNanos(task.webservice.getMinNotificationInterval());
+
+                        if(minNotificationInterval > 0){
+                            Long latestNotificationTime = latestNotificationTimes.get(task.webservicePath);
+                            if(latestNotificationTime != null)
+                                delay = latestNotificationTime + minNotificationInterval - now;
+
+                            if(delay <= 0)
+                                latestNotificationTimes.put(task.webservicePath, now);
+                        }
+
+                        //a deferred change stays queued, i.e. further changes are merged into it
+                        if(delay > 0)
+                            task.deferred = true;
+                        else if(queuedStatusChanges.get(task.webservicePath) == task)
+                            queuedStatusChanges.remove(task.webservicePath);
+                    }
+                }
+
+                if(delay > 0)
+                    addLater(task, delay);
+                else
+                    process(task);
+            }
+        }
+
+
+        private void process(PendingTask task){
+            //without executor, a partition is processed by the threads that changed the status (concurrently)
+            ObservationParams[] observations = registry.copyObservations(index, task.webservicePath,
+                    executor == null ? null : snapshot);
+
+            if(executor != null)
+                snapshot = observations;
+
+            try{
+                if(observations[0] == null)
+                    return;
+
+                if(task.isRemoval())
+                    sendServiceRemovedNotifications(observations);
+                else
+                    sendUpdateNotifications(task.webservice, task.messageType, observations);
+            }
+            catch(Exception ex){
+                log.error("Exception while sending notifications for service {}!", task.webservicePath, ex);
+            }
+            finally{
+                //do not keep removed observations alive
+                for(int i = 0; observations[i] != null; i++)
+                    observations[i] = null;
+            }
+        }
+    }
 }
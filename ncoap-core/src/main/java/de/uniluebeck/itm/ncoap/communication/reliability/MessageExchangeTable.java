@@ -0,0 +1,352 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * A concurrent table of ongoing {@link MessageExchange}s keyed by remote endpoint and message ID. It replaces
+ * a {@link com.google.common.collect.HashBasedTable} guarded by a single monitor.
+ *
+ * The remote endpoint and the message ID are packed into a primitive <code>long</code> key, i.e. the
+ * (IPv4) address in the upper 32 bits, the port in the next 16 bits and the message ID in the lower 16 bits. The
+ * table is split into a number of stripes, each of them an open addressing hash table (with linear probing) with
+ * its own lock. Thus, lookups for different remote endpoints or message IDs do usually not contend and neither keys
+ * nor values are boxed.
+ *
+ * As the address part of the key is only a hash value for IPv6 addresses, the remote endpoint is stored along with
+ * the key and compared on every lookup.
+ *
+ * @param <E> the type of {@link MessageExchange}s stored in the table
+ */
+public class MessageExchangeTable<E extends MessageExchange> {
+
+    /**
+     * The default number of stripes (64)
+     */
+    public static final int DEFAULT_NUMBER_OF_STRIPES = 64;
+
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+
+    /**
+     * Creates a new instance of {@link MessageExchangeTable} with {@link #DEFAULT_NUMBER_OF_STRIPES}
+     */
+    public MessageExchangeTable(){
+        this(DEFAULT_NUMBER_OF_STRIPES);
+    }
+
+
+    /**
+     * Creates a new instance of {@link MessageExchangeTable}
+     *
+     * @param numberOfStripes the number of independently locked stripes (rounded up to the next power of two)
+     */
+    public MessageExchangeTable(int numberOfStripes){
+        if(numberOfStripes <= 0 || numberOfStripes > (1 << 16))
+            throw new IllegalArgumentException("Number of stripes must be between 1 and 65536 (was: "
+                    + numberOfStripes + ")");
+
+        int normalizedNumberOfStripes = 1;
+        while(normalizedNumberOfStripes < numberOfStripes)
+            normalizedNumberOfStripes <<= 1;
+
+        this.stripes = new Stripe[normalizedNumberOfStripes];
+        for(int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(normalizedNumberOfStripes);
+    }
+
+
+    /**
+     * Returns the packed primitive key for the given remote endpoint and message ID
+     *
+     * @param remoteEndpoint the remote endpoint of the message exchange
+     * @param messageID the message ID of the message exchange
+     *
+     * @return the packed primitive key for the given remote endpoint and message ID
+     */
+    public static long createKey(InetSocketAddress remoteEndpoint, int messageID){
+        //The hash code of an IPv4 address is the address itself
+        InetAddress address = remoteEndpoint.getAddress();
+        long addressPart = address == null ? remoteEndpoint.getHostString().hashCode() : address.hashCode();
+
+        return (addressPart << 32) | ((long) (remoteEndpoint.getPort() & 0xFFFF) << 16) | (messageID & 0xFFFF);
+    }
+
+
+    private static long mix(long key){
+        //finalization step of MurmurHash3 to spread the packed key over all bits
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+
+    private Stripe stripeFor(long hash){
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+
+    /**
+     * Returns the {@link MessageExchange} for the given remote endpoint and message ID or <code>null</code> if there
+     * is no such exchange.
+     */
+    public E get(InetSocketAddress remoteEndpoint, int messageID){
+        long key = createKey(remoteEndpoint, messageID);
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+
+        synchronized (stripe){
+            int index = stripe.indexOf(key, (int) hash, remoteEndpoint);
+            return index < 0 ? null : stripe.<E>valueAt(index);
+        }
+    }
+
+
+    /**
+     * Returns <code>true</code> if there is a {@link MessageExchange} for the given remote endpoint and message ID
+     * and <code>false</code> otherwise.
+     */
+    public boolean contains(InetSocketAddress remoteEndpoint, int messageID){
+        return get(remoteEndpoint, messageID) != null;
+    }
+
+
+    /**
+     * Stores the given {@link MessageExchange} for the given remote endpoint and message ID and returns the
+     * previously stored exchange (or <code>null</code> if there was none)
+     */
+    public E put(InetSocketAddress remoteEndpoint, int messageID, E messageExchange){
+        return put(remoteEndpoint, messageID, messageExchange, false);
+    }
+
+
+    /**
+     * Stores the given {@link MessageExchange} for the given remote endpoint and message ID if there is no exchange
+     * stored yet.
+     *
+     * @return the already stored exchange (which was not replaced) or <code>null</code> if the given exchange was
+     * stored
+     */
+    public E putIfAbsent(InetSocketAddress remoteEndpoint, int messageID, E messageExchange){
+        return put(remoteEndpoint, messageID, messageExchange, true);
+    }
+
+
+    private E put(InetSocketAddress remoteEndpoint, int messageID, E messageExchange, boolean onlyIfAbsent){
+        if(messageExchange == null)
+            throw new NullPointerException("Message exchange must not be null!");
+
+        long key = createKey(remoteEndpoint, messageID);
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+
+        synchronized (stripe){
+            int index = stripe.indexOf(key, (int) hash, remoteEndpoint);
+
+            if(index >= 0){
+                E previous = stripe.valueAt(index);
+                if(!onlyIfAbsent)
+                    stripe.values[index] = messageExchange;
+
+                return previous;
+            }
+
+            stripe.insert(key, (int) hash, remoteEndpoint, messageExchange);
+            return null;
+        }
+    }
+
+
+    /**
+     * Removes and returns the {@link MessageExchange} for the given remote endpoint and message ID (or
+     * <code>null</code> if there was none)
+     */
+    public E remove(InetSocketAddress remoteEndpoint, int messageID){
+        return removeIfExpected(remoteEndpoint, messageID, null);
+    }
+
+
+    /**
+     * Removes the {@link MessageExchange} for the given remote endpoint and message ID only if it is the given
+     * (expected) instance.
+     *
+     * @return <code>true</code> if the expected exchange was removed, <code>false</code> otherwise
+     */
+    public boolean remove(InetSocketAddress remoteEndpoint, int messageID, E expected){
+        return expected != null && removeIfExpected(remoteEndpoint, messageID, expected) != null;
+    }
+
+
+    private E removeIfExpected(InetSocketAddress remoteEndpoint, int messageID, Object expected){
+        long key = createKey(remoteEndpoint, messageID);
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+
+        synchronized (stripe){
+            int index = stripe.indexOf(key, (int) hash, remoteEndpoint);
+
+            if(index < 0 || (expected != null && stripe.values[index] != expected))
+                return null;
+
+            E previous = stripe.valueAt(index);
+            stripe.delete(index);
+            return previous;
+        }
+    }
+
+
+    /**
+     * Returns the number of {@link MessageExchange}s stored in this table
+     */
+    public int size(){
+        int size = 0;
+        for(Stripe stripe : stripes){
+            synchronized (stripe){
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Removes all {@link MessageExchange}s from this table
+     */
+    public void clear(){
+        for(Stripe stripe : stripes){
+            synchronized (stripe){
+                stripe.clear();
+            }
+        }
+    }
+
+
+    private static class Stripe {
+
+        private long[] keys;
+        private InetSocketAddress[] endpoints;
+        private Object[] values;
+        private int size;
+
+        private Stripe(){
+            clear();
+        }
+
+        private void clear(){
+            this.keys = new long[INITIAL_STRIPE_CAPACITY];
+            this.endpoints = new InetSocketAddress[INITIAL_STRIPE_CAPACITY];
+            this.values = new Object[INITIAL_STRIPE_CAPACITY];
+            this.size = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <E> E valueAt(int index){
+            return (E) values[index];
+        }
+
+        private int indexOf(long key, int hash, InetSocketAddress remoteEndpoint){
+            int mask = values.length - 1;
+            int index = hash & mask;
+
+            while(values[index] != null){
+                if(keys[index] == key && endpoints[index].equals(remoteEndpoint))
+                    return index;
+
+                index = (index + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        private void insert(long key, int hash, InetSocketAddress remoteEndpoint, Object value){
+            //keep the load factor below 0.5
+            if((size + 1) * 2 > values.length)
+                resize(values.length * 2);
+
+            int mask = values.length - 1;
+            int index = hash & mask;
+
+            while(values[index] != null)
+                index = (index + 1) & mask;
+
+            keys[index] = key;
+            endpoints[index] = remoteEndpoint;
+            values[index] = value;
+            size++;
+        }
+
+        private void delete(int index){
+            int mask = values.length - 1;
+
+            //backward shift deletion, i.e. move subsequent entries of the probe sequence into the gap
+            int gap = index;
+            int current = (index + 1) & mask;
+
+            while(values[current] != null){
+                int home = (int) mix(keys[current]) & mask;
+
+                if(((current - home) & mask) >= ((current - gap) & mask)){
+                    keys[gap] = keys[current];
+                    endpoints[gap] = endpoints[current];
+                    values[gap] = values[current];
+                    gap = current;
+                }
+
+                current = (current + 1) & mask;
+            }
+
+            keys[gap] = 0;
+            endpoints[gap] = null;
+            values[gap] = null;
+            size--;
+        }
+
+        private void resize(int capacity){
+            long[] oldKeys = this.keys;
+            InetSocketAddress[] oldEndpoints = this.endpoints;
+            Object[] oldValues = this.values;
+
+            this.keys = new long[capacity];
+            this.endpoints = new InetSocketAddress[capacity];
+            this.values = new Object[capacity];
+            this.size = 0;
+
+            for(int i = 0; i < oldValues.length; i++){
+                if(oldValues[i] != null)
+                    insert(oldKeys[i], (int) mix(oldKeys[i]), oldEndpoints[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -24,10 +24,10 @@
  */
 package de.uniluebeck.itm.ncoap.communication.reliability.incoming;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.TreeMultimap;
 import de.uniluebeck.itm.ncoap.application.InternalApplicationShutdownMessage;
+import de.uniluebeck.itm.ncoap.communication.reliability.MessageExchangeTable;
 import de.uniluebeck.itm.ncoap.message.*;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
@@ -61,11 +61,11 @@ public class IncomingMessageReliabilityHandler extends SimpleChannelHandler {
 
     private final Object monitor = new Object();
     private TreeMultimap<Long, IncomingReliableMessageExchange> emptyAcknowledgementSchedule;
-    private HashBasedTable<InetSocketAddress, Integer, IncomingMessageExchange> ongoingMessageExchanges;
+    private MessageExchangeTable<IncomingMessageExchange> ongoingMessageExchanges;
 
     private ChannelHandlerContext ctx;
 
-    private boolean shutdown;
+    private volatile boolean shutdown;
 
     /**
      * @param executorService the {@link ScheduledExecutorService} to provide the threads that execute the
@@ -76,7 +76,7 @@ public class IncomingMessageReliabilityHandler extends SimpleChannelHandler {
         this.emptyAcknowledgementSchedule =
                 TreeMultimap.create(Ordering.<Long>natural(), Ordering.<IncomingReliableMessageExchange>arbitrary());
 
-        this.ongoingMessageExchanges = HashBasedTable.create();
+        this.ongoingMessageExchanges = new MessageExchangeTable<>();
 
         executorService.scheduleAtFixedRate(
                 new ReliabilityTask(),
@@ -144,24 +144,13 @@ public class IncomingMessageReliabilityHandler extends SimpleChannelHandler {
         InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
         CoapMessage coapMessage = (CoapMessage) me.getMessage();
 
-        boolean isDuplicate = true;
-
-        if(!ongoingMessageExchanges.contains(remoteEndpoint, coapMessage.getMessageID())){
-            IncomingMessageExchange messageExchange =
-                    new IncomingMessageExchange(remoteEndpoint, coapMessage.getMessageID());
-
-            synchronized (monitor){
-                if(!ongoingMessageExchanges.contains(remoteEndpoint, coapMessage.getMessageID())){
-                    ongoingMessageExchanges.put(remoteEndpoint, coapMessage.getMessageID(), messageExchange);
-
-                    isDuplicate = false;
-                }
-            }
+        IncomingMessageExchange messageExchange =
+                new IncomingMessageExchange(remoteEndpoint, coapMessage.getMessageID());
 
+        if(ongoingMessageExchanges.putIfAbsent(remoteEndpoint, coapMessage.getMessageID(), messageExchange) == null)
             ctx.sendUpstream(me);
-        }
 
-        if(isDuplicate)
+        else
             log.info("Received duplicate (non-confirmable). IGNORE! (Message: {})", coapMessage);
     }
 
@@ -204,7 +193,7 @@ public class IncomingMessageReliabilityHandler extends SimpleChannelHandler {
                 new IncomingReliableMessageExchange(remoteEndpoint, coapMessage.getMessageID());
 
         IncomingMessageExchange oldMessageExchange =
-                ongoingMessageExchanges.get(remoteEndpoint, coapMessage.getMessageID());
+                ongoingMessageExchanges.putIfAbsent(remoteEndpoint, coapMessage.getMessageID(), newMessageExchange);
 
         //Check if there is an ongoing
         if(oldMessageExchange != null){
@@ -225,28 +214,21 @@ public class IncomingMessageReliabilityHandler extends SimpleChannelHandler {
             return;
         }
 
-        //try to add new reliable message exchange
-        boolean added = false;
+        //the new reliable message exchange was added, so schedule the empty ACK
+        boolean scheduled;
         synchronized (monitor){
             Long time = System.currentTimeMillis() + MIN_EMPTY_ACK_DELAY_MILLIS;
+            scheduled = emptyAcknowledgementSchedule.put(time, newMessageExchange);
+        }
 
-            //Add message exchange to set of ongoing exchanges to detect duplicates
-            if(!ongoingMessageExchanges.contains(remoteEndpoint, coapMessage.getMessageID())){
-                ongoingMessageExchanges.put(remoteEndpoint, coapMessage.getMessageID(), newMessageExchange);
-                added = true;
-            }
-
-            //If the scheduling of the empty ACK does not work then it was already scheduled
-            if(!emptyAcknowledgementSchedule.put(time, newMessageExchange)){
-                log.error("Could not schedule empty ACK for message: {}", coapMessage);
-                ongoingMessageExchanges.remove(remoteEndpoint, coapMessage.getMessageID());
-                added = false;
-            }
-
+        //If the scheduling of the empty ACK does not work then it was already scheduled
+        if(!scheduled){
+            log.error("Could not schedule empty ACK for message: {}", coapMessage);
+            ongoingMessageExchanges.remove(remoteEndpoint, coapMessage.getMessageID(), newMessageExchange);
         }
 
         //everything is fine, so further process message
-        if(added)
+        else
             ctx.sendUpstream(me);
     }
 
@@ -284,8 +266,9 @@ public class IncomingMessageReliabilityHandler extends SimpleChannelHandler {
         synchronized (monitor){
             this.shutdown = true;
             emptyAcknowledgementSchedule.clear();
-            ongoingMessageExchanges.clear();
         }
+
+        ongoingMessageExchanges.clear();
         ctx.sendDownstream(me);
     }
 
@@ -295,10 +278,8 @@ public class IncomingMessageReliabilityHandler extends SimpleChannelHandler {
         CoapResponse coapResponse = (CoapResponse) me.getMessage();
         InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
 
-        IncomingMessageExchange messageExchange;
-        synchronized (monitor){
-            messageExchange = ongoingMessageExchanges.remove(remoteEndpoint, coapResponse.getMessageID());
-        }
+        IncomingMessageExchange messageExchange =
+                ongoingMessageExchanges.remove(remoteEndpoint, coapResponse.getMessageID());
 
         if(messageExchange instanceof IncomingReliableMessageExchange){
 
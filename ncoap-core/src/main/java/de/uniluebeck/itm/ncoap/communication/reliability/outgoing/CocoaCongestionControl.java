@@ -0,0 +1,308 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link CocoaCongestionControl} implements the CoAP Simple Congestion Control/Advanced (CoCoA), i.e. the
+ * retransmission timeout (RTO) is estimated per remote endpoint from the measured round trip times (RTT):
+ * <ul>
+ *     <li>
+ *         The <b>strong estimator</b> uses RTTs of messages that were acknowledged without retransmission. The
+ *         <b>weak estimator</b> uses RTTs (measured from the initial transmission) of messages that were acknowledged
+ *         after one or two retransmissions. Both estimators work like the estimator of TCP (RFC 6298) with
+ *         {@link #K_STRONG}, resp. {@link #K_WEAK} as weight of the RTT variation.
+ *     </li>
+ *     <li>
+ *         The overall RTO is a weighted average of the estimators' RTOs, i.e. a new strong RTO is weighted with
+ *         0.5 and a new weak RTO with 0.25.
+ *     </li>
+ *     <li>
+ *         The time to wait for the first retransmission is a random value between the RTO and the RTO times
+ *         {@link OutgoingMessageReliabilityHandler#ACK_RANDOM_FACTOR}. For every retransmission, the timeout is
+ *         multiplied with a variable backoff factor, i.e. 3 for an RTO below 1 second, 1.5 for an RTO above 3
+ *         seconds, and 2 otherwise.
+ *     </li>
+ *     <li>
+ *         RTOs that were not updated for a long time are aged, i.e. an RTO below 1 second is doubled if it was not
+ *         updated for 16 times the RTO and an RTO above 3 seconds is moved towards the initial RTO if it was not
+ *         updated for 4 times the RTO.
+ *     </li>
+ * </ul>
+ *
+ * The state is kept for a limited number of remote endpoints, i.e. the state of the least recently used remote
+ * endpoint is dropped if necessary. Remote endpoints without state get the initial RTO
+ * ({@link OutgoingMessageReliabilityHandler#ACK_TIMEOUT_MILLIS}).
+ */
+public class CocoaCongestionControl implements CongestionControl {
+
+    /**
+     * The name of the system property to make the {@link OutgoingMessageReliabilityHandler}s that are added by the
+     * pipeline factories use a {@link CocoaCongestionControl} (<code>de.uniluebeck.itm.ncoap.cocoa</code>).
+     */
+    public static final String ENABLED = "de.uniluebeck.itm.ncoap.cocoa";
+
+    /**
+     * The default maximum number of remote endpoints to keep the state for (10000)
+     */
+    public static final int DEFAULT_MAX_ENDPOINTS = 10000;
+
+    /**
+     * The weight of the RTT variation for the strong estimator (4)
+     */
+    public static final int K_STRONG = 4;
+
+    /**
+     * The weight of the RTT variation for the weak estimator (1)
+     */
+    public static final int K_WEAK = 1;
+
+    /**
+     * The upper bound for all timeouts in milliseconds (60000)
+     */
+    public static final long MAX_TIMEOUT_MILLIS = 60000;
+
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    private static final double INITIAL_RTO = OutgoingMessageReliabilityHandler.ACK_TIMEOUT_MILLIS;
+
+    private static final Random RANDOM = new Random(System.currentTimeMillis());
+
+    private final LinkedHashMap<InetSocketAddress, EndpointState> endpointStates;
+
+
+    /**
+     * Creates a new instance of {@link CocoaCongestionControl} that keeps the state for up to
+     * {@link #DEFAULT_MAX_ENDPOINTS} remote endpoints.
+     */
+    public CocoaCongestionControl(){
+        this(DEFAULT_MAX_ENDPOINTS);
+    }
+
+
+    /**
+     * Creates a new instance of {@link CocoaCongestionControl}
+     *
+     * @param maxEndpoints the maximum number of remote endpoints to keep the state for
+     */
+    public CocoaCongestionControl(final int maxEndpoints){
+        if(maxEndpoints < 1)
+            throw new IllegalArgumentException("Maximum number of endpoints must be at least 1 (was: " +
+                    maxEndpoints + ")");
+
+        this.endpointStates = new LinkedHashMap<InetSocketAddress, EndpointState>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, EndpointState> eldest) {
+                return size() > maxEndpoints;
+            }
+        };
+    }
+
+
+    /**
+     * Returns <code>true</code> if the system property {@link #ENABLED} is set to <code>true</code>, i.e. if the
+     * pipeline factories are supposed to use a {@link CocoaCongestionControl}.
+     *
+     * @return <code>true</code> if CoCoA is enabled by system property or <code>false</code> otherwise
+     */
+    public static boolean isEnabled(){
+        return Boolean.getBoolean(ENABLED);
+    }
+
+
+    @Override
+    public long getRetransmissionTimeout(InetSocketAddress remoteEndpoint) {
+        return getRetransmissionTimeout(remoteEndpoint, System.nanoTime());
+    }
+
+
+    long getRetransmissionTimeout(InetSocketAddress remoteEndpoint, long now){
+        EndpointState endpointState;
+        synchronized (endpointStates){
+            endpointState = endpointStates.get(remoteEndpoint);
+        }
+
+        if(endpointState == null)
+            return (long) INITIAL_RTO;
+
+        return Math.round(endpointState.getRto(now));
+    }
+
+
+    @Override
+    public long getInitialTimeout(long retransmissionTimeout) {
+        return Math.min(MAX_TIMEOUT_MILLIS, (long) (retransmissionTimeout *
+                (1 + RANDOM.nextDouble() * (OutgoingMessageReliabilityHandler.ACK_RANDOM_FACTOR - 1))));
+    }
+
+
+    @Override
+    public long getNextTimeout(long retransmissionTimeout, long previousTimeout) {
+        double backoffFactor;
+
+        if(retransmissionTimeout < 1000)
+            backoffFactor = 3;
+        else if(retransmissionTimeout > 3000)
+            backoffFactor = 1.5;
+        else
+            backoffFactor = 2;
+
+        return Math.min(MAX_TIMEOUT_MILLIS, (long) (previousTimeout * backoffFactor));
+    }
+
+
+    @Override
+    public void processRoundTripTime(InetSocketAddress remoteEndpoint, long roundTripTimeNanos, int retransmissions) {
+        processRoundTripTime(remoteEndpoint, roundTripTimeNanos, retransmissions, System.nanoTime());
+    }
+
+
+    void processRoundTripTime(InetSocketAddress remoteEndpoint, long roundTripTimeNanos, int retransmissions,
+                              long now){
+
+        //RTTs of messages with more than two retransmissions are too ambiguous to be used
+        if(retransmissions > 2)
+            return;
+
+        EndpointState endpointState;
+        synchronized (endpointStates){
+            endpointState = endpointStates.get(remoteEndpoint);
+            if(endpointState == null){
+                endpointState = new EndpointState(now);
+                endpointStates.put(remoteEndpoint, endpointState);
+            }
+        }
+
+        double roundTripTime = roundTripTimeNanos / 1e6;
+        if(retransmissions == 0)
+            endpointState.processStrongRoundTripTime(roundTripTime, now);
+        else
+            endpointState.processWeakRoundTripTime(roundTripTime, now);
+    }
+
+
+    /**
+     * Returns the number of remote endpoints this {@link CocoaCongestionControl} keeps the state for
+     *
+     * @return the number of remote endpoints this {@link CocoaCongestionControl} keeps the state for
+     */
+    public int getNumberOfEndpoints(){
+        synchronized (endpointStates){
+            return endpointStates.size();
+        }
+    }
+
+
+    /**
+     * The estimators and the overall RTO of a single remote endpoint (all values in milliseconds)
+     */
+    private static class EndpointState {
+
+        private final Estimator strongEstimator;
+        private final Estimator weakEstimator;
+        private double rto;
+        private long lastUpdate;
+
+
+        private EndpointState(long now){
+            this.strongEstimator = new Estimator(K_STRONG);
+            this.weakEstimator = new Estimator(K_WEAK);
+            this.rto = INITIAL_RTO;
+            this.lastUpdate = now;
+        }
+
+
+        private synchronized void processStrongRoundTripTime(double roundTripTime, long now){
+            update(0.5, strongEstimator.process(roundTripTime), now);
+        }
+
+
+        private synchronized void processWeakRoundTripTime(double roundTripTime, long now){
+            update(0.25, weakEstimator.process(roundTripTime), now);
+        }
+
+
+        private void update(double weight, double estimatedRto, long now){
+            this.rto = Math.min(MAX_TIMEOUT_MILLIS, weight * estimatedRto + (1 - weight) * this.rto);
+            this.lastUpdate = now;
+        }
+
+
+        private synchronized double getRto(long now){
+            long millisSinceUpdate = TimeUnit.NANOSECONDS.toMillis(now - lastUpdate);
+
+            if(rto < 1000 && millisSinceUpdate > 16 * rto){
+                this.rto = Math.min(1000, 2 * rto);
+                this.lastUpdate = now;
+            }
+
+            else if(rto > 3000 && millisSinceUpdate > 4 * rto){
+                this.rto = (INITIAL_RTO + rto) / 2;
+                this.lastUpdate = now;
+            }
+
+            return this.rto;
+        }
+    }
+
+
+    /**
+     * An RTO estimator as given by RFC 6298 (all values in milliseconds)
+     */
+    private static class Estimator {
+
+        private final int k;
+        private double smoothedRoundTripTime;
+        private double roundTripTimeVariation;
+        private boolean initialized;
+
+
+        private Estimator(int k){
+            this.k = k;
+        }
+
+
+        private double process(double roundTripTime){
+            if(!initialized){
+                this.smoothedRoundTripTime = roundTripTime;
+                this.roundTripTimeVariation = roundTripTime / 2;
+                this.initialized = true;
+            }
+
+            else{
+                this.roundTripTimeVariation = (1 - BETA) * roundTripTimeVariation +
+                        BETA * Math.abs(smoothedRoundTripTime - roundTripTime);
+                this.smoothedRoundTripTime = (1 - ALPHA) * smoothedRoundTripTime + ALPHA * roundTripTime;
+            }
+
+            return smoothedRoundTripTime + k * roundTripTimeVariation;
+        }
+    }
+}
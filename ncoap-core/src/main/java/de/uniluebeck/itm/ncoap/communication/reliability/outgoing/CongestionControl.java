@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A {@link CongestionControl} determines the retransmission timeouts of an {@link OutgoingMessageReliabilityHandler},
+ * i.e. the time to wait for an acknowledgement before an outgoing confirmable message is retransmitted.
+ *
+ * There are two implementations available:
+ * <ul>
+ *     <li>
+ *         {@link FixedTimeoutCongestionControl} (default) with the constant initial timeout and the binary exponential
+ *         backoff of the CoAP specification, and
+ *     </li>
+ *     <li>
+ *         {@link CocoaCongestionControl} with a retransmission timeout per remote endpoint that is estimated from
+ *         the measured round trip times and a variable backoff.
+ *     </li>
+ * </ul>
+ *
+ * All timeouts are given in milliseconds.
+ */
+public interface CongestionControl {
+
+    /**
+     * Returns the actual retransmission timeout for the given remote endpoint, i.e. the basis of the initial timeout
+     * of the next outgoing confirmable message.
+     *
+     * @param remoteEndpoint the remote endpoint
+     *
+     * @return the actual retransmission timeout (in milliseconds) for the given remote endpoint
+     */
+    public long getRetransmissionTimeout(InetSocketAddress remoteEndpoint);
+
+    /**
+     * Returns the time to wait for the first retransmission of a confirmable message that is sent with the given
+     * retransmission timeout (e.g. the randomized retransmission timeout).
+     *
+     * @param retransmissionTimeout the retransmission timeout (see {@link #getRetransmissionTimeout(InetSocketAddress)})
+     *                              at the time of the initial transmission
+     *
+     * @return the time to wait for the first retransmission (in milliseconds)
+     */
+    public long getInitialTimeout(long retransmissionTimeout);
+
+    /**
+     * Returns the time to wait for the next retransmission of a confirmable message after a retransmission.
+     *
+     * @param retransmissionTimeout the retransmission timeout (see {@link #getRetransmissionTimeout(InetSocketAddress)})
+     *                              at the time of the initial transmission
+     * @param previousTimeout the time that was waited for the previous retransmission
+     *
+     * @return the time to wait for the next retransmission (in milliseconds)
+     */
+    public long getNextTimeout(long retransmissionTimeout, long previousTimeout);
+
+    /**
+     * Method invoked by the {@link OutgoingMessageReliabilityHandler} if a confirmable message was acknowledged (or
+     * rejected with a reset message).
+     *
+     * @param remoteEndpoint the remote endpoint that acknowledged the message
+     * @param roundTripTimeNanos the time between the initial transmission and the reception of the acknowledgement
+     *                           (in nanoseconds)
+     * @param retransmissions the number of retransmissions before the reception of the acknowledgement
+     */
+    public void processRoundTripTime(InetSocketAddress remoteEndpoint, long roundTripTimeNanos, int retransmissions);
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+/**
+ * The {@link FixedTimeoutCongestionControl} implements the retransmission timeouts as given by the CoAP specification,
+ * i.e. the time to wait for the first retransmission is a random value between
+ * {@link OutgoingMessageReliabilityHandler#ACK_TIMEOUT_MILLIS} and
+ * {@link OutgoingMessageReliabilityHandler#ACK_TIMEOUT_MILLIS} times
+ * {@link OutgoingMessageReliabilityHandler#ACK_RANDOM_FACTOR} and doubled for every retransmission. Measured round
+ * trip times are ignored.
+ */
+public class FixedTimeoutCongestionControl implements CongestionControl {
+
+    private static final Random RANDOM = new Random(System.currentTimeMillis());
+
+
+    @Override
+    public long getRetransmissionTimeout(InetSocketAddress remoteEndpoint) {
+        return OutgoingMessageReliabilityHandler.ACK_TIMEOUT_MILLIS;
+    }
+
+
+    @Override
+    public long getInitialTimeout(long retransmissionTimeout) {
+        return (long) (retransmissionTimeout *
+                (1 + RANDOM.nextDouble() * (OutgoingMessageReliabilityHandler.ACK_RANDOM_FACTOR - 1)));
+    }
+
+
+    @Override
+    public long getNextTimeout(long retransmissionTimeout, long previousTimeout) {
+        return 2 * previousTimeout;
+    }
+
+
+    @Override
+    public void processRoundTripTime(InetSocketAddress remoteEndpoint, long roundTripTimeNanos, int retransmissions) {
+        //Nothing to do...
+    }
+}
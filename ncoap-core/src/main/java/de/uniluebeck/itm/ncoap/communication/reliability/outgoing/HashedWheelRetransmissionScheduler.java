@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link RetransmissionScheduler} based on a hashed timing wheel. The wheel consists of a fixed
+ * number of buckets (doubly linked lists) each representing one tick. A retransmission due in <code>n</code> ticks is
+ * appended to bucket <code>(currentTick + n) % ticksPerWheel</code> together with the number of remaining wheel
+ * rounds.
+ *
+ * Scheduling and cancellation are non-blocking and take constant time. Both only append the request to a
+ * lock-free queue. The queues are drained by the tick task, which is the only one to ever touch the wheel, so
+ * there is no lock involved at all. Unlinking a cancelled entry is constant time as well since the entry is
+ * remembered by its {@link OutgoingReliableMessageExchange}.
+ *
+ * The expired entries of a tick are handed over to the {@link DueRetransmissionProcessor} by a separate task
+ * to keep the ticks accurate.
+ *
+ * The wheel is driven by {@link System#nanoTime()}, i.e. it is not affected by changes of the wall clock. The tick
+ * task only runs while there are scheduled retransmissions and processes at most {@link #MAX_TICKS_PER_RUN} ticks per
+ * run. A {@link #shutdown()} only sets a flag, the wheel is then cleared by the tick task itself.
+ */
+public class HashedWheelRetransmissionScheduler implements RetransmissionScheduler {
+
+    /**
+     * The default duration of a tick (1 millisecond)
+     */
+    public static final int DEFAULT_TICK_MILLIS = 1;
+
+    /**
+     * The default number of ticks per wheel round (4096), i.e. one round takes about 4 seconds with the default
+     * tick duration
+     */
+    public static final int DEFAULT_TICKS_PER_WHEEL = 4096;
+
+    /**
+     * The maximum number of ticks processed by a single run of the tick task (1024). If the tick task is further
+     * behind, it is immediately scheduled again.
+     */
+    public static final int MAX_TICKS_PER_RUN = 1024;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<ScheduledRetransmission> pendingSchedules;
+    private final Queue<ScheduledRetransmission> pendingCancellations;
+    private final AtomicInteger size;
+    private final AtomicBoolean tickTaskScheduled;
+    private final TickTask tickTask;
+
+    private ScheduledExecutorService executorService;
+    private DueRetransmissionProcessor processor;
+    private volatile boolean shutdown;
+    private long startTime;
+
+    //the following fields are only accessed by the tick task
+    private long tick;
+    private int wheelSize;
+
+
+    /**
+     * Creates a new instance of {@link HashedWheelRetransmissionScheduler} with {@link #DEFAULT_TICK_MILLIS} and
+     * {@link #DEFAULT_TICKS_PER_WHEEL}.
+     */
+    public HashedWheelRetransmissionScheduler(){
+        this(DEFAULT_TICK_MILLIS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+
+    /**
+     * Creates a new instance of {@link HashedWheelRetransmissionScheduler}
+     *
+     * @param tickMillis the duration of a tick in milliseconds (i.e. the accuracy of the scheduler)
+     * @param ticksPerWheel the number of buckets of the wheel (rounded up to the next power of two)
+     */
+    public HashedWheelRetransmissionScheduler(int tickMillis, int ticksPerWheel){
+        if(tickMillis <= 0)
+            throw new IllegalArgumentException("Tick duration must be greater than 0 (was: " + tickMillis + ")");
+
+        if(ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+            throw new IllegalArgumentException("Ticks per wheel must be between 1 and 2^30 (was: "
+                    + ticksPerWheel + ")");
+
+        int normalizedTicksPerWheel = 1;
+        while(normalizedTicksPerWheel < ticksPerWheel)
+            normalizedTicksPerWheel <<= 1;
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Bucket[normalizedTicksPerWheel];
+        for(int i = 0; i < wheel.length; i++)
+            wheel[i] = new Bucket();
+
+        this.mask = normalizedTicksPerWheel - 1;
+
+        this.pendingSchedules = new ConcurrentLinkedQueue<>();
+        this.pendingCancellations = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger(0);
+        this.tickTaskScheduled = new AtomicBoolean(false);
+        this.tickTask = new TickTask();
+    }
+
+
+    @Override
+    public void initialize(ScheduledExecutorService executorService, DueRetransmissionProcessor processor) {
+        this.executorService = executorService;
+        this.processor = processor;
+        this.startTime = System.nanoTime();
+        this.tick = 0;
+    }
+
+
+    @Override
+    public void schedule(OutgoingReliableMessageExchange messageExchange, long retransmissionTime) {
+        if(shutdown)
+            return;
+
+        //the wall clock is only used to get the delay, the deadline is based on the monotonic clock
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(retransmissionTime - System.currentTimeMillis());
+        ScheduledRetransmission scheduledRetransmission =
+                new ScheduledRetransmission(messageExchange, System.nanoTime() + delayNanos);
+
+        messageExchange.setScheduledRetransmission(scheduledRetransmission);
+        size.incrementAndGet();
+        pendingSchedules.add(scheduledRetransmission);
+
+        startTickTask();
+    }
+
+
+    private void startTickTask(){
+        if(!shutdown && tickTaskScheduled.compareAndSet(false, true))
+            scheduleTickTask(tickNanos);
+    }
+
+
+    private void scheduleTickTask(long delayNanos){
+        try{
+            executorService.schedule(tickTask, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        catch(RejectedExecutionException e){
+            log.warn("Could not schedule retransmission tick task (executor was shut down)!");
+            tickTaskScheduled.set(false);
+        }
+    }
+
+
+    @Override
+    public void cancel(OutgoingReliableMessageExchange messageExchange) {
+        ScheduledRetransmission retransmission = messageExchange.getScheduledRetransmission();
+
+        if(retransmission != null && !retransmission.cancelled){
+            retransmission.cancelled = true;
+            pendingCancellations.add(retransmission);
+        }
+    }
+
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+
+    @Override
+    public void shutdown() {
+        this.shutdown = true;
+
+        //the wheel is only touched by the tick task, so let the (possibly already scheduled) tick task clear it
+        if(tickTaskScheduled.compareAndSet(false, true))
+            scheduleTickTask(0);
+    }
+
+
+    private void clearWheel(){
+        pendingSchedules.clear();
+        pendingCancellations.clear();
+
+        for(Bucket bucket : wheel){
+            ScheduledRetransmission retransmission = bucket.head;
+            while(retransmission != null){
+                ScheduledRetransmission next = retransmission.next;
+                bucket.remove(retransmission);
+                retransmission = next;
+            }
+        }
+
+        wheelSize = 0;
+        size.set(0);
+    }
+
+
+    private void transferPendingSchedules(){
+        ScheduledRetransmission retransmission;
+        while((retransmission = pendingSchedules.poll()) != null){
+            if(retransmission.cancelled){
+                size.decrementAndGet();
+                continue;
+            }
+
+            //Ticks are counted from the start of the wheel, due retransmissions go into the current bucket
+            long targetTick = Math.max(
+                    (retransmission.deadline - startTime + tickNanos - 1) / tickNanos, tick
+            );
+
+            retransmission.remainingRounds = (targetTick - tick) >> Integer.numberOfTrailingZeros(wheel.length);
+            wheel[(int) (targetTick & mask)].add(retransmission);
+            wheelSize++;
+        }
+    }
+
+
+    private void removeCancelledRetransmissions(){
+        ScheduledRetransmission retransmission;
+        while((retransmission = pendingCancellations.poll()) != null){
+            if(retransmission.bucket != null){
+                retransmission.bucket.remove(retransmission);
+                wheelSize--;
+                size.decrementAndGet();
+            }
+        }
+    }
+
+
+    private class TickTask implements Runnable {
+
+        @Override
+        public void run() {
+            if(shutdown){
+                clearWheel();
+                return;
+            }
+
+            long now = System.nanoTime();
+            long currentTick = (now - startTime) / tickNanos;
+
+            try{
+                List<ScheduledRetransmission> dueRetransmissions = null;
+
+                //an empty wheel has nothing to do for the ticks that passed while the tick task was not running
+                if(wheelSize == 0)
+                    tick = Math.max(tick, currentTick);
+
+                //Catch up on the ticks that passed since the last run (if any)
+                int ticks = 0;
+                while(tick <= currentTick && ticks++ < MAX_TICKS_PER_RUN){
+                    transferPendingSchedules();
+                    removeCancelledRetransmissions();
+
+                    Bucket bucket = wheel[(int) (tick & mask)];
+                    ScheduledRetransmission retransmission = bucket.head;
+
+                    while(retransmission != null){
+                        ScheduledRetransmission next = retransmission.next;
+
+                        if(retransmission.remainingRounds <= 0){
+                            bucket.remove(retransmission);
+                            wheelSize--;
+                            size.decrementAndGet();
+
+                            if(dueRetransmissions == null)
+                                dueRetransmissions = new ArrayList<>();
+
+                            dueRetransmissions.add(retransmission);
+                        }
+                        else{
+                            retransmission.remainingRounds--;
+                        }
+
+                        retransmission = next;
+                    }
+
+                    tick++;
+                }
+
+                if(dueRetransmissions != null)
+                    executorService.execute(new DueRetransmissionsTask(dueRetransmissions, now));
+            }
+            catch(Exception e){
+                log.error("Unexpected exception in retransmission tick task!", e);
+            }
+
+            scheduleNextRun(currentTick);
+        }
+
+
+        private void scheduleNextRun(long currentTick){
+            if(shutdown){
+                clearWheel();
+                return;
+            }
+
+            if(size.get() > 0){
+                //run immediately if the tick task is behind, otherwise at the start of the next tick
+                long delay = tick <= currentTick ? 0 : startTime + tick * tickNanos - System.nanoTime();
+                scheduleTickTask(Math.max(delay, 0));
+                return;
+            }
+
+            //stop the tick task while there is nothing scheduled (but do not miss a concurrent schedule)
+            tickTaskScheduled.set(false);
+            if(size.get() > 0)
+                startTickTask();
+        }
+    }
+
+
+    private class DueRetransmissionsTask implements Runnable {
+
+        private List<ScheduledRetransmission> dueRetransmissions;
+        private long now;
+
+        private DueRetransmissionsTask(List<ScheduledRetransmission> dueRetransmissions, long now){
+            this.dueRetransmissions = dueRetransmissions;
+            this.now = now;
+        }
+
+        @Override
+        public void run() {
+            //the scheduled points in time are passed relative to the current wall clock
+            long currentTimeMillis = System.currentTimeMillis();
+
+            for(ScheduledRetransmission retransmission : dueRetransmissions){
+                try{
+                    long retransmissionTime = currentTimeMillis -
+                            TimeUnit.NANOSECONDS.toMillis(now - retransmission.deadline);
+
+                    processor.processDueRetransmission(retransmission.messageExchange, retransmissionTime);
+                }
+                catch(Exception e){
+                    log.error("Unexpected exception while processing due retransmission!", e);
+                }
+            }
+        }
+    }
+
+
+    private static class Bucket {
+
+        private ScheduledRetransmission head;
+        private ScheduledRetransmission tail;
+
+        private void add(ScheduledRetransmission retransmission){
+            retransmission.bucket = this;
+
+            if(head == null){
+                head = tail = retransmission;
+            }
+            else{
+                tail.next = retransmission;
+                retransmission.prev = tail;
+                tail = retransmission;
+            }
+        }
+
+        private void remove(ScheduledRetransmission retransmission){
+            if(retransmission.prev != null)
+                retransmission.prev.next = retransmission.next;
+            else
+                head = retransmission.next;
+
+            if(retransmission.next != null)
+                retransmission.next.prev = retransmission.prev;
+            else
+                tail = retransmission.prev;
+
+            retransmission.prev = null;
+            retransmission.next = null;
+            retransmission.bucket = null;
+        }
+    }
+
+
+    /**
+     * The handle of a scheduled retransmission as remembered by its {@link OutgoingReliableMessageExchange}
+     */
+    static class ScheduledRetransmission {
+
+        private final OutgoingReliableMessageExchange messageExchange;
+        private final long deadline;
+
+        private volatile boolean cancelled;
+
+        //the following fields are only accessed by the tick task
+        private long remainingRounds;
+        private Bucket bucket;
+        private ScheduledRetransmission prev;
+        private ScheduledRetransmission next;
+
+        private ScheduledRetransmission(OutgoingReliableMessageExchange messageExchange, long deadline){
+            this.messageExchange = messageExchange;
+            this.deadline = deadline;
+            this.cancelled = false;
+        }
+    }
+}
@@ -29,6 +29,8 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -37,6 +39,13 @@ import java.util.concurrent.TimeUnit;
  * new message IDs the factory ensures that the same message ID is not used twice for different messages to the
  * same remote CoAP endpoints within {@link #EXCHANGE_LIFETIME} seconds.
  *
+ * Message IDs for a remote endpoint are allocated consecutively (starting at a random number). Thus, the allocated
+ * message IDs of a remote endpoint are always a contiguous range and it is sufficient to keep the retirement dates
+ * in a ring buffer of primitive <code>long</code> values (growing and shrinking with the number of allocated message
+ * IDs). There
+ * is no global lock, i.e. each remote endpoint has its own monitor and allocation of a new message ID does not
+ * create any objects.
+ *
  * @author Oliver Kleine
 */
 public class MessageIDFactory extends Observable {
@@ -53,68 +62,69 @@ public class MessageIDFactory extends Observable {
      */
     public static final int MODULUS = 65536;
 
+    private static final int INITIAL_RING_CAPACITY = 16;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     private Random random;
 
-    private final Object monitor = new Object();
-    private Map<InetSocketAddress, Deque<AllocatedMessageID>> retiringMessageIDs;
+    private ConcurrentMap<InetSocketAddress, AllocatedMessageIDs> allocatedMessageIDs;
 
     /**
      * @param executorService the {@link ScheduledExecutorService} to provide the thread for operations to
      *                        provide available message IDs
      */
     public MessageIDFactory(ScheduledExecutorService executorService){
-        this.retiringMessageIDs = new HashMap<>();
+        this.allocatedMessageIDs = new ConcurrentHashMap<>();
 
         this.random = new Random(System.currentTimeMillis());
         executorService.scheduleAtFixedRate(new Runnable(){
 
             @Override
             public void run() {
-
-                long now = System.currentTimeMillis();
-                synchronized (monitor){
-                    try{
-                        Iterator<Map.Entry<InetSocketAddress, Deque<AllocatedMessageID>>> retirementsIterator =
-                                retiringMessageIDs.entrySet().iterator();
-
-                        while(retirementsIterator.hasNext()){
-                            Map.Entry<InetSocketAddress, Deque<AllocatedMessageID>> retirementsForRemoteAddress
-                                    = retirementsIterator.next();
-
-                            Deque<AllocatedMessageID> allocatedMessageIDs = retirementsForRemoteAddress.getValue();
-                            while(!allocatedMessageIDs.isEmpty()){
-                                AllocatedMessageID allocatedMessageID = allocatedMessageIDs.getFirst();
-
-                                if(allocatedMessageID.getRetirementDate() > now)
-                                    break;
-
-                                else{
-                                    AllocatedMessageID retiredMessageID = allocatedMessageIDs.removeFirst();
-
-                                    setChanged();
-                                    notifyObservers(new Object[]{
-                                            retirementsForRemoteAddress.getKey(),
-                                            retiredMessageID.getMessageID()
-                                    });
-                                }
-                            }
-
-                            if(allocatedMessageIDs.isEmpty())
-                                retirementsIterator.remove();
-
-                        }
-                    }
-                    catch(Exception e){
-                        log.error("This should never happen!", e);
-                    }
+                try{
+                    retireMessageIDs(System.currentTimeMillis());
+                }
+                catch(Exception e){
+                    log.error("This should never happen!", e);
                 }
             }
 
         }, 500, 500, TimeUnit.MILLISECONDS);
     }
 
+
+    /**
+     * Retires all message IDs with a retirement date not after the given time and notifies the observers about
+     * every retired message ID.
+     */
+    void retireMessageIDs(long now){
+        for(Map.Entry<InetSocketAddress, AllocatedMessageIDs> entry : allocatedMessageIDs.entrySet()){
+            InetSocketAddress remoteEndpoint = entry.getKey();
+            AllocatedMessageIDs allocatedMessageIDsForRemoteEndpoint = entry.getValue();
+
+            int firstRetiredMessageID;
+            int numberOfRetiredMessageIDs;
+
+            synchronized (allocatedMessageIDsForRemoteEndpoint){
+                firstRetiredMessageID = allocatedMessageIDsForRemoteEndpoint.getFirstMessageID();
+                numberOfRetiredMessageIDs = allocatedMessageIDsForRemoteEndpoint.retire(now);
+
+                //remove remote endpoints without allocated message IDs
+                if(allocatedMessageIDsForRemoteEndpoint.isEmpty()){
+                    allocatedMessageIDsForRemoteEndpoint.setRemoved();
+                    allocatedMessageIDs.remove(remoteEndpoint, allocatedMessageIDsForRemoteEndpoint);
+                }
+            }
+
+            //notify observers without holding the monitor of the remote endpoint
+            for(int i = 0; i < numberOfRetiredMessageIDs; i++){
+                setChanged();
+                notifyObservers(new Object[]{remoteEndpoint, (firstRetiredMessageID + i) % MODULUS});
+            }
+        }
+    }
+
     /**
      * Returns a message ID to be used for outgoing {@link de.uniluebeck.itm.ncoap.message.CoapMessage}s and
      * allocates this message ID for {@link #EXCHANGE_LIFETIME} seconds, i.e. the returned message ID will not
@@ -123,78 +133,170 @@ public class MessageIDFactory extends Observable {
      * @param remoteEndpoint the recipient of the message the returned message ID is supposed to be used for
      *
      * @return the message ID to be used for outgoing messages
+     *
+     * @throws NoMessageIDAvailableException if all message IDs for the given remote endpoint are in use
      */
     public int getNextMessageID(InetSocketAddress remoteEndpoint)
             throws NoMessageIDAvailableException {
 
-        synchronized (monitor){
-            Deque<AllocatedMessageID> allocatedMessageIDsForRemoteAddreses = retiringMessageIDs.get(remoteEndpoint);
+        return getNextMessageID(remoteEndpoint, System.currentTimeMillis());
+    }
+
+
+    int getNextMessageID(InetSocketAddress remoteEndpoint, long now) throws NoMessageIDAvailableException {
+        while(true){
+            AllocatedMessageIDs allocatedMessageIDsForRemoteEndpoint = allocatedMessageIDs.get(remoteEndpoint);
 
-            //check if all message IDs are in use for the given endpoints
-            if(allocatedMessageIDsForRemoteAddreses != null && allocatedMessageIDsForRemoteAddreses.size() == MODULUS){
-                long waitingPeriod = allocatedMessageIDsForRemoteAddreses.getFirst().getRetirementDate()
-                        - System.currentTimeMillis();
+            if(allocatedMessageIDsForRemoteEndpoint == null){
+                AllocatedMessageIDs newAllocatedMessageIDs = new AllocatedMessageIDs(random.nextInt(MODULUS));
 
-                throw new NoMessageIDAvailableException(remoteEndpoint, waitingPeriod);
+                allocatedMessageIDsForRemoteEndpoint =
+                        allocatedMessageIDs.putIfAbsent(remoteEndpoint, newAllocatedMessageIDs);
+
+                if(allocatedMessageIDsForRemoteEndpoint == null)
+                    allocatedMessageIDsForRemoteEndpoint = newAllocatedMessageIDs;
             }
 
-            //there are message IDs available for the given endpoints
-            else{
-                int messageID = random.nextInt(MODULUS);
+            synchronized (allocatedMessageIDsForRemoteEndpoint){
+                //the instance was removed by the retirement task in the meantime, so try again
+                if(allocatedMessageIDsForRemoteEndpoint.isRemoved())
+                    continue;
+
+                //check if all message IDs are in use for the given endpoints
+                if(allocatedMessageIDsForRemoteEndpoint.size() == MODULUS){
+                    long waitingPeriod = allocatedMessageIDsForRemoteEndpoint.getFirstRetirementDate() - now;
 
-                if(allocatedMessageIDsForRemoteAddreses != null && allocatedMessageIDsForRemoteAddreses.size() > 0)
-                        messageID = (allocatedMessageIDsForRemoteAddreses.getLast().getMessageID() + 1) % MODULUS;
+                    throw new NoMessageIDAvailableException(remoteEndpoint, waitingPeriod);
+                }
 
-                allocateMessageID(remoteEndpoint, messageID);
+                //there are message IDs available for the given endpoints
+                long retirementDate = now + EXCHANGE_LIFETIME * 1000;
+                int messageID = allocatedMessageIDsForRemoteEndpoint.allocate(retirementDate);
 
+                log.debug("Allocate message ID {} for {}", messageID, remoteEndpoint);
                 return messageID;
             }
         }
     }
 
 
-    private void allocateMessageID(InetSocketAddress remoteEndpoint, int messageID){
+    void shutdown(){
+        this.allocatedMessageIDs.clear();
+    }
 
-        synchronized (monitor){
-            log.debug("Allocate message ID {} for {}", messageID, remoteEndpoint);
 
-            Deque<AllocatedMessageID> allocatedMessageIDsForRemoteAddreses = retiringMessageIDs.get(remoteEndpoint);
-            if(allocatedMessageIDsForRemoteAddreses == null){
-                allocatedMessageIDsForRemoteAddreses = new ArrayDeque<>();
-                retiringMessageIDs.put(remoteEndpoint, allocatedMessageIDsForRemoteAddreses);
-            }
+    /**
+     * Returns the capacity of the ring buffer with the retirement dates for the given remote endpoint (or
+     * <code>0</code> if there are no message IDs allocated for the given remote endpoint)
+     */
+    int getRingCapacity(InetSocketAddress remoteEndpoint){
+        AllocatedMessageIDs allocatedMessageIDsForRemoteEndpoint = allocatedMessageIDs.get(remoteEndpoint);
 
-            long retirementDate = System.currentTimeMillis() + EXCHANGE_LIFETIME * 1000;
+        if(allocatedMessageIDsForRemoteEndpoint == null)
+            return 0;
 
-            allocatedMessageIDsForRemoteAddreses.add(new AllocatedMessageID(messageID, retirementDate));
+        synchronized (allocatedMessageIDsForRemoteEndpoint){
+            return allocatedMessageIDsForRemoteEndpoint.getCapacity();
         }
     }
 
 
-    void shutdown(){
-        synchronized (monitor){
-            this.retiringMessageIDs.clear();
+    /**
+     * The allocated message IDs for a single remote endpoint, i.e. a contiguous range of message IDs (beginning with
+     * the oldest one) and a ring buffer with the retirement dates. Instances are guarded by their own monitor.
+     */
+    private static class AllocatedMessageIDs {
+
+        private long[] retirementDates;
+        private int head;
+        private int size;
+
+        private int firstMessageID;
+        private boolean removed;
+
+        private AllocatedMessageIDs(int firstMessageID) {
+            this.retirementDates = new long[INITIAL_RING_CAPACITY];
+            this.head = 0;
+            this.size = 0;
+            this.firstMessageID = firstMessageID;
+            this.removed = false;
         }
-    }
 
-    private class AllocatedMessageID {
+        private int allocate(long retirementDate){
+            if(size == retirementDates.length)
+                resize(Math.min(retirementDates.length * 2, MODULUS));
+
+            retirementDates[(head + size) & (retirementDates.length - 1)] = retirementDate;
+            int messageID = (firstMessageID + size) % MODULUS;
+            size++;
+
+            return messageID;
+        }
+
+        /**
+         * Retires all message IDs with a retirement date not after the given time and returns their number. The
+         * retired message IDs are the consecutive IDs starting with the first message ID (before retirement).
+         */
+        private int retire(long now){
+            int retired = 0;
+
+            while(size > 0 && retirementDates[head] <= now){
+                head = (head + 1) & (retirementDates.length - 1);
+                size--;
+                retired++;
+            }
 
-        private Integer messageID;
-        private Long retirementDate;
+            //next message ID remains the same, i.e. allocation continues after the last allocated one
+            firstMessageID = (firstMessageID + retired) % MODULUS;
 
+            //shrink the ring if less than a quarter is used (but keep twice the size to avoid immediate growth)
+            if(size > 0 && size < retirementDates.length / 4 && retirementDates.length > INITIAL_RING_CAPACITY){
+                int capacity = INITIAL_RING_CAPACITY;
+                while(capacity < size * 2)
+                    capacity <<= 1;
 
-        private AllocatedMessageID(Integer messageID, Long retirementDate) {
-            this.messageID = messageID;
-            this.retirementDate = retirementDate;
+                resize(capacity);
+            }
+
+            return retired;
         }
 
-        public Integer getMessageID() {
-            return messageID;
+        private void resize(int capacity){
+            long[] newRetirementDates = new long[capacity];
+
+            for(int i = 0; i < size; i++)
+                newRetirementDates[i] = retirementDates[(head + i) & (retirementDates.length - 1)];
+
+            this.retirementDates = newRetirementDates;
+            this.head = 0;
+        }
+
+        private int getCapacity(){
+            return retirementDates.length;
         }
 
-        public Long getRetirementDate() {
-            return retirementDate;
+        private int getFirstMessageID(){
+            return firstMessageID;
         }
 
+        private long getFirstRetirementDate(){
+            return retirementDates[head];
+        }
+
+        private int size(){
+            return size;
+        }
+
+        private boolean isEmpty(){
+            return size == 0;
+        }
+
+        private boolean isRemoved(){
+            return removed;
+        }
+
+        private void setRemoved(){
+            this.removed = true;
+        }
     }
 }
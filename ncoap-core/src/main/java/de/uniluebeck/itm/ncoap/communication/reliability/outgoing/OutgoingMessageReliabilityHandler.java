@@ -24,9 +24,9 @@
  */
 package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
 
-import com.google.common.collect.*;
 import de.uniluebeck.itm.ncoap.application.InternalApplicationShutdownMessage;
 import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.reliability.MessageExchangeTable;
 import de.uniluebeck.itm.ncoap.communication.codec.InternalEncodingFailedMessage;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
@@ -40,12 +40,12 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
  * This handler deals with outgoing {@link CoapMessage}s with {@link MessageType.Name#CON}. It retransmits the outgoing
  * message in exponentially increasing intervals (up to {@link #MAX_RETRANSMISSIONS} times) until was no corresponding
- * message with {@link MessageType.Name#ACK} or {@link MessageType.Name#RST} received.
+ * message with {@link MessageType.Name#ACK} or {@link MessageType.Name#RST} received. The timeouts between the
+ * (re-)transmissions are determined by a {@link CongestionControl}.
  *
  * To relate incoming with outgoing messages this is the handler to set the message ID of outgoing {@link CoapMessage}s
  * if the message ID was not already set previously.
@@ -61,6 +61,9 @@ import java.util.concurrent.TimeUnit;
  * the new {@link CoapResponse} (the update notification with the new content) is sent at that time. Furthermore,
  * the message ID of the previous transmissions becomes invalid, i.e. incoming acknowledgements are ignored.
  *
+ * The retransmission schedule itself is maintained by a {@link RetransmissionScheduler} (by default a
+ * {@link HashedWheelRetransmissionScheduler}).
+ *
  * @author Oliver Kleine
  */
 public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler implements Observer{
@@ -82,39 +85,73 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
      */
     public static final int MAX_RETRANSMISSIONS = 4;
 
+    /**
+     * The maximum number of milliseconds (93000) from the first transmission of an outgoing {@link CoapMessage} with
+     * {@link MessageType.Name#CON} until the sender gives up waiting for an acknowledgement or reset (see RFC 7252,
+     * section 4.8.2)
+     */
+    public static final long MAX_TRANSMIT_WAIT_MILLIS = (long) (ACK_TIMEOUT_MILLIS *
+            ((1 << (MAX_RETRANSMISSIONS + 1)) - 1) * ACK_RANDOM_FACTOR);
 
-    private static final int RETRANSMISSION_TASK_PERIOD_MILLIS = 100;
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private static final Random RANDOM = new Random(System.currentTimeMillis());
-
-    private final Object monitor = new Object();
-    private HashBasedTable<InetSocketAddress, Integer, OutgoingMessageExchange> ongoingMessageExchanges;
-    private TreeMultimap<Long, OutgoingReliableMessageExchange> retransmissionSchedule;
+    private MessageExchangeTable<OutgoingMessageExchange> ongoingMessageExchanges;
+    private RetransmissionScheduler retransmissionScheduler;
+    private CongestionControl congestionControl;
 
     private ChannelHandlerContext ctx;
-    private boolean shutdown;
+    private volatile boolean shutdown;
 
     private MessageIDFactory messageIDFactory;
 
 
     /**
+     * Creates a new instance of {@link OutgoingMessageReliabilityHandler} using a
+     * {@link HashedWheelRetransmissionScheduler} to schedule retransmissions and a {@link CocoaCongestionControl}
+     * (if {@link CocoaCongestionControl#isEnabled()}) or a {@link FixedTimeoutCongestionControl} (otherwise) to
+     * determine the timeouts.
+     *
      * @param executorService the {@link ScheduledExecutorService} to provide the thread(s) to retransmit outgoing
      *                        {@link CoapMessage}s with {@link MessageType.Name#CON}
      */
     public OutgoingMessageReliabilityHandler(ScheduledExecutorService executorService){
+        this(executorService, new HashedWheelRetransmissionScheduler());
+    }
+
+
+    /**
+     * Creates a new instance of {@link OutgoingMessageReliabilityHandler} using a {@link CocoaCongestionControl}
+     * (if {@link CocoaCongestionControl#isEnabled()}) or a {@link FixedTimeoutCongestionControl} (otherwise) to
+     * determine the timeouts.
+     *
+     * @param executorService the {@link ScheduledExecutorService} to provide the thread(s) to retransmit outgoing
+     *                        {@link CoapMessage}s with {@link MessageType.Name#CON}
+     * @param retransmissionScheduler the {@link RetransmissionScheduler} to keep track of the retransmission schedule
+     */
+    public OutgoingMessageReliabilityHandler(ScheduledExecutorService executorService,
+                                             RetransmissionScheduler retransmissionScheduler){
+        this(executorService, retransmissionScheduler, CocoaCongestionControl.isEnabled() ?
+                new CocoaCongestionControl() : new FixedTimeoutCongestionControl());
+    }
+
+
+    /**
+     * @param executorService the {@link ScheduledExecutorService} to provide the thread(s) to retransmit outgoing
+     *                        {@link CoapMessage}s with {@link MessageType.Name#CON}
+     * @param retransmissionScheduler the {@link RetransmissionScheduler} to keep track of the retransmission schedule
+     * @param congestionControl the {@link CongestionControl} to determine the timeouts between (re-)transmissions
+     */
+    public OutgoingMessageReliabilityHandler(ScheduledExecutorService executorService,
+                                             RetransmissionScheduler retransmissionScheduler,
+                                             CongestionControl congestionControl){
         this.shutdown = false;
+        this.congestionControl = congestionControl;
         this.messageIDFactory = new MessageIDFactory(executorService);
-        this.ongoingMessageExchanges = HashBasedTable.create();
-        this.retransmissionSchedule =
-                TreeMultimap.create(Ordering.<Long>natural(), Ordering.<OutgoingMessageReliabilityHandler>arbitrary());
+        this.ongoingMessageExchanges = new MessageExchangeTable<>();
 
-        //Schedule retransmission task
-        executorService.scheduleAtFixedRate(
-                new RetransmissionTask(),
-                RETRANSMISSION_TASK_PERIOD_MILLIS, RETRANSMISSION_TASK_PERIOD_MILLIS, TimeUnit.MILLISECONDS
-        );
+        this.retransmissionScheduler = retransmissionScheduler;
+        this.retransmissionScheduler.initialize(executorService, new RetransmissionProcessor());
 
         this.messageIDFactory.addObserver(this);
     }
@@ -129,6 +166,29 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
         return this.shutdown;
     }
 
+
+    /**
+     * Returns the {@link CongestionControl} to determine the timeouts between (re-)transmissions
+     *
+     * @return the {@link CongestionControl} to determine the timeouts between (re-)transmissions
+     */
+    public CongestionControl getCongestionControl(){
+        return this.congestionControl;
+    }
+
+
+    /**
+     * Returns the current retransmission timeout (RTO) in milliseconds for the given remote endpoint, e.g. for
+     * monitoring purposes.
+     *
+     * @param remoteEndpoint the remote endpoint to get the RTO for
+     *
+     * @return the current retransmission timeout (RTO) in milliseconds for the given remote endpoint
+     */
+    public long getRetransmissionTimeout(InetSocketAddress remoteEndpoint){
+        return this.congestionControl.getRetransmissionTimeout(remoteEndpoint);
+    }
+
     /**
      * This method is invoked with a downstream message event. If it is a new message (i.e. to be
      * transmitted the first time) of type CON , it is added to the list of open requests waiting for a response.
@@ -160,11 +220,10 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
     private void handleApplicationShutdown(ChannelFuture future) {
         this.messageIDFactory.shutdown();
 
-        synchronized (monitor){
-            this.shutdown = true;
-            this.ongoingMessageExchanges.clear();
-            this.retransmissionSchedule.clear();
-        }
+        this.shutdown = true;
+        this.ongoingMessageExchanges.clear();
+
+        this.retransmissionScheduler.shutdown();
 
         future.setSuccess();
     }
@@ -216,7 +275,9 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
                                                                         InetSocketAddress remoteEndpoint)
             throws RetransmissionsAlreadyScheduledException {
 
-        long firstRetransmissionTime = System.currentTimeMillis() + createNextRetransmissionDelay(0);
+        long retransmissionTimeout = congestionControl.getRetransmissionTimeout(remoteEndpoint);
+        long timeout = congestionControl.getInitialTimeout(retransmissionTimeout);
+        long firstRetransmissionTime = System.currentTimeMillis() + timeout;
         OutgoingReliableMessageExchange messageExchange;
 
         if(coapMessage instanceof CoapResponse && ((CoapResponse) coapMessage).isUpdateNotification())
@@ -226,17 +287,16 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
         else
             messageExchange = new OutgoingReliableMessageExchange(remoteEndpoint, coapMessage);
 
-        synchronized (monitor){
-            if(ongoingMessageExchanges.contains(remoteEndpoint, coapMessage.getMessageID())){
-                log.error("Tried to to schedule retransmissions for already scheduled message: {}", coapMessage);
-                throw new RetransmissionsAlreadyScheduledException(remoteEndpoint, coapMessage.getMessageID());
-            }
+        messageExchange.setRetransmissionTimeout(retransmissionTimeout);
+        messageExchange.setCurrentTimeout(timeout);
 
-            retransmissionSchedule.put(firstRetransmissionTime, messageExchange);
-            log.debug("Number of scheduled retransmissions: {}", retransmissionSchedule.size());
-            ongoingMessageExchanges.put(remoteEndpoint, coapMessage.getMessageID(), messageExchange);
+        if(ongoingMessageExchanges.putIfAbsent(remoteEndpoint, coapMessage.getMessageID(), messageExchange) != null){
+            log.error("Tried to to schedule retransmissions for already scheduled message: {}", coapMessage);
+            throw new RetransmissionsAlreadyScheduledException(remoteEndpoint, coapMessage.getMessageID());
         }
 
+        retransmissionScheduler.schedule(messageExchange, firstRetransmissionTime);
+
         return messageExchange;
     }
 
@@ -280,32 +340,25 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
 
         log.debug("Try to update update notification with message ID {}", oldMessageID);
 
-        if(ongoingMessageExchanges.contains(remoteEndpoint, oldMessageID)){
-            synchronized (monitor){
-                OutgoingMessageExchange messageExchange = ongoingMessageExchanges.get(remoteEndpoint, oldMessageID);
-
-                if(messageExchange != null && messageExchange instanceof OutgoingReliableUpdateNotificationExchange){
-
-                    OutgoingReliableUpdateNotificationExchange updateNotificationExchange =
-                            (OutgoingReliableUpdateNotificationExchange) messageExchange;
-
-                    long now = System.currentTimeMillis();
-                    long transmissionTime = updateNotificationExchange.getNextRetransmissionTime();
-                    long maxAge = updateNotification.getMaxAge();
+        OutgoingMessageExchange messageExchange = ongoingMessageExchanges.get(remoteEndpoint, oldMessageID);
 
-                    updateNotification.setMaxAge(Math.max(maxAge - (transmissionTime - now) / 1000, 0));
-                    updateNotificationExchange.setCoapMessage(updateNotification);
-                    updateNotificationExchange.setChanged(true);
+        if(messageExchange instanceof OutgoingReliableUpdateNotificationExchange){
 
+            OutgoingReliableUpdateNotificationExchange updateNotificationExchange =
+                    (OutgoingReliableUpdateNotificationExchange) messageExchange;
 
-                    log.info("Updated update notification to retransmit: {}", updateNotification);
-                }
+            //the exchange itself is the monitor for changes of the update notification to be retransmitted
+            synchronized (updateNotificationExchange){
+                long now = System.currentTimeMillis();
+                long transmissionTime = updateNotificationExchange.getNextRetransmissionTime();
+                long maxAge = updateNotification.getMaxAge();
 
-                else{
-                    updateNotification.setMessageID(CoapMessage.MESSAGE_ID_UNDEFINED);
-                    writeCoapMessage(ctx, me);
-                }
+                updateNotification.setMaxAge(Math.max(maxAge - (transmissionTime - now) / 1000, 0));
+                updateNotificationExchange.setCoapMessage(updateNotification);
+                updateNotificationExchange.setChanged(true);
             }
+
+            log.info("Updated update notification to retransmit: {}", updateNotification);
         }
 
         else {
@@ -315,9 +368,15 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
     }
 
 
-    private static long createNextRetransmissionDelay(int retransmissionNo){
-        return (long)(Math.pow(2, retransmissionNo) * ACK_TIMEOUT_MILLIS *
-                (1 + RANDOM.nextDouble() * (ACK_RANDOM_FACTOR - 1)) - RETRANSMISSION_TASK_PERIOD_MILLIS);
+    private void processRoundTripTime(OutgoingReliableMessageExchange messageExchange){
+        int retransmissions = messageExchange.getRetransmissionCount();
+
+        //retransmissions of update notifications may have changed the message (and ID), i.e. the RTT is ambiguous
+        if(retransmissions > 0 && messageExchange instanceof OutgoingReliableUpdateNotificationExchange)
+            return;
+
+        long roundTripTime = System.nanoTime() - messageExchange.getFirstTransmissionTime();
+        congestionControl.processRoundTripTime(messageExchange.getRemoteEndpoint(), roundTripTime, retransmissions);
     }
 
 
@@ -382,13 +441,16 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
         CoapMessage coapMessage = (CoapMessage) me.getMessage();
 
         //Try to cancel open retransmissions (method returns false if there was no open CON)
-        OutgoingMessageExchange messageExchange = stopRetransmission(remoteEndpoint, coapMessage.getMessageID());
+        OutgoingReliableMessageExchange messageExchange =
+                stopRetransmission(remoteEndpoint, coapMessage.getMessageID());
 
         if(messageExchange == null){
             log.error("No open CON found for incoming message: {}", coapMessage);
             return;
         }
 
+        processRoundTripTime(messageExchange);
+
         //Send internal message for empty RST reception
         InternalResetReceivedMessage internalMessage =
                 new InternalResetReceivedMessage(remoteEndpoint, messageExchange .getMessageID(),
@@ -403,12 +465,16 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
         CoapMessage coapMessage = (CoapMessage) me.getMessage();
 
         //Try to cancel open retransmissions (method returns false if there was no open CON)
-        OutgoingMessageExchange messageExchange = stopRetransmission(remoteEndpoint, coapMessage.getMessageID());
+        OutgoingReliableMessageExchange messageExchange =
+                stopRetransmission(remoteEndpoint, coapMessage.getMessageID());
+
         if(messageExchange == null){
             log.warn("No open CON found for incoming message: {}", coapMessage);
             return;
         }
 
+        processRoundTripTime(messageExchange);
+
         //Send internal message if the received ACK was empty
         if(coapMessage.getMessageCodeName() == MessageCode.Name.EMPTY){
             InternalEmptyAcknowledgementReceivedMessage internalMessage =
@@ -440,19 +506,14 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
 
     private OutgoingReliableMessageExchange stopRetransmission(InetSocketAddress remoteEndpoint, int messageID){
 
-        OutgoingMessageExchange messageExchange = null;
-
-        if(ongoingMessageExchanges.contains(remoteEndpoint, messageID)){
-            synchronized(monitor){
-                messageExchange = ongoingMessageExchanges.remove(remoteEndpoint, messageID);
-            }
-        }
+        OutgoingMessageExchange messageExchange = ongoingMessageExchanges.remove(remoteEndpoint, messageID);
 
         if(messageExchange == null || !(messageExchange instanceof OutgoingReliableMessageExchange)){
             return null;
         }
         else{
             ((OutgoingReliableMessageExchange) messageExchange).stopRetransmission();
+            retransmissionScheduler.cancel((OutgoingReliableMessageExchange) messageExchange);
             return (OutgoingReliableMessageExchange) messageExchange;
         }
     }
@@ -513,100 +574,77 @@ public class OutgoingMessageReliabilityHandler extends SimpleChannelHandler impl
     }
 
 
-    private class RetransmissionTask implements Runnable{
-        @Override
-        public void run() {
-            try{
-                long now = System.currentTimeMillis();
-
-                synchronized (monitor){
-                    //Iterator over the subset of retransmission that are due
-                    Iterator<Map.Entry<Long, Collection<OutgoingReliableMessageExchange>>> dueRetransmissions =
-                            retransmissionSchedule.asMap().headMap(now, true).entrySet().iterator();
-
-                    //Temporary map of next retransmissions to be filled with the next retransmissions
-                    Multimap<Long, OutgoingReliableMessageExchange> subsequentRetransmissions = HashMultimap.create();
-
-                    while(dueRetransmissions.hasNext()){
-                        Map.Entry<Long, Collection<OutgoingReliableMessageExchange>> part = dueRetransmissions.next();
-
-                        for(OutgoingReliableMessageExchange messageExchange : part.getValue()){
-                            if(!messageExchange.isRetransmissionStopped()){
-
-                                if(messageExchange instanceof OutgoingReliableUpdateNotificationExchange){
-
-                                    OutgoingReliableUpdateNotificationExchange updateNotificationExchange =
-                                            (OutgoingReliableUpdateNotificationExchange) messageExchange;
-
-                                    if(updateNotificationExchange.isChanged()){
-                                        InetSocketAddress remoteEndpoint =
-                                                updateNotificationExchange.getRemoteEndpoint();
+    private class RetransmissionProcessor implements RetransmissionScheduler.DueRetransmissionProcessor {
 
-                                        CoapResponse updateNotification = updateNotificationExchange.getCoapMessage();
-
-                                        int oldMessageID = updateNotification.getMessageID();
+        @Override
+        public void processDueRetransmission(OutgoingReliableMessageExchange messageExchange,
+                                             long retransmissionTime) {
+
+            //if the retransmission was stopped then remove it from owing retransmissions
+            if(messageExchange.isRetransmissionStopped()){
+                ongoingMessageExchanges.remove(
+                        messageExchange.getRemoteEndpoint(),
+                        messageExchange.getCoapMessage().getMessageID(),
+                        messageExchange
+                );
+                return;
+            }
 
-                                        try{
-                                            int newMessageID = messageIDFactory.getNextMessageID(remoteEndpoint);
+            if(messageExchange instanceof OutgoingReliableUpdateNotificationExchange){
 
-                                            ongoingMessageExchanges.remove(remoteEndpoint, oldMessageID);
+                OutgoingReliableUpdateNotificationExchange updateNotificationExchange =
+                        (OutgoingReliableUpdateNotificationExchange) messageExchange;
 
-                                            updateNotification.setMessageID(newMessageID);
+                synchronized (updateNotificationExchange){
+                    if(updateNotificationExchange.isChanged()){
+                        InetSocketAddress remoteEndpoint = updateNotificationExchange.getRemoteEndpoint();
+                        CoapResponse updateNotification = updateNotificationExchange.getCoapMessage();
 
-                                            ongoingMessageExchanges.put(remoteEndpoint, newMessageID,
-                                                    updateNotificationExchange);
+                        int oldMessageID = updateNotification.getMessageID();
 
-                                            updateNotificationExchange.setChanged(false);
-                                        }
+                        try{
+                            int newMessageID = messageIDFactory.getNextMessageID(remoteEndpoint);
 
-                                        catch(NoMessageIDAvailableException ex){
-                                            log.warn("Could not update the update notification for {} (Reason: {})",
-                                                    messageExchange.getRemoteEndpoint(), ex.getMessage());
-                                        }
-                                    }
-                                }
+                            ongoingMessageExchanges.remove(remoteEndpoint, oldMessageID, updateNotificationExchange);
 
-                                retransmitMessage(messageExchange);
+                            updateNotification.setMessageID(newMessageID);
 
-                                //Schedule next retransmission only if the maximum number was not reached
-                                int counter = messageExchange.getRetransmissionCount();
-                                if(counter < MAX_RETRANSMISSIONS){
-                                    long delay = createNextRetransmissionDelay(counter);
+                            ongoingMessageExchanges.put(remoteEndpoint, newMessageID, updateNotificationExchange);
 
-                                    //Update the max age option of CoAP responses for next retransmission
-                                    if(messageExchange.getCoapMessage() instanceof CoapResponse){
-                                        CoapResponse coapResponse = (CoapResponse) messageExchange.getCoapMessage();
-                                        coapResponse.setMaxAge(Math.max(coapResponse.getMaxAge() - delay / 1000, 0));
-                                    }
+                            updateNotificationExchange.setChanged(false);
+                        }
 
-                                    subsequentRetransmissions.put(part.getKey() + delay, messageExchange);
+                        catch(NoMessageIDAvailableException ex){
+                            log.warn("Could not update the update notification for {} (Reason: {})",
+                                    messageExchange.getRemoteEndpoint(), ex.getMessage());
+                        }
+                    }
+                }
+            }
 
-                                    if(messageExchange instanceof OutgoingReliableUpdateNotificationExchange){
-                                        OutgoingReliableUpdateNotificationExchange updateNotificationExchange =
-                                                (OutgoingReliableUpdateNotificationExchange) messageExchange;
+            retransmitMessage(messageExchange);
 
-                                        updateNotificationExchange.setNextRetransmissionTime(part.getKey() + delay);
-                                    }
-                                }
-                            }
+            //Schedule next retransmission only if the maximum number was not reached
+            int counter = messageExchange.getRetransmissionCount();
+            if(counter < MAX_RETRANSMISSIONS){
+                long delay = congestionControl.getNextTimeout(messageExchange.getRetransmissionTimeout(),
+                        messageExchange.getCurrentTimeout());
+                messageExchange.setCurrentTimeout(delay);
 
-                            //if the retransmission was stopped then remove it from owing retransmissions
-                            else{
-                                ongoingMessageExchanges.remove(
-                                        messageExchange.getRemoteEndpoint(),
-                                        messageExchange.getCoapMessage().getMessageID()
-                                );
-                            }
-                        }
+                //Update the max age option of CoAP responses for next retransmission
+                if(messageExchange.getCoapMessage() instanceof CoapResponse){
+                    CoapResponse coapResponse = (CoapResponse) messageExchange.getCoapMessage();
+                    coapResponse.setMaxAge(Math.max(coapResponse.getMaxAge() - delay / 1000, 0));
+                }
 
-                        dueRetransmissions.remove();
-                    }
+                if(messageExchange instanceof OutgoingReliableUpdateNotificationExchange){
+                    OutgoingReliableUpdateNotificationExchange updateNotificationExchange =
+                            (OutgoingReliableUpdateNotificationExchange) messageExchange;
 
-                    retransmissionSchedule.putAll(subsequentRetransmissions);
+                    updateNotificationExchange.setNextRetransmissionTime(retransmissionTime + delay);
                 }
-            }
-            catch (Exception e){
-                log.error("Unexpected exception in retransmission task!", e);
+
+                retransmissionScheduler.schedule(messageExchange, retransmissionTime + delay);
             }
         }
     }
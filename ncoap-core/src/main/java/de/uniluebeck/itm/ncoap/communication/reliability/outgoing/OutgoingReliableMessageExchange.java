@@ -34,8 +34,13 @@ import java.net.InetSocketAddress;
 public class OutgoingReliableMessageExchange extends OutgoingMessageExchange {
 
     private CoapMessage coapMessage;
-    private int retransmissionCount;
-    private boolean retransmissionStopped;
+    //written by the retransmission task, read by the thread that processes the acknowledgement
+    private volatile int retransmissionCount;
+    private volatile boolean retransmissionStopped;
+    private volatile HashedWheelRetransmissionScheduler.ScheduledRetransmission scheduledRetransmission;
+    private final long firstTransmissionTime;
+    private long retransmissionTimeout;
+    private long currentTimeout;
 
 
     public OutgoingReliableMessageExchange(InetSocketAddress remoteEndpoint, CoapMessage coapMessage) {
@@ -43,6 +48,7 @@ public class OutgoingReliableMessageExchange extends OutgoingMessageExchange {
         this.coapMessage = coapMessage;
         this.retransmissionCount = 0;
         this.retransmissionStopped = false;
+        this.firstTransmissionTime = System.nanoTime();
     }
 
 
@@ -70,4 +76,54 @@ public class OutgoingReliableMessageExchange extends OutgoingMessageExchange {
     public void stopRetransmission() {
         this.retransmissionStopped = true;
     }
+
+
+    /**
+     * Returns the handle of the pending retransmission as set by the {@link HashedWheelRetransmissionScheduler} (or
+     * <code>null</code> if there was no handle set)
+     */
+    HashedWheelRetransmissionScheduler.ScheduledRetransmission getScheduledRetransmission(){
+        return this.scheduledRetransmission;
+    }
+
+
+    void setScheduledRetransmission(HashedWheelRetransmissionScheduler.ScheduledRetransmission scheduledRetransmission){
+        this.scheduledRetransmission = scheduledRetransmission;
+    }
+
+
+    /**
+     * Returns the value of {@link System#nanoTime()} at the time this exchange was created, i.e. (roughly) the time
+     * of the initial transmission
+     */
+    long getFirstTransmissionTime(){
+        return this.firstTransmissionTime;
+    }
+
+
+    /**
+     * Returns the retransmission timeout (in milliseconds) that was estimated for the remote endpoint at the time of
+     * the initial transmission
+     */
+    long getRetransmissionTimeout(){
+        return this.retransmissionTimeout;
+    }
+
+
+    void setRetransmissionTimeout(long retransmissionTimeout){
+        this.retransmissionTimeout = retransmissionTimeout;
+    }
+
+
+    /**
+     * Returns the number of milliseconds that were waited for an acknowledgement before the latest (re-)transmission
+     */
+    long getCurrentTimeout(){
+        return this.currentTimeout;
+    }
+
+
+    void setCurrentTimeout(long currentTimeout){
+        this.currentTimeout = currentTimeout;
+    }
 }
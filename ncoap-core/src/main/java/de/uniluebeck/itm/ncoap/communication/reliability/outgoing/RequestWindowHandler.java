@@ -0,0 +1,545 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import de.uniluebeck.itm.ncoap.application.InternalApplicationShutdownMessage;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.codec.InternalEncodingFailedMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link RequestWindowHandler} is placed below the response dispatcher of client pipelines (if enabled), i.e.
+ * it receives {@link CoapRequest}s with tokens already set, and limits the number of outstanding {@link CoapRequest}s
+ * per remote endpoint to NSTART (see RFC 7252, section 4.7). A request is outstanding until
+ * <ul>
+ *     <li>a response, an empty acknowledgement or a reset was received,</li>
+ *     <li>the retransmission timed out, the encoding or the transmission failed, or</li>
+ *     <li>({@link MessageType.Name#NON} requests only) {@link #NON_TIMEOUT_MILLIS} passed without a response, or</li>
+ *     <li>({@link MessageType.Name#CON} requests only)
+ *     {@link OutgoingMessageReliabilityHandler#MAX_TRANSMIT_WAIT_MILLIS} passed without any of the above, i.e. the
+ *     retransmission timeout was not reported.</li>
+ * </ul>
+ *
+ * Requests exceeding the window are queued (first come, first served) and sent as soon as an outstanding request to
+ * the same remote endpoint is finished. The queue is bounded per remote endpoint, i.e. a flood of requests to a
+ * single endpoint neither affects the requests to other endpoints nor exhausts the memory. If the queue is full, the
+ * write of the request fails with a {@link RequestQueueFullException}, i.e. the {@link RequestQueueFullProcessor}
+ * of the request is informed and the caller is supposed to slow down.
+ *
+ * The windows of different remote endpoints are locked independently, i.e. requests to different remote endpoints
+ * do not contend with each other.
+ */
+public class RequestWindowHandler extends SimpleChannelHandler {
+
+    /**
+     * The name of the system property for the maximum number of outstanding requests per remote endpoint of the
+     * {@link RequestWindowHandler}s that are added by the pipeline factories
+     * (<code>de.uniluebeck.itm.ncoap.client.nstart</code>). Values greater than <code>0</code> enable the window.
+     */
+    public static final String NSTART = "de.uniluebeck.itm.ncoap.client.nstart";
+
+    /**
+     * The name of the system property for the maximum number of queued requests per remote endpoint of the
+     * {@link RequestWindowHandler}s that are added by the pipeline factories
+     * (<code>de.uniluebeck.itm.ncoap.client.requestQueueSize</code>).
+     */
+    public static final String QUEUE_SIZE = "de.uniluebeck.itm.ncoap.client.requestQueueSize";
+
+    /**
+     * The default maximum number of queued requests per remote endpoint (1000)
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * The number of milliseconds (3000) a {@link MessageType.Name#NON} request without response is considered
+     * outstanding, i.e. the maximum timeout of the first transmission of a {@link MessageType.Name#CON} request.
+     */
+    public static final long NON_TIMEOUT_MILLIS = (long) (OutgoingMessageReliabilityHandler.ACK_TIMEOUT_MILLIS *
+            OutgoingMessageReliabilityHandler.ACK_RANDOM_FACTOR);
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final ScheduledExecutorService executorService;
+    private final int nstart;
+    private final int queueSize;
+    private final long confirmableTimeoutMillis;
+
+    private final ConcurrentMap<InetSocketAddress, EndpointWindow> windows;
+
+    private final AtomicInteger queuedRequests;
+    private final AtomicInteger outstandingRequests;
+    private final AtomicLong rejectedRequests;
+    private final AtomicLong dequeuedRequests;
+    private final AtomicLong waitingTimeNanos;
+    private final AtomicLong maxWaitingTimeNanos;
+
+
+    /**
+     * Creates a new instance of {@link RequestWindowHandler} with the window and queue size given by the system
+     * properties {@link #NSTART} and {@link #QUEUE_SIZE}.
+     *
+     * @param executorService the {@link ScheduledExecutorService} to send queued requests and to finish
+     *                        requests without response
+     */
+    public RequestWindowHandler(ScheduledExecutorService executorService){
+        this(executorService, Integer.getInteger(NSTART, 1), Integer.getInteger(QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+    }
+
+
+    /**
+     * Creates a new instance of {@link RequestWindowHandler}
+     *
+     * @param executorService the {@link ScheduledExecutorService} to send queued requests and to finish
+     *                        requests without response
+     * @param nstart the maximum number of outstanding requests per remote endpoint
+     * @param queueSize the maximum number of queued requests per remote endpoint
+     */
+    public RequestWindowHandler(ScheduledExecutorService executorService, int nstart, int queueSize){
+        this(executorService, nstart, queueSize, OutgoingMessageReliabilityHandler.MAX_TRANSMIT_WAIT_MILLIS);
+    }
+
+
+    /**
+     * Creates a new instance of {@link RequestWindowHandler}
+     *
+     * @param executorService the {@link ScheduledExecutorService} to send queued requests and to finish
+     *                        requests without response
+     * @param nstart the maximum number of outstanding requests per remote endpoint
+     * @param queueSize the maximum number of queued requests per remote endpoint
+     * @param confirmableTimeoutMillis the number of milliseconds after which a {@link MessageType.Name#CON} request
+     *                                 is no longer considered outstanding
+     */
+    RequestWindowHandler(ScheduledExecutorService executorService, int nstart, int queueSize,
+                         long confirmableTimeoutMillis){
+        if(nstart < 1)
+            throw new IllegalArgumentException("NSTART must be at least 1 (was: " + nstart + ")");
+
+        if(queueSize < 0)
+            throw new IllegalArgumentException("Queue size must not be negative (was: " + queueSize + ")");
+
+        this.executorService = executorService;
+        this.nstart = nstart;
+        this.queueSize = queueSize;
+        this.confirmableTimeoutMillis = confirmableTimeoutMillis;
+
+        this.windows = new ConcurrentHashMap<>();
+
+        this.queuedRequests = new AtomicInteger(0);
+        this.outstandingRequests = new AtomicInteger(0);
+        this.rejectedRequests = new AtomicLong(0);
+        this.dequeuedRequests = new AtomicLong(0);
+        this.waitingTimeNanos = new AtomicLong(0);
+        this.maxWaitingTimeNanos = new AtomicLong(0);
+    }
+
+
+    /**
+     * Returns <code>true</code> if the system property {@link #NSTART} is set to a value greater than <code>0</code>,
+     * i.e. if the pipeline factories are supposed to add a {@link RequestWindowHandler}.
+     *
+     * @return <code>true</code> if the request window is enabled by system property or <code>false</code> otherwise
+     */
+    public static boolean isEnabled(){
+        return Integer.getInteger(NSTART, 0) > 0;
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(me.getMessage() instanceof InternalApplicationShutdownMessage){
+            handleApplicationShutdown();
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        if(!(me.getMessage() instanceof CoapRequest)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        Token token = ((CoapRequest) me.getMessage()).getToken();
+
+        while(true){
+            EndpointWindow window = windows.get(remoteEndpoint);
+            if(window == null){
+                EndpointWindow newWindow = new EndpointWindow();
+                window = windows.putIfAbsent(remoteEndpoint, newWindow);
+                if(window == null)
+                    window = newWindow;
+            }
+
+            synchronized (window){
+                //the window was removed in the meantime (retry with a new one)
+                if(window.removed)
+                    continue;
+
+                if(window.outstandingRequests.size() < nstart){
+                    window.outstandingRequests.put(token, new OutstandingRequest(me));
+                    outstandingRequests.incrementAndGet();
+                    break;
+                }
+
+                else if(window.queuedRequests.size() < queueSize){
+                    window.queuedRequests.add(new QueuedRequest(me, System.nanoTime()));
+                    queuedRequests.incrementAndGet();
+                    log.debug("Queued request for {} (queue size: {})", remoteEndpoint, window.queuedRequests.size());
+                    return;
+                }
+
+                else{
+                    rejectedRequests.incrementAndGet();
+                    log.warn("Rejected request for {} (queue is full)", remoteEndpoint);
+                    me.getFuture().setFailure(new RequestQueueFullException(remoteEndpoint, token, queueSize));
+                    return;
+                }
+            }
+        }
+
+        sendRequest(ctx, me);
+    }
+
+
+    private void sendRequest(final ChannelHandlerContext ctx, final MessageEvent me){
+        final InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        final CoapRequest coapRequest = (CoapRequest) me.getMessage();
+        final Token token = coapRequest.getToken();
+
+        me.getFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if(!future.isSuccess())
+                    finishRequest(ctx, remoteEndpoint, token, me);
+            }
+        });
+
+        //a request without any reaction from the remote endpoint must not block the window forever
+        long timeout = coapRequest.getMessageTypeName() == MessageType.Name.NON ?
+                NON_TIMEOUT_MILLIS : confirmableTimeoutMillis;
+
+        ScheduledFuture<?> timeoutFuture = executorService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                finishRequest(ctx, remoteEndpoint, token, me);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        if(!setTimeoutFuture(remoteEndpoint, token, me, timeoutFuture))
+            timeoutFuture.cancel(false);
+
+        ctx.sendDownstream(me);
+    }
+
+
+    /**
+     * Sets the given {@link ScheduledFuture} of the timeout task for the outstanding request caused by the given
+     * event and returns <code>true</code> or returns <code>false</code> if that request was already finished
+     */
+    private boolean setTimeoutFuture(InetSocketAddress remoteEndpoint, Token token, MessageEvent me,
+                                     ScheduledFuture<?> timeoutFuture){
+
+        EndpointWindow window = windows.get(remoteEndpoint);
+        if(window == null)
+            return false;
+
+        synchronized (window){
+            OutstandingRequest outstandingRequest = window.outstandingRequests.get(token);
+            if(outstandingRequest == null || outstandingRequest.messageEvent != me)
+                return false;
+
+            outstandingRequest.timeoutFuture = timeoutFuture;
+            return true;
+        }
+    }
+
+
+    /**
+     * Finishes the outstanding request with the given token and sends the next queued request (if any). If the given
+     * event is not <code>null</code>, the request is only finished if it was caused by that event, i.e. not if the
+     * token was meanwhile used for another request.
+     */
+    private void finishRequest(final ChannelHandlerContext ctx, InetSocketAddress remoteEndpoint, Token token,
+                               MessageEvent me){
+
+        final QueuedRequest nextRequest;
+
+        EndpointWindow window = windows.get(remoteEndpoint);
+        if(window == null)
+            return;
+
+        synchronized (window){
+            OutstandingRequest outstandingRequest = window.outstandingRequests.get(token);
+            if(outstandingRequest == null || (me != null && outstandingRequest.messageEvent != me))
+                return;
+
+            window.outstandingRequests.remove(token);
+            outstandingRequest.cancelTimeout();
+            nextRequest = window.queuedRequests.poll();
+
+            if(nextRequest != null){
+                queuedRequests.decrementAndGet();
+                MessageEvent nextEvent = nextRequest.getMessageEvent();
+                window.outstandingRequests.put(((CoapRequest) nextEvent.getMessage()).getToken(),
+                        new OutstandingRequest(nextEvent));
+            }
+
+            else{
+                outstandingRequests.decrementAndGet();
+                if(window.outstandingRequests.isEmpty()){
+                    window.removed = true;
+                    windows.remove(remoteEndpoint, window);
+                }
+            }
+        }
+
+        if(nextRequest != null){
+            long waitingTime = System.nanoTime() - nextRequest.getQueuedSince();
+            dequeuedRequests.incrementAndGet();
+            waitingTimeNanos.addAndGet(waitingTime);
+
+            long maxWaitingTime = maxWaitingTimeNanos.get();
+            while(waitingTime > maxWaitingTime && !maxWaitingTimeNanos.compareAndSet(maxWaitingTime, waitingTime))
+                maxWaitingTime = maxWaitingTimeNanos.get();
+
+            //send asynchronously, i.e. a synchronous failure of the write does not cause a recursion
+            executorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendRequest(ctx, nextRequest.getMessageEvent());
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private void handleApplicationShutdown(){
+        List<QueuedRequest> droppedRequests = new ArrayList<>();
+
+        for(Map.Entry<InetSocketAddress, EndpointWindow> entry : windows.entrySet()){
+            EndpointWindow window = entry.getValue();
+
+            synchronized (window){
+                window.removed = true;
+                droppedRequests.addAll(window.queuedRequests);
+
+                queuedRequests.addAndGet(-window.queuedRequests.size());
+                outstandingRequests.addAndGet(-window.outstandingRequests.size());
+
+                for(OutstandingRequest outstandingRequest : window.outstandingRequests.values())
+                    outstandingRequest.cancelTimeout();
+
+                window.queuedRequests.clear();
+                window.outstandingRequests.clear();
+            }
+
+            windows.remove(entry.getKey(), window);
+        }
+
+        for(QueuedRequest queuedRequest : droppedRequests)
+            queuedRequest.getMessageEvent().getFuture().setFailure(new ClosedChannelException());
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        Object message = me.getMessage();
+
+        if(message instanceof CoapResponse)
+            finishRequest(ctx, (InetSocketAddress) me.getRemoteAddress(), ((CoapResponse) message).getToken(), null);
+
+        else if(message instanceof InternalEmptyAcknowledgementReceivedMessage)
+            finishRequest(ctx, ((InternalEmptyAcknowledgementReceivedMessage) message).getRemoteEndpoint(),
+                    ((InternalEmptyAcknowledgementReceivedMessage) message).getToken(), null);
+
+        else if(message instanceof InternalResetReceivedMessage)
+            finishRequest(ctx, ((InternalResetReceivedMessage) message).getRemoteEndpoint(),
+                    ((InternalResetReceivedMessage) message).getToken(), null);
+
+        else if(message instanceof InternalRetransmissionTimeoutMessage)
+            finishRequest(ctx, ((InternalRetransmissionTimeoutMessage) message).getRemoteEndpoint(),
+                    ((InternalRetransmissionTimeoutMessage) message).getToken(), null);
+
+        else if(message instanceof InternalEncodingFailedMessage)
+            finishRequest(ctx, ((InternalEncodingFailedMessage) message).getRemoteEndoint(),
+                    ((InternalEncodingFailedMessage) message).getToken(), null);
+
+        ctx.sendUpstream(me);
+    }
+
+
+    /**
+     * Returns the maximum number of outstanding requests per remote endpoint (NSTART)
+     *
+     * @return the maximum number of outstanding requests per remote endpoint (NSTART)
+     */
+    public int getNstart(){
+        return this.nstart;
+    }
+
+
+    /**
+     * Returns the number of requests (to all remote endpoints) that are currently queued
+     *
+     * @return the number of requests (to all remote endpoints) that are currently queued
+     */
+    public int getNumberOfQueuedRequests(){
+        return queuedRequests.get();
+    }
+
+
+    /**
+     * Returns the number of requests to the given remote endpoint that are currently queued
+     *
+     * @param remoteEndpoint the remote endpoint to get the queue depth for
+     *
+     * @return the number of requests to the given remote endpoint that are currently queued
+     */
+    public int getNumberOfQueuedRequests(InetSocketAddress remoteEndpoint){
+        EndpointWindow window = windows.get(remoteEndpoint);
+        if(window == null)
+            return 0;
+
+        synchronized (window){
+            return window.queuedRequests.size();
+        }
+    }
+
+
+    /**
+     * Returns the number of requests (to all remote endpoints) that are currently outstanding
+     *
+     * @return the number of requests (to all remote endpoints) that are currently outstanding
+     */
+    public int getNumberOfOutstandingRequests(){
+        return outstandingRequests.get();
+    }
+
+
+    /**
+     * Returns the number of requests that were rejected because the queue was full
+     *
+     * @return the number of requests that were rejected because the queue was full
+     */
+    public long getNumberOfRejectedRequests(){
+        return rejectedRequests.get();
+    }
+
+
+    /**
+     * Returns the average time (in milliseconds) queued requests waited to be sent
+     *
+     * @return the average time (in milliseconds) queued requests waited to be sent
+     */
+    public double getAverageWaitingTime(){
+        long dequeued = dequeuedRequests.get();
+        return dequeued == 0 ? 0 : waitingTimeNanos.get() / 1e6 / dequeued;
+    }
+
+
+    /**
+     * Returns the maximum time (in milliseconds) a queued request waited to be sent
+     *
+     * @return the maximum time (in milliseconds) a queued request waited to be sent
+     */
+    public long getMaxWaitingTime(){
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitingTimeNanos.get());
+    }
+
+
+    /**
+     * The outstanding and queued requests to a single remote endpoint (guarded by the window itself)
+     */
+    private static class EndpointWindow {
+
+        private final Map<Token, OutstandingRequest> outstandingRequests = new HashMap<>();
+        private final Queue<QueuedRequest> queuedRequests = new ArrayDeque<>();
+
+        //set when the window is removed from the map of windows, i.e. it must not be used anymore
+        private boolean removed;
+    }
+
+
+    /**
+     * An outstanding request, i.e. the causing event and the task to finish the request if there is no reaction from
+     * the remote endpoint (guarded by the window of the remote endpoint)
+     */
+    private static class OutstandingRequest {
+
+        private final MessageEvent messageEvent;
+        private ScheduledFuture<?> timeoutFuture;
+
+
+        private OutstandingRequest(MessageEvent messageEvent){
+            this.messageEvent = messageEvent;
+        }
+
+
+        private void cancelTimeout(){
+            if(timeoutFuture != null){
+                timeoutFuture.cancel(false);
+                timeoutFuture = null;
+            }
+        }
+    }
+
+
+    private static class QueuedRequest {
+
+        private final MessageEvent messageEvent;
+        private final long queuedSince;
+
+
+        private QueuedRequest(MessageEvent messageEvent, long queuedSince){
+            this.messageEvent = messageEvent;
+            this.queuedSince = queuedSince;
+        }
+
+
+        private MessageEvent getMessageEvent(){
+            return this.messageEvent;
+        }
+
+
+        private long getQueuedSince(){
+            return this.queuedSince;
+        }
+    }
+}
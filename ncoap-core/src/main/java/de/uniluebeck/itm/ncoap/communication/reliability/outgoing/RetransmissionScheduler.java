@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A {@link RetransmissionScheduler} keeps track of the points in time when outgoing confirmable messages are to be
+ * retransmitted, i.e. it holds the retransmission schedule of an {@link OutgoingMessageReliabilityHandler}. Due
+ * retransmissions are handed over to the {@link DueRetransmissionProcessor} given on initialization.
+ *
+ * There are two implementations available:
+ * <ul>
+ *     <li>
+ *         {@link HashedWheelRetransmissionScheduler} (default) with constant time scheduling and cancellation and
+ *         a firing accuracy of one tick (1 millisecond by default), and
+ *     </li>
+ *     <li>
+ *         {@link TreeMultimapRetransmissionScheduler} (reference implementation) with a sorted map guarded by a
+ *         single monitor that is polled periodically.
+ *     </li>
+ * </ul>
+ */
+public interface RetransmissionScheduler {
+
+    /**
+     * Starts this {@link RetransmissionScheduler}. This method is invoked once by the
+     * {@link OutgoingMessageReliabilityHandler} the scheduler was given to.
+     *
+     * @param executorService the {@link ScheduledExecutorService} to provide the thread(s) for the scheduler
+     * @param processor the {@link DueRetransmissionProcessor} to be called for due retransmissions
+     */
+    public void initialize(ScheduledExecutorService executorService, DueRetransmissionProcessor processor);
+
+    /**
+     * Schedules the next retransmission of the given {@link OutgoingReliableMessageExchange}
+     *
+     * @param messageExchange the {@link OutgoingReliableMessageExchange} to be retransmitted
+     * @param retransmissionTime the point in time (in milliseconds, see {@link System#currentTimeMillis()}) for the
+     *                           next retransmission
+     */
+    public void schedule(OutgoingReliableMessageExchange messageExchange, long retransmissionTime);
+
+    /**
+     * Removes the pending retransmission of the given {@link OutgoingReliableMessageExchange} (if any) from the
+     * schedule. This method is supposed to be invoked after
+     * {@link OutgoingReliableMessageExchange#stopRetransmission()} was called, i.e. implementations may also
+     * drop stopped exchanges lazily.
+     *
+     * @param messageExchange the {@link OutgoingReliableMessageExchange} whose retransmission is to be cancelled
+     */
+    public void cancel(OutgoingReliableMessageExchange messageExchange);
+
+    /**
+     * Returns the number of retransmissions currently scheduled
+     *
+     * @return the number of retransmissions currently scheduled
+     */
+    public int size();
+
+    /**
+     * Removes all scheduled retransmissions and stops this {@link RetransmissionScheduler}.
+     */
+    public void shutdown();
+
+
+    /**
+     * Interface to be implemented by the component that actually retransmits messages, i.e. the
+     * {@link OutgoingMessageReliabilityHandler}.
+     */
+    public interface DueRetransmissionProcessor {
+
+        /**
+         * Method invoked by the {@link RetransmissionScheduler} if the retransmission of the given
+         * {@link OutgoingReliableMessageExchange} is due.
+         *
+         * @param messageExchange the {@link OutgoingReliableMessageExchange} to be retransmitted
+         * @param retransmissionTime the point in time the retransmission was scheduled for (to be used as basis for
+         *                           the next retransmission)
+         */
+        public void processDueRetransmission(OutgoingReliableMessageExchange messageExchange,
+                                             long retransmissionTime);
+    }
+}
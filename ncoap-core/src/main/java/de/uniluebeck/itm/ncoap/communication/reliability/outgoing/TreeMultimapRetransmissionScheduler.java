@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.TreeMultimap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference implementation of {@link RetransmissionScheduler}. All scheduled retransmissions are kept in a
+ * {@link TreeMultimap} guarded by a single monitor. A periodic task checks the map for due retransmissions every
+ * {@link #RETRANSMISSION_TASK_PERIOD_MILLIS} milliseconds. To compensate for that polling interval, retransmissions
+ * are scheduled {@link #RETRANSMISSION_TASK_PERIOD_MILLIS} milliseconds earlier than requested.
+ *
+ * Cancellation is lazy, i.e. stopped exchanges are dropped when they become due.
+ */
+public class TreeMultimapRetransmissionScheduler implements RetransmissionScheduler {
+
+    /**
+     * The period (100 ms) to check for due retransmissions
+     */
+    public static final int RETRANSMISSION_TASK_PERIOD_MILLIS = 100;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final Object monitor = new Object();
+    private TreeMultimap<Long, OutgoingReliableMessageExchange> retransmissionSchedule;
+
+    private DueRetransmissionProcessor processor;
+    private ScheduledFuture<?> retransmissionTaskFuture;
+
+
+    public TreeMultimapRetransmissionScheduler(){
+        this.retransmissionSchedule = TreeMultimap.create(Ordering.<Long>natural(),
+                Ordering.<OutgoingReliableMessageExchange>arbitrary());
+    }
+
+
+    @Override
+    public void initialize(ScheduledExecutorService executorService, DueRetransmissionProcessor processor) {
+        this.processor = processor;
+        this.retransmissionTaskFuture = executorService.scheduleAtFixedRate(
+                new RetransmissionTask(),
+                RETRANSMISSION_TASK_PERIOD_MILLIS, RETRANSMISSION_TASK_PERIOD_MILLIS, TimeUnit.MILLISECONDS
+        );
+    }
+
+
+    @Override
+    public void schedule(OutgoingReliableMessageExchange messageExchange, long retransmissionTime) {
+        synchronized (monitor){
+            retransmissionSchedule.put(retransmissionTime - RETRANSMISSION_TASK_PERIOD_MILLIS, messageExchange);
+            log.debug("Number of scheduled retransmissions: {}", retransmissionSchedule.size());
+        }
+    }
+
+
+    @Override
+    public void cancel(OutgoingReliableMessageExchange messageExchange) {
+        //Nothing to do, stopped exchanges are removed by the retransmission task
+    }
+
+
+    @Override
+    public int size() {
+        synchronized (monitor){
+            return retransmissionSchedule.size();
+        }
+    }
+
+
+    @Override
+    public void shutdown() {
+        synchronized (monitor){
+            if(retransmissionTaskFuture != null)
+                retransmissionTaskFuture.cancel(false);
+
+            retransmissionSchedule.clear();
+        }
+    }
+
+
+    private class RetransmissionTask implements Runnable{
+        @Override
+        public void run() {
+            try{
+                long now = System.currentTimeMillis();
+
+                //Temporary map of due retransmissions (to be processed without holding the monitor)
+                Multimap<Long, OutgoingReliableMessageExchange> dueRetransmissions =
+                        ArrayListMultimap.create();
+
+                synchronized (monitor){
+                    //Iterator over the subset of retransmission that are due
+                    Iterator<Map.Entry<Long, Collection<OutgoingReliableMessageExchange>>> iterator =
+                            retransmissionSchedule.asMap().headMap(now, true).entrySet().iterator();
+
+                    while(iterator.hasNext()){
+                        Map.Entry<Long, Collection<OutgoingReliableMessageExchange>> part = iterator.next();
+                        dueRetransmissions.putAll(part.getKey(), part.getValue());
+                        iterator.remove();
+                    }
+                }
+
+                for(Map.Entry<Long, OutgoingReliableMessageExchange> dueRetransmission : dueRetransmissions.entries())
+                    processor.processDueRetransmission(dueRetransmission.getValue(), dueRetransmission.getKey());
+            }
+            catch (Exception e){
+                log.error("Unexpected exception in retransmission task!", e);
+            }
+        }
+    }
+}
@@ -24,10 +24,8 @@
  */
 package de.uniluebeck.itm.ncoap.message;
 
-import com.google.common.base.Supplier;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.SetMultimap;
 import com.google.common.primitives.Longs;
 import de.uniluebeck.itm.ncoap.application.client.Token;
@@ -79,114 +77,200 @@ public abstract class CoapMessage {
 
     private static final String DOES_NOT_ALLOW_CONTENT = "CoAP messages with code %s do not allow payload.";
     private static final String EXCLUDES = "Already contained option no. %d excludes option no. %d";
+    private static final String VALUE_IS_DEFAULT_VALUE = "Given value is default value for option no. %d.";
     private static final String OUT_OF_ALLOWED_RANGE = "Given value length (%d) is out of allowed range " +
             "for option no. %d (min: %d, max; %d).";
 
     private static final int ONCE       = 1;
     private static final int MULTIPLE   = 2;
     
-    private static HashBasedTable<Integer, Integer, Integer> optionOccurenceConstraints = HashBasedTable.create();
+    //allowed occurences of options indexed by message code and option number (replaced as a whole on changes)
+    private static volatile byte[][] optionOccurenceConstraints = new byte[256][];
     static{
         //Requests
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.URI_HOST,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.URI_PORT,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.URI_PATH,           MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.URI_QUERY,          MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.PROXY_URI,          ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.PROXY_SCHEME,       ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.ACCEPT,             MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.ETAG,               MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.OBSERVE,            ONCE);
-
-        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_HOST,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_PORT,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_PATH,           MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_QUERY,          MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.PROXY_URI,          ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.PROXY_SCHEME,       ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.CONTENT_FORMAT,     ONCE);
-
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_HOST,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_PORT,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_PATH,           MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_QUERY,          MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.PROXY_URI,          ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.PROXY_SCHEME,       ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.CONTENT_FORMAT,     ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.IF_MATCH,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.IF_NONE_MATCH,      ONCE);
-
-        optionOccurenceConstraints.put(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_HOST,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_PORT,           ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_PATH,           MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_QUERY,          MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.PROXY_URI,          ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.PROXY_SCHEME,       ONCE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.URI_HOST,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.URI_PORT,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.URI_PATH,           MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.URI_QUERY,          MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.PROXY_URI,          ONCE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.PROXY_SCHEME,       ONCE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.ACCEPT,             MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.ETAG,               MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.OBSERVE,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.BLOCK_2,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.GET.getNumber(),      OptionValue.Name.SIZE_2,             ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_HOST,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_PORT,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_PATH,           MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_QUERY,          MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.PROXY_URI,          ONCE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.PROXY_SCHEME,       ONCE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.BLOCK_1,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.BLOCK_2,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.SIZE_1,             ONCE);
+        putOccurenceConstraint(MessageCode.Name.POST.getNumber(),     OptionValue.Name.SIZE_2,             ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_HOST,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_PORT,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_PATH,           MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_QUERY,          MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.PROXY_URI,          ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.PROXY_SCHEME,       ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.BLOCK_1,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.BLOCK_2,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.SIZE_1,             ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.SIZE_2,             ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.IF_MATCH,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.IF_NONE_MATCH,      ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_HOST,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_PORT,           ONCE);
+        putOccurenceConstraint(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_PATH,           MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_QUERY,          MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.PROXY_URI,          ONCE);
+        putOccurenceConstraint(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.PROXY_SCHEME,       ONCE);
 
         //Response success (2.x)
-        optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.ETAG,               ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.OBSERVE,            ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.LOCATION_PATH,      MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.LOCATION_QUERY,     MULTIPLE);
-        optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
-
-        optionOccurenceConstraints.put(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.OBSERVE,            ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.ETAG,               ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.MAX_AGE,            ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.CONTENT_FORMAT,     ONCE);
-
-        optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.OBSERVE,            ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.MAX_AGE,            ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.ETAG,               ONCE);
+        putOccurenceConstraint(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.ETAG,               ONCE);
+        putOccurenceConstraint(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.OBSERVE,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.LOCATION_PATH,      MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.LOCATION_QUERY,     MULTIPLE);
+        putOccurenceConstraint(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.BLOCK_1,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.BLOCK_2,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.SIZE_2,             ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.OBSERVE,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.ETAG,               ONCE);
+        putOccurenceConstraint(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.MAX_AGE,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.CONTENT_FORMAT,     ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.CHANGED_204.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.CHANGED_204.getNumber(),  OptionValue.Name.BLOCK_1,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CHANGED_204.getNumber(),  OptionValue.Name.BLOCK_2,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CHANGED_204.getNumber(),  OptionValue.Name.SIZE_2,             ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.OBSERVE,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.MAX_AGE,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.ETAG,               ONCE);
+        putOccurenceConstraint(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.BLOCK_1,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.BLOCK_2,            ONCE);
+        putOccurenceConstraint(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.SIZE_2,             ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.CONTINUE_231.getNumber(), OptionValue.Name.BLOCK_1,            ONCE);
 
         //Client errors (4.x)
-        optionOccurenceConstraints.put(MessageCode.Name.BAD_REQUEST_400.getNumber(),                  OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.BAD_REQUEST_400.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.BAD_REQUEST_400.getNumber(),                  OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.BAD_REQUEST_400.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.UNAUTHORIZED_401.getNumber(),                 OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.UNAUTHORIZED_401.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.UNAUTHORIZED_401.getNumber(),                 OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.UNAUTHORIZED_401.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.BAD_OPTION_402.getNumber(),                   OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.BAD_OPTION_402.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.BAD_OPTION_402.getNumber(),                   OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.BAD_OPTION_402.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.FORBIDDEN_403.getNumber(),                    OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.FORBIDDEN_403.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.FORBIDDEN_403.getNumber(),                    OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.FORBIDDEN_403.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.NOT_FOUND_404.getNumber(),                    OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.NOT_FOUND_404.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.NOT_FOUND_404.getNumber(),                    OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.NOT_FOUND_404.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.METHOD_NOT_ALLOWED_405.getNumber(),           OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.METHOD_NOT_ALLOWED_405.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.METHOD_NOT_ALLOWED_405.getNumber(),           OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.METHOD_NOT_ALLOWED_405.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.NOT_ACCEPTABLE_406.getNumber(),               OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.NOT_ACCEPTABLE_406.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.NOT_ACCEPTABLE_406.getNumber(),               OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.NOT_ACCEPTABLE_406.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.PRECONDITION_FAILED_412.getNumber(),          OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.PRECONDITION_FAILED_412.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.REQUEST_ENTITY_INCOMPLETE_408.getNumber(),    OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.REQUEST_ENTITY_INCOMPLETE_408.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),     OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),     OptionValue.Name.SIZE_1,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.PRECONDITION_FAILED_412.getNumber(),          OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.PRECONDITION_FAILED_412.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.UNSUPPORTED_CONTENT_FORMAT_415.getNumber(),   OptionValue.Name.MAX_AGE,    ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.UNSUPPORTED_CONTENT_FORMAT_415.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),     OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),     OptionValue.Name.SIZE_1,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),     OptionValue.Name.BLOCK_1,    ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.UNSUPPORTED_CONTENT_FORMAT_415.getNumber(),   OptionValue.Name.MAX_AGE,    ONCE);
+        putOccurenceConstraint(MessageCode.Name.UNSUPPORTED_CONTENT_FORMAT_415.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
         //Server errors (5.x)
-        optionOccurenceConstraints.put(MessageCode.Name.INTERNAL_SERVER_ERROR_500.getNumber(),    OptionValue.Name.MAX_AGE,   ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.INTERNAL_SERVER_ERROR_500.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        putOccurenceConstraint(MessageCode.Name.INTERNAL_SERVER_ERROR_500.getNumber(),    OptionValue.Name.MAX_AGE,   ONCE);
+        putOccurenceConstraint(MessageCode.Name.INTERNAL_SERVER_ERROR_500.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.NOT_IMPLEMENTED_501.getNumber(),          OptionValue.Name.MAX_AGE,   ONCE);
+        putOccurenceConstraint(MessageCode.Name.NOT_IMPLEMENTED_501.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.BAD_GATEWAY_502.getNumber(),              OptionValue.Name.MAX_AGE,   ONCE);
+        putOccurenceConstraint(MessageCode.Name.BAD_GATEWAY_502.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.GATEWAY_TIMEOUT_504.getNumber(),          OptionValue.Name.MAX_AGE,   ONCE);
+        putOccurenceConstraint(MessageCode.Name.GATEWAY_TIMEOUT_504.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+
+        putOccurenceConstraint(MessageCode.Name.PROXYING_NOT_SUPPORTED_505.getNumber(),   OptionValue.Name.MAX_AGE,   ONCE);
+        putOccurenceConstraint(MessageCode.Name.PROXYING_NOT_SUPPORTED_505.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+    }
+
+
+    private static synchronized void putOccurenceConstraint(int messageCode, int optionNumber, int occurence){
+        byte[][] constraints = optionOccurenceConstraints.clone();
+        byte[] previous = constraints[messageCode];
+
+        byte[] constraintsForCode;
+        if(previous == null)
+            constraintsForCode = new byte[optionNumber + 1];
+        else
+            constraintsForCode = Arrays.copyOf(previous, Math.max(previous.length, optionNumber + 1));
+
+        constraintsForCode[optionNumber] = (byte) occurence;
+        constraints[messageCode] = constraintsForCode;
+
+        optionOccurenceConstraints = constraints;
+    }
 
-        optionOccurenceConstraints.put(MessageCode.Name.NOT_IMPLEMENTED_501.getNumber(),          OptionValue.Name.MAX_AGE,   ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.NOT_IMPLEMENTED_501.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
-        optionOccurenceConstraints.put(MessageCode.Name.BAD_GATEWAY_502.getNumber(),              OptionValue.Name.MAX_AGE,   ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.BAD_GATEWAY_502.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+    private static int getOccurenceConstraint(int messageCode, int optionNumber){
+        if(messageCode < 0 || messageCode > 255)
+            return 0;
 
-        optionOccurenceConstraints.put(MessageCode.Name.GATEWAY_TIMEOUT_504.getNumber(),          OptionValue.Name.MAX_AGE,   ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.GATEWAY_TIMEOUT_504.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        byte[] constraintsForCode = optionOccurenceConstraints[messageCode];
+        if(constraintsForCode == null || optionNumber < 0 || optionNumber >= constraintsForCode.length)
+            return 0;
 
-        optionOccurenceConstraints.put(MessageCode.Name.PROXYING_NOT_SUPPORTED_505.getNumber(),   OptionValue.Name.MAX_AGE,   ONCE);
-        optionOccurenceConstraints.put(MessageCode.Name.PROXYING_NOT_SUPPORTED_505.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        return constraintsForCode[optionNumber];
+    }
+
+
+    /**
+     * Allows options with the given number to be contained in {@link CoapMessage}s with the given message code. This
+     * is required to use options that are not supported by the nCoAP framework out of the box (which must be
+     * registered via {@link OptionValue#registerOption(int, int, int, int)} as well).
+     *
+     * Options are supposed to be allowed during startup, i.e. before any messages are created.
+     *
+     * @param messageCode the message code (see {@link MessageCode.Name})
+     * @param optionNumber the option number
+     * @param repeatable <code>true</code> if the option may occur multiple times in a single message or
+     *                   <code>false</code> if it may occur at most once
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number refers to an unknown option or if the
+     * given message code is out of range
+     */
+    public static void allowOption(int messageCode, int optionNumber, boolean repeatable)
+            throws IllegalArgumentException {
+
+        if(messageCode < 0 || messageCode > 255)
+            throw new IllegalArgumentException("Message code must be between 0 and 255 (was: " + messageCode + ")");
+
+        if(!OptionValue.isKnownOption(optionNumber))
+            throw new IllegalArgumentException("Option no. " + optionNumber + " must be registered first!");
+
+        putOccurenceConstraint(messageCode, optionNumber, repeatable ? MULTIPLE : ONCE);
     }
 
 
@@ -195,7 +279,7 @@ public abstract class CoapMessage {
     private int messageID;
     private Token token;
 
-    protected SetMultimap<Integer, OptionValue> options;
+    private OptionList options;
     private ChannelBuffer content;
 
     /**
@@ -225,9 +309,7 @@ public abstract class CoapMessage {
         this.setMessageID(messageID);
         this.setToken(token);
 
-        this.options = Multimaps.newSetMultimap(new TreeMap<Integer, Collection<OptionValue>>(),
-                LinkedHashSetSupplier.getInstance());
-
+        this.options = new OptionList();
         this.content = ChannelBuffers.EMPTY_BUFFER;
 
         log.debug("Created CoAP message: {}", this);
@@ -328,7 +410,7 @@ public abstract class CoapMessage {
      * @throws java.lang.IllegalArgumentException if the given option number is unknwon, or if the given value is
      * either the default value or exceeds the defined length limits for options with the given option number
      */
-    public void addOption(int optionNumber, OptionValue optionValue) throws IllegalArgumentException {
+    public void addOption(int optionNumber, OptionValue<?> optionValue) throws IllegalArgumentException {
         this.checkOptionPermission(optionNumber);
 
         if(optionNumber == OptionValue.Name.OBSERVE && MessageCode.isRequest(this.getMessageCode())
@@ -338,14 +420,15 @@ public abstract class CoapMessage {
                     optionValue.getValue().length, 6, 0, 0));
         }
 
-        for(int containedOption : options.keySet()){
+        for(int i = 0; i < options.size(); i++){
+            int containedOption = options.getNumber(i);
             if(OptionValue.mutuallyExcludes(containedOption, optionNumber))
                 throw new IllegalArgumentException(String.format(EXCLUDES, containedOption, optionNumber));
         }
 
-        options.put(optionNumber, optionValue);
+        options.add(optionNumber, optionValue);
 
-        log.debug("Added option (number: {}, value: {})", optionNumber, optionValue.toString());
+        log.debug("Added option (number: {}, value: {})", optionNumber, optionValue);
 
     }
 
@@ -433,7 +516,7 @@ public abstract class CoapMessage {
             throw new IllegalArgumentException(String.format(WRONG_OPTION_TYPE, optionNumber, OptionValue.Type.EMPTY));
 
         //Add new option to option list
-        options.put(optionNumber, new EmptyOptionValue(optionNumber));
+        options.add(optionNumber, new EmptyOptionValue(optionNumber));
 
         log.debug("Added empty option (number: {})", optionNumber);
     }
@@ -446,22 +529,20 @@ public abstract class CoapMessage {
      * @return the number of options that were removed, i.e. the count.
      */
     public int removeOptions(int optionNumber){
-        int result = options.removeAll(optionNumber).size();
+        int result = options.removeAll(optionNumber);
         log.debug("Removed {} options with number {}.", result, optionNumber);
         return result;
     }
 
 
     private void checkOptionPermission(int optionNumber) throws IllegalArgumentException {
-        Integer allowedOccurence = optionOccurenceConstraints.get(this.messageCode, optionNumber);
-        if(allowedOccurence == null)
+        int allowedOccurence = getOccurenceConstraint(this.messageCode, optionNumber);
+        if(allowedOccurence == 0)
             throw new IllegalArgumentException(String.format(OPTION_NOT_ALLOWED_WITH_MESSAGE_TYPE,
                     optionNumber, this.getMessageCodeName()));
 
-        if(options.containsKey(optionNumber)){
-            if(optionOccurenceConstraints.get(this.messageCode, optionNumber) == ONCE)
-                throw new IllegalArgumentException(String.format(OPTION_ALREADY_SET, optionNumber));
-        }
+        if(allowedOccurence == ONCE && options.contains(optionNumber))
+            throw new IllegalArgumentException(String.format(OPTION_ALREADY_SET, optionNumber));
     }
 
     /**
@@ -566,8 +647,8 @@ public abstract class CoapMessage {
      * is present in this {@link CoapMessage}.
      */
     public long getContentFormat(){
-        if(options.containsKey(OptionValue.Name.CONTENT_FORMAT))
-            return ((UintOptionValue) options.get(OptionValue.Name.CONTENT_FORMAT).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.CONTENT_FORMAT))
+            return ((UintOptionValue) getOptions(OptionValue.Name.CONTENT_FORMAT).iterator().next()).getDecodedValue();
 
         return ContentFormat.UNDEFINED;
     }
@@ -583,7 +664,7 @@ public abstract class CoapMessage {
      */
     public void setMaxAge(long maxAge)  {
         try{
-            this.options.removeAll(OptionValue.Name.MAX_AGE);
+            removeOptions(OptionValue.Name.MAX_AGE);
             this.addUintOption(OptionValue.Name.MAX_AGE, maxAge);
         }
         catch (IllegalArgumentException e) {
@@ -599,12 +680,132 @@ public abstract class CoapMessage {
      * returns {@link de.uniluebeck.itm.ncoap.message.options.OptionValue#MAX_AGE_DEFAULT}.
      */
     public long getMaxAge(){
-        if(options.containsKey(OptionValue.Name.MAX_AGE))
-            return ((UintOptionValue) options.get(OptionValue.Name.MAX_AGE).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.MAX_AGE))
+            return ((UintOptionValue) getOptions(OptionValue.Name.MAX_AGE).iterator().next()).getDecodedValue();
         else
             return OptionValue.MAX_AGE_DEFAULT;
     }
 
+    /**
+     * Sets the {@link OptionValue.Name#BLOCK_1} option of this {@link CoapMessage}, i.e. the block of the request
+     * content that is contained in this request (or acknowledged by this response). If there was such an option set
+     * prior to the invocation of this method, the previous value is overwritten.
+     *
+     * @param block1 the {@link BlockValue} to be set
+     *
+     * @throws java.lang.IllegalArgumentException if the option is not allowed with the code of this message
+     */
+    public void setBlock1(BlockValue block1) throws IllegalArgumentException {
+        removeOptions(OptionValue.Name.BLOCK_1);
+        this.addUintOption(OptionValue.Name.BLOCK_1, block1.encode());
+    }
+
+    /**
+     * Returns the {@link BlockValue} of the {@link OptionValue.Name#BLOCK_1} option of this {@link CoapMessage} or
+     * <code>null</code> if there is no such option.
+     *
+     * @return the {@link BlockValue} of the {@link OptionValue.Name#BLOCK_1} option of this {@link CoapMessage} or
+     * <code>null</code> if there is no such option.
+     */
+    public BlockValue getBlock1(){
+        return getBlockValue(OptionValue.Name.BLOCK_1);
+    }
+
+    /**
+     * Sets the {@link OptionValue.Name#BLOCK_2} option of this {@link CoapMessage}, i.e. the block of the response
+     * content that is requested by this request (or contained in this response). If there was such an option set
+     * prior to the invocation of this method, the previous value is overwritten.
+     *
+     * @param block2 the {@link BlockValue} to be set
+     *
+     * @throws java.lang.IllegalArgumentException if the option is not allowed with the code of this message
+     */
+    public void setBlock2(BlockValue block2) throws IllegalArgumentException {
+        removeOptions(OptionValue.Name.BLOCK_2);
+        this.addUintOption(OptionValue.Name.BLOCK_2, block2.encode());
+    }
+
+    /**
+     * Returns the {@link BlockValue} of the {@link OptionValue.Name#BLOCK_2} option of this {@link CoapMessage} or
+     * <code>null</code> if there is no such option.
+     *
+     * @return the {@link BlockValue} of the {@link OptionValue.Name#BLOCK_2} option of this {@link CoapMessage} or
+     * <code>null</code> if there is no such option.
+     */
+    public BlockValue getBlock2(){
+        return getBlockValue(OptionValue.Name.BLOCK_2);
+    }
+
+
+    private BlockValue getBlockValue(int optionNumber){
+        if(!containsOption(optionNumber))
+            return null;
+
+        try{
+            return BlockValue.decode(((UintOptionValue) getOption(optionNumber, 0)).getDecodedValue());
+        }
+        catch(IllegalArgumentException e){
+            log.warn("Ignore invalid block option (number: {}): {}", optionNumber, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Sets the {@link OptionValue.Name#SIZE_1} option of this {@link CoapMessage}, i.e. the size of the complete
+     * request content (or the maximum acceptable size if this is a response). If there was such an option set prior
+     * to the invocation of this method, the previous value is overwritten.
+     *
+     * @param size1 the size in bytes
+     *
+     * @throws java.lang.IllegalArgumentException if the option is not allowed with the code of this message
+     */
+    public void setSize1(long size1) throws IllegalArgumentException {
+        removeOptions(OptionValue.Name.SIZE_1);
+        this.addUintOption(OptionValue.Name.SIZE_1, size1);
+    }
+
+    /**
+     * Returns the value of the {@link OptionValue.Name#SIZE_1} option of this {@link CoapMessage} or
+     * {@link UintOptionValue#UNDEFINED} if there is no such option.
+     *
+     * @return the value of the {@link OptionValue.Name#SIZE_1} option of this {@link CoapMessage} or
+     * {@link UintOptionValue#UNDEFINED} if there is no such option.
+     */
+    public long getSize1(){
+        if(containsOption(OptionValue.Name.SIZE_1))
+            return ((UintOptionValue) getOption(OptionValue.Name.SIZE_1, 0)).getDecodedValue();
+        else
+            return UintOptionValue.UNDEFINED;
+    }
+
+    /**
+     * Sets the {@link OptionValue.Name#SIZE_2} option of this {@link CoapMessage}, i.e. the size of the complete
+     * response content (or <code>0</code> if this is a request asking for that size). If there was such an option
+     * set prior to the invocation of this method, the previous value is overwritten.
+     *
+     * @param size2 the size in bytes
+     *
+     * @throws java.lang.IllegalArgumentException if the option is not allowed with the code of this message
+     */
+    public void setSize2(long size2) throws IllegalArgumentException {
+        removeOptions(OptionValue.Name.SIZE_2);
+        this.addUintOption(OptionValue.Name.SIZE_2, size2);
+    }
+
+    /**
+     * Returns the value of the {@link OptionValue.Name#SIZE_2} option of this {@link CoapMessage} or
+     * {@link UintOptionValue#UNDEFINED} if there is no such option.
+     *
+     * @return the value of the {@link OptionValue.Name#SIZE_2} option of this {@link CoapMessage} or
+     * {@link UintOptionValue#UNDEFINED} if there is no such option.
+     */
+    public long getSize2(){
+        if(containsOption(OptionValue.Name.SIZE_2))
+            return ((UintOptionValue) getOption(OptionValue.Name.SIZE_2, 0)).getDecodedValue();
+        else
+            return UintOptionValue.UNDEFINED;
+    }
+
     /**
      * Adds the content to the message. If this {@link CoapMessage} contained any content prior to the invocation of
      * method, the previous content is removed.
@@ -689,13 +890,182 @@ public abstract class CoapMessage {
 
 
     /**
-     * Returns a {@link Multimap} with the option numbers as keys and {@link de.uniluebeck.itm.ncoap.message.options.OptionValue}s as values.
-     * The returned multimap does not contain options with default values.
+     * Returns a {@link SetMultimap} with the option numbers as keys and {@link OptionValue}s as values. The returned
+     * multimap does not contain options with default values. It is an unmodifiable snapshot that is created on every
+     * invocation, i.e. use {@link #addOption(int, OptionValue)} and {@link #removeOptions(int)} to change the
+     * options of this {@link CoapMessage} and the indexed access (see {@link #getOptionCount()}) to avoid the
+     * creation of the snapshot.
      *
-     * @return a {@link Multimap} with the option numbers as keys and {@link de.uniluebeck.itm.ncoap.message.options.OptionValue}s as values.
+     * @return a {@link SetMultimap} with the option numbers as keys and {@link OptionValue}s as values.
      */
     public SetMultimap<Integer, OptionValue> getAllOptions(){
-        return this.options;
+        ImmutableSetMultimap.Builder<Integer, OptionValue> result = ImmutableSetMultimap.builder();
+        for(int i = 0; i < options.size(); i++)
+            result.put(options.getNumber(i), options.getValue(i));
+
+        return result.build();
+    }
+
+
+    /**
+     * Returns the number of options contained in this {@link CoapMessage}
+     *
+     * @return the number of options contained in this {@link CoapMessage}
+     */
+    public int getOptionCount(){
+        return options.size();
+    }
+
+
+    /**
+     * Returns the number of the option at the given position. The options are sorted by their numbers (and options
+     * with the same number are in the order they were added in).
+     *
+     * @param index the position of the option (between <code>0</code> and {@link #getOptionCount()} (exclusive))
+     *
+     * @return the number of the option at the given position
+     */
+    public int getOptionNumber(int index){
+        checkOptionIndex(index);
+        return options.getNumber(index);
+    }
+
+
+    /**
+     * Returns the {@link OptionValue} of the option at the given position. The options are sorted by their numbers
+     * (and options with the same number are in the order they were added in).
+     *
+     * @param index the position of the option (between <code>0</code> and {@link #getOptionCount()} (exclusive))
+     *
+     * @return the {@link OptionValue} of the option at the given position
+     */
+    public OptionValue getOptionValue(int index){
+        checkOptionIndex(index);
+        return options.getValue(index);
+    }
+
+
+    private void checkOptionIndex(int index){
+        if(index < 0 || index >= options.size())
+            throw new IndexOutOfBoundsException("Index " + index + " (number of options: " + options.size() + ")");
+    }
+
+
+    /**
+     * Returns <code>true</code> if this {@link CoapMessage} contains at least one option with the given number
+     *
+     * @param optionNumber the option number
+     *
+     * @return <code>true</code> if this {@link CoapMessage} contains at least one option with the given number,
+     * <code>false</code> otherwise
+     */
+    public boolean containsOption(int optionNumber){
+        return options.contains(optionNumber);
+    }
+
+
+    /**
+     * Adds an option to this {@link CoapMessage} without decoding its value, i.e. only the position of the encoded
+     * value within the given {@link ChannelBuffer} is recorded. The {@link OptionValue} instances are created when
+     * the options of this message are accessed for the first time. This method is intended for framework internal
+     * use, i.e. by the {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder}. The bytes of the given
+     * buffer must not be modified afterwards.
+     *
+     * The same checks as for {@link #addOption(int, OptionValue)} are applied, i.e. this method fails for the same
+     * options.
+     *
+     * @param optionNumber the number representing the option type
+     * @param buffer the {@link ChannelBuffer} that contains the encoded option value
+     * @param index the position of the first byte of the encoded value within the given buffer
+     * @param length the length of the encoded value in bytes
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number is unknwon, or if the encoded value is
+     * either the default value or exceeds the defined length limits for options with the given option number
+     */
+    public void addEncodedOption(int optionNumber, ChannelBuffer buffer, int index, int length)
+            throws IllegalArgumentException {
+
+        int optionType = OptionValue.getOptionType(optionNumber);
+
+        //Options of another buffer are already contained
+        if(options.getBuffer() != null && options.getBuffer() != buffer){
+            byte[] value = new byte[length];
+            buffer.getBytes(index, value);
+            addOption(optionNumber, OptionList.createOptionValue(optionNumber, optionType, value));
+            return;
+        }
+
+        //Apply the same normalizations and checks as the constructors of the option value classes
+        if(optionType == OptionValue.Type.EMPTY){
+            length = 0;
+        }
+
+        else if(optionType == OptionValue.Type.UINT){
+            while(length > 1 && buffer.getByte(index) == 0){
+                index++;
+                length--;
+            }
+        }
+
+        if(OptionValue.isDefaultValue(optionNumber, buffer, index, length))
+            throw new IllegalArgumentException(String.format(VALUE_IS_DEFAULT_VALUE, optionNumber));
+
+        if(OptionValue.getMinLength(optionNumber) > length || OptionValue.getMaxLength(optionNumber) < length)
+            throw new IllegalArgumentException(String.format(OUT_OF_ALLOWED_RANGE, length, optionNumber,
+                    OptionValue.getMinLength(optionNumber), OptionValue.getMaxLength(optionNumber)));
+
+        //Apply the same checks as addOption(int, OptionValue)
+        int allowedOccurence = getOccurenceConstraint(this.messageCode, optionNumber);
+        if(allowedOccurence == 0)
+            throw new IllegalArgumentException(String.format(OPTION_NOT_ALLOWED_WITH_MESSAGE_TYPE,
+                    optionNumber, this.getMessageCodeName()));
+
+        if(optionNumber == OptionValue.Name.OBSERVE && MessageCode.isRequest(this.getMessageCode()) && length > 0)
+            throw new IllegalArgumentException(String.format(OUT_OF_ALLOWED_RANGE, length, 6, 0, 0));
+
+        for(int i = 0; i < options.size(); i++){
+            int containedOption = options.getNumber(i);
+
+            if(containedOption == optionNumber && allowedOccurence == ONCE)
+                throw new IllegalArgumentException(String.format(OPTION_ALREADY_SET, optionNumber));
+
+            if(OptionValue.mutuallyExcludes(containedOption, optionNumber))
+                throw new IllegalArgumentException(String.format(EXCLUDES, containedOption, optionNumber));
+        }
+
+        options.addSlice(optionNumber, buffer, index, length);
+    }
+
+
+    /**
+     * Returns the number of options with the given option number that are explicitly set in this {@link CoapMessage}.
+     *
+     * @param optionNumber the option number
+     *
+     * @return the number of options with the given option number
+     */
+    public int getOptionCount(int optionNumber){
+        return Math.max(0, options.getEndIndex(optionNumber) - options.getFirstIndex(optionNumber));
+    }
+
+
+    /**
+     * Returns the option with the given option number at the given position (in the order of the options in the
+     * encoded message), i.e. unlike {@link #getOptions(int)} this method does not create a new collection.
+     *
+     * @param optionNumber the option number
+     * @param index the position among the options with the given option number (between 0 and
+     *              {@link #getOptionCount(int)} - 1)
+     *
+     * @return the option with the given option number at the given position
+     *
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public OptionValue getOption(int optionNumber, int index){
+        if(index < 0 || index >= getOptionCount(optionNumber))
+            throw new IndexOutOfBoundsException("No option " + optionNumber + " at index " + index);
+
+        return options.getValue(options.getFirstIndex(optionNumber) + index);
     }
 
 
@@ -709,7 +1079,20 @@ public abstract class CoapMessage {
      * @return a {@link Set< de.uniluebeck.itm.ncoap.message.options.OptionValue >} containing the options that are explicitly set in this {@link CoapMessage}.
      */
     public Set<OptionValue> getOptions(int optionNumber){
-        return this.options.get(optionNumber);
+        int first = options.getFirstIndex(optionNumber);
+        int end = options.getEndIndex(optionNumber);
+
+        if(first >= end)
+            return ImmutableSet.of();
+
+        if(end - first == 1)
+            return ImmutableSet.<OptionValue>of(options.getValue(first));
+
+        ImmutableSet.Builder<OptionValue> result = ImmutableSet.builder();
+        for(int i = first; i < end; i++)
+            result.add(options.getValue(i));
+
+        return result.build();
     }
 
 
@@ -754,31 +1137,18 @@ public abstract class CoapMessage {
             return false;
 
 
-        //Iterators iterate over the contained options
-        Iterator<Map.Entry<Integer, OptionValue>> iterator1 = this.getAllOptions().entries().iterator();
-        Iterator<Map.Entry<Integer, OptionValue>> iterator2 = other.getAllOptions().entries().iterator();
-
         //Check if both CoAP Messages contain the same options in the same order
-        while(iterator1.hasNext()){
-
-            //Check if iterator2 has no more options while iterator1 has at least one more
-            if(!iterator2.hasNext())
-                return false;
-
-            Map.Entry<Integer, OptionValue> entry1 = iterator1.next();
-            Map.Entry<Integer, OptionValue> entry2 = iterator2.next();
+        if(this.options.size() != other.options.size())
+            return false;
 
-            if(!entry1.getKey().equals(entry2.getKey()))
+        for(int i = 0; i < this.options.size(); i++){
+            if(this.options.getNumber(i) != other.options.getNumber(i))
                 return false;
 
-            if(!entry1.getValue().equals(entry2.getValue()))
+            if(!this.options.getValue(i).equals(other.options.getValue(i)))
                 return false;
         }
 
-        //Check if iterator2 has at least one more option while iterator1 has no more
-        if(iterator2.hasNext())
-            return false;
-
         //Check content
         return this.getContent().equals(other.getContent());
     }
@@ -791,18 +1161,18 @@ public abstract class CoapMessage {
 
         //Header + Token
         result.append("[Header: (V) " + getProtocolVersion() + ", (T) " + getMessageTypeName() + ", (TKL) "
-            + token.getBytes().length + ", (C) " + getMessageCodeName() + ", (ID) " + getMessageID() + " | (Token) "
+            + token.getLength() + ", (C) " + getMessageCodeName() + ", (ID) " + getMessageID() + " | (Token) "
             + token + " | ");
 
         //Options
         result.append("Options:");
-        for(int optionNumber : getAllOptions().keySet()){
-            result.append(" (No. " + optionNumber + ") ");
-            Iterator<OptionValue> iterator = this.getOptions(optionNumber).iterator();
-            OptionValue optionValue = iterator.next();
-            result.append(optionValue.toString());
-            while(iterator.hasNext())
-                result.append(" / " + iterator.next().toString());
+        for(int i = 0; i < options.size(); i++){
+            if(i > 0 && options.getNumber(i) == options.getNumber(i - 1))
+                result.append(" / ");
+            else
+                result.append(" (No. " + options.getNumber(i) + ") ");
+
+            result.append(options.getValue(i).toString());
         }
         result.append(" | ");
 
@@ -825,26 +1195,4 @@ public abstract class CoapMessage {
 
         this.messageCode = messageCode;
     }
-
-
-    /**
-     * This is the supplier to provide the {@link LinkedHashSet} to contain the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue} instances. There
-     * is one {@link LinkedHashSet} provided per option number. The order prevention of the values contained
-     * in such a set is necessary to keep the order of multiple values for one option (e.g. URI path).
-     */
-    private final static class LinkedHashSetSupplier implements Supplier<LinkedHashSet<OptionValue>> {
-
-        public static LinkedHashSetSupplier instance = new LinkedHashSetSupplier();
-
-        private LinkedHashSetSupplier(){}
-
-        public static LinkedHashSetSupplier getInstance(){
-            return instance;
-        }
-
-        @Override
-        public LinkedHashSet<OptionValue> get() {
-            return new LinkedHashSet<>();
-        }
-    }
 }
@@ -251,7 +251,7 @@ public class CoapRequest extends CoapMessage {
      */
     public Set<byte[]> getIfMatch(){
 
-        Set<OptionValue> ifMatchOptionValues = options.get(OptionValue.Name.IF_MATCH);
+        Set<OptionValue> ifMatchOptionValues = getOptions(OptionValue.Name.IF_MATCH);
         Set<byte[]> result = new HashSet<>(ifMatchOptionValues.size());
 
        for (OptionValue ifMatchOptionValue : ifMatchOptionValues)
@@ -269,8 +269,8 @@ public class CoapRequest extends CoapMessage {
      */
     public String getUriHost(){
 
-        if(options.containsKey(OptionValue.Name.URI_HOST))
-            return ((StringOptionValue) options.get(OptionValue.Name.URI_HOST).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.URI_HOST))
+            return ((StringOptionValue) getOptions(OptionValue.Name.URI_HOST).iterator().next()).getDecodedValue();
 
         return null;
     }
@@ -310,7 +310,7 @@ public class CoapRequest extends CoapMessage {
     public Set<byte[]> getEtags(){
         Set<byte[]> result = new HashSet<>();
 
-        for (OptionValue optionValue : options.get(OptionValue.Name.ETAG))
+        for (OptionValue optionValue : getOptions(OptionValue.Name.ETAG))
             result.add(((OpaqueOptionValue) optionValue).getDecodedValue());
 
         return result;
@@ -324,7 +324,7 @@ public class CoapRequest extends CoapMessage {
      * @return <code>true</code> if the option is set after method returned or <code>false</code> otherwise.
      */
     public boolean setIfNonMatch() {
-        if(options.containsKey(OptionValue.Name.IF_NONE_MATCH))
+        if(containsOption(OptionValue.Name.IF_NONE_MATCH))
             return true;
 
         try{
@@ -344,7 +344,7 @@ public class CoapRequest extends CoapMessage {
      * no such option present in this {@link CoapRequest}.
      */
     public boolean isIfNonMatchSet(){
-        return options.containsKey(OptionValue.Name.IF_NONE_MATCH);
+        return containsOption(OptionValue.Name.IF_NONE_MATCH);
     }
 
     /**
@@ -356,7 +356,7 @@ public class CoapRequest extends CoapMessage {
      * @return <code>true</code> if the option is set after method returned or <code>false</code> otherwise.
      */
     public boolean setObserve(){
-        if(options.containsKey(OptionValue.Name.OBSERVE))
+        if(containsOption(OptionValue.Name.OBSERVE))
             return true;
 
         try{
@@ -376,7 +376,7 @@ public class CoapRequest extends CoapMessage {
      * no such option present in this {@link CoapRequest}.
      */
     public boolean isObserveSet(){
-        return options.containsKey(OptionValue.Name.OBSERVE);
+        return containsOption(OptionValue.Name.OBSERVE);
     }
 
     /**
@@ -387,8 +387,8 @@ public class CoapRequest extends CoapMessage {
      * present in this {@link CoapRequest}.
      */
     public long getUriPort(){
-        if(options.containsKey(OptionValue.Name.URI_PORT))
-            return ((UintOptionValue) options.get(OptionValue.Name.URI_PORT).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.URI_PORT))
+            return ((UintOptionValue) getOptions(OptionValue.Name.URI_PORT).iterator().next()).getDecodedValue();
 
         return OptionValue.URI_PORT_DEFAULT;
     }
@@ -402,16 +402,30 @@ public class CoapRequest extends CoapMessage {
      * {@link CoapRequest}.
      */
     public String getUriPath(){
-        String result = "/";
+        int segments = getOptionCount(OptionValue.Name.URI_PATH);
+        if(segments == 0)
+            return "/";
 
-        Iterator<OptionValue> iterator = options.get(OptionValue.Name.URI_PATH).iterator();
-        if(iterator.hasNext())
-            result += ((StringOptionValue) iterator.next()).getDecodedValue();
+        StringBuilder result = new StringBuilder();
+        for(int i = 0; i < segments; i++)
+            result.append("/").append(getUriPathSegment(i));
 
-        while(iterator.hasNext())
-            result += ("/" + ((StringOptionValue) iterator.next()).getDecodedValue());
+        return result.toString();
+    }
 
-        return result;
+
+    /**
+     * Returns the decoded value of the URI path option at the given position, i.e. the segment of the request
+     * URI path with the given index (without any slash).
+     *
+     * @param index the index of the path segment (between 0 and the number of URI path options - 1)
+     *
+     * @return the decoded value of the URI path option at the given position
+     *
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public String getUriPathSegment(int index){
+        return ((StringOptionValue) getOption(OptionValue.Name.URI_PATH, index)).getDecodedValue();
     }
 
     /**
@@ -424,9 +438,9 @@ public class CoapRequest extends CoapMessage {
     public String getUriQuery(){
         String result = "";
 
-        if(options.containsKey(OptionValue.Name.URI_QUERY)){
+        if(containsOption(OptionValue.Name.URI_QUERY)){
 
-            Iterator<OptionValue> iterator = options.get(OptionValue.Name.URI_QUERY).iterator();
+            Iterator<OptionValue> iterator = getOptions(OptionValue.Name.URI_QUERY).iterator();
             result += (((StringOptionValue) iterator.next()).getDecodedValue());
 
             while(iterator.hasNext())
@@ -453,7 +467,7 @@ public class CoapRequest extends CoapMessage {
         if(!parameter.endsWith("="))
             parameter += "=";
 
-        for(OptionValue optionValue : options.get(OptionValue.Name.URI_QUERY)){
+        for(OptionValue optionValue : getOptions(OptionValue.Name.URI_QUERY)){
             String value = ((StringOptionValue) optionValue).getDecodedValue();
 
             if(value.startsWith(parameter))
@@ -475,13 +489,13 @@ public class CoapRequest extends CoapMessage {
      * format
      */
     public void setAccept(long... contentFormatNumbers) throws IllegalArgumentException {
-        options.removeAll(OptionValue.Name.ACCEPT);
+        removeOptions(OptionValue.Name.ACCEPT);
         try{
             for(long contentFormatNumber : contentFormatNumbers)
                 this.addUintOption(OptionValue.Name.ACCEPT, contentFormatNumber);
         }
         catch (IllegalArgumentException e) {
-            options.removeAll(OptionValue.Name.ACCEPT);
+            removeOptions(OptionValue.Name.ACCEPT);
             throw e;
         }
     }
@@ -497,7 +511,7 @@ public class CoapRequest extends CoapMessage {
     public Set<Long> getAcceptedContentFormats(){
         Set<Long> result = new HashSet<>();
 
-        for(OptionValue optionValue : options.get(OptionValue.Name.ACCEPT))
+        for(OptionValue optionValue : getOptions(OptionValue.Name.ACCEPT))
             result.add(((UintOptionValue) optionValue).getDecodedValue());
 
         return result;
@@ -519,13 +533,13 @@ public class CoapRequest extends CoapMessage {
      * URI host, URI port, URI path, and URI query options is invalid.
      */
     public URI getProxyURI() throws URISyntaxException {
-        if(options.containsKey(OptionValue.Name.PROXY_URI))
-            return new URI(((StringOptionValue) options.get(OptionValue.Name.PROXY_URI).iterator().next()).getDecodedValue());
+        if(containsOption(OptionValue.Name.PROXY_URI))
+            return new URI(((StringOptionValue) getOptions(OptionValue.Name.PROXY_URI).iterator().next()).getDecodedValue());
 
-        if(options.get(OptionValue.Name.PROXY_SCHEME).size() == 1){
-            String scheme = ((StringOptionValue) options.get(OptionValue.Name.PROXY_SCHEME).iterator().next()).getDecodedValue();
+        if(getOptions(OptionValue.Name.PROXY_SCHEME).size() == 1){
+            String scheme = ((StringOptionValue) getOptions(OptionValue.Name.PROXY_SCHEME).iterator().next()).getDecodedValue();
             String uriHost = getUriHost();
-            int uriPort = ((UintOptionValue) options.get(OptionValue.Name.URI_PORT).iterator().next()).getDecodedValue().intValue();
+            int uriPort = ((UintOptionValue) getOptions(OptionValue.Name.URI_PORT).iterator().next()).getDecodedValue().intValue();
             String uriPath = getUriPath();
             String uriQuery = getUriQuery();
 
@@ -544,7 +558,7 @@ public class CoapRequest extends CoapMessage {
      * otherwise.
      */
     public boolean isObservationRequest(){
-        return(!options.get(OptionValue.Name.OBSERVE).isEmpty());
+        return(!getOptions(OptionValue.Name.OBSERVE).isEmpty());
     }
 
 
@@ -145,8 +145,8 @@ public class CoapResponse extends CoapMessage {
      * @return the byte array representing the ETAG of the content returned by {@link #getContent()}
      */
     public byte[] getEtag(){
-        if(options.containsKey(OptionValue.Name.ETAG))
-            return ((OpaqueOptionValue) options.get(OptionValue.Name.ETAG).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.ETAG))
+            return ((OpaqueOptionValue) getOptions(OptionValue.Name.ETAG).iterator().next()).getDecodedValue();
         else
             return null;
     }
@@ -180,10 +180,10 @@ public class CoapResponse extends CoapMessage {
      * {@link CoapResponse} or <code>null</code> if there is no such option.
      */
     public Long getObservationSequenceNumber(){
-        if(!options.containsKey(OptionValue.Name.OBSERVE))
+        if(!containsOption(OptionValue.Name.OBSERVE))
             return null;
         else
-            return (Long) options.get(OptionValue.Name.OBSERVE).iterator().next().getDecodedValue();
+            return (Long) getOptions(OptionValue.Name.OBSERVE).iterator().next().getDecodedValue();
     }
 
 
@@ -211,8 +211,8 @@ public class CoapResponse extends CoapMessage {
      */
     public void setLocationURI(URI locationURI) throws InvalidOptionException {
 
-        options.removeAll(OptionValue.Name.LOCATION_PATH);
-        options.removeAll(OptionValue.Name.LOCATION_QUERY);
+        removeOptions(OptionValue.Name.LOCATION_PATH);
+        removeOptions(OptionValue.Name.LOCATION_QUERY);
 
         String locationPath = locationURI.getRawPath();
         String locationQuery = locationURI.getRawQuery();
@@ -233,8 +233,8 @@ public class CoapResponse extends CoapMessage {
             }
         }
         catch(IllegalArgumentException e){
-            options.removeAll(OptionValue.Name.LOCATION_PATH);
-            options.removeAll(OptionValue.Name.LOCATION_QUERY);
+            removeOptions(OptionValue.Name.LOCATION_PATH);
+            removeOptions(OptionValue.Name.LOCATION_QUERY);
             throw e;
         }
     }
@@ -252,16 +252,16 @@ public class CoapResponse extends CoapMessage {
         //Reconstruct path
         StringBuilder locationPath = new StringBuilder();
 
-        if(options.containsKey(OptionValue.Name.LOCATION_PATH)){
-            for (OptionValue optionValue : options.get(OptionValue.Name.LOCATION_PATH))
+        if(containsOption(OptionValue.Name.LOCATION_PATH)){
+            for (OptionValue optionValue : getOptions(OptionValue.Name.LOCATION_PATH))
                 locationPath.append("/").append(((StringOptionValue) optionValue).getDecodedValue());
         }
 
        //Reconstruct query
         StringBuilder locationQuery = new StringBuilder();
 
-        if(options.containsKey(OptionValue.Name.LOCATION_QUERY)){
-            Iterator<OptionValue> queryComponentIterator = options.get(OptionValue.Name.LOCATION_QUERY).iterator();
+        if(containsOption(OptionValue.Name.LOCATION_QUERY)){
+            Iterator<OptionValue> queryComponentIterator = getOptions(OptionValue.Name.LOCATION_QUERY).iterator();
             locationQuery.append(((StringOptionValue) queryComponentIterator.next()).getDecodedValue());
             while(queryComponentIterator.hasNext())
                 locationQuery.append("&")
@@ -72,6 +72,7 @@ public abstract class MessageCode {
          VALID_203(67),
          CHANGED_204(68),
          CONTENT_205(69),
+         CONTINUE_231(95),
          BAD_REQUEST_400(128),
          UNAUTHORIZED_401(129),
          BAD_OPTION_402(130),
@@ -79,6 +80,7 @@ public abstract class MessageCode {
          NOT_FOUND_404(132),
          METHOD_NOT_ALLOWED_405(133),
          NOT_ACCEPTABLE_406(134),
+         REQUEST_ENTITY_INCOMPLETE_408(136),
          PRECONDITION_FAILED_412(140),
          REQUEST_ENTITY_TOO_LARGE_413(141),
          UNSUPPORTED_CONTENT_FORMAT_415(143),
@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.message;
+
+import de.uniluebeck.itm.ncoap.message.options.*;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.Arrays;
+
+/**
+ * The options of a {@link CoapMessage} as a compact list sorted by option number. Options with the same number keep
+ * the order they were added in. The option numbers are stored as primitive (unsigned) <code>short</code>s and the
+ * values either as {@link OptionValue} instances or, for options added by the decoder, as slices (position and
+ * length) of the buffer that contains the encoded message. Such slices are turned into {@link OptionValue} instances
+ * when they are accessed for the first time.
+ *
+ * The list does not contain two options with the same number and the same value. It does not do any further
+ * checks.
+ */
+final class OptionList {
+
+    private static final String UNKNOWN_OPTION_TYPE = "Unknown option type no. %d";
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private short[] numbers;
+    private OptionValue<?>[] values;
+
+    //position and length (within the buffer) of values that are not yet decoded
+    private int[] slices;
+    private ChannelBuffer buffer;
+
+    private int size;
+
+
+    /**
+     * Returns the number of options in this list
+     */
+    int size(){
+        return size;
+    }
+
+
+    /**
+     * Returns the number of the option at the given position
+     */
+    int getNumber(int index){
+        return numbers[index] & 0xFFFF;
+    }
+
+
+    /**
+     * Returns the {@link OptionValue} of the option at the given position
+     */
+    OptionValue<?> getValue(int index){
+        if(values[index] == null){
+            byte[] value = new byte[slices[2 * index + 1]];
+            buffer.getBytes(slices[2 * index], value);
+
+            int optionNumber = getNumber(index);
+            values[index] = createOptionValue(optionNumber, OptionValue.getOptionType(optionNumber), value);
+        }
+
+        return values[index];
+    }
+
+
+    /**
+     * Returns the position of the first option with the given number or the position where such an option would be
+     * inserted if there is none
+     */
+    int getFirstIndex(int optionNumber){
+        int index = 0;
+        while(index < size && getNumber(index) < optionNumber)
+            index++;
+
+        return index;
+    }
+
+
+    /**
+     * Returns the position after the last option with the given number
+     */
+    int getEndIndex(int optionNumber){
+        int index = size;
+        while(index > 0 && getNumber(index - 1) > optionNumber)
+            index--;
+
+        return index;
+    }
+
+
+    /**
+     * Returns <code>true</code> if this list contains at least one option with the given number
+     */
+    boolean contains(int optionNumber){
+        int index = getFirstIndex(optionNumber);
+        return index < size && getNumber(index) == optionNumber;
+    }
+
+
+    /**
+     * Returns the buffer the not yet decoded values are slices of or <code>null</code> if there are no such values
+     */
+    ChannelBuffer getBuffer(){
+        return buffer;
+    }
+
+
+    /**
+     * Adds the given option unless there is already an option with the same number and value
+     *
+     * @return <code>true</code> if the option was added, <code>false</code> otherwise
+     */
+    boolean add(int optionNumber, OptionValue<?> optionValue){
+        byte[] value = optionValue.getValue();
+
+        for(int i = getFirstIndex(optionNumber); i < size && getNumber(i) == optionNumber; i++){
+            if(Arrays.equals(getValue(i).getValue(), value))
+                return false;
+        }
+
+        int index = insert(optionNumber);
+        values[index] = optionValue;
+        return true;
+    }
+
+
+    /**
+     * Adds the option with the given number and the value that is the given slice of the given buffer (without
+     * decoding the value) unless there is already an option with the same number and value. All slices of a list
+     * must refer to the same buffer.
+     *
+     * @return <code>true</code> if the option was added, <code>false</code> otherwise
+     */
+    boolean addSlice(int optionNumber, ChannelBuffer buffer, int position, int length){
+        if(this.buffer != null && this.buffer != buffer)
+            throw new IllegalArgumentException("All slices must refer to the same buffer!");
+
+        for(int i = getFirstIndex(optionNumber); i < size && getNumber(i) == optionNumber; i++){
+            if(sliceEquals(i, buffer, position, length))
+                return false;
+        }
+
+        int index = insert(optionNumber);
+        if(slices == null)
+            slices = new int[2 * numbers.length];
+
+        slices[2 * index] = position;
+        slices[2 * index + 1] = length;
+        this.buffer = buffer;
+        return true;
+    }
+
+
+    /**
+     * Removes all options with the given number
+     *
+     * @return the number of removed options
+     */
+    int removeAll(int optionNumber){
+        int first = getFirstIndex(optionNumber);
+        int end = getEndIndex(optionNumber);
+
+        if(first >= end)
+            return 0;
+
+        int removed = end - first;
+        System.arraycopy(numbers, end, numbers, first, size - end);
+        System.arraycopy(values, end, values, first, size - end);
+        if(slices != null)
+            System.arraycopy(slices, 2 * end, slices, 2 * first, 2 * (size - end));
+
+        size -= removed;
+        Arrays.fill(values, size, size + removed, null);
+        return removed;
+    }
+
+
+    private int insert(int optionNumber){
+        if(numbers == null){
+            numbers = new short[INITIAL_CAPACITY];
+            values = new OptionValue<?>[INITIAL_CAPACITY];
+        }
+
+        else if(size == numbers.length){
+            numbers = Arrays.copyOf(numbers, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+            if(slices != null)
+                slices = Arrays.copyOf(slices, 4 * size);
+        }
+
+        int index = getEndIndex(optionNumber);
+
+        if(index < size){
+            System.arraycopy(numbers, index, numbers, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            if(slices != null)
+                System.arraycopy(slices, 2 * index, slices, 2 * (index + 1), 2 * (size - index));
+        }
+
+        numbers[index] = (short) optionNumber;
+        values[index] = null;
+        size++;
+        return index;
+    }
+
+
+    private boolean sliceEquals(int index, ChannelBuffer buffer, int position, int length){
+        if(values[index] != null){
+            byte[] value = values[index].getValue();
+            if(value.length != length)
+                return false;
+
+            for(int i = 0; i < length; i++){
+                if(value[i] != buffer.getByte(position + i))
+                    return false;
+            }
+
+            return true;
+        }
+
+        if(slices[2 * index + 1] != length)
+            return false;
+
+        for(int i = 0; i < length; i++){
+            if(this.buffer.getByte(slices[2 * index] + i) != buffer.getByte(position + i))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Creates the {@link OptionValue} instance of the appropriate type for the given option number and value
+     */
+    static OptionValue<?> createOptionValue(int optionNumber, int optionType, byte[] value)
+            throws IllegalArgumentException {
+
+        switch(optionType){
+            case OptionValue.Type.EMPTY:
+                return new EmptyOptionValue(optionNumber);
+
+            case OptionValue.Type.OPAQUE:
+                return new OpaqueOptionValue(optionNumber, value);
+
+            case OptionValue.Type.STRING:
+                return new StringOptionValue(optionNumber, value);
+
+            case OptionValue.Type.UINT:
+                return new UintOptionValue(optionNumber, value);
+
+            default:
+                throw new IllegalArgumentException(String.format(UNKNOWN_OPTION_TYPE, optionType));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.message.options;
+
+/**
+ * Immutable representation of the value of a {@link OptionValue.Name#BLOCK_1} or {@link OptionValue.Name#BLOCK_2}
+ * option, i.e. the block number, the flag indicating whether more blocks follow and the size exponent (SZX). The
+ * block size is <code>2^(SZX + 4)</code>, i.e. between <code>16</code> and <code>1024</code> bytes.
+ */
+public class BlockValue {
+
+    /**
+     * Corresponds to <code>16</code>, i.e. the smallest block size
+     */
+    public static final int MIN_BLOCK_SIZE = 16;
+
+    /**
+     * Corresponds to <code>1024</code>, i.e. the largest block size
+     */
+    public static final int MAX_BLOCK_SIZE = 1024;
+
+    /**
+     * Corresponds to <code>2^20 - 1</code>, i.e. the largest block number
+     */
+    public static final long MAX_NUMBER = 0xFFFFF;
+
+    private final long number;
+    private final boolean more;
+    private final int szx;
+
+
+    /**
+     * Creates a new instance of {@link BlockValue}
+     *
+     * @param number the block number
+     * @param more <code>true</code> if more blocks follow or <code>false</code> otherwise
+     * @param szx the size exponent (between <code>0</code> and <code>6</code>)
+     *
+     * @throws java.lang.IllegalArgumentException if the given number or size exponent is out of range
+     */
+    public BlockValue(long number, boolean more, int szx) throws IllegalArgumentException {
+        if(number < 0 || number > MAX_NUMBER)
+            throw new IllegalArgumentException("Block number must be between 0 and " + MAX_NUMBER +
+                    " (was: " + number + ")");
+
+        if(szx < 0 || szx > 6)
+            throw new IllegalArgumentException("Block size exponent must be between 0 and 6 (was: " + szx + ")");
+
+        this.number = number;
+        this.more = more;
+        this.szx = szx;
+    }
+
+
+    /**
+     * Returns the {@link BlockValue} represented by the given decoded option value.
+     *
+     * @param value the decoded value of a {@link OptionValue.Name#BLOCK_1} or {@link OptionValue.Name#BLOCK_2}
+     *              option
+     *
+     * @return the {@link BlockValue} represented by the given decoded option value
+     *
+     * @throws java.lang.IllegalArgumentException if the given value contains the reserved size exponent
+     * <code>7</code>
+     */
+    public static BlockValue decode(long value) throws IllegalArgumentException {
+        return new BlockValue(value >>> 4, (value & 0x08) != 0, (int) (value & 0x07));
+    }
+
+
+    /**
+     * Returns the size exponent (SZX) of the largest block size that is not greater than the given size.
+     *
+     * @param blockSize the desired block size (in bytes)
+     *
+     * @return the size exponent (SZX) of the largest block size that is not greater than the given size
+     *
+     * @throws java.lang.IllegalArgumentException if the given size is less than {@link #MIN_BLOCK_SIZE}
+     */
+    public static int getSzx(int blockSize) throws IllegalArgumentException {
+        if(blockSize < MIN_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be at least " + MIN_BLOCK_SIZE +
+                    " (was: " + blockSize + ")");
+
+        return Math.min(6, 27 - Integer.numberOfLeadingZeros(blockSize));
+    }
+
+
+    /**
+     * Returns the value of the option, i.e. the number to be encoded as {@link UintOptionValue}
+     *
+     * @return the value of the option, i.e. the number to be encoded as {@link UintOptionValue}
+     */
+    public long encode(){
+        return (number << 4) | (more ? 0x08 : 0) | szx;
+    }
+
+
+    /**
+     * Returns the block number
+     *
+     * @return the block number
+     */
+    public long getNumber() {
+        return number;
+    }
+
+
+    /**
+     * Returns <code>true</code> if more blocks follow or <code>false</code> otherwise
+     *
+     * @return <code>true</code> if more blocks follow or <code>false</code> otherwise
+     */
+    public boolean isMore() {
+        return more;
+    }
+
+
+    /**
+     * Returns the size exponent (SZX)
+     *
+     * @return the size exponent (SZX)
+     */
+    public int getSzx() {
+        return szx;
+    }
+
+
+    /**
+     * Returns the block size in bytes, i.e. <code>2^(SZX + 4)</code>
+     *
+     * @return the block size in bytes
+     */
+    public int getSize() {
+        return 1 << (szx + 4);
+    }
+
+
+    /**
+     * Returns the position of the first byte of this block within the complete content
+     *
+     * @return the position of the first byte of this block within the complete content
+     */
+    public long getOffset() {
+        return number * getSize();
+    }
+
+
+    @Override
+    public int hashCode(){
+        return (int) encode();
+    }
+
+
+    @Override
+    public boolean equals(Object object){
+        if(!(object instanceof BlockValue))
+            return false;
+
+        BlockValue other = (BlockValue) object;
+        return this.number == other.number && this.more == other.more && this.szx == other.szx;
+    }
+
+
+    @Override
+    public String toString(){
+        return number + "/" + (more ? 1 : 0) + "/" + getSize();
+    }
+}
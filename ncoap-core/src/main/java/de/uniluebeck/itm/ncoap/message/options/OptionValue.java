@@ -24,14 +24,13 @@
  */
 package de.uniluebeck.itm.ncoap.message.options;
 
-import com.google.common.collect.HashMultimap;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Longs;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
 
 import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.HashMap;
 
 /**
  * {@link OptionValue} is the abstract base class for CoAP options. It provides a number of useful static constants and methods
@@ -144,6 +143,21 @@ public abstract class OptionValue<T>{
          */
         public static final int LOCATION_QUERY  = 20;
 
+        /**
+         * Corresponds to option number 23
+         */
+        public static final int BLOCK_2         = 23;
+
+        /**
+         * Corresponds to option number 27
+         */
+        public static final int BLOCK_1         = 27;
+
+        /**
+         * Corresponds to option number 28
+         */
+        public static final int SIZE_2          = 28;
+
         /**
          * Corresponds to option number 35
          */
@@ -190,42 +204,115 @@ public abstract class OptionValue<T>{
 //     */
 //    public static final int ETAG_LENGTH_DEFAULT = 4;
 
-    private static HashMap<Integer, Integer[]> characteristics = new HashMap<Integer, Integer[]>();
+    //the characteristics of all known options (replaced as a whole when options are registered)
+    private static volatile OptionTable optionTable = new OptionTable(0);
     static{
-        characteristics.put(    Name.IF_MATCH,       new Integer[]{Type.OPAQUE,       0,      8       });
-        characteristics.put(    Name.URI_HOST,       new Integer[]{Type.STRING,       1,      255     });
-        characteristics.put(    Name.ETAG,           new Integer[]{Type.OPAQUE,       1,      8       });
-        characteristics.put(    Name.IF_NONE_MATCH,  new Integer[]{Type.EMPTY,        0,      0       });
-        characteristics.put(    Name.URI_PORT,       new Integer[]{Type.UINT,         0,      2       });
-        characteristics.put(    Name.LOCATION_PATH,  new Integer[]{Type.STRING,       0,      255     });
-        characteristics.put(    Name.OBSERVE,        new Integer[]{Type.UINT,         0,      3       });
-        characteristics.put(    Name.URI_PATH,       new Integer[]{Type.STRING,       0,      255     });
-        characteristics.put(    Name.CONTENT_FORMAT, new Integer[]{Type.UINT,         0,      2       });
-        characteristics.put(    Name.MAX_AGE,        new Integer[]{Type.UINT,         0,      4       });
-        characteristics.put(    Name.URI_QUERY,      new Integer[]{Type.STRING,       0,      255     });
-        characteristics.put(    Name.ACCEPT,         new Integer[]{Type.UINT,         0,      2       });
-        characteristics.put(    Name.LOCATION_QUERY, new Integer[]{Type.STRING,       0,      255     });
-        characteristics.put(    Name.PROXY_URI,      new Integer[]{Type.STRING,       1,      1034    });
-        characteristics.put(    Name.PROXY_SCHEME,   new Integer[]{Type.STRING,       1,      255     });
-        characteristics.put(    Name.SIZE_1,         new Integer[]{Type.UINT,         0,      4       });
+        registerOption(    Name.IF_MATCH,       Type.OPAQUE,       0,      8       );
+        registerOption(    Name.URI_HOST,       Type.STRING,       1,      255     );
+        registerOption(    Name.ETAG,           Type.OPAQUE,       1,      8       );
+        registerOption(    Name.IF_NONE_MATCH,  Type.EMPTY,        0,      0       );
+        registerOption(    Name.URI_PORT,       Type.UINT,         0,      2       );
+        registerOption(    Name.LOCATION_PATH,  Type.STRING,       0,      255     );
+        registerOption(    Name.OBSERVE,        Type.UINT,         0,      3       );
+        registerOption(    Name.URI_PATH,       Type.STRING,       0,      255     );
+        registerOption(    Name.CONTENT_FORMAT, Type.UINT,         0,      2       );
+        registerOption(    Name.MAX_AGE,        Type.UINT,         0,      4       );
+        registerOption(    Name.URI_QUERY,      Type.STRING,       0,      255     );
+        registerOption(    Name.ACCEPT,         Type.UINT,         0,      2       );
+        registerOption(    Name.LOCATION_QUERY, Type.STRING,       0,      255     );
+        registerOption(    Name.BLOCK_2,        Type.UINT,         0,      3       );
+        registerOption(    Name.BLOCK_1,        Type.UINT,         0,      3       );
+        registerOption(    Name.SIZE_2,         Type.UINT,         0,      4       );
+        registerOption(    Name.PROXY_URI,      Type.STRING,       1,      1034    );
+        registerOption(    Name.PROXY_SCHEME,   Type.STRING,       1,      255     );
+        registerOption(    Name.SIZE_1,         Type.UINT,         0,      4       );
+
+        registerMutualExclusion(Name.URI_HOST,     Name.PROXY_URI);
+        registerMutualExclusion(Name.URI_PORT,     Name.PROXY_URI);
+        registerMutualExclusion(Name.URI_PATH,     Name.PROXY_URI);
+        registerMutualExclusion(Name.URI_QUERY,    Name.PROXY_URI);
+        registerMutualExclusion(Name.PROXY_SCHEME, Name.PROXY_URI);
     }
 
-    private static HashMultimap<Integer, Integer> mutualExclusions = HashMultimap.create();
-    static{
-        mutualExclusions.put(Name.URI_HOST,     Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.URI_HOST);
 
-        mutualExclusions.put(Name.URI_PORT,     Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.URI_PORT);
+    /**
+     * Registers an option that is not (yet) known to the nCoAP framework, e.g. a custom or experimental option. If
+     * there is already an option with the given number, its characteristics are replaced. To use the option with
+     * {@link CoapMessage}s, it must additionally be allowed for the desired message codes (see
+     * {@link CoapMessage#allowOption(int, int, boolean)}).
+     *
+     * Options are supposed to be registered during startup, i.e. before any messages are created.
+     *
+     * @param optionNumber the number of the option to be registered
+     * @param optionType the type of the option to be registered (see {@link Type} for constants)
+     * @param minLength the minimum length of the encoded option value in bytes
+     * @param maxLength the maximum length of the encoded option value in bytes
+     *
+     * @throws java.lang.IllegalArgumentException if one of the given arguments is invalid
+     */
+    public static synchronized void registerOption(int optionNumber, int optionType, int minLength, int maxLength)
+            throws IllegalArgumentException {
+
+        if(optionNumber < 0 || optionNumber > 65535)
+            throw new IllegalArgumentException("Option number must be between 0 and 65535 (was: " +
+                    optionNumber + ")");
 
-        mutualExclusions.put(Name.URI_PATH,     Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.URI_PATH);
+        if(optionType < Type.EMPTY || optionType > Type.OPAQUE)
+            throw new IllegalArgumentException("Unknown option type no. " + optionType);
 
-        mutualExclusions.put(Name.URI_QUERY,    Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.URI_QUERY);
+        if(minLength < 0 || minLength > maxLength)
+            throw new IllegalArgumentException("Invalid length range (min: " + minLength + ", max: " +
+                    maxLength + ")");
 
-        mutualExclusions.put(Name.PROXY_SCHEME, Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.PROXY_SCHEME);
+        OptionTable table = optionTable.copy(Math.max(optionTable.types.length, optionNumber + 1));
+        table.types[optionNumber] = (byte) optionType;
+        table.minLengths[optionNumber] = minLength;
+        table.maxLengths[optionNumber] = maxLength;
+
+        optionTable = table;
+    }
+
+
+    /**
+     * Registers the given options (which must be known, i.e. registered) to be mutually exclusive, i.e. they must
+     * not co-exist in a single message.
+     *
+     * Exclusions are supposed to be registered during startup, i.e. before any messages are created.
+     *
+     * @param firstOptionNumber the first option number
+     * @param secondOptionNumber the second option number
+     *
+     * @throws java.lang.IllegalArgumentException if one of the given option numbers refers to an unknown option
+     */
+    public static synchronized void registerMutualExclusion(int firstOptionNumber, int secondOptionNumber)
+            throws IllegalArgumentException {
+
+        getOptionType(firstOptionNumber);
+        getOptionType(secondOptionNumber);
+
+        if(mutuallyExcludes(firstOptionNumber, secondOptionNumber))
+            return;
+
+        OptionTable table = optionTable.copy(optionTable.types.length);
+        table.addExclusion(firstOptionNumber, secondOptionNumber);
+        table.addExclusion(secondOptionNumber, firstOptionNumber);
+
+        optionTable = table;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the given option number refers to a known, i.e. registered option and
+     * <code>false</code> otherwise.
+     *
+     * @param optionNumber the option number
+     *
+     * @return <code>true</code> if the given option number refers to a known option and <code>false</code>
+     * otherwise
+     */
+    public static boolean isKnownOption(int optionNumber){
+        byte[] types = optionTable.types;
+        return optionNumber >= 0 && optionNumber < types.length && types[optionNumber] != OptionTable.UNKNOWN;
     }
 
     /**
@@ -239,7 +326,16 @@ public abstract class OptionValue<T>{
      * @return <code>true</code> if the co-existence of the given option numbers is not allowed in a single message
      */
     public static boolean mutuallyExcludes(int firstOptionNumber, int secondOptionNumber){
-        return mutualExclusions.get(firstOptionNumber).contains(secondOptionNumber);
+        int[][] exclusions = optionTable.exclusions;
+        if(firstOptionNumber < 0 || firstOptionNumber >= exclusions.length || exclusions[firstOptionNumber] == null)
+            return false;
+
+        for(int excludedOptionNumber : exclusions[firstOptionNumber]){
+            if(excludedOptionNumber == secondOptionNumber)
+                return true;
+        }
+
+        return false;
     }
 
     /**
@@ -252,10 +348,11 @@ public abstract class OptionValue<T>{
      * @throws java.lang.IllegalArgumentException if the given option number refers to an unknown option
      */
     public static int getMinLength(int optionNumber) throws IllegalArgumentException {
-        if(!characteristics.containsKey(optionNumber))
+        OptionTable table = optionTable;
+        if(!table.contains(optionNumber))
             throw new IllegalArgumentException(String.format(UNKNOWN_OPTION, optionNumber));
 
-        return characteristics.get(optionNumber)[1];
+        return table.minLengths[optionNumber];
     }
 
 
@@ -269,10 +366,11 @@ public abstract class OptionValue<T>{
      * @throws java.lang.IllegalArgumentException if the given option number refers to an unknown option
      */
     public static int getMaxLength(int optionNumber) throws IllegalArgumentException {
-        if(!characteristics.containsKey(optionNumber))
+        OptionTable table = optionTable;
+        if(!table.contains(optionNumber))
             throw new IllegalArgumentException(String.format(UNKNOWN_OPTION, optionNumber));
 
-        return characteristics.get(optionNumber)[2];
+        return table.maxLengths[optionNumber];
     }
 
 
@@ -322,13 +420,11 @@ public abstract class OptionValue<T>{
      * @throws java.lang.IllegalArgumentException if the given option number refers to an unknown option
      */
     public static int getOptionType(int optionNumber) throws IllegalArgumentException{
-
-        Integer[] result = characteristics.get(optionNumber);
-        if(result == null)
+        OptionTable table = optionTable;
+        if(!table.contains(optionNumber))
             throw new IllegalArgumentException(String.format(UNKNOWN_OPTION, optionNumber));
-        else
-            return result[0];
 
+        return table.types[optionNumber];
     }
 
     /**
@@ -361,6 +457,49 @@ public abstract class OptionValue<T>{
     }
 
 
+    /**
+     * Returns <code>true</code> if the encoded value at the given position of the given {@link ChannelBuffer} is the
+     * default value for the given option number. This is the same as {@link #isDefaultValue(int, byte[])} but does
+     * not require to copy the value into a byte array (except for {@link Name#URI_HOST}).
+     *
+     * @param optionNumber the option number
+     * @param buffer the {@link ChannelBuffer} containing the encoded value
+     * @param index the position of the first byte of the encoded value within the given buffer
+     * @param length the length of the encoded value
+     *
+     * @return <code>true</code> if the given value is the default value for the given option number
+     */
+    public static boolean isDefaultValue(int optionNumber, ChannelBuffer buffer, int index, int length){
+
+        if(optionNumber == Name.URI_PORT)
+            return equals(ENCODED_URI_PORT_DEFAULT, buffer, index, length);
+
+        if(optionNumber == Name.MAX_AGE)
+            return equals(ENCODED_MAX_AGE_DEFAULT, buffer, index, length);
+
+        if(optionNumber == Name.URI_HOST){
+            byte[] value = new byte[length];
+            buffer.getBytes(index, value);
+            return isDefaultValue(optionNumber, value);
+        }
+
+        return false;
+    }
+
+
+    private static boolean equals(byte[] value, ChannelBuffer buffer, int index, int length){
+        if(value.length != length)
+            return false;
+
+        for(int i = 0; i < length; i++){
+            if(value[i] != buffer.getByte(index + i))
+                return false;
+        }
+
+        return true;
+    }
+
+
     protected byte[] value;
 
     /**
@@ -430,4 +569,47 @@ public abstract class OptionValue<T>{
     public String toString(){
         return "" + this.getDecodedValue();
     }
+
+
+    /**
+     * The characteristics of all known options as primitive arrays indexed by option number. Instances are not
+     * modified after they were published.
+     */
+    private static final class OptionTable {
+
+        private static final byte UNKNOWN = -1;
+
+        private final byte[] types;
+        private final int[] minLengths;
+        private final int[] maxLengths;
+        private final int[][] exclusions;
+
+        private OptionTable(int size){
+            this.types = new byte[size];
+            Arrays.fill(this.types, UNKNOWN);
+            this.minLengths = new int[size];
+            this.maxLengths = new int[size];
+            this.exclusions = new int[size][];
+        }
+
+        private boolean contains(int optionNumber){
+            return optionNumber >= 0 && optionNumber < types.length && types[optionNumber] != UNKNOWN;
+        }
+
+        private OptionTable copy(int size){
+            OptionTable result = new OptionTable(size);
+            System.arraycopy(types, 0, result.types, 0, types.length);
+            System.arraycopy(minLengths, 0, result.minLengths, 0, minLengths.length);
+            System.arraycopy(maxLengths, 0, result.maxLengths, 0, maxLengths.length);
+            System.arraycopy(exclusions, 0, result.exclusions, 0, exclusions.length);
+            return result;
+        }
+
+        private void addExclusion(int optionNumber, int excludedOptionNumber){
+            int[] previous = exclusions[optionNumber];
+            int[] result = previous == null ? new int[1] : Arrays.copyOf(previous, previous.length + 1);
+            result[result.length - 1] = excludedOptionNumber;
+            exclusions[optionNumber] = result;
+        }
+    }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link TokenFactory}, i.e. tokens must be issued in their natural order, must be unique per remote
+ * endpoint while in use and must be re-usable after being passed back.
+ */
+public class TokenFactoryTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("127.0.0.1", 5683);
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testAllTokensOfMaximumLengthOneAreIssuedInOrder() throws Exception {
+        TokenFactory tokenFactory = new TokenFactory(1);
+
+        assertEquals(new Token(new byte[0]), tokenFactory.getNextToken(REMOTE_ENDPOINT));
+        for(int i = 0; i < 256; i++)
+            assertEquals(new Token(new byte[]{(byte) i}), tokenFactory.getNextToken(REMOTE_ENDPOINT));
+
+        try{
+            tokenFactory.getNextToken(REMOTE_ENDPOINT);
+            fail("All 257 tokens are in use!");
+        }
+        catch(NoTokenAvailableException e){
+            //expected
+        }
+
+        //other remote endpoints are not affected
+        assertEquals(new Token(new byte[0]), tokenFactory.getNextToken(new InetSocketAddress("127.0.0.1", 5684)));
+
+        assertTrue(tokenFactory.passBackToken(REMOTE_ENDPOINT, new Token(new byte[]{17})));
+        assertEquals(new Token(new byte[]{17}), tokenFactory.getNextToken(REMOTE_ENDPOINT));
+    }
+
+
+    @Test
+    public void testPassBackOfUnusedTokenFails() throws Exception {
+        TokenFactory tokenFactory = new TokenFactory(8);
+        Token token = tokenFactory.getNextToken(REMOTE_ENDPOINT);
+
+        assertFalse(tokenFactory.passBackToken(REMOTE_ENDPOINT, new Token(new byte[]{1, 2, 3})));
+        assertFalse(tokenFactory.passBackToken(new InetSocketAddress("127.0.0.1", 5684), token));
+        assertFalse(tokenFactory.passBackToken(REMOTE_ENDPOINT,
+                new Token(new byte[]{-1, -1, -1, -1, -1, -1, -1, -1})));
+
+        assertTrue(tokenFactory.passBackToken(REMOTE_ENDPOINT, token));
+        assertFalse(tokenFactory.passBackToken(REMOTE_ENDPOINT, token));
+    }
+
+
+    @Test
+    public void testConcurrentlyUsedTokensAreUnique() throws Exception {
+        //small limit of tokens in use to force the reuse of slots and token numbers
+        final TokenFactory tokenFactory = new TokenFactory(2, 64);
+        final Set<Token> tokensInUse = Collections.newSetFromMap(new ConcurrentHashMap<Token, Boolean>());
+
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for(int i = 0; i < 4; i++){
+            results.add(executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int duplicates = 0;
+                    Deque<Token> ownTokens = new ArrayDeque<>();
+
+                    for(int j = 0; j < 100000; j++){
+                        if(ownTokens.size() < 10)
+                            try{
+                                Token token = tokenFactory.getNextToken(REMOTE_ENDPOINT);
+                                if(!tokensInUse.add(token))
+                                    duplicates++;
+
+                                ownTokens.add(token);
+                            }
+                            catch(NoTokenAvailableException e){
+                                //all tokens in use, continue with passing back
+                            }
+
+                        if(ownTokens.size() >= 10 || j % 3 == 0){
+                            Token token = ownTokens.poll();
+                            if(token != null){
+                                tokensInUse.remove(token);
+                                assertTrue(tokenFactory.passBackToken(REMOTE_ENDPOINT, token));
+                            }
+                        }
+                    }
+
+                    return duplicates;
+                }
+            }));
+        }
+
+        for(Future<Integer> result : results)
+            assertEquals("Duplicate tokens in use!", 0, result.get().intValue());
+
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link Token}, i.e. tokens created from bytes and from (unsigned) values must be equal and must be
+ * ordered by length first and then by their unsigned value.
+ */
+public class TokenTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testTokensFromBytesAndFromValueAreEqual() throws Exception {
+        byte[] bytes = new byte[]{(byte) 0xFF, 0x00, 0x12, (byte) 0x80, 0x01, 0x02, 0x03, (byte) 0xFE};
+        Token fromBytes = new Token(bytes);
+        Token fromValue = new Token(0xFF001280010203FEL, 8);
+
+        assertEquals(fromBytes, fromValue);
+        assertEquals(fromBytes.hashCode(), fromValue.hashCode());
+        assertArrayEquals(bytes, fromValue.getBytes());
+        assertEquals("0xFF001280010203FE", fromValue.toString());
+    }
+
+
+    @Test
+    public void testTokensWithSameValueAndDifferentLengthDiffer() throws Exception {
+        Token empty = new Token(new byte[0]);
+        Token oneZeroByte = new Token(new byte[1]);
+        Token twoZeroBytes = new Token(0, 2);
+
+        assertNotEquals(empty, oneZeroByte);
+        assertNotEquals(oneZeroByte, twoZeroBytes);
+        assertEquals("<EMPTY>", empty.toString());
+    }
+
+
+    @Test
+    public void testOrder() throws Exception {
+        Token[] orderedTokens = new Token[]{
+                new Token(new byte[0]),
+                new Token(new byte[]{0x00}),
+                new Token(new byte[]{0x7F}),
+                new Token(new byte[]{(byte) 0x80}),
+                new Token(new byte[]{(byte) 0xFF}),
+                new Token(new byte[]{0x00, 0x00}),
+                new Token(new byte[]{(byte) 0xFF, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00}),
+                new Token(new byte[]{(byte) 0xFF, (byte) 0xFF, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00})
+        };
+
+        for(int i = 0; i < orderedTokens.length; i++){
+            for(int j = 0; j < orderedTokens.length; j++)
+                assertEquals(Integer.signum(Integer.compare(i, j)),
+                        Integer.signum(orderedTokens[i].compareTo(orderedTokens[j])));
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueMustFitIntoLength() throws Exception {
+        new Token(0x100, 1);
+    }
+}
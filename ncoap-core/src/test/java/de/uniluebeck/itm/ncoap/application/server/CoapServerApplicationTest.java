@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.DatagramTransport;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.endpoints.client.CoapResponseTestProcessor;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link CoapServerApplication} with multiple channels bound to the same port and with the blocking
+ * transport, i.e. requests from different clients (which are distributed among the channels by the kernel) must all
+ * be answered by the same (shared) service.
+ */
+public class CoapServerApplicationTest extends AbstractCoapTest {
+
+    private static final int NUMBER_OF_CLIENTS = 8;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testRequestsFromMultipleClientsAreAnsweredByMultiChannelServer() throws Exception {
+        testRequestsFromMultipleClients(4, DatagramTransport.NIO);
+    }
+
+
+    @Test
+    public void testRequestsFromMultipleClientsAreAnsweredWithBlockingTransport() throws Exception {
+        testRequestsFromMultipleClients(1, DatagramTransport.OIO);
+    }
+
+
+    @Test
+    public void testServiceAtSameParameterPathReplacesLinkInWellKnownCore() throws Exception {
+        CoapServerApplication server = new CoapServerApplication(0);
+        CoapClientApplication client = new CoapClientApplication();
+
+        try{
+            server.registerService(new NotObservableTestWebService("/devices/{id}", "Status 1", 0, 0));
+            server.registerService(new NotObservableTestWebService("/devices/{name}", "Status 2", 0, 0));
+
+            InetSocketAddress serverEndpoint = new InetSocketAddress("127.0.0.1", server.getPort());
+            URI targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), "/.well-known/core", null, null);
+            CoapResponseTestProcessor responseProcessor = new CoapResponseTestProcessor();
+
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+            client.sendCoapRequest(coapRequest, responseProcessor, serverEndpoint);
+
+            Thread.sleep(1000);
+
+            assertEquals(1, responseProcessor.getCoapResponses().size());
+            String content = responseProcessor.getCoapResponses().values().iterator().next().getContent()
+                    .toString(CoapMessage.CHARSET);
+
+            assertFalse(content, content.contains("{id}"));
+            assertTrue(content, content.contains("</devices/{name}>"));
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    private void testRequestsFromMultipleClients(int numberOfChannels, DatagramTransport transport)
+            throws Exception {
+
+        CoapServerApplication server = new CoapServerApplication(WebserviceNotFoundHandler.getDefault(),
+                new InetSocketAddress(0), numberOfChannels, transport);
+
+        CoapClientApplication[] clients = new CoapClientApplication[NUMBER_OF_CLIENTS];
+        CoapResponseTestProcessor[] responseProcessors = new CoapResponseTestProcessor[NUMBER_OF_CLIENTS];
+
+        try{
+            assertTrue(server.getNumberOfChannels() == 1 || server.getNumberOfChannels() == numberOfChannels);
+            server.registerService(new NotObservableTestWebService("/test", "Status", 0, 0));
+
+            InetSocketAddress serverEndpoint = new InetSocketAddress("127.0.0.1", server.getPort());
+            URI targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), "/test", null, null);
+
+            for(int i = 0; i < NUMBER_OF_CLIENTS; i++){
+                clients[i] = new CoapClientApplication("CoAP Client", 0, 4, 8, transport);
+                responseProcessors[i] = new CoapResponseTestProcessor();
+
+                CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+                coapRequest.setAccept(ContentFormat.TEXT_PLAIN_UTF8);
+                clients[i].sendCoapRequest(coapRequest, responseProcessors[i], serverEndpoint);
+            }
+
+            Thread.sleep(1000);
+
+            for(int i = 0; i < NUMBER_OF_CLIENTS; i++){
+                assertEquals("Wrong number of responses for client #" + i, 1,
+                        responseProcessors[i].getCoapResponses().size());
+
+                CoapResponse coapResponse = responseProcessors[i].getCoapResponses().values().iterator().next();
+                assertEquals(MessageCode.Name.CONTENT_205, coapResponse.getMessageCodeName());
+            }
+        }
+        finally{
+            for(CoapClientApplication client : clients){
+                if(client != null)
+                    client.shutdown();
+            }
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.server.webservice.Webservice;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link WebserviceRouter}, i.e. literal paths, parameter segments and wildcards must be matched with
+ * the expected precedence.
+ */
+public class WebserviceRouterTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    private static Webservice createWebservice(String path){
+        return new NotObservableTestWebService(path, "Status", 0, 0);
+    }
+
+
+    private static Webservice lookup(WebserviceRouter router, String path) throws Exception {
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                new URI("coap", null, "localhost", -1, path, null, null));
+
+        return router.lookup(coapRequest);
+    }
+
+
+    @Test
+    public void testLiteralPaths() throws Exception {
+        WebserviceRouter router = new WebserviceRouter();
+
+        Webservice root = createWebservice("/");
+        Webservice service = createWebservice("/path/to/service");
+
+        router.register(root);
+        router.register(service);
+
+        assertSame(root, lookup(router, "/"));
+        assertSame(service, lookup(router, "/path/to/service"));
+        assertNull(lookup(router, "/path/to"));
+        assertNull(lookup(router, "/path/to/service/child"));
+    }
+
+
+    @Test
+    public void testParameterAndWildcardPrecedence() throws Exception {
+        WebserviceRouter router = new WebserviceRouter();
+
+        Webservice literal = createWebservice("/devices/17/temperature");
+        Webservice parameter = createWebservice("/devices/{id}/temperature");
+        Webservice wildcard = createWebservice("/devices/*");
+
+        router.register(literal);
+        router.register(parameter);
+        router.register(wildcard);
+
+        assertSame(literal, lookup(router, "/devices/17/temperature"));
+        assertSame(parameter, lookup(router, "/devices/18/temperature"));
+        assertSame(wildcard, lookup(router, "/devices/18/humidity"));
+        assertSame(wildcard, lookup(router, "/devices"));
+        assertNull(lookup(router, "/other"));
+    }
+
+
+    @Test
+    public void testRemoveAndReplace() throws Exception {
+        WebserviceRouter router = new WebserviceRouter();
+
+        Webservice first = createWebservice("/devices/{id}");
+        Webservice second = createWebservice("/devices/{name}");
+
+        assertNull(router.register(first));
+        assertSame(first, router.register(second));
+        assertSame(second, lookup(router, "/devices/17"));
+
+        assertSame(second, router.remove("/devices/{id}"));
+        assertNull(lookup(router, "/devices/17"));
+        assertNull(router.remove("/devices/{id}"));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWildcardMustBeLastSegment() throws Exception {
+        new WebserviceRouter().register(createWebservice("/devices/*/temperature"));
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server.webservice;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the response cache of {@link NotObservableWebservice}, i.e. the resource status must only be serialized
+ * once per status and content format and requests with a matching ETAG must be answered with
+ * {@link MessageCode.Name#VALID_203}.
+ */
+public class NotObservableWebserviceTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    private static CoapRequest createRequest(MessageCode.Name messageCode, byte[]... etags) throws Exception {
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, messageCode,
+                new URI("coap", null, "localhost", -1, "/status", null, null));
+
+        if(messageCode == MessageCode.Name.GET)
+            coapRequest.setAccept(ContentFormat.TEXT_PLAIN_UTF8);
+
+        if(etags.length > 0)
+            coapRequest.setEtags(etags);
+
+        return coapRequest;
+    }
+
+
+    @Test
+    public void testCachedResponses() throws Exception {
+        CountingWebservice webservice = new CountingWebservice();
+        webservice.setResponseCacheEnabled(true);
+
+        CoapResponse first = webservice.getCachedResponse(createRequest(MessageCode.Name.GET));
+        CoapResponse second = webservice.getCachedResponse(createRequest(MessageCode.Name.GET));
+
+        assertEquals(MessageCode.Name.CONTENT_205, second.getMessageCodeName());
+        assertEquals("first", second.getContent().toString(CoapMessage.CHARSET));
+        assertArrayEquals(first.getEtag(), second.getEtag());
+        assertEquals("Wrong number of serializations!", 1, webservice.serializations);
+
+        CoapResponse valid = webservice.getCachedResponse(createRequest(MessageCode.Name.GET, first.getEtag()));
+        assertEquals(MessageCode.Name.VALID_203, valid.getMessageCodeName());
+        assertEquals(0, valid.getContent().readableBytes());
+
+        //a new status invalidates the cache
+        webservice.setResourceStatus("second", 120);
+
+        CoapResponse third = webservice.getCachedResponse(createRequest(MessageCode.Name.GET, first.getEtag()));
+        assertEquals(MessageCode.Name.CONTENT_205, third.getMessageCodeName());
+        assertEquals("second", third.getContent().toString(CoapMessage.CHARSET));
+        assertEquals("Wrong number of serializations!", 2, webservice.serializations);
+
+        //other methods are to be processed by the webservice
+        assertNull(webservice.getCachedResponse(createRequest(MessageCode.Name.PUT)));
+    }
+
+
+    @Test
+    public void testExpiredStatusIsNotCached() throws Exception {
+        CountingWebservice webservice = new CountingWebservice();
+        webservice.setResponseCacheEnabled(true);
+        webservice.setResourceStatus("expired", 0);
+
+        assertNull(webservice.getCachedResponse(createRequest(MessageCode.Name.GET)));
+        webservice.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        webservice.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        assertEquals("Wrong number of serializations!", 2, webservice.serializations);
+    }
+
+
+    private static class CountingWebservice extends NotObservableTestWebService {
+
+        private int serializations;
+
+        private CountingWebservice(){
+            super("/status", "first", 120, 0);
+        }
+
+        @Override
+        public byte[] getEtag(long contentFormat) {
+            return new byte[]{(byte) getResourceStatus().hashCode()};
+        }
+
+        @Override
+        public byte[] getSerializedResourceStatus(long contentFormat) {
+            serializations++;
+            return super.getSerializedResourceStatus(contentFormat);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server.webservice;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.server.webservice.linkformat.LinkAttribute;
+import de.uniluebeck.itm.ncoap.application.server.webservice.linkformat.LongLinkAttribute;
+import de.uniluebeck.itm.ncoap.application.server.webservice.linkformat.StringLinkAttribute;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link WellKnownCoreResource}, i.e. the link format document (and its ETAG) must reflect added and
+ * removed services and filter queries must be answered from the attribute index.
+ */
+public class WellKnownCoreResourceTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    private static CoapResponse get(WellKnownCoreResource resource, String query) throws Exception {
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                new URI("coap", null, "localhost", -1, "/.well-known/core", query, null));
+
+        SettableFuture<CoapResponse> responseFuture = SettableFuture.create();
+        resource.processCoapRequest(responseFuture, coapRequest, new InetSocketAddress("localhost", 5683));
+
+        return responseFuture.get();
+    }
+
+
+    private static String getContent(WellKnownCoreResource resource, String query) throws Exception {
+        return get(resource, query).getContent().toString(CoapMessage.CHARSET);
+    }
+
+
+    private static Webservice createWebservice(String path, String resourceType){
+        Webservice webservice = new NotObservableTestWebService(path, "Status", 0, 0);
+        webservice.setLinkAttribute(new StringLinkAttribute(LinkAttribute.RESOURCE_TYPE, resourceType));
+        return webservice;
+    }
+
+
+    @Test
+    public void testDocumentIsMaintainedIncrementally() throws Exception {
+        WellKnownCoreResource resource = new WellKnownCoreResource(new HashMap<String, Webservice<?>>());
+        assertEquals("", getContent(resource, null));
+
+        resource.addWebservice(createWebservice("/b", "humidity"));
+        resource.addWebservice(createWebservice("/a", "temperature"));
+        byte[] etag = get(resource, null).getEtag();
+
+        assertEquals("</a>;rt=temperature,\n</b>;rt=humidity\n", getContent(resource, null));
+
+        resource.removeWebservice("/b");
+        assertEquals("</a>;rt=temperature\n", getContent(resource, null));
+        assertFalse(Arrays.equals(etag, get(resource, null).getEtag()));
+    }
+
+
+    @Test
+    public void testFilteredQueries() throws Exception {
+        WellKnownCoreResource resource = new WellKnownCoreResource(new HashMap<String, Webservice<?>>());
+
+        resource.addWebservice(createWebservice("/temperature1", "temperature"));
+        resource.addWebservice(createWebservice("/humidity", "humidity"));
+        resource.addWebservice(createWebservice("/temperature2", "temperature"));
+
+        assertEquals("</temperature1>;rt=temperature,\n</temperature2>;rt=temperature\n",
+                getContent(resource, "rt=temperature"));
+        assertEquals("", getContent(resource, "rt=pressure"));
+
+        //changed link attributes must be reflected by the cached result
+        resource.addWebservice(createWebservice("/temperature2", "pressure"));
+
+        assertEquals("</temperature1>;rt=temperature\n", getContent(resource, "rt=temperature"));
+        assertEquals("</temperature2>;rt=pressure\n", getContent(resource, "rt=pressure"));
+
+        assertEquals(MessageCode.Name.BAD_REQUEST_400, get(resource, "rt").getMessageCodeName());
+    }
+
+
+    @Test
+    public void testFilteredDocumentsAreCachedPerIndexKey() throws Exception {
+        WellKnownCoreResource resource = new WellKnownCoreResource(new HashMap<String, Webservice<?>>());
+
+        Webservice webservice = createWebservice("/a", "temperature");
+        webservice.setLinkAttribute(new LongLinkAttribute(LinkAttribute.MAX_SIZE_ESTIMATE, 5L));
+        resource.addWebservice(webservice);
+
+        assertEquals("</a>;rt=temperature;sz=5\n", getContent(resource, "sz=5"));
+        assertEquals("</a>;rt=temperature;sz=5\n", getContent(resource, "sz=005"));
+        assertEquals("", getContent(resource, "sz=6"));
+        assertEquals("", getContent(resource, "rt=pressure"));
+
+        assertEquals("Wrong number of cached documents!", 1, resource.getNumberOfFilteredDocuments());
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientOptions;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.endpoints.client.CoapResponseTestProcessor;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebService;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.BlockValue;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the block-wise transfer between {@link CoapClientApplication} and {@link CoapServerApplication}, i.e.
+ * contents exceeding the block size must be transferred completely in both directions, with and without multiple
+ * requests for blocks in flight. Only requests that may be answered in blocks must be kept by the server until their
+ * response is written (or for a limited time).
+ */
+public class BlockwiseTransferTest extends AbstractCoapTest {
+
+    private static final String STATUS = Strings.repeat("0123456789", 500);
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Before
+    public void enableBlockwiseTransfers(){
+        System.setProperty(ServerBlockwiseHandler.ENABLED, "true");
+    }
+
+
+    @After
+    public void disableBlockwiseTransfers(){
+        System.clearProperty(ServerBlockwiseHandler.ENABLED);
+    }
+
+
+    private static CoapClientApplication createClient(CoapClientOptions options){
+        return new CoapClientApplication("CoAP Client", options.setBlockwiseTransfer(true));
+    }
+
+
+    @Test
+    public void testBlockValueEncoding() throws Exception {
+        BlockValue blockValue = new BlockValue(1234, true, 2);
+
+        assertEquals(blockValue, BlockValue.decode(blockValue.encode()));
+        assertEquals(64, blockValue.getSize());
+        assertEquals(1234 * 64, blockValue.getOffset());
+
+        assertEquals(0, BlockValue.getSzx(16));
+        assertEquals(2, BlockValue.getSzx(100));
+        assertEquals(6, BlockValue.getSzx(4096));
+    }
+
+
+    @Test
+    public void testResponseContentIsReassembled() throws Exception {
+        CoapServerApplication server = new CoapServerApplication(new InetSocketAddress(0));
+        CoapClientApplication client = createClient(new CoapClientOptions());
+
+        try{
+            server.registerService(new NotObservableTestWebService("/large", STATUS, 0, 0));
+
+            CoapResponseTestProcessor responseProcessor = new CoapResponseTestProcessor();
+            client.sendCoapRequest(createRequest(server, MessageCode.Name.GET), responseProcessor,
+                    new InetSocketAddress("127.0.0.1", server.getPort()));
+
+            Thread.sleep(1000);
+
+            assertEquals("Wrong number of responses!", 1, responseProcessor.getCoapResponses().size());
+            CoapResponse coapResponse = responseProcessor.getCoapResponses().values().iterator().next();
+
+            assertEquals(MessageCode.Name.CONTENT_205, coapResponse.getMessageCodeName());
+            assertEquals(STATUS, coapResponse.getContent().toString(CoapMessage.CHARSET));
+            assertNull(coapResponse.getBlock2());
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testResponseBlocksAreStreamedWithWindow() throws Exception {
+        CoapServerApplication server = new CoapServerApplication(new InetSocketAddress(0));
+
+        //negotiate a small block size with the first request and request up to 4 blocks in parallel
+        CoapClientApplication client = createClient(new CoapClientOptions().setBlockSize(64, 4));
+
+        try{
+            server.registerService(new NotObservableTestWebService("/large", STATUS, 0, 0));
+
+            StreamingResponseProcessor responseProcessor = new StreamingResponseProcessor();
+            client.sendCoapRequest(createRequest(server, MessageCode.Name.GET), responseProcessor,
+                    new InetSocketAddress("127.0.0.1", server.getPort()));
+
+            Thread.sleep(2000);
+
+            assertEquals("Wrong number of blocks!", (STATUS.length() + 63) / 64, responseProcessor.offsets.size());
+            for(int i = 0; i < responseProcessor.offsets.size(); i++)
+                assertEquals("Wrong order of blocks!", Long.valueOf(i * 64), responseProcessor.offsets.get(i));
+
+            assertEquals(STATUS, responseProcessor.content.toString(CoapMessage.CHARSET));
+
+            assertEquals("Wrong number of responses!", 1, responseProcessor.coapResponses.size());
+            assertEquals(0, responseProcessor.coapResponses.get(0).getContent().readableBytes());
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testRequestContentIsReassembled() throws Exception {
+        CoapServerApplication server = new CoapServerApplication(new InetSocketAddress(0));
+        CoapClientApplication client = createClient(new CoapClientOptions());
+
+        try{
+            UpdatableTestWebservice webservice = new UpdatableTestWebservice("/large");
+            server.registerService(webservice);
+
+            CoapRequest coapRequest = createRequest(server, MessageCode.Name.POST);
+            coapRequest.setContent(STATUS.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+            CoapResponseTestProcessor responseProcessor = new CoapResponseTestProcessor();
+            client.sendCoapRequest(coapRequest, responseProcessor,
+                    new InetSocketAddress("127.0.0.1", server.getPort()));
+
+            Thread.sleep(1000);
+
+            assertEquals("Wrong number of responses!", 1, responseProcessor.getCoapResponses().size());
+            CoapResponse coapResponse = responseProcessor.getCoapResponses().values().iterator().next();
+
+            assertEquals(MessageCode.Name.CHANGED_204, coapResponse.getMessageCodeName());
+            assertFalse(coapResponse.getBlock1().isMore());
+            assertEquals(STATUS, webservice.getResourceStatus());
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testOnlyRequestsThatMayBeAnsweredInBlocksAreKept() throws Exception {
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        ChannelFactory channelFactory = new NioDatagramChannelFactory();
+
+        try{
+            ServerBlockwiseHandler blockwiseHandler = new ServerBlockwiseHandler(executorService);
+            ChannelPipeline pipeline = Channels.pipeline();
+            pipeline.addLast("Blockwise Handler", blockwiseHandler);
+            Channel channel = channelFactory.newChannel(pipeline);
+
+            URI targetUri = new URI("coap://localhost/large");
+            InetSocketAddress remoteEndpoint = new InetSocketAddress("127.0.0.1", 10000);
+
+            //requests without block options are only kept if their response may be sent in blocks (GET)
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.NON, MessageCode.Name.DELETE, targetUri);
+            coapRequest.setToken(new Token(new byte[]{1}));
+            Channels.fireMessageReceived(channel, coapRequest, remoteEndpoint);
+            assertEquals(0, blockwiseHandler.getNumberOfPendingRequests());
+
+            coapRequest = new CoapRequest(MessageType.Name.NON, MessageCode.Name.GET, targetUri);
+            coapRequest.setToken(new Token(new byte[]{2}));
+            Channels.fireMessageReceived(channel, coapRequest, remoteEndpoint);
+            assertEquals(1, blockwiseHandler.getNumberOfPendingRequests());
+
+            //unanswered requests are removed after the transfer lifetime
+            blockwiseHandler.removeOutdatedRequests(System.currentTimeMillis());
+            assertEquals(1, blockwiseHandler.getNumberOfPendingRequests());
+
+            blockwiseHandler.removeOutdatedRequests(System.currentTimeMillis() +
+                    ServerBlockwiseHandler.TRANSFER_LIFETIME * 1000);
+            assertEquals(0, blockwiseHandler.getNumberOfPendingRequests());
+        }
+        finally{
+            channelFactory.releaseExternalResources();
+            executorService.shutdownNow();
+        }
+    }
+
+
+    private static CoapRequest createRequest(CoapServerApplication server, MessageCode.Name messageCode)
+            throws Exception {
+
+        URI targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), "/large", null, null);
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, messageCode, targetUri);
+
+        if(messageCode == MessageCode.Name.GET)
+            coapRequest.setAccept(ContentFormat.TEXT_PLAIN_UTF8);
+
+        return coapRequest;
+    }
+
+
+    private static class StreamingResponseProcessor implements BlockwiseResponseProcessor {
+
+        private final List<Long> offsets = Collections.synchronizedList(new ArrayList<Long>());
+        private final ChannelBuffer content = ChannelBuffers.dynamicBuffer();
+        private final List<CoapResponse> coapResponses = Collections.synchronizedList(new ArrayList<CoapResponse>());
+
+        @Override
+        public void processResponseBlock(CoapResponse coapResponse, long offset) {
+            offsets.add(offset);
+            content.writeBytes(coapResponse.getContent());
+        }
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            coapResponses.add(coapResponse);
+        }
+    }
+
+
+    private static class UpdatableTestWebservice extends NotObservableTestWebService {
+
+        private UpdatableTestWebservice(String path){
+            super(path, "", 0, 0);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteAddress) throws Exception {
+
+            setResourceStatus(coapRequest.getContent().toString(CoapMessage.CHARSET), 0);
+            responseFuture.set(new CoapResponse(coapRequest.getMessageTypeName(), MessageCode.Name.CHANGED_204));
+        }
+    }
+}
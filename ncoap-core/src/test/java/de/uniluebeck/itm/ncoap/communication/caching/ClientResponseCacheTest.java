@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientOptions;
+import de.uniluebeck.itm.ncoap.endpoints.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.CoapResponseTestProcessor;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link ClientResponseCache}, i.e. fresh responses must be served from the cache, stale responses
+ * must be revalidated with their ETAG and successful unsafe requests must invalidate the stored responses.
+ */
+public class ClientResponseCacheTest extends AbstractCoapTest {
+
+    private static final byte[] ETAG = new byte[]{1, 2, 3, 4};
+    private static final String STATUS = "Some status...";
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testFreshHitAndRevalidation() throws Exception {
+        CoapTestEndpoint server = new CoapTestEndpoint();
+        CoapClientApplication client = createClient();
+
+        try{
+            ClientResponseCache cache = client.getResponseCache();
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getPort());
+            InetSocketAddress clientAddress = new InetSocketAddress("127.0.0.1", client.getPort());
+
+            //first request is a miss
+            CoapResponseTestProcessor responseProcessor = new CoapResponseTestProcessor();
+            client.sendCoapRequest(createRequest(server, MessageCode.Name.GET), responseProcessor, serverAddress);
+            Thread.sleep(300);
+
+            CoapRequest coapRequest = (CoapRequest) server.getReceivedCoapMessages().values().iterator().next();
+            server.writeMessage(createResponse(coapRequest, MessageCode.Name.CONTENT_205, 1), clientAddress);
+            Thread.sleep(300);
+
+            //second request is answered from the cache
+            client.sendCoapRequest(createRequest(server, MessageCode.Name.GET), responseProcessor, serverAddress);
+            Thread.sleep(300);
+
+            assertEquals("Wrong number of requests at server!", 1, server.getReceivedCoapMessages().size());
+            assertEquals("Wrong number of responses!", 2, responseProcessor.getCoapResponses().size());
+            assertEquals(1, cache.getHitCount());
+
+            CoapResponse cachedResponse = responseProcessor.getCoapResponses().get(
+                    responseProcessor.getCoapResponses().lastKey());
+            assertEquals(STATUS, cachedResponse.getContent().toString(CoapMessage.CHARSET));
+            assertArrayEquals(ETAG, cachedResponse.getEtag());
+
+            //third request (after expiry) is a revalidation
+            Thread.sleep(1000);
+            client.sendCoapRequest(createRequest(server, MessageCode.Name.GET), responseProcessor, serverAddress);
+            Thread.sleep(300);
+
+            assertEquals("Wrong number of requests at server!", 2, server.getReceivedCoapMessages().size());
+            coapRequest = (CoapRequest) server.getReceivedCoapMessages().get(
+                    server.getReceivedCoapMessages().lastKey());
+            assertEquals("Wrong number of ETAGs!", 1, coapRequest.getEtags().size());
+            assertArrayEquals(ETAG, coapRequest.getEtags().iterator().next());
+
+            server.writeMessage(createResponse(coapRequest, MessageCode.Name.VALID_203, 120), clientAddress);
+            Thread.sleep(300);
+
+            assertEquals("Wrong number of responses!", 3, responseProcessor.getCoapResponses().size());
+            CoapResponse validatedResponse = responseProcessor.getCoapResponses().get(
+                    responseProcessor.getCoapResponses().lastKey());
+            assertEquals(MessageCode.Name.CONTENT_205, validatedResponse.getMessageCodeName());
+            assertEquals(STATUS, validatedResponse.getContent().toString(CoapMessage.CHARSET));
+            assertEquals(120, validatedResponse.getMaxAge());
+
+            assertEquals(2, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testUnsafeRequestInvalidatesStoredResponse() throws Exception {
+        CoapTestEndpoint server = new CoapTestEndpoint();
+        CoapClientApplication client = createClient();
+
+        try{
+            ClientResponseCache cache = client.getResponseCache();
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getPort());
+            InetSocketAddress clientAddress = new InetSocketAddress("127.0.0.1", client.getPort());
+
+            CoapResponseTestProcessor responseProcessor = new CoapResponseTestProcessor();
+            client.sendCoapRequest(createRequest(server, MessageCode.Name.GET), responseProcessor, serverAddress);
+            Thread.sleep(300);
+
+            CoapRequest coapRequest = (CoapRequest) server.getReceivedCoapMessages().values().iterator().next();
+            server.writeMessage(createResponse(coapRequest, MessageCode.Name.CONTENT_205, 120), clientAddress);
+            Thread.sleep(300);
+
+            assertEquals("Wrong number of stored responses!", 1, cache.getNumberOfEntries());
+
+            client.sendCoapRequest(createRequest(server, MessageCode.Name.PUT), responseProcessor, serverAddress);
+            Thread.sleep(300);
+
+            coapRequest = (CoapRequest) server.getReceivedCoapMessages().get(
+                    server.getReceivedCoapMessages().lastKey());
+            assertEquals(MessageCode.Name.PUT, coapRequest.getMessageCodeName());
+
+            server.writeMessage(createResponse(coapRequest, MessageCode.Name.CHANGED_204, 0), clientAddress);
+            Thread.sleep(300);
+
+            assertEquals("Wrong number of stored responses!", 0, cache.getNumberOfEntries());
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    private static CoapClientApplication createClient(){
+        return new CoapClientApplication("CoAP Client", new CoapClientOptions().setResponseCacheSize(100));
+    }
+
+
+    private static CoapRequest createRequest(CoapTestEndpoint server, MessageCode.Name messageCode)
+            throws Exception {
+
+        URI targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), "/status", null, null);
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, messageCode, targetUri);
+
+        if(messageCode == MessageCode.Name.GET)
+            coapRequest.setAccept(ContentFormat.TEXT_PLAIN_UTF8);
+        else
+            coapRequest.setContent(STATUS.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+        return coapRequest;
+    }
+
+
+    private static CoapResponse createResponse(CoapRequest coapRequest, MessageCode.Name messageCode, long maxAge){
+        CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, messageCode);
+        coapResponse.setMessageID(coapRequest.getMessageID());
+        coapResponse.setToken(coapRequest.getToken());
+
+        if(messageCode == MessageCode.Name.CONTENT_205)
+            coapResponse.setContent(STATUS.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+        if(messageCode != MessageCode.Name.CHANGED_204){
+            coapResponse.setEtag(ETAG);
+            coapResponse.setMaxAge(maxAge);
+        }
+
+        return coapResponse;
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientOptions;
+import de.uniluebeck.itm.ncoap.endpoints.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.communication.reliability.outgoing.RequestWindowHandler;
+import de.uniluebeck.itm.ncoap.endpoints.client.CoapResponseTestProcessor;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link RequestCollapser}, i.e. identical concurrent requests must be sent only once and the response
+ * must be passed to all of their {@link de.uniluebeck.itm.ncoap.application.client.CoapResponseProcessor}s. A request
+ * without response must only be joined for a limited time (and only by requests with the same message type).
+ */
+public class RequestCollapserTest extends AbstractCoapTest {
+
+    private static final int NUMBER_OF_REQUESTS = 5;
+    private static final String STATUS = "Some status...";
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    private static CoapClientApplication createClient(){
+        return new CoapClientApplication("CoAP Client", new CoapClientOptions().setRequestCollapsing(true));
+    }
+
+
+    @Test
+    public void testIdenticalRequestsShareOneExchange() throws Exception {
+        CoapTestEndpoint server = new CoapTestEndpoint();
+        CoapClientApplication client = createClient();
+
+        try{
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getPort());
+            URI targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), "/status", null, null);
+
+            CoapResponseTestProcessor[] responseProcessors = new CoapResponseTestProcessor[NUMBER_OF_REQUESTS];
+            for(int i = 0; i < NUMBER_OF_REQUESTS; i++){
+                CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+                responseProcessors[i] = new CoapResponseTestProcessor();
+                client.sendCoapRequest(coapRequest, responseProcessors[i], serverAddress);
+            }
+
+            Thread.sleep(300);
+            assertEquals("Wrong number of requests at server!", 1, server.getReceivedCoapMessages().size());
+            assertEquals(NUMBER_OF_REQUESTS - 1, client.getRequestCollapser().getNumberOfCollapsedRequests());
+
+            CoapRequest coapRequest = (CoapRequest) server.getReceivedCoapMessages().values().iterator().next();
+            CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+            coapResponse.setMessageID(coapRequest.getMessageID());
+            coapResponse.setToken(coapRequest.getToken());
+            coapResponse.setContent(STATUS.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+            server.writeMessage(coapResponse, new InetSocketAddress("127.0.0.1", client.getPort()));
+            Thread.sleep(300);
+
+            for(CoapResponseTestProcessor responseProcessor : responseProcessors){
+                assertEquals("Wrong number of responses!", 1, responseProcessor.getCoapResponses().size());
+                CoapResponse received = responseProcessor.getCoapResponses().values().iterator().next();
+                assertEquals(STATUS, received.getContent().toString(CoapMessage.CHARSET));
+            }
+
+            assertEquals(0, client.getRequestCollapser().getNumberOfRequestsInFlight());
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testRequestWithoutResponseIsJoinedForLimitedTime() throws Exception {
+        CoapTestEndpoint server = new CoapTestEndpoint();
+        CoapClientApplication client = createClient();
+
+        try{
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getPort());
+            URI targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), "/status", null, null);
+
+            //the first request is not answered (e.g. the request or the response was lost)
+            CoapResponseTestProcessor[] responseProcessors = new CoapResponseTestProcessor[3];
+            for(int i = 0; i < 2; i++){
+                CoapRequest coapRequest = new CoapRequest(MessageType.Name.NON, MessageCode.Name.GET, targetUri);
+                responseProcessors[i] = new CoapResponseTestProcessor();
+                client.sendCoapRequest(coapRequest, responseProcessors[i], serverAddress);
+            }
+
+            Thread.sleep(300);
+            assertEquals("Wrong number of requests at server!", 1, server.getReceivedCoapMessages().size());
+
+            Thread.sleep(RequestWindowHandler.NON_TIMEOUT_MILLIS);
+            assertEquals(0, client.getRequestCollapser().getNumberOfRequestsInFlight());
+
+            //the next identical request is sent (and answered)
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.NON, MessageCode.Name.GET, targetUri);
+            responseProcessors[2] = new CoapResponseTestProcessor();
+            client.sendCoapRequest(coapRequest, responseProcessors[2], serverAddress);
+
+            Thread.sleep(300);
+            assertEquals("Wrong number of requests at server!", 2, server.getReceivedCoapMessages().size());
+            assertEquals(1, client.getRequestCollapser().getNumberOfCollapsedRequests());
+
+            CoapRequest receivedRequest = null;
+            for(CoapMessage coapMessage : server.getReceivedCoapMessages().values())
+                receivedRequest = (CoapRequest) coapMessage;
+
+            CoapResponse coapResponse = new CoapResponse(MessageType.Name.NON, MessageCode.Name.CONTENT_205);
+            coapResponse.setMessageID(1234);
+            coapResponse.setToken(receivedRequest.getToken());
+            coapResponse.setContent(STATUS.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+            server.writeMessage(coapResponse, new InetSocketAddress("127.0.0.1", client.getPort()));
+            Thread.sleep(300);
+
+            assertEquals(0, responseProcessors[0].getCoapResponses().size());
+            assertEquals(0, responseProcessors[1].getCoapResponses().size());
+            assertEquals(1, responseProcessors[2].getCoapResponses().size());
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testRequestsWithDifferentMessageTypesAreNotCollapsed() throws Exception {
+        CoapTestEndpoint server = new CoapTestEndpoint();
+        CoapClientApplication client = createClient();
+
+        try{
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getPort());
+            URI targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), "/status", null, null);
+
+            client.sendCoapRequest(new CoapRequest(MessageType.Name.NON, MessageCode.Name.GET, targetUri),
+                    new CoapResponseTestProcessor(), serverAddress);
+            client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri),
+                    new CoapResponseTestProcessor(), serverAddress);
+
+            Thread.sleep(300);
+            assertEquals("Wrong number of requests at server!", 2, server.getReceivedCoapMessages().size());
+            assertEquals(0, client.getRequestCollapser().getNumberOfCollapsedRequests());
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testLifetimeTaskIsCancelledWhenExchangeIsFinished() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+
+        try{
+            RequestCollapser requestCollapser = new RequestCollapser(executor);
+            CollapsedRequest collapsedRequest = new CollapsedRequest(requestCollapser,
+                    Collections.<Object>singletonList("key"), new CoapResponseTestProcessor());
+
+            collapsedRequest.setLifetimeFuture(executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    //nothing to do
+                }
+            }, 1, TimeUnit.HOURS));
+
+            assertEquals("Lifetime task not scheduled!", 1, executor.getQueue().size());
+
+            collapsedRequest.processCoapResponse(new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205));
+            assertTrue("Lifetime task not cancelled!", executor.getQueue().isEmpty());
+        }
+        finally{
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import com.google.common.base.Strings;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import de.uniluebeck.itm.ncoap.message.options.StringOptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link CoapMessageDecoder}, i.e. decoding of encoded messages with and without lazy decoding of
+ * options must lead to messages that equal the original ones.
+ */
+public class CoapMessageDecoderTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("localhost", 5683);
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    private static CoapMessage encodeAndDecode(CoapMessage coapMessage, boolean lazyOptionDecoding)
+            throws Exception {
+
+        ChannelBuffer encodedMessage = new CoapMessageEncoder().encode(coapMessage);
+        return new CoapMessageDecoder(lazyOptionDecoding).decode(REMOTE_ENDPOINT, encodedMessage);
+    }
+
+
+    @Test
+    public void testDecodeRequestWithOptionsAndContent() throws Exception {
+        URI targetUri = new URI("coap", null, "example.org", 5684, "/path/to/service", "param1=1&param2=2", null);
+
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.POST, targetUri);
+        coapRequest.setMessageID(12345);
+        coapRequest.setToken(new Token(new byte[]{1, 2, 3, 4}));
+        coapRequest.setContent("Some content...".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+        CoapMessage eagerlyDecoded = encodeAndDecode(coapRequest, false);
+        CoapMessage lazilyDecoded = encodeAndDecode(coapRequest, true);
+
+        assertEquals(coapRequest, eagerlyDecoded);
+        assertEquals(coapRequest, lazilyDecoded);
+        assertEquals("/path/to/service", ((CoapRequest) lazilyDecoded).getUriPath());
+    }
+
+
+    @Test
+    public void testDecodeOptionsWithExtendedDeltaAndLength() throws Exception {
+        //Proxy URI (no. 35) needs an extended delta and a value of more than 268 bytes an extended length
+        URI targetUri = new URI("coap", null, "example.org", 5683, "/" + Strings.repeat("a", 300), null, null);
+
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri, true);
+        coapRequest.setMessageID(1);
+
+        assertEquals(coapRequest, encodeAndDecode(coapRequest, false));
+        assertEquals(coapRequest, encodeAndDecode(coapRequest, true));
+    }
+
+
+    @Test
+    public void testLazilyDecodedOptionsCanBeModified() throws Exception {
+        CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+        coapResponse.setMessageID(1);
+        coapResponse.setEtag(new byte[]{1, 2, 3});
+        coapResponse.setMaxAge(120);
+
+        CoapResponse decodedResponse = (CoapResponse) encodeAndDecode(coapResponse, true);
+        decodedResponse.setObserveOption(10);
+
+        assertEquals(120, decodedResponse.getMaxAge());
+        assertArrayEquals(new byte[]{1, 2, 3}, decodedResponse.getEtag());
+        assertEquals(3, decodedResponse.getAllOptions().size());
+    }
+
+
+    @Test(expected = InvalidOptionException.class)
+    public void testLazyDecodingRejectsMalformedCriticalOption() throws Exception {
+        //CON GET with message ID 1 and URI port option (no. 7) with the default value (5683) which is not allowed
+        ChannelBuffer encodedMessage = ChannelBuffers.wrappedBuffer(
+                new byte[]{0x40, 0x01, 0x00, 0x01, 0x72, 0x16, 0x33});
+        new CoapMessageDecoder(true).decode(REMOTE_ENDPOINT, encodedMessage);
+    }
+
+
+    @Test
+    public void testLazyDecodingIgnoresMalformedElectiveOption() throws Exception {
+        //CON GET with message ID 1 and a max age option (no. 14) which is not allowed with requests
+        ChannelBuffer encodedMessage = ChannelBuffers.wrappedBuffer(
+                new byte[]{0x40, 0x01, 0x00, 0x01, (byte) 0xD1, 0x01, 0x05});
+
+        CoapMessage coapMessage = new CoapMessageDecoder(true).decode(REMOTE_ENDPOINT, encodedMessage);
+        assertTrue(coapMessage.getOptions(OptionValue.Name.MAX_AGE).isEmpty());
+    }
+
+
+    @Test
+    public void testDecodeRegisteredCustomOption() throws Exception {
+        //elective, unsafe option number from the experimental range
+        int customOption = 65003;
+        OptionValue.registerOption(customOption, OptionValue.Type.STRING, 0, 16);
+        CoapMessage.allowOption(MessageCode.Name.CONTENT_205.getNumber(), customOption, true);
+
+        CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+        coapResponse.setMessageID(1);
+        coapResponse.addOption(customOption, new StringOptionValue(customOption, "first"));
+        coapResponse.addOption(customOption, new StringOptionValue(customOption, "second"));
+
+        assertEquals(coapResponse, encodeAndDecode(coapResponse, false));
+        assertEquals(coapResponse, encodeAndDecode(coapResponse, true));
+    }
+}
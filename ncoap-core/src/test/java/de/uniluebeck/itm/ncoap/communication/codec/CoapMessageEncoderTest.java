@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import com.google.common.base.Strings;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.communication.observe.server.UpdateNotification;
+import de.uniluebeck.itm.ncoap.communication.observe.server.UpdateNotificationTemplate;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link CoapMessageEncoder}, i.e. the single-pass encoding into pooled buffers must lead to the same
+ * bytes as the encoding into dynamic buffers and update notifications created from an
+ * {@link UpdateNotificationTemplate} must lead to the same bytes as equal {@link CoapResponse}s.
+ */
+public class CoapMessageEncoderTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    private static void assertSameEncoding(CoapMessage coapMessage) throws Exception {
+        ChannelBuffer expected = new CoapMessageEncoder(null).encode(coapMessage);
+        ChannelBuffer actual = new CoapMessageEncoder(new FixedSizeEncodingBufferPool(64, 1)).encode(coapMessage);
+
+        assertTrue("Encodings differ: " + ChannelBuffers.hexDump(expected) + " vs. " + ChannelBuffers.hexDump(actual),
+                ChannelBuffers.equals(expected, actual));
+    }
+
+
+    @Test
+    public void testEmptyMessages() throws Exception {
+        assertSameEncoding(CoapMessage.createEmptyAcknowledgement(12345));
+        assertSameEncoding(CoapMessage.createEmptyReset(1));
+        assertSameEncoding(CoapMessage.createEmptyConfirmableMessage(65535));
+    }
+
+
+    @Test
+    public void testRequestWithOptionsAndContent() throws Exception {
+        URI targetUri = new URI("coap", null, "example.org", 5684, "/path/to/service", "param1=1&param2=2", null);
+
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.POST, targetUri);
+        coapRequest.setMessageID(12345);
+        coapRequest.setToken(new Token(new byte[]{1, 2, 3, 4}));
+        coapRequest.setContent("Some content...".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+        assertSameEncoding(coapRequest);
+    }
+
+
+    @Test
+    public void testOptionsWithExtendedDeltaAndLength() throws Exception {
+        URI targetUri = new URI("coap", null, "example.org", 5683, "/" + Strings.repeat("a", 300), null, null);
+
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri, true);
+        coapRequest.setMessageID(1);
+
+        assertSameEncoding(coapRequest);
+    }
+
+
+    private static CoapResponse createResponse(int messageID, Token token, long sequenceNumber){
+        CoapResponse coapResponse = new CoapResponse(MessageType.Name.CON, MessageCode.Name.CONTENT_205);
+        coapResponse.setMessageID(messageID);
+        coapResponse.setToken(token);
+        coapResponse.setEtag(new byte[]{1, 2, 3, 4});
+        coapResponse.setMaxAge(120);
+        coapResponse.setContent("Some status...".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        coapResponse.setObserveOption(sequenceNumber);
+        return coapResponse;
+    }
+
+
+    private static void assertSameEncoding(CoapMessage expected, CoapMessage actual) throws Exception {
+        for(EncodingBufferPool bufferPool : new EncodingBufferPool[]{null, new FixedSizeEncodingBufferPool(64, 1)}){
+            ChannelBuffer expectedEncoding = new CoapMessageEncoder(bufferPool).encode(expected);
+            ChannelBuffer actualEncoding = new CoapMessageEncoder(bufferPool).encode(actual);
+
+            assertTrue("Encodings differ: " + ChannelBuffers.hexDump(expectedEncoding) + " vs. " +
+                    ChannelBuffers.hexDump(actualEncoding), ChannelBuffers.equals(expectedEncoding, actualEncoding));
+        }
+    }
+
+
+    @Test
+    public void testUpdateNotificationsShareEncodedTail() throws Exception {
+        CoapResponse prototype = createResponse(1, new Token(new byte[0]), 0);
+        prototype.removeOptions(OptionValue.Name.OBSERVE);
+        UpdateNotificationTemplate template = new UpdateNotificationTemplate(prototype);
+
+        for(int i = 1; i <= 3; i++){
+            Token token = new Token(new byte[]{(byte) i, 2, 3});
+            UpdateNotification updateNotification =
+                    template.createUpdateNotification(MessageType.Name.CON, token, 1000 + i);
+
+            //sequence numbers of different lengths
+            updateNotification.setObserveOption(i * 1000);
+
+            assertSame(template, updateNotification.getTemplate());
+            assertEquals(createResponse(1000 + i, token, i * 1000), updateNotification);
+            assertSameEncoding(createResponse(1000 + i, token, i * 1000), updateNotification);
+        }
+
+        assertNotNull("Tail was not encoded!", template.getEncodedTail());
+    }
+
+
+    @Test
+    public void testModifiedUpdateNotificationIsDetached() throws Exception {
+        CoapResponse prototype = createResponse(1, new Token(new byte[0]), 0);
+        prototype.removeOptions(OptionValue.Name.OBSERVE);
+        UpdateNotificationTemplate template = new UpdateNotificationTemplate(prototype);
+
+        Token token = new Token(new byte[]{1, 2, 3});
+        UpdateNotification updateNotification = template.createUpdateNotification(MessageType.Name.NON, token, 1);
+        updateNotification.setObserveOption(5);
+        updateNotification.setMaxAge(30);
+
+        CoapResponse expected = createResponse(1, token, 5);
+        expected.setMessageType(MessageType.Name.NON.getNumber());
+        expected.setMaxAge(30);
+
+        assertNull("Modified update notification was not detached!", updateNotification.getTemplate());
+        assertSameEncoding(expected, updateNotification);
+    }
+
+
+    @Test
+    public void testReleasedBuffersAreReused() throws Exception {
+        FixedSizeEncodingBufferPool bufferPool = new FixedSizeEncodingBufferPool(64, 1);
+
+        ChannelBuffer first = bufferPool.acquire(10);
+        ChannelBuffer tooLarge = bufferPool.acquire(100);
+        bufferPool.release(first);
+        bufferPool.release(tooLarge);
+
+        assertEquals("Wrong number of pooled buffers!", 1, bufferPool.size());
+        assertSame(first, bufferPool.acquire(20));
+        assertEquals(0, bufferPool.size());
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link DatagramWriteCoalescer}, i.e. queued datagrams must be passed in order as soon as the maximum
+ * batch size or the maximum latency is reached, before any other downstream event and immediately if no flush task
+ * can be scheduled.
+ */
+public class DatagramWriteCoalescerTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("127.0.0.1", 5683);
+
+    private ScheduledExecutorService executorService;
+    private ChannelFactory channelFactory;
+    private List<ChannelEvent> passedEvents;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Before
+    public void setup(){
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        channelFactory = new NioDatagramChannelFactory();
+        passedEvents = new CopyOnWriteArrayList<>();
+    }
+
+
+    @After
+    public void shutdown(){
+        channelFactory.releaseExternalResources();
+        executorService.shutdownNow();
+    }
+
+
+    private Channel createChannel(DatagramWriteCoalescer writeCoalescer){
+        ChannelPipeline pipeline = Channels.pipeline();
+
+        //records all events passed by the coalescer and completes the writes
+        pipeline.addLast("Recorder", new SimpleChannelDownstreamHandler(){
+            @Override
+            public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+                passedEvents.add(evt);
+
+                if(evt instanceof MessageEvent)
+                    evt.getFuture().setSuccess();
+                else
+                    ctx.sendDownstream(evt);
+            }
+        });
+
+        pipeline.addLast("Coalescer", writeCoalescer);
+
+        return channelFactory.newChannel(pipeline);
+    }
+
+
+    private static ChannelFuture write(Channel channel, int number){
+        return Channels.write(channel, ChannelBuffers.wrappedBuffer(new byte[]{(byte) number}), REMOTE_ENDPOINT);
+    }
+
+
+    private void assertPassedWrites(int... numbers){
+        for(int i = 0; i < numbers.length; i++){
+            ChannelBuffer datagram = (ChannelBuffer) ((MessageEvent) passedEvents.get(i)).getMessage();
+            assertEquals("Wrong datagram at position " + i, numbers[i], datagram.getByte(0));
+        }
+    }
+
+
+    @Test
+    public void testQueueIsFlushedWhenMaximumBatchSizeIsReached() throws Exception {
+        DatagramWriteCoalescer writeCoalescer = new DatagramWriteCoalescer(executorService, 4, 1, TimeUnit.HOURS);
+        Channel channel = createChannel(writeCoalescer);
+
+        ChannelFuture firstFuture = write(channel, 1);
+        write(channel, 2);
+        write(channel, 3);
+
+        assertTrue(passedEvents.isEmpty());
+        assertFalse(firstFuture.isDone());
+        assertEquals(3, writeCoalescer.getNumberOfPendingWrites());
+
+        write(channel, 4);
+
+        assertEquals(4, passedEvents.size());
+        assertPassedWrites(1, 2, 3, 4);
+        assertTrue(firstFuture.isSuccess());
+        assertEquals(0, writeCoalescer.getNumberOfPendingWrites());
+    }
+
+
+    @Test
+    public void testQueueIsFlushedAfterMaximumLatency() throws Exception {
+        DatagramWriteCoalescer writeCoalescer =
+                new DatagramWriteCoalescer(executorService, 100, 50, TimeUnit.MILLISECONDS);
+        Channel channel = createChannel(writeCoalescer);
+
+        write(channel, 1);
+        write(channel, 2).await(1, TimeUnit.SECONDS);
+
+        assertEquals(2, passedEvents.size());
+        assertPassedWrites(1, 2);
+    }
+
+
+    @Test
+    public void testQueueIsFlushedBeforeOtherEvents() throws Exception {
+        DatagramWriteCoalescer writeCoalescer = new DatagramWriteCoalescer(executorService, 100, 1, TimeUnit.HOURS);
+        Channel channel = createChannel(writeCoalescer);
+
+        write(channel, 1);
+        write(channel, 2);
+        channel.close().awaitUninterruptibly();
+
+        assertEquals(3, passedEvents.size());
+        assertPassedWrites(1, 2);
+        assertTrue(passedEvents.get(2) instanceof ChannelStateEvent);
+    }
+
+
+    @Test
+    public void testQueueIsFlushedImmediatelyIfExecutorRejectsFlushTask() throws Exception {
+        DatagramWriteCoalescer writeCoalescer =
+                new DatagramWriteCoalescer(executorService, 100, 50, TimeUnit.MILLISECONDS);
+        Channel channel = createChannel(writeCoalescer);
+
+        executorService.shutdown();
+
+        assertTrue(write(channel, 1).isSuccess());
+        assertTrue(write(channel, 2).isSuccess());
+
+        assertEquals(2, passedEvents.size());
+        assertPassedWrites(1, 2);
+        assertEquals(0, writeCoalescer.getNumberOfPendingWrites());
+    }
+}
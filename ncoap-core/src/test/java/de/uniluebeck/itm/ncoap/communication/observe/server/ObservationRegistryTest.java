@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe.server;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link ObservationRegistry}, i.e. a random sequence of operations must lead to the same results as
+ * with a {@link HashMap} (by observer) and must keep the observations per webservice consistent.
+ */
+public class ObservationRegistryTest extends AbstractCoapTest {
+
+    private static final String[] PATHS = new String[]{"/service1", "/service2", "/service3"};
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    private static Set<ObservationParams> getObservations(ObservationRegistry registry, String webservicePath){
+        Set<ObservationParams> result = new HashSet<>();
+
+        for(int partition = 0; partition < registry.getNumberOfPartitions(); partition++){
+            ObservationParams[] observations = registry.copyObservations(partition, webservicePath, null);
+            for(int i = 0; observations[i] != null; i++)
+                assertTrue("Observation contained twice!", result.add(observations[i]));
+        }
+
+        return result;
+    }
+
+
+    @Test
+    public void testRandomOperationsAgainstHashMap() throws Exception {
+        Random random = new Random(1234);
+
+        InetSocketAddress[] remoteEndpoints = new InetSocketAddress[]{
+                new InetSocketAddress("127.0.0.1", 5683),
+                new InetSocketAddress("127.0.0.1", 5684),
+                new InetSocketAddress("::1", 5683)
+        };
+
+        //use two partitions and few tokens to get many replacements and removals within the same partition
+        ObservationRegistry registry = new ObservationRegistry(2);
+        Map<List<Object>, ObservationParams> reference = new HashMap<>();
+
+        for(int i = 0; i < 100000; i++){
+            InetSocketAddress remoteEndpoint = remoteEndpoints[random.nextInt(remoteEndpoints.length)];
+            Token token = new Token(new byte[]{(byte) random.nextInt(20)});
+            List<Object> key = Arrays.<Object>asList(remoteEndpoint, token);
+
+            switch(random.nextInt(3)){
+                case 0: {
+                    ObservationParams params = new ObservationParams(remoteEndpoint, token,
+                            PATHS[random.nextInt(PATHS.length)], new HashSet<byte[]>());
+                    assertSame(reference.put(key, params), registry.add(params));
+                    break;
+                }
+                case 1: {
+                    assertSame(reference.remove(key), registry.remove(remoteEndpoint, token));
+                    break;
+                }
+                default: {
+                    assertSame(reference.get(key), registry.get(remoteEndpoint, token));
+                }
+            }
+        }
+
+        assertEquals("Wrong size!", reference.size(), registry.size());
+
+        for(String path : PATHS){
+            Set<ObservationParams> expected = new HashSet<>();
+            for(ObservationParams params : reference.values()){
+                if(params.getWebservicePath().equals(path))
+                    expected.add(params);
+            }
+
+            assertEquals("Wrong observations of " + path, expected, getObservations(registry, path));
+        }
+    }
+
+
+    @Test
+    public void testEstimatedMemoryUsage() throws Exception {
+        InetSocketAddress remoteEndpoint = new InetSocketAddress("127.0.0.1", 5683);
+        ObservationRegistry registry = new ObservationRegistry(4);
+
+        Set<byte[]> etags = new HashSet<>();
+        etags.add(new byte[]{1, 2, 3, 4});
+
+        ObservationParams first = new ObservationParams(remoteEndpoint, new Token(new byte[]{1}), PATHS[0],
+                new HashSet<byte[]>());
+        ObservationParams second = new ObservationParams(remoteEndpoint, new Token(new byte[]{2}), PATHS[0], etags);
+
+        assertTrue(second.getEstimatedMemoryUsage() > first.getEstimatedMemoryUsage());
+
+        registry.add(first);
+        registry.add(second);
+        assertEquals(first.getEstimatedMemoryUsage() + second.getEstimatedMemoryUsage(),
+                registry.getEstimatedMemoryUsage());
+
+        registry.remove(remoteEndpoint, new Token(new byte[]{1}));
+        registry.remove(remoteEndpoint, new Token(new byte[]{2}));
+        assertEquals(0, registry.getEstimatedMemoryUsage());
+        assertTrue(getObservations(registry, PATHS[0]).isEmpty());
+    }
+}
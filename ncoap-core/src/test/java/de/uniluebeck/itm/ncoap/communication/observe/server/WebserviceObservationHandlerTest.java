@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe.server;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.application.server.InternalServiceRemovedFromServerMessage;
+import de.uniluebeck.itm.ncoap.endpoints.server.ObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link WebserviceObservationHandler}, i.e. all observers must receive the update notifications in
+ * the order of the status changes (possibly skipping or repeating states if notifications are sent in parallel)
+ * and the final status. Status changes within the minimum notification interval must be coalesced and dropped if the
+ * webservice is removed.
+ */
+public class WebserviceObservationHandlerTest extends AbstractCoapTest {
+
+    private static final int NUMBER_OF_OBSERVERS = 200;
+    private static final int FINAL_STATUS = 20;
+
+    private ScheduledExecutorService executorService;
+    private ChannelFactory channelFactory;
+    private ObservableTestWebservice webservice;
+
+    private Map<InetSocketAddress, List<CoapResponse>> notifications;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Before
+    public void setup(){
+        executorService = Executors.newScheduledThreadPool(4);
+        channelFactory = new NioDatagramChannelFactory();
+        webservice = new ObservableTestWebservice("/observable", 1, 0);
+        notifications = new ConcurrentHashMap<>();
+    }
+
+
+    @After
+    public void shutdown(){
+        channelFactory.releaseExternalResources();
+        executorService.shutdownNow();
+    }
+
+
+    private Channel createChannel(WebserviceObservationHandler observationHandler) throws Exception {
+        return createChannel(observationHandler, "/observable");
+    }
+
+
+    private Channel createChannel(WebserviceObservationHandler observationHandler, String requestPath)
+            throws Exception {
+
+        ChannelPipeline pipeline = Channels.pipeline();
+
+        //records all responses per observer and completes the writes
+        pipeline.addLast("Recorder", new SimpleChannelDownstreamHandler(){
+            @Override
+            public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+                List<CoapResponse> responses = notifications.get((InetSocketAddress) me.getRemoteAddress());
+                responses.add((CoapResponse) me.getMessage());
+                me.getFuture().setSuccess();
+            }
+        });
+
+        pipeline.addLast("Observation Handler", observationHandler);
+
+        Channel channel = channelFactory.newChannel(pipeline);
+        observationHandler.setChannelHandlerContext(pipeline.getContext("Observation Handler"));
+        Channels.write(channel, new InternalObservableWebserviceRegistrationMessage(webservice));
+
+        //Start the observations and send the first response (which sets the content format)
+        for(int i = 0; i < NUMBER_OF_OBSERVERS; i++){
+            InetSocketAddress remoteEndpoint = new InetSocketAddress("127.0.0.1", 10000 + i);
+            Token token = new Token(new byte[]{(byte) (i >>> 8), (byte) i});
+            notifications.put(remoteEndpoint, Collections.synchronizedList(new ArrayList<CoapResponse>()));
+
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                    new URI("coap://localhost" + requestPath.replace("#", Integer.toString(i))));
+            coapRequest.setToken(token);
+            coapRequest.setObserve();
+            Channels.fireMessageReceived(channel, coapRequest, remoteEndpoint);
+
+            CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+            coapResponse.setToken(token);
+            coapResponse.setContent("Status #1".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+            coapResponse.setObserveOption(0);
+            Channels.write(channel, coapResponse, remoteEndpoint);
+        }
+
+        return channel;
+    }
+
+
+    private static int getStatus(CoapResponse coapResponse){
+        String content = coapResponse.getContent().toString(CoapMessage.CHARSET);
+        return Integer.parseInt(content.substring(content.indexOf('#') + 1));
+    }
+
+
+    private void awaitLastResponses(MessageCode.Name messageCode) throws Exception {
+        for(List<CoapResponse> responses : notifications.values()){
+            for(int i = 0; i < 100; i++){
+                synchronized (responses){
+                    if(responses.get(responses.size() - 1).getMessageCodeName() == messageCode)
+                        break;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+
+    @Test
+    public void testUpdateNotificationsAreSentInOrder() throws Exception {
+        Channel channel = createChannel(new WebserviceObservationHandler(executorService, 4));
+
+        for(int status = 2; status <= FINAL_STATUS; status++)
+            webservice.setResourceStatus(status, 120);
+
+        Channels.write(channel, new InternalServiceRemovedFromServerMessage(webservice.getPath()));
+        awaitLastResponses(MessageCode.Name.NOT_FOUND_404);
+
+        for(Map.Entry<InetSocketAddress, List<CoapResponse>> entry : notifications.entrySet()){
+            List<CoapResponse> responses = entry.getValue();
+            String observer = "Observer " + entry.getKey();
+
+            assertEquals(observer, MessageCode.Name.NOT_FOUND_404,
+                    responses.get(responses.size() - 1).getMessageCodeName());
+
+            //skip the first response
+            int previousStatus = 1;
+            long previousSequenceNumber = 0;
+            for(CoapResponse updateNotification : responses.subList(1, responses.size() - 1)){
+                assertTrue(observer, getStatus(updateNotification) >= previousStatus);
+                assertTrue(observer, updateNotification.getObservationSequenceNumber() > previousSequenceNumber);
+
+                previousStatus = getStatus(updateNotification);
+                previousSequenceNumber = updateNotification.getObservationSequenceNumber();
+            }
+
+            assertEquals(observer, FINAL_STATUS, previousStatus);
+        }
+    }
+
+
+    @Test
+    public void testObserversOfServiceAtParameterPathAreNotified() throws Exception {
+        webservice = new ObservableTestWebservice("/devices/{id}", 1, 0);
+        Channel channel = createChannel(new WebserviceObservationHandler(executorService, 4), "/devices/#");
+
+        webservice.setResourceStatus(FINAL_STATUS, 120);
+
+        Channels.write(channel, new InternalServiceRemovedFromServerMessage(webservice.getPath()));
+        awaitLastResponses(MessageCode.Name.NOT_FOUND_404);
+
+        for(Map.Entry<InetSocketAddress, List<CoapResponse>> entry : notifications.entrySet()){
+            List<CoapResponse> responses = entry.getValue();
+            String observer = "Observer " + entry.getKey();
+
+            //the first response, the update notification and the final 404
+            assertEquals(observer, 3, responses.size());
+            assertEquals(observer, FINAL_STATUS, getStatus(responses.get(1)));
+            assertEquals(observer, MessageCode.Name.NOT_FOUND_404, responses.get(2).getMessageCodeName());
+        }
+    }
+
+
+    @Test
+    public void testStatusChangesWithinMinimumIntervalAreCoalesced() throws Exception {
+        webservice.setMinNotificationInterval(300);
+        createChannel(new WebserviceObservationHandler(executorService, 4));
+
+        for(int status = 2; status <= FINAL_STATUS; status++)
+            webservice.setResourceStatus(status, 120);
+
+        Thread.sleep(1000);
+
+        for(Map.Entry<InetSocketAddress, List<CoapResponse>> entry : notifications.entrySet()){
+            List<CoapResponse> responses = entry.getValue();
+            String observer = "Observer " + entry.getKey();
+
+            //the first response, the first change (sent immediately) and the latest change (sent after the interval)
+            assertTrue(observer + " received " + responses.size() + " responses.", responses.size() <= 3);
+            assertEquals(observer, FINAL_STATUS, getStatus(responses.get(responses.size() - 1)));
+        }
+    }
+
+
+    @Test
+    public void testDeferredStatusChangeIsDroppedOnRemoval() throws Exception {
+        webservice.setMinNotificationInterval(1000);
+        Channel channel = createChannel(new WebserviceObservationHandler(executorService, 4));
+
+        //the first change is sent immediately, the second is deferred
+        webservice.setResourceStatus(2, 120);
+        Thread.sleep(50);
+        webservice.setResourceStatus(3, 120);
+
+        Channels.write(channel, new InternalServiceRemovedFromServerMessage(webservice.getPath()));
+        awaitLastResponses(MessageCode.Name.NOT_FOUND_404);
+
+        //a new observer of a new webservice at the same path must not receive the status of the removed one
+        InetSocketAddress remoteEndpoint = new InetSocketAddress("127.0.0.1", 9999);
+        notifications.put(remoteEndpoint, Collections.synchronizedList(new ArrayList<CoapResponse>()));
+
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                new URI("coap://localhost/observable"));
+        coapRequest.setToken(new Token(new byte[]{1}));
+        coapRequest.setObserve();
+        Channels.fireMessageReceived(channel, coapRequest, remoteEndpoint);
+
+        CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+        coapResponse.setToken(new Token(new byte[]{1}));
+        coapResponse.setContent("Status #100".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        coapResponse.setObserveOption(0);
+        Channels.write(channel, coapResponse, remoteEndpoint);
+
+        Thread.sleep(1500);
+
+        List<CoapResponse> responses = notifications.get(remoteEndpoint);
+        assertEquals("Status of removed service was sent to new observer!", 1, responses.size());
+        assertEquals(100, getStatus(responses.get(0)));
+        for(Map.Entry<InetSocketAddress, List<CoapResponse>> entry : notifications.entrySet()){
+            if(!entry.getKey().equals(remoteEndpoint))
+                assertEquals(MessageCode.Name.NOT_FOUND_404,
+                        entry.getValue().get(entry.getValue().size() - 1).getMessageCodeName());
+        }
+    }
+
+
+    @Test
+    public void testUpdateNotificationsAreSentSynchronouslyWithoutExecutor() throws Exception {
+        createChannel(new WebserviceObservationHandler());
+
+        for(int status = 2; status <= FINAL_STATUS; status++){
+            webservice.setResourceStatus(status, 120);
+
+            for(List<CoapResponse> responses : notifications.values())
+                assertEquals(status, getStatus(responses.get(responses.size() - 1)));
+        }
+
+        for(List<CoapResponse> responses : notifications.values())
+            assertEquals(FINAL_STATUS, responses.size());
+    }
+}
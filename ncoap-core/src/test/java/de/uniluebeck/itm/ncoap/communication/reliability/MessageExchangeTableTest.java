@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.communication.reliability.incoming.IncomingMessageExchange;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link MessageExchangeTable}, i.e. a random sequence of operations must lead to the same results as
+ * with a {@link HashMap}.
+ */
+public class MessageExchangeTableTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testRandomOperationsAgainstHashMap() throws Exception {
+        Random random = new Random(1234);
+
+        InetSocketAddress[] remoteEndpoints = new InetSocketAddress[]{
+                new InetSocketAddress("127.0.0.1", 5683),
+                new InetSocketAddress("127.0.0.1", 5684),
+                new InetSocketAddress("::1", 5683)
+        };
+
+        //use a single stripe to get many collisions, resizes and deletions within the same stripe
+        MessageExchangeTable<IncomingMessageExchange> table = new MessageExchangeTable<>(1);
+        Map<List<Object>, IncomingMessageExchange> reference = new HashMap<>();
+
+        for(int i = 0; i < 100000; i++){
+            InetSocketAddress remoteEndpoint = remoteEndpoints[random.nextInt(remoteEndpoints.length)];
+            int messageID = random.nextInt(500);
+            List<Object> key = Arrays.<Object>asList(remoteEndpoint, messageID);
+
+            switch(random.nextInt(3)){
+                case 0: {
+                    IncomingMessageExchange messageExchange = new IncomingMessageExchange(remoteEndpoint, messageID);
+                    assertSame(reference.put(key, messageExchange),
+                            table.put(remoteEndpoint, messageID, messageExchange));
+                    break;
+                }
+                case 1: {
+                    assertSame(reference.remove(key), table.remove(remoteEndpoint, messageID));
+                    break;
+                }
+                default: {
+                    assertSame(reference.get(key), table.get(remoteEndpoint, messageID));
+                }
+            }
+        }
+
+        assertEquals("Wrong size!", reference.size(), table.size());
+
+        for(Map.Entry<List<Object>, IncomingMessageExchange> entry : reference.entrySet()){
+            InetSocketAddress remoteEndpoint = (InetSocketAddress) entry.getKey().get(0);
+            int messageID = (Integer) entry.getKey().get(1);
+            assertSame(entry.getValue(), table.get(remoteEndpoint, messageID));
+        }
+    }
+
+
+    @Test
+    public void testConditionalOperations() throws Exception {
+        InetSocketAddress remoteEndpoint = new InetSocketAddress("127.0.0.1", 5683);
+        MessageExchangeTable<IncomingMessageExchange> table = new MessageExchangeTable<>();
+
+        IncomingMessageExchange first = new IncomingMessageExchange(remoteEndpoint, 1);
+        IncomingMessageExchange second = new IncomingMessageExchange(remoteEndpoint, 1);
+
+        assertNull(table.putIfAbsent(remoteEndpoint, 1, first));
+        assertSame(first, table.putIfAbsent(remoteEndpoint, 1, second));
+        assertFalse(table.remove(remoteEndpoint, 1, second));
+        assertTrue(table.remove(remoteEndpoint, 1, first));
+        assertFalse(table.contains(remoteEndpoint, 1));
+    }
+}
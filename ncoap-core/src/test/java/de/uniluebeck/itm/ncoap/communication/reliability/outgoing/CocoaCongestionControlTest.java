@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.DatagramTransport;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link CocoaCongestionControl}, i.e. the retransmission timeouts must adapt to the measured round trip
+ * times, age if there are no measurements and the state must be bounded. A {@link CoapClientApplication} must use
+ * the {@link CongestionControl} it was created with.
+ */
+public class CocoaCongestionControlTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("localhost", 5683);
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testStrongRoundTripTimesDecreaseTimeout() throws Exception {
+        CocoaCongestionControl congestionControl = new CocoaCongestionControl();
+        assertEquals(OutgoingMessageReliabilityHandler.ACK_TIMEOUT_MILLIS,
+                congestionControl.getRetransmissionTimeout(REMOTE_ENDPOINT, 0));
+
+        //first sample: RTO(strong) = 100 + 4 * 50 = 300, RTO = 0.5 * 300 + 0.5 * 2000 = 1150
+        long roundTripTime = TimeUnit.MILLISECONDS.toNanos(100);
+        congestionControl.processRoundTripTime(REMOTE_ENDPOINT, roundTripTime, 0, 0);
+        assertEquals(1150, congestionControl.getRetransmissionTimeout(REMOTE_ENDPOINT, 0));
+
+        for(int i = 0; i < 20; i++)
+            congestionControl.processRoundTripTime(REMOTE_ENDPOINT, roundTripTime, 0, 0);
+
+        long retransmissionTimeout = congestionControl.getRetransmissionTimeout(REMOTE_ENDPOINT, 0);
+        assertTrue("RTO too large: " + retransmissionTimeout, retransmissionTimeout < 200);
+        assertTrue("RTO too small: " + retransmissionTimeout, retransmissionTimeout >= 100);
+    }
+
+
+    @Test
+    public void testWeakAndAmbiguousRoundTripTimes() throws Exception {
+        CocoaCongestionControl congestionControl = new CocoaCongestionControl();
+
+        //more than two retransmissions are ignored
+        congestionControl.processRoundTripTime(REMOTE_ENDPOINT, TimeUnit.MILLISECONDS.toNanos(100), 3, 0);
+        assertEquals(0, congestionControl.getNumberOfEndpoints());
+
+        //weak sample: RTO(weak) = 4000 + 1 * 2000 = 6000, RTO = 0.25 * 6000 + 0.75 * 2000 = 3000
+        congestionControl.processRoundTripTime(REMOTE_ENDPOINT, TimeUnit.MILLISECONDS.toNanos(4000), 1, 0);
+        assertEquals(3000, congestionControl.getRetransmissionTimeout(REMOTE_ENDPOINT, 0));
+    }
+
+
+    @Test
+    public void testVariableBackoff() throws Exception {
+        CocoaCongestionControl congestionControl = new CocoaCongestionControl();
+
+        assertEquals(1500, congestionControl.getNextTimeout(500, 500));
+        assertEquals(4000, congestionControl.getNextTimeout(2000, 2000));
+        assertEquals(6000, congestionControl.getNextTimeout(4000, 4000));
+        assertEquals(CocoaCongestionControl.MAX_TIMEOUT_MILLIS, congestionControl.getNextTimeout(4000, 50000));
+
+        long initialTimeout = congestionControl.getInitialTimeout(1000);
+        assertTrue("Initial timeout out of range: " + initialTimeout, initialTimeout >= 1000 && initialTimeout <= 1500);
+    }
+
+
+    @Test
+    public void testAging() throws Exception {
+        CocoaCongestionControl congestionControl = new CocoaCongestionControl();
+
+        long roundTripTime = TimeUnit.MILLISECONDS.toNanos(100);
+        for(int i = 0; i < 20; i++)
+            congestionControl.processRoundTripTime(REMOTE_ENDPOINT, roundTripTime, 0, 0);
+
+        long retransmissionTimeout = congestionControl.getRetransmissionTimeout(REMOTE_ENDPOINT, 0);
+
+        //no aging within 16 times the RTO
+        long now = TimeUnit.MILLISECONDS.toNanos(15 * retransmissionTimeout);
+        assertEquals(retransmissionTimeout, congestionControl.getRetransmissionTimeout(REMOTE_ENDPOINT, now));
+
+        //small RTO is doubled after 16 times the RTO without update
+        now = TimeUnit.MILLISECONDS.toNanos(17 * retransmissionTimeout);
+        long agedRetransmissionTimeout = congestionControl.getRetransmissionTimeout(REMOTE_ENDPOINT, now);
+        assertTrue("RTO not aged: " + agedRetransmissionTimeout,
+                Math.abs(2 * retransmissionTimeout - agedRetransmissionTimeout) <= 1);
+
+        //large RTO moves towards the initial RTO after 4 times the RTO without update
+        InetSocketAddress otherEndpoint = new InetSocketAddress("localhost", 5684);
+        congestionControl.processRoundTripTime(otherEndpoint, TimeUnit.MILLISECONDS.toNanos(6000), 1, 0);
+        assertEquals(3750, congestionControl.getRetransmissionTimeout(otherEndpoint, 0));
+
+        now = TimeUnit.MILLISECONDS.toNanos(4 * 3750 + 1);
+        assertEquals(2875, congestionControl.getRetransmissionTimeout(otherEndpoint, now));
+    }
+
+
+    @Test
+    public void testNumberOfEndpointsIsBounded() throws Exception {
+        CocoaCongestionControl congestionControl = new CocoaCongestionControl(10);
+
+        for(int port = 5683; port < 5783; port++)
+            congestionControl.processRoundTripTime(new InetSocketAddress("localhost", port), 1000000, 0, 0);
+
+        assertEquals(10, congestionControl.getNumberOfEndpoints());
+        assertEquals(OutgoingMessageReliabilityHandler.ACK_TIMEOUT_MILLIS,
+                congestionControl.getRetransmissionTimeout(REMOTE_ENDPOINT, 0));
+    }
+
+
+    @Test
+    public void testClientUsesGivenCongestionControl() throws Exception {
+        CocoaCongestionControl congestionControl = new CocoaCongestionControl();
+        CoapClientApplication client = new CoapClientApplication("CoAP Client", 0, 4, 8,
+                DatagramTransport.getDefault(), congestionControl);
+
+        try{
+            congestionControl.processRoundTripTime(REMOTE_ENDPOINT, TimeUnit.MILLISECONDS.toNanos(100), 0);
+
+            long retransmissionTimeout = client.getRetransmissionTimeout(REMOTE_ENDPOINT);
+            assertTrue("RTO not adapted: " + retransmissionTimeout,
+                    retransmissionTimeout < OutgoingMessageReliabilityHandler.ACK_TIMEOUT_MILLIS);
+        }
+        finally{
+            client.shutdown();
+        }
+    }
+}
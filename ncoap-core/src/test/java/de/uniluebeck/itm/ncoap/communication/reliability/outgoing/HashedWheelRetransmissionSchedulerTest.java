@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link HashedWheelRetransmissionScheduler}, i.e. due retransmissions must neither fire too early
+ * nor (significantly) too late, cancelled retransmissions must not fire at all and the tick task must only run while
+ * retransmissions are scheduled.
+ */
+public class HashedWheelRetransmissionSchedulerTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("localhost", 5683);
+
+    private ScheduledThreadPoolExecutor executorService;
+    private HashedWheelRetransmissionScheduler scheduler;
+    private Map<Integer, Long> firingTimes;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Before
+    public void createScheduler(){
+        executorService = new ScheduledThreadPoolExecutor(2);
+        firingTimes = new ConcurrentHashMap<>();
+
+        //Use a small wheel to make sure that retransmissions spanning several rounds work
+        scheduler = new HashedWheelRetransmissionScheduler(1, 64);
+        scheduler.initialize(executorService, new RetransmissionScheduler.DueRetransmissionProcessor() {
+            @Override
+            public void processDueRetransmission(OutgoingReliableMessageExchange messageExchange,
+                                                 long retransmissionTime) {
+                firingTimes.put(messageExchange.getMessageID(), System.currentTimeMillis());
+            }
+        });
+    }
+
+
+    @After
+    public void shutdownScheduler(){
+        scheduler.shutdown();
+        executorService.shutdownNow();
+    }
+
+
+    private static OutgoingReliableMessageExchange createMessageExchange(int messageID){
+        return new OutgoingReliableMessageExchange(REMOTE_ENDPOINT,
+                CoapMessage.createEmptyConfirmableMessage(messageID));
+    }
+
+
+    @Test
+    public void testRetransmissionsFireInTime() throws Exception {
+        long now = System.currentTimeMillis();
+
+        long[] delays = new long[]{0, 30, 150, 400};
+        for(int i = 0; i < delays.length; i++)
+            scheduler.schedule(createMessageExchange(i), now + delays[i]);
+
+        Thread.sleep(1000);
+
+        assertEquals("Wrong number of fired retransmissions!", delays.length, firingTimes.size());
+        assertEquals("Wrong number of scheduled retransmissions!", 0, scheduler.size());
+
+        for(int i = 0; i < delays.length; i++){
+            long firingTime = firingTimes.get(i);
+            assertTrue("Retransmission fired too early!", firingTime >= now + delays[i]);
+            assertTrue("Retransmission fired too late!", firingTime <= now + delays[i] + 100);
+        }
+    }
+
+
+    @Test
+    public void testCancelledRetransmissionDoesNotFire() throws Exception {
+        long now = System.currentTimeMillis();
+
+        OutgoingReliableMessageExchange cancelledExchange = createMessageExchange(1);
+        scheduler.schedule(cancelledExchange, now + 200);
+        scheduler.schedule(createMessageExchange(2), now + 200);
+
+        Thread.sleep(50);
+        cancelledExchange.stopRetransmission();
+        scheduler.cancel(cancelledExchange);
+
+        Thread.sleep(500);
+
+        assertFalse("Cancelled retransmission fired!", firingTimes.containsKey(1));
+        assertTrue("Retransmission did not fire!", firingTimes.containsKey(2));
+        assertEquals("Wrong number of scheduled retransmissions!", 0, scheduler.size());
+    }
+
+
+    @Test
+    public void testTickTaskOnlyRunsWhileRetransmissionsAreScheduled() throws Exception {
+        Thread.sleep(50);
+        assertTrue("Tick task runs without scheduled retransmissions!", executorService.getQueue().isEmpty());
+
+        scheduler.schedule(createMessageExchange(1), System.currentTimeMillis() + 100);
+        assertFalse("Tick task not started!", executorService.getQueue().isEmpty());
+
+        Thread.sleep(300);
+        assertTrue("Retransmission did not fire!", firingTimes.containsKey(1));
+        assertTrue("Tick task still running!", executorService.getQueue().isEmpty());
+
+        //the scheduler must restart after being idle for more than one round
+        long now = System.currentTimeMillis();
+        scheduler.schedule(createMessageExchange(2), now + 50);
+
+        Thread.sleep(300);
+        assertTrue("Retransmission did not fire after idle period!", firingTimes.get(2) >= now + 50);
+    }
+
+
+    @Test
+    public void testShutdownClearsWheelAndStopsTickTask() throws Exception {
+        for(int i = 1; i <= 10; i++)
+            scheduler.schedule(createMessageExchange(i), System.currentTimeMillis() + 200);
+
+        Thread.sleep(50);
+        scheduler.shutdown();
+
+        Thread.sleep(300);
+        assertTrue("Retransmission fired after shutdown!", firingTimes.isEmpty());
+        assertEquals("Wrong number of scheduled retransmissions!", 0, scheduler.size());
+        assertTrue("Tick task still running!", executorService.getQueue().isEmpty());
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link MessageIDFactory}, i.e. all 65536 message IDs must be allocated before the factory is exhausted,
+ * retired message IDs must be reported to the observers and the ring buffers must shrink after retirement.
+ */
+public class MessageIDFactoryTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("localhost", 5683);
+    private static final long EXCHANGE_LIFETIME_MILLIS = MessageIDFactory.EXCHANGE_LIFETIME * 1000;
+
+    private ScheduledThreadPoolExecutor executorService;
+    private MessageIDFactory messageIDFactory;
+    private List<Integer> retiredMessageIDs;
+    private long now;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Before
+    public void createMessageIDFactory(){
+        executorService = new ScheduledThreadPoolExecutor(1);
+        messageIDFactory = new MessageIDFactory(executorService);
+        retiredMessageIDs = Collections.synchronizedList(new ArrayList<Integer>());
+        now = System.currentTimeMillis();
+
+        messageIDFactory.addObserver(new Observer() {
+            @Override
+            public void update(Observable o, Object arg) {
+                Object[] args = (Object[]) arg;
+                assertEquals(REMOTE_ENDPOINT, args[0]);
+                retiredMessageIDs.add((Integer) args[1]);
+            }
+        });
+    }
+
+
+    @After
+    public void shutdownMessageIDFactory(){
+        messageIDFactory.shutdown();
+        executorService.shutdownNow();
+    }
+
+
+    @Test
+    public void testAllocationUntilExhaustion() throws Exception {
+        Set<Integer> messageIDs = new HashSet<>();
+        int firstMessageID = messageIDFactory.getNextMessageID(REMOTE_ENDPOINT, now);
+        messageIDs.add(firstMessageID);
+
+        for(int i = 1; i < MessageIDFactory.MODULUS; i++){
+            int messageID = messageIDFactory.getNextMessageID(REMOTE_ENDPOINT, now + i / 1000);
+            assertEquals("Message IDs are not consecutive!", (firstMessageID + i) % MessageIDFactory.MODULUS,
+                    messageID);
+            messageIDs.add(messageID);
+        }
+
+        assertEquals("Wrong number of distinct message IDs!", MessageIDFactory.MODULUS, messageIDs.size());
+        assertEquals(MessageIDFactory.MODULUS, messageIDFactory.getRingCapacity(REMOTE_ENDPOINT));
+
+        try{
+            messageIDFactory.getNextMessageID(REMOTE_ENDPOINT, now + 1000);
+            fail("Expected NoMessageIDAvailableException!");
+        }
+        catch(NoMessageIDAvailableException e){
+            assertEquals(REMOTE_ENDPOINT, e.getRemoteEndpoint());
+            assertEquals(EXCHANGE_LIFETIME_MILLIS - 1000, e.getWaitingPeriod());
+        }
+
+        //other remote endpoints are not affected
+        messageIDFactory.getNextMessageID(new InetSocketAddress("localhost", 5684), now);
+    }
+
+
+    @Test
+    public void testRetirementNotifiesObservers() throws Exception {
+        int firstMessageID = messageIDFactory.getNextMessageID(REMOTE_ENDPOINT, now);
+        for(int i = 1; i < 10; i++)
+            messageIDFactory.getNextMessageID(REMOTE_ENDPOINT, now + i);
+
+        //nothing retires before the exchange lifetime
+        messageIDFactory.retireMessageIDs(now + EXCHANGE_LIFETIME_MILLIS - 1);
+        assertTrue(retiredMessageIDs.isEmpty());
+
+        messageIDFactory.retireMessageIDs(now + EXCHANGE_LIFETIME_MILLIS + 4);
+        assertEquals(5, retiredMessageIDs.size());
+        for(int i = 0; i < 5; i++)
+            assertEquals((firstMessageID + i) % MessageIDFactory.MODULUS, (int) retiredMessageIDs.get(i));
+
+        messageIDFactory.retireMessageIDs(now + EXCHANGE_LIFETIME_MILLIS + 10);
+        assertEquals(10, retiredMessageIDs.size());
+
+        //remote endpoints without allocated message IDs are removed
+        assertEquals(0, messageIDFactory.getRingCapacity(REMOTE_ENDPOINT));
+        messageIDFactory.getNextMessageID(REMOTE_ENDPOINT, now);
+        assertEquals(16, messageIDFactory.getRingCapacity(REMOTE_ENDPOINT));
+    }
+
+
+    @Test
+    public void testRingShrinksAfterRetirement() throws Exception {
+        for(int i = 0; i < 40000; i++)
+            messageIDFactory.getNextMessageID(REMOTE_ENDPOINT, now);
+
+        for(int i = 0; i < 10; i++)
+            messageIDFactory.getNextMessageID(REMOTE_ENDPOINT, now + 1000);
+
+        assertEquals(MessageIDFactory.MODULUS, messageIDFactory.getRingCapacity(REMOTE_ENDPOINT));
+
+        //retire all but the 10 latest message IDs
+        messageIDFactory.retireMessageIDs(now + EXCHANGE_LIFETIME_MILLIS);
+        assertEquals(40000, retiredMessageIDs.size());
+
+        int capacity = messageIDFactory.getRingCapacity(REMOTE_ENDPOINT);
+        assertTrue("Ring did not shrink (capacity: " + capacity + ")", capacity > 0 && capacity <= 32);
+
+        //the remaining message IDs are still allocated and retire later
+        messageIDFactory.retireMessageIDs(now + EXCHANGE_LIFETIME_MILLIS + 1000);
+        assertEquals(40010, retiredMessageIDs.size());
+        assertEquals(0, messageIDFactory.getRingCapacity(REMOTE_ENDPOINT));
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability.outgoing;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientOptions;
+import de.uniluebeck.itm.ncoap.application.client.Token;
+import de.uniluebeck.itm.ncoap.endpoints.CoapTestEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.CoapResponseTestProcessor;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link RequestWindowHandler}, i.e. requests exceeding NSTART must be queued and sent when an
+ * outstanding request is answered and requests exceeding the queue must be rejected. Requests without any reaction
+ * of the remote endpoint must release their slot after a timeout.
+ */
+public class RequestWindowHandlerTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testRequestsAreQueuedAndRejected() throws Exception {
+        CoapTestEndpoint server = new CoapTestEndpoint();
+
+        CoapClientApplication client = new CoapClientApplication("CoAP Client",
+                new CoapClientOptions().setRequestWindow(1, 2));
+
+        try{
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getPort());
+            InetSocketAddress clientAddress = new InetSocketAddress("127.0.0.1", client.getPort());
+            RequestWindowHandler requestWindowHandler = client.getRequestWindowHandler();
+
+            final AtomicInteger rejectedRequests = new AtomicInteger(0);
+            CoapResponseTestProcessor[] responseProcessors = new CoapResponseTestProcessor[4];
+
+            for(int i = 0; i < responseProcessors.length; i++){
+                URI targetUri = new URI("coap", null, "127.0.0.1", server.getPort(), "/service" + i, null, null);
+                CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+
+                responseProcessors[i] = new QueueFullTestProcessor(rejectedRequests);
+                client.sendCoapRequest(coapRequest, responseProcessors[i], serverAddress);
+                Thread.sleep(50);
+            }
+
+            Thread.sleep(300);
+            assertEquals("Wrong number of requests at server!", 1, server.getReceivedCoapMessages().size());
+            assertEquals(2, requestWindowHandler.getNumberOfQueuedRequests());
+            assertEquals(2, requestWindowHandler.getNumberOfQueuedRequests(serverAddress));
+            assertEquals(1, requestWindowHandler.getNumberOfOutstandingRequests());
+            assertEquals(1, requestWindowHandler.getNumberOfRejectedRequests());
+            assertEquals(1, rejectedRequests.get());
+
+            //answering the outstanding requests one by one must release the queued requests
+            for(int i = 1; i <= 3; i++){
+                CoapRequest coapRequest = (CoapRequest) server.getReceivedCoapMessages().get(
+                        server.getReceivedCoapMessages().lastKey());
+                CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+                coapResponse.setMessageID(coapRequest.getMessageID());
+                coapResponse.setToken(coapRequest.getToken());
+
+                server.writeMessage(coapResponse, clientAddress);
+                Thread.sleep(300);
+
+                assertEquals("Wrong number of requests at server!", Math.min(i + 1, 3),
+                        server.getReceivedCoapMessages().size());
+            }
+
+            for(int i = 0; i < 3; i++)
+                assertEquals("Wrong number of responses!", 1, responseProcessors[i].getCoapResponses().size());
+
+            assertEquals(0, requestWindowHandler.getNumberOfQueuedRequests());
+            assertEquals(0, requestWindowHandler.getNumberOfOutstandingRequests());
+            assertTrue(requestWindowHandler.getMaxWaitingTime() >= 300);
+        }
+        finally{
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testConfirmableRequestWithoutReactionIsFinishedAfterTimeout() throws Exception {
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        ChannelFactory channelFactory = new NioDatagramChannelFactory();
+
+        try{
+            final AtomicInteger sentRequests = new AtomicInteger(0);
+            RequestWindowHandler requestWindowHandler = new RequestWindowHandler(executorService, 1, 10, 500);
+
+            //completes the writes without sending anything, i.e. there is never a reaction
+            ChannelPipeline pipeline = Channels.pipeline();
+            pipeline.addLast("Sink", new SimpleChannelDownstreamHandler(){
+                @Override
+                public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+                    sentRequests.incrementAndGet();
+                    me.getFuture().setSuccess();
+                }
+            });
+            pipeline.addLast("Request Window", requestWindowHandler);
+            Channel channel = channelFactory.newChannel(pipeline);
+
+            InetSocketAddress remoteEndpoint = new InetSocketAddress("127.0.0.1", 5683);
+            for(int i = 0; i < 2; i++){
+                CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                        new URI("coap://127.0.0.1/service" + i));
+                coapRequest.setToken(new Token(new byte[]{(byte) i}));
+                Channels.write(channel, coapRequest, remoteEndpoint);
+            }
+
+            assertEquals(1, sentRequests.get());
+            assertEquals(1, requestWindowHandler.getNumberOfQueuedRequests());
+
+            Thread.sleep(750);
+            assertEquals(2, sentRequests.get());
+            assertEquals(0, requestWindowHandler.getNumberOfQueuedRequests());
+            assertEquals(1, requestWindowHandler.getNumberOfOutstandingRequests());
+
+            Thread.sleep(500);
+            assertEquals(0, requestWindowHandler.getNumberOfOutstandingRequests());
+        }
+        finally{
+            channelFactory.releaseExternalResources();
+            executorService.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testTimeoutTaskIsCancelledWhenRequestIsFinished() throws Exception {
+        ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1);
+        executorService.setRemoveOnCancelPolicy(true);
+        ChannelFactory channelFactory = new NioDatagramChannelFactory();
+
+        try{
+            RequestWindowHandler requestWindowHandler =
+                    new RequestWindowHandler(executorService, 1, 10, TimeUnit.HOURS.toMillis(1));
+
+            ChannelPipeline pipeline = Channels.pipeline();
+            pipeline.addLast("Sink", new SimpleChannelDownstreamHandler(){
+                @Override
+                public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+                    me.getFuture().setSuccess();
+                }
+            });
+            pipeline.addLast("Request Window", requestWindowHandler);
+            Channel channel = channelFactory.newChannel(pipeline);
+
+            InetSocketAddress remoteEndpoint = new InetSocketAddress("127.0.0.1", 5683);
+            Token token = new Token(new byte[]{1});
+
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                    new URI("coap://127.0.0.1/service"));
+            coapRequest.setToken(token);
+            Channels.write(channel, coapRequest, remoteEndpoint);
+
+            assertEquals(1, requestWindowHandler.getNumberOfOutstandingRequests());
+            assertEquals("Timeout task not scheduled!", 1, executorService.getQueue().size());
+
+            CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+            coapResponse.setToken(token);
+            Channels.fireMessageReceived(channel, coapResponse, remoteEndpoint);
+
+            assertEquals(0, requestWindowHandler.getNumberOfOutstandingRequests());
+            assertTrue("Timeout task not cancelled!", executorService.getQueue().isEmpty());
+        }
+        finally{
+            channelFactory.releaseExternalResources();
+            executorService.shutdownNow();
+        }
+    }
+
+
+    private static class QueueFullTestProcessor extends CoapResponseTestProcessor
+            implements RequestQueueFullProcessor {
+
+        private final AtomicInteger rejectedRequests;
+
+
+        private QueueFullTestProcessor(AtomicInteger rejectedRequests){
+            this.rejectedRequests = rejectedRequests;
+        }
+
+
+        @Override
+        public void processRequestQueueFull(InetSocketAddress remoteEndpoint, int queueSize) {
+            rejectedRequests.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.message;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import de.uniluebeck.itm.ncoap.message.options.StringOptionValue;
+import de.uniluebeck.itm.ncoap.message.options.UintOptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link OptionList}, i.e. options must be sorted by number (and keep the order of addition for the
+ * same number), must not contain duplicates and slices must be decoded on access.
+ */
+public class OptionListTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    private static OptionValue uriPath(String segment){
+        return new StringOptionValue(OptionValue.Name.URI_PATH, segment);
+    }
+
+
+    @Test
+    public void testOptionsAreSortedByNumberAndOrderOfAddition() throws Exception {
+        OptionList options = new OptionList();
+
+        options.add(OptionValue.Name.URI_PATH, uriPath("b"));
+        options.add(OptionValue.Name.URI_HOST, new StringOptionValue(OptionValue.Name.URI_HOST, "example.org"));
+        options.add(OptionValue.Name.URI_PATH, uriPath("a"));
+        options.add(OptionValue.Name.ACCEPT, new UintOptionValue(OptionValue.Name.ACCEPT, new byte[]{0x29}));
+        options.add(OptionValue.Name.URI_PATH, uriPath("c"));
+        options.add(OptionValue.Name.CONTENT_FORMAT, new UintOptionValue(OptionValue.Name.CONTENT_FORMAT, new byte[0]));
+
+        int[] expectedNumbers = new int[]{OptionValue.Name.URI_HOST, OptionValue.Name.URI_PATH,
+                OptionValue.Name.URI_PATH, OptionValue.Name.URI_PATH, OptionValue.Name.CONTENT_FORMAT,
+                OptionValue.Name.ACCEPT};
+
+        assertEquals(expectedNumbers.length, options.size());
+        for(int i = 0; i < expectedNumbers.length; i++)
+            assertEquals(expectedNumbers[i], options.getNumber(i));
+
+        assertEquals(uriPath("b"), options.getValue(1));
+        assertEquals(uriPath("a"), options.getValue(2));
+        assertEquals(uriPath("c"), options.getValue(3));
+
+        assertEquals(3, options.removeAll(OptionValue.Name.URI_PATH));
+        assertFalse(options.contains(OptionValue.Name.URI_PATH));
+        assertEquals(OptionValue.Name.CONTENT_FORMAT, options.getNumber(1));
+        assertEquals(3, options.size());
+    }
+
+
+    @Test
+    public void testDuplicatesAreNotAdded() throws Exception {
+        OptionList options = new OptionList();
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer("xaa".getBytes(CoapMessage.CHARSET));
+
+        assertTrue(options.add(OptionValue.Name.URI_PATH, uriPath("a")));
+        assertFalse(options.add(OptionValue.Name.URI_PATH, uriPath("a")));
+        assertFalse(options.addSlice(OptionValue.Name.URI_PATH, buffer, 1, 1));
+        assertTrue(options.addSlice(OptionValue.Name.URI_PATH, buffer, 1, 2));
+        assertFalse(options.addSlice(OptionValue.Name.URI_PATH, buffer, 1, 2));
+        assertFalse(options.add(OptionValue.Name.URI_PATH, uriPath("aa")));
+
+        assertEquals(2, options.size());
+    }
+
+
+    @Test
+    public void testSlicesAreDecodedOnAccess() throws Exception {
+        OptionList options = new OptionList();
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(new byte[]{'t', 'e', 's', 't', 0x01, 0x2C});
+
+        options.addSlice(OptionValue.Name.MAX_AGE, buffer, 4, 2);
+        options.addSlice(OptionValue.Name.URI_HOST, buffer, 0, 4);
+        options.add(OptionValue.Name.URI_PATH, uriPath("path"));
+
+        assertEquals(OptionValue.Name.URI_HOST, options.getNumber(0));
+        assertEquals("test", options.getValue(0).getDecodedValue());
+        assertEquals(uriPath("path"), options.getValue(1));
+        assertEquals(300L, options.getValue(2).getDecodedValue());
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.message.options;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the option characteristics provided by {@link OptionValue}, i.e. the lookups of the built-in options and
+ * the registration of custom options.
+ */
+public class OptionValueTest extends AbstractCoapTest {
+
+    //elective, unsafe option number from the experimental range
+    private static final int CUSTOM_OPTION = 65002;
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testCharacteristicsOfBuiltInOptions() throws Exception {
+        assertEquals(OptionValue.Type.STRING, OptionValue.getOptionType(OptionValue.Name.PROXY_URI));
+        assertEquals(1, OptionValue.getMinLength(OptionValue.Name.PROXY_URI));
+        assertEquals(1034, OptionValue.getMaxLength(OptionValue.Name.PROXY_URI));
+
+        assertTrue(OptionValue.mutuallyExcludes(OptionValue.Name.URI_PATH, OptionValue.Name.PROXY_URI));
+        assertTrue(OptionValue.mutuallyExcludes(OptionValue.Name.PROXY_URI, OptionValue.Name.URI_PATH));
+        assertFalse(OptionValue.mutuallyExcludes(OptionValue.Name.URI_PATH, OptionValue.Name.URI_QUERY));
+
+        assertFalse(OptionValue.isKnownOption(2));
+        assertFalse(OptionValue.isKnownOption(-1));
+        assertFalse(OptionValue.isKnownOption(100000));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOptionIsRejected() throws Exception {
+        OptionValue.getOptionType(2);
+    }
+
+
+    @Test
+    public void testCustomOptionCanBeAdded() throws Exception {
+        OptionValue.registerOption(CUSTOM_OPTION, OptionValue.Type.OPAQUE, 1, 4);
+        CoapMessage.allowOption(MessageCode.Name.GET.getNumber(), CUSTOM_OPTION, false);
+
+        assertTrue(OptionValue.isKnownOption(CUSTOM_OPTION));
+        assertEquals(4, OptionValue.getMaxLength(CUSTOM_OPTION));
+
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                new URI("coap://example.org/test"));
+        coapRequest.addOption(CUSTOM_OPTION, new OpaqueOptionValue(CUSTOM_OPTION, new byte[]{1, 2, 3}));
+
+        try{
+            coapRequest.addOption(CUSTOM_OPTION, new OpaqueOptionValue(CUSTOM_OPTION, new byte[]{4}));
+            fail("Custom option must only be allowed once!");
+        }
+        catch(IllegalArgumentException ex){
+            //expected
+        }
+
+        assertEquals(1, coapRequest.getOptions(CUSTOM_OPTION).size());
+    }
+}